@@ -0,0 +1,7 @@
+package com.prog.secure_note.ai_service;
+
+//Priority class of an AI call in the AIScheduler; queued interactive calls always go before background ones.
+public enum AIPriority {
+    INTERACTIVE,
+    BACKGROUND
+}
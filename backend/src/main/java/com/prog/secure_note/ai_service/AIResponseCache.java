@@ -0,0 +1,406 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//Cache of Gemini answers, keyed on the operation, a hash of the content and the parameters that change the answer.
+//Tier 1 is an LRU map on the heap. Tier 2 is a memory-mapped file of fixed-size slots that survives restarts
+//and can be shared by several instances on the same host: every slot has a sequence number that is odd while
+//it is being written, so readers never need a lock and just treat a torn read as a miss. The slot layout is
+//part of the file name, so instances configured differently never map (let alone resize) each other's file.
+@Component
+public class AIResponseCache {
+
+    private static final int MAGIC = 0x41494331; // "AIC1"
+    private static final int HEADER_BYTES = 64;
+    private static final int KEY_BYTES = 32;
+    //Slot layout: sequence (int), payload length (int), expiry in epoch millis (long), key, payload.
+    private static final int SLOT_HEADER_BYTES = 16 + KEY_BYTES;
+    private static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.memory-entries:2000}")
+    private int memoryEntries;
+
+    @Value("${ai.cache.disk-path:data/ai-cache.bin}")
+    private String diskPath;
+
+    //0 turns the disk tier off.
+    @Value("${ai.cache.disk-slots:4096}")
+    private int diskSlots;
+
+    @Value("${ai.cache.slot-bytes:8192}")
+    private int slotBytes;
+
+    @Value("${ai.cache.ttl.summarise:P7D}")
+    private Duration summariseTtl;
+
+    @Value("${ai.cache.ttl.translate:P30D}")
+    private Duration translateTtl;
+
+    @Value("${ai.cache.ttl.read:P30D}")
+    private Duration readTtl;
+
+    @Value("${ai.cache.ttl.similar:P1D}")
+    private Duration similarTtl;
+
+    //Only answers without web search are cached at all; those with it are about current events.
+    @Value("${ai.cache.ttl.answer:PT1H}")
+    private Duration answerTtl;
+
+    @Value("${ai.cache.ttl.ask:PT10M}")
+    private Duration askTtl;
+
+    private Map<String, Entry> memory;
+    private FileChannel channel;
+    private MappedByteBuffer disk;
+
+    private Counter memoryHits;
+    private Counter diskHits;
+    private Counter misses;
+
+    public AIResponseCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        memoryHits = Counter.builder("ai.cache.requests").tag("result", "memory_hit").register(meterRegistry);
+        diskHits = Counter.builder("ai.cache.requests").tag("result", "disk_hit").register(meterRegistry);
+        misses = Counter.builder("ai.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("ai.cache.hit.ratio", this, AIResponseCache::hitRatio).register(meterRegistry);
+        if (enabled && diskSlots > 0) {
+            try {
+                openDisk();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("AI cache disk tier unavailable, using memory only: " + e.getMessage());
+                disk = null;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    //Null for requests that must not be cached.
+    public String keyFor(AIRequest request) {
+        if (!enabled || ttlFor(request.getOperation()).isZero()) {
+            return null;
+        }
+        return requestKey(request);
+    }
+
+    //Hex SHA-256 of everything that shapes the answer, for any operation (also the single-flight key of AIService).
+    public static String requestKey(AIRequest request) {
+        try {
+            MessageDigest content = MessageDigest.getInstance("SHA-256");
+            byte[] contentHash = content.digest(bytes(request.getContent()));
+            MessageDigest key = MessageDigest.getInstance("SHA-256");
+            update(key, bytes(request.getOperation().toLowerCase(Locale.ROOT)));
+            update(key, contentHash);
+            update(key, bytes(normalize(request.getSummaryLength())));
+            update(key, bytes(normalize(request.getTargetLanguage())));
+            update(key, bytes(request.getQuestion()));
+            return HexFormat.of().formatHex(key.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public AIResponse get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+        }
+        if (entry != null && entry.expiresAt > now) {
+            memoryHits.increment();
+            return entry.toResponse();
+        }
+        entry = readDisk(HexFormat.of().parseHex(key), now);
+        if (entry != null) {
+            synchronized (memory) {
+                memory.put(key, entry);
+            }
+            diskHits.increment();
+            return entry.toResponse();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, AIResponse response) {
+        long expiresAt = System.currentTimeMillis() + ttlFor(response.getOperation()).toMillis();
+        List<String> sources = response.getSources() == null ? null : new ArrayList<>(response.getSources());
+        Entry entry = new Entry(response.getAnswer(), sources, response.getOperation(), expiresAt);
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        writeDisk(HexFormat.of().parseHex(key), entry);
+    }
+
+    double hitRatio() {
+        double hits = memoryHits.count() + diskHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private Duration ttlFor(String operation) {
+        return switch (operation == null ? "" : operation.toLowerCase(Locale.ROOT)) {
+            case "summarise" -> summariseTtl;
+            case "translate" -> translateTtl;
+            case "read" -> readTtl;
+            case "similar" -> similarTtl;
+            case "answer" -> answerTtl;
+            case "ask" -> askTtl;
+            default -> Duration.ZERO;
+        };
+    }
+
+    private void openDisk() throws IOException {
+        Path path = diskFile(Path.of(diskPath), diskSlots, slotBytes);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        long size = HEADER_BYTES + (long) diskSlots * slotBytes;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileLock ignored = channel.lock(0, HEADER_BYTES, false)) {
+            if (channel.size() == 0) {
+                //Brand-new file, nobody can have mapped it yet: lay it out. The header lock keeps a second
+                //instance starting at the same time from doing it too.
+                channel.write(ByteBuffer.allocate(1), size - 1);
+                ByteBuffer fresh = ByteBuffer.allocate(12).putInt(MAGIC).putInt(diskSlots).putInt(slotBytes);
+                fresh.flip();
+                channel.write(fresh, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                channel.read(header, 0);
+                header.flip();
+                boolean valid = header.remaining() == 12 && header.getInt() == MAGIC
+                        && header.getInt() == diskSlots && header.getInt() == slotBytes && channel.size() == size;
+                if (!valid) {
+                    //Other instances may have it mapped, and cutting a mapped file short crashes them (SIGBUS).
+                    channel.close();
+                    channel = null;
+                    throw new IOException(path + " is not a cache file of this layout, leaving it as it is");
+                }
+            }
+            disk = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    //data/ai-cache.bin holds 4096 slots of 8 KB in data/ai-cache-4096x8192.bin.
+    static Path diskFile(Path configured, int slots, int slotBytes) {
+        String name = configured.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String layout = "-" + slots + "x" + slotBytes;
+        return configured.resolveSibling(dot > 0 ? name.substring(0, dot) + layout + name.substring(dot) : name + layout);
+    }
+
+    private Entry readDisk(byte[] key, long now) {
+        if (disk == null) {
+            return null;
+        }
+        int first = firstSlot(key);
+        for (int slot = first; slot < first + 2; slot++) {
+            Entry entry = readSlot(slotOffset(slot), key, now);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry readSlot(int offset, byte[] key, long now) {
+        ByteBuffer view = disk.duplicate();
+        int sequence = (int) INT_VIEW.getAcquire(view, offset);
+        if ((sequence & 1) != 0) {
+            return null;
+        }
+        int length = view.getInt(offset + 4);
+        long expiresAt = view.getLong(offset + 8);
+        byte[] slotKey = new byte[KEY_BYTES];
+        view.get(offset + 16, slotKey);
+        if (expiresAt <= now || !Arrays.equals(slotKey, key) || length <= 0 || length > slotBytes - SLOT_HEADER_BYTES) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        view.get(offset + SLOT_HEADER_BYTES, payload);
+        //Keeps the reads of the slot above from being moved after the second read of the sequence.
+        VarHandle.loadLoadFence();
+        if ((int) INT_VIEW.getOpaque(view, offset) != sequence) {
+            return null; // Rewritten while we were reading.
+        }
+        try {
+            return Entry.decode(ByteBuffer.wrap(payload), expiresAt);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    //Each key can go in one of two neighbouring slots; a new entry replaces the one that expires first.
+    private synchronized void writeDisk(byte[] key, Entry entry) {
+        if (disk == null) {
+            return;
+        }
+        byte[] payload = entry.encode();
+        if (payload.length > slotBytes - SLOT_HEADER_BYTES) {
+            return; // Too big for a slot, memory only.
+        }
+        int first = firstSlot(key);
+        int offset = slotOffset(first);
+        int other = slotOffset(first + 1);
+        byte[] slotKey = new byte[KEY_BYTES];
+        disk.get(other + 16, slotKey);
+        if (Arrays.equals(slotKey, key) || disk.getLong(other + 8) < disk.getLong(offset + 8)) {
+            offset = other;
+        }
+        //The file lock keeps other processes off the slot, readers only look at the sequence.
+        try (FileLock ignored = channel.lock(offset, slotBytes, false)) {
+            ByteBuffer view = disk.duplicate();
+            int sequence = (int) INT_VIEW.getAcquire(view, offset);
+            INT_VIEW.setOpaque(view, offset, sequence | 1);
+            //The odd sequence has to be visible before any byte of the new content is.
+            VarHandle.storeStoreFence();
+            view.putInt(offset + 4, payload.length);
+            view.putLong(offset + 8, entry.expiresAt);
+            view.put(offset + 16, key);
+            view.put(offset + SLOT_HEADER_BYTES, payload);
+            INT_VIEW.setRelease(view, offset, (sequence | 1) + 1);
+        } catch (IOException e) {
+            System.err.println("Could not write AI cache slot: " + e.getMessage());
+        }
+    }
+
+    private int firstSlot(byte[] key) {
+        int hash = ((key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+        return Math.floorMod(hash, diskSlots) & ~1;
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_BYTES + (slot % diskSlots) * slotBytes;
+    }
+
+    private static void update(MessageDigest digest, byte[] field) {
+        //Length prefix, so ("ab", "c") and ("a", "bc") don't hash the same.
+        digest.update(ByteBuffer.allocate(4).putInt(field.length).array());
+        digest.update(field);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private record Entry(String answer, List<String> sources, String operation, long expiresAt) {
+
+        AIResponse toResponse() {
+            return AIResponse.builder()
+                    .answer(answer)
+                    .sources(sources == null ? null : new ArrayList<>(sources))
+                    .operation(operation)
+                    .build();
+        }
+
+        byte[] encode() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                writeString(out, answer);
+                writeString(out, operation);
+                out.writeInt(sources == null ? -1 : sources.size());
+                if (sources != null) {
+                    for (String source : sources) {
+                        writeString(out, source);
+                    }
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static Entry decode(ByteBuffer buffer, long expiresAt) {
+            String answer = readString(buffer);
+            String operation = readString(buffer);
+            int count = buffer.getInt();
+            List<String> sources = null;
+            if (count >= 0) {
+                sources = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    sources.add(readString(buffer));
+                }
+            }
+            return new Entry(answer, sources, operation, expiresAt);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.exception.AIQueueFullException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+//Admission control in front of the Gemini calls of AIService. At most max-concurrent calls are in flight
+//(sized to the API key quota), at most per-user-max-concurrent of them for one user, and background work
+//never takes more than background-max-concurrent slots so interactive calls always find room.
+//Calls that can't start right away wait in bounded queues and are picked by weighted fair queuing:
+//each call gets a virtual finish tag of max(virtual time, the user's last tag) + its cost, and the lowest
+//tag goes first, so a user with many queued calls doesn't starve one with a single call, and a long
+//prompt counts for more than a short one. A full queue rejects the call with a 429.
+@Component
+public class AIScheduler {
+
+    private final int maxConcurrent;
+    private final int perUserMaxConcurrent;
+    private final int backgroundMaxConcurrent;
+    private final int perUserQueueSize;
+    private final int maxQueued;
+    private final long retryAfterSeconds;
+
+    private final Object lock = new Object();
+    private final Map<String, UserState> users = new HashMap<>();
+    private final Map<AIPriority, TreeSet<Task<?>>> queues = new EnumMap<>(AIPriority.class);
+    private final double[] virtualTime = new double[AIPriority.values().length];
+    private int running;
+    private int runningBackground;
+    private int queued;
+    private long nextSeq;
+
+    private final Map<AIPriority, Timer> queueWait = new EnumMap<>(AIPriority.class);
+    private final Counter rejectedUser;
+    private final Counter rejectedGlobal;
+
+    public AIScheduler(MeterRegistry meterRegistry,
+                       @Value("${ai.scheduler.max-concurrent:8}") int maxConcurrent,
+                       @Value("${ai.scheduler.per-user-max-concurrent:2}") int perUserMaxConcurrent,
+                       @Value("${ai.scheduler.background-max-concurrent:2}") int backgroundMaxConcurrent,
+                       @Value("${ai.scheduler.per-user-queue-size:10}") int perUserQueueSize,
+                       @Value("${ai.scheduler.max-queued:200}") int maxQueued,
+                       @Value("${ai.scheduler.retry-after:5s}") Duration retryAfter) {
+        this.maxConcurrent = maxConcurrent;
+        this.perUserMaxConcurrent = perUserMaxConcurrent;
+        this.backgroundMaxConcurrent = Math.min(backgroundMaxConcurrent, maxConcurrent);
+        this.perUserQueueSize = perUserQueueSize;
+        this.maxQueued = maxQueued;
+        this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+
+        Comparator<Task<?>> byFinishTag = Comparator.<Task<?>>comparingDouble(task -> task.finish)
+                .thenComparingLong(task -> task.seq);
+        for (AIPriority priority : AIPriority.values()) {
+            TreeSet<Task<?>> queue = new TreeSet<>(byFinishTag);
+            queues.put(priority, queue);
+            String tag = priority.name().toLowerCase();
+            queueWait.put(priority, Timer.builder("ai.scheduler.queue.wait")
+                    .tag("priority", tag)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+            Gauge.builder("ai.scheduler.queued", this, scheduler -> scheduler.queuedCount(priority))
+                    .tag("priority", tag)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("ai.scheduler.running", this, AIScheduler::runningCount).register(meterRegistry);
+        rejectedUser = Counter.builder("ai.scheduler.rejected").tag("reason", "user-queue-full").register(meterRegistry);
+        rejectedGlobal = Counter.builder("ai.scheduler.rejected").tag("reason", "queue-full").register(meterRegistry);
+    }
+
+    //Runs call once a slot is free for the user; the slot is held until the future it returns completes.
+    //Cost is relative (1 for a short prompt). Fails with AIQueueFullException if the call can't be queued.
+    public <T> CompletableFuture<T> submit(String username, AIPriority priority, double cost,
+                                           Supplier<CompletableFuture<T>> call) {
+        Task<T> task;
+        synchronized (lock) {
+            UserState user = users.get(username);
+            if (user != null && user.queued >= perUserQueueSize) {
+                rejectedUser.increment();
+                return CompletableFuture.failedFuture(new AIQueueFullException(
+                        "Too many AI requests in progress, try again later", retryAfterSeconds));
+            }
+            if (queued >= maxQueued) {
+                rejectedGlobal.increment();
+                return CompletableFuture.failedFuture(new AIQueueFullException(
+                        "The AI service is busy, try again later", retryAfterSeconds));
+            }
+            if (user == null) {
+                user = new UserState(username);
+                users.put(username, user);
+            }
+            int p = priority.ordinal();
+            double start = Math.max(virtualTime[p], user.lastFinish[p]);
+            task = new Task<>(user, priority, start, start + Math.max(cost, 0.01), nextSeq++, call);
+            user.lastFinish[p] = task.finish;
+            user.queued++;
+            queued++;
+            queues.get(priority).add(task);
+        }
+        dispatch();
+        return task.result;
+    }
+
+    //Starts queued calls while there are free slots: interactive ones first, lowest finish tag first,
+    //skipping users that already have their share running.
+    private void dispatch() {
+        List<Task<?>> ready = new ArrayList<>();
+        synchronized (lock) {
+            for (AIPriority priority : AIPriority.values()) {
+                Iterator<Task<?>> queue = queues.get(priority).iterator();
+                while (running < maxConcurrent && queue.hasNext()) {
+                    if (priority == AIPriority.BACKGROUND && runningBackground >= backgroundMaxConcurrent) {
+                        break;
+                    }
+                    Task<?> task = queue.next();
+                    if (task.user.running >= perUserMaxConcurrent) {
+                        continue;
+                    }
+                    queue.remove();
+                    queued--;
+                    task.user.queued--;
+                    task.user.running++;
+                    running++;
+                    if (priority == AIPriority.BACKGROUND) {
+                        runningBackground++;
+                    }
+                    int p = priority.ordinal();
+                    virtualTime[p] = Math.max(virtualTime[p], task.start);
+                    ready.add(task);
+                }
+            }
+        }
+        for (Task<?> task : ready) {
+            task.run();
+        }
+    }
+
+    private void release(Task<?> task) {
+        synchronized (lock) {
+            running--;
+            task.user.running--;
+            if (task.priority == AIPriority.BACKGROUND) {
+                runningBackground--;
+            }
+            if (task.user.running == 0 && task.user.queued == 0) {
+                //An idle user starts from the current virtual time next time anyway.
+                users.remove(task.user.username);
+            }
+        }
+        dispatch();
+    }
+
+    private int queuedCount(AIPriority priority) {
+        synchronized (lock) {
+            return queues.get(priority).size();
+        }
+    }
+
+    private int runningCount() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    private static class UserState {
+        private final String username;
+        private final double[] lastFinish = new double[AIPriority.values().length];
+        private int running;
+        private int queued;
+
+        UserState(String username) {
+            this.username = username;
+        }
+    }
+
+    private class Task<T> {
+        private final UserState user;
+        private final AIPriority priority;
+        private final double start;
+        private final double finish;
+        private final long seq;
+        private final Supplier<CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long queuedAt = System.nanoTime();
+
+        Task(UserState user, AIPriority priority, double start, double finish, long seq,
+             Supplier<CompletableFuture<T>> call) {
+            this.user = user;
+            this.priority = priority;
+            this.start = start;
+            this.finish = finish;
+            this.seq = seq;
+            this.call = call;
+        }
+
+        void run() {
+            queueWait.get(priority).record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            CompletableFuture<T> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((value, error) -> {
+                release(this);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+    }
+}
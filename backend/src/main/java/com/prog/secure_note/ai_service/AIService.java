@@ -2,8 +2,11 @@ package com.prog.secure_note.ai_service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prog.secure_note.exception.AIQueueFullException;
 import com.prog.secure_note.exception.GeminiApiException;
 import com.prog.secure_note.exception.InvalidOperationException;
+import com.prog.secure_note.exception.UpstreamUnavailableException;
+import com.prog.secure_note.model.AICombinedRequest;
 import com.prog.secure_note.model.AIRequest;
 import com.prog.secure_note.model.AIResponse;
 import com.prog.secure_note.model.AIWebSearch;
@@ -13,126 +16,914 @@ import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class AIService {
 
-    private final HttpClient httpClient;
+    //Upstream names for the retries and circuit breakers of UpstreamHttpClient.
+    private static final String GEMINI = "gemini";
+    private static final String GOOGLE_SEARCH = "google-search";
+    //AIScheduler user of work that isn't done for a signed-in user. Longer than the 20 characters a username may
+    //have, so no account ever shares its queue and concurrency cap.
+    static final String SYSTEM_USER = "#system:background-jobs";
+    //Operations on the content of one note that processCombinedAsync can answer in one call.
+    private static final Set<String> COMBINABLE_OPERATIONS = Set.of("summarise", "translate", "read", "answer");
+
+    private final UpstreamHttpClient httpClient;
     private final ObjectMapper objectMapper;
+    private final AIResponseCache responseCache;
+    private final AIScheduler scheduler;
+    private final PromptBudgeter promptBudgeter;
+    private final TranslationMemory translationMemory;
+    private final WebSearchTriggers webSearchTriggers;
+    private final WebSearchCache webSearchCache;
+    private final WebPageFetcher webPageFetcher;
+    private final SingleFlight<String, AIResponse> inFlight = new SingleFlight<>();
     @Value("${gemini.api.url}")
     private String geminiApiUrl;
+    //Defaults to the generateContent url with :streamGenerateContent instead.
+    @Value("${gemini.api.stream-url:}")
+    private String geminiStreamUrl;
     @Value("${gemini.api.key}")
     private String geminiApiKey;
     @Value("${google.search.api.key}")
     private String googleSearchApiKey;
     @Value("${google.search.cse.id}")
     private String googleCseId;
+    @Value("${google.search.api.url:https://www.googleapis.com/customsearch/v1}")
+    private String googleSearchUrl;
+    //Notes longer than this (in estimated tokens) are summarised and translated in chunks of about 4 chars a token;
+    //0 turns that off.
+    @Value("${ai.chunking.chunk-tokens:6000}")
+    private int chunkTokens;
+    @Value("${ai.chunking.max-parallel:8}")
+    private int chunkParallelism;
+    //Short summaries are made in-process by ExtractiveSummarizer; summaryLength "extractive" always is.
+    @Value("${ai.summary.extractive-short:true}")
+    private boolean extractiveShortSummaries;
+    //An interactive summary Gemini hasn't answered within this time is made in-process instead; 0 turns that off.
+    @Value("${ai.summary.fallback-after-ms:8000}")
+    private long summaryFallbackAfterMs;
 
-    public AIService(ObjectMapper objectMapper) {
-        this.httpClient = HttpClient.newHttpClient();
+    public AIService(ObjectMapper objectMapper, AIResponseCache responseCache, UpstreamHttpClient httpClient,
+                     AIScheduler scheduler, PromptBudgeter promptBudgeter, TranslationMemory translationMemory,
+                     WebSearchTriggers webSearchTriggers, WebSearchCache webSearchCache,
+                     WebPageFetcher webPageFetcher) {
+        this.httpClient = httpClient;
         this.objectMapper = objectMapper;
+        this.responseCache = responseCache;
+        this.scheduler = scheduler;
+        this.promptBudgeter = promptBudgeter;
+        this.translationMemory = translationMemory;
+        this.webSearchTriggers = webSearchTriggers;
+        this.webSearchCache = webSearchCache;
+        this.webPageFetcher = webPageFetcher;
     }
 
+    //Blocking variant, for callers that are already off the request threads (background jobs).
     public AIResponse processContent(AIRequest request) {
+        try {
+            return processContentAsync(request, SYSTEM_USER, AIPriority.BACKGROUND).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    //Non-blocking: the Gemini and search calls run on the HttpClient's own threads, so no request thread
+    //waits for them. Validation errors are thrown right away, upstream errors fail the future.
+    //Calls that miss the cache go through the AIScheduler under the given user and priority.
+    public CompletableFuture<AIResponse> processContentAsync(AIRequest request, String username, AIPriority priority) {
         if (request.getOperation() == null || request.getOperation().isEmpty()) {
             throw new IllegalArgumentException("Operation field is required");
         }
 
-        AIWebSearch webResults = null;
-        String finalQuestion = request.getQuestion();
+        if (usesExtractiveSummary(request)) {
+            return CompletableFuture.completedFuture(extractiveSummary(request));
+        }
+
+        if (!request.getOperation().equalsIgnoreCase("similar")) {
+            //Checks the operation and its parameters before any call goes out.
+            buildPrompt(request, null);
+        }
+
+        TranslationPlan translation = planTranslation(request);
+        if (translation != null && translation.allInTarget()) {
+            return CompletableFuture.completedFuture(AIResponse.builder()
+                    .answer(String.join("\n\n", translation.paragraphs()))
+                    .operation(request.getOperation())
+                    .sources(null)
+                    .sourceLanguage(translation.source())
+                    .build());
+        }
+
+        boolean requiresWebSearch = requiresWebSearch(request);
+
+        //Answers backed by a web search are about current events, they are never cached.
+        String cacheKey = requiresWebSearch ? null : responseCache.keyFor(request);
+        if (cacheKey != null) {
+            AIResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(withSourceLanguage(cached, translation));
+            }
+        }
+
+        //Identical requests in flight at the same moment share one upstream job (and its scheduler slots);
+        //each caller gets its own copy of the answer.
+        CompletableFuture<AIResponse> response = inFlight.run(AIResponseCache.requestKey(request),
+                        () -> callUpstreamAsync(request, translation, requiresWebSearch, cacheKey, username, priority))
+                .thenApply(answer -> withSourceLanguage(copyOf(answer), translation));
+        return isSummary(request) && priority == AIPriority.INTERACTIVE ? withExtractiveFallback(request, response) : response;
+    }
+
+    private static boolean isSummary(AIRequest request) {
+        return request.getOperation().equalsIgnoreCase("summarise");
+    }
+
+    private boolean usesExtractiveSummary(AIRequest request) {
+        return isSummary(request) && ("extractive".equalsIgnoreCase(request.getSummaryLength())
+                                      || (extractiveShortSummaries && "short".equalsIgnoreCase(request.getSummaryLength())));
+    }
+
+    private AIResponse extractiveSummary(AIRequest request) {
+        String length = request.getSummaryLength();
+        int sentences = "short".equalsIgnoreCase(length) ? 2 : "long".equalsIgnoreCase(length) ? 8 : 4;
+        return AIResponse.builder()
+                .answer(ExtractiveSummarizer.summarize(promptBudgeter.clean(request.getContent()), sentences))
+                .operation(request.getOperation())
+                .sources(null)
+                .extractive(true)
+                .build();
+    }
+
+    //A user waiting for a summary gets the extractive one when Gemini is unavailable (open breaker, full
+    //queue) or hasn't answered within fallback-after. A slow Gemini call still completes and is cached,
+    //so the next request for the same summary gets the Gemini answer.
+    private CompletableFuture<AIResponse> withExtractiveFallback(AIRequest request, CompletableFuture<AIResponse> response) {
+        CompletableFuture<AIResponse> result = new CompletableFuture<>();
+        response.whenComplete((answer, error) -> {
+            if (error == null) {
+                result.complete(answer);
+            } else if (isUnavailable(error)) {
+                result.complete(extractiveSummary(request));
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        if (summaryFallbackAfterMs > 0 && !result.isDone()) {
+            CompletableFuture.delayedExecutor(summaryFallbackAfterMs, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!result.isDone()) {
+                    result.complete(extractiveSummary(request));
+                }
+            });
+        }
+        return result;
+    }
+
+    private static boolean isUnavailable(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof UpstreamUnavailableException || cause instanceof AIQueueFullException;
+    }
+
+    private CompletableFuture<AIResponse> callUpstreamAsync(AIRequest request, TranslationPlan translation,
+                                                            boolean requiresWebSearch, String cacheKey,
+                                                            String username, AIPriority priority) {
+        if (request.getOperation().equalsIgnoreCase("similar")) {
+            return scheduler.submit(username, priority, schedulingCost(request),
+                    () -> processSimilarResearchAsync(request)).thenApply(explanationResult -> {
+                AIResponse similarResponse = AIResponse.builder()
+                        .answer(explanationResult)
+                        .operation(request.getOperation())
+                        .sources(null)
+                        .build();
+                cacheIfUsable(cacheKey, similarResponse);
+                return similarResponse;
+            });
+        }
+
+        if (translation != null && translatesInParts(translation)) {
+            return translateAsync(request, translation, cacheKey, username, priority);
+        }
+
+        if (needsChunking(request)) {
+            return processChunkedAsync(request, username, priority)
+                    .thenApply(answer -> {
+                        AIResponse chunkedResponse = AIResponse.builder()
+                                .answer(answer)
+                                .operation(request.getOperation())
+                                .sources(null)
+                                .build();
+                        cacheIfUsable(cacheKey, chunkedResponse);
+                        return chunkedResponse;
+                    });
+        }
+
+        return scheduler.submit(username, priority, schedulingCost(request), () -> webSearchIfNeeded(requiresWebSearch, request.getQuestion())
+                .thenCompose(webResults -> sendGeminiAsync(request.getOperation(), buildPrompt(promptBudgeter.apply(request), webResults), "")
+                .thenApply(extractedResult -> {
+                    AIResponse aiResponse = AIResponse.builder()
+                            .answer(extractedResult)
+                            .operation(request.getOperation())
+                            .sources(webResults != null ? webResults.getSourceUrls() : null)
+                            .build();
+                    cacheIfUsable(cacheKey, aiResponse);
+                    return aiResponse;
+                })));
+    }
 
-        boolean requiresWebSearch = false;
-        if (request.getOperation().equalsIgnoreCase("answer") && finalQuestion != null && !finalQuestion.isEmpty()) {
-            String lowerCaseQuestion = finalQuestion.toLowerCase();
-            String[] searchKeywords = {"upcoming", "latest", "current", "news", "release date", "who is", "when is", "what is the current", "recent", "as of today", "last part", "newest"};
-            for (String keyword : searchKeywords) {
-                if (lowerCaseQuestion.contains(keyword)) {
-                    requiresWebSearch = true;
-                    break;
+    //Language of every paragraph of a note to translate, after the same cleaning as the prompt gets.
+    //inTarget marks the paragraphs that are in the target language already; all false if the target
+    //language isn't one LanguageDetector knows.
+    private record TranslationPlan(String source, List<String> paragraphs, boolean[] inTarget) {
+        boolean allInTarget() {
+            for (boolean in : inTarget) {
+                if (!in) {
+                    return false;
                 }
             }
-            if (lowerCaseQuestion.contains("tom cruise") && lowerCaseQuestion.contains("movies")) {
-                requiresWebSearch = true;
+            return true;
+        }
+
+        boolean anyInTarget() {
+            for (boolean in : inTarget) {
+                if (in) {
+                    return true;
+                }
             }
+            return false;
         }
+    }
 
-        if (requiresWebSearch) {
-            webResults = performWebSearch(finalQuestion);
+    //Null for anything but a translation. A paragraph too short to tell (a heading, a list item) goes with
+    //the paragraph before it, or the first decided one at the start of the note.
+    private TranslationPlan planTranslation(AIRequest request) {
+        if (!request.getOperation().equalsIgnoreCase("translate") || request.getContent() == null) {
+            return null;
+        }
+        String text = promptBudgeter.clean(request.getContent());
+        if (text.isEmpty()) {
+            return null;
+        }
+        List<String> paragraphs = List.of(text.split("\n\n"));
+        String[] languages = new String[paragraphs.size()];
+        Map<String, Integer> charsByLanguage = new LinkedHashMap<>();
+        String previous = null;
+        for (int i = 0; i < languages.length; i++) {
+            String detected = LanguageDetector.detect(paragraphs.get(i));
+            languages[i] = detected != null ? detected : previous;
+            if (detected != null) {
+                if (previous == null) {
+                    Arrays.fill(languages, 0, i, detected);
+                }
+                previous = detected;
+                charsByLanguage.merge(detected, paragraphs.get(i).length(), Integer::sum);
+            }
         }
+        String source = charsByLanguage.isEmpty() ? LanguageDetector.detect(text)
+                : Collections.max(charsByLanguage.entrySet(), Map.Entry.comparingByValue()).getKey();
 
-        if (request.getOperation().equalsIgnoreCase("similar")) {
-            String explanationResult = processSimilarResearch(request);
-            return AIResponse.builder()
-                    .answer(explanationResult)
+        String target = LanguageDetector.languageCode(request.getTargetLanguage());
+        boolean[] inTarget = new boolean[languages.length];
+        for (int i = 0; i < languages.length; i++) {
+            inTarget[i] = target != null && target.equals(languages[i]);
+        }
+        return new TranslationPlan(source, paragraphs, inTarget);
+    }
+
+    private boolean translatesInParts(TranslationPlan translation) {
+        return translationMemory.isEnabled() || translation.anyInTarget();
+    }
+
+    //With the translation memory, a note is translated sentence by sentence: sentences translated before are
+    //taken from the memory and only the others go to Gemini, as a JSON array in one prompt per chunk-tokens.
+    //A note the memory has completely needs no Gemini call (nor a scheduler slot) at all; every other call
+    //takes a slot of its own.
+    //Without the memory, or when a reply doesn't have one string per sentence, translateParagraphsAsync is used.
+    private CompletableFuture<AIResponse> translateAsync(AIRequest request, TranslationPlan translation, String cacheKey,
+                                                         String username, AIPriority priority) {
+        SentenceLookup lookup = translationMemory.isEnabled() ? lookUpSentences(username, request.getTargetLanguage(), translation) : null;
+        CompletableFuture<String> answer;
+        if (lookup != null && lookup.pending().isEmpty()) {
+            translationMemory.record(lookup.memoryChars(), 0);
+            answer = CompletableFuture.completedFuture(lookup.assemble());
+        } else {
+            answer = (lookup != null ? translatePendingAsync(request.getTargetLanguage(), lookup, username, priority)
+                    : CompletableFuture.<String>completedFuture(null))
+                    .thenCompose(translated -> translated != null ? CompletableFuture.completedFuture(translated)
+                            : translateParagraphsAsync(request, translation, username, priority));
+        }
+        return answer.thenApply(text -> {
+            AIResponse translatedResponse = AIResponse.builder()
+                    .answer(text)
                     .operation(request.getOperation())
                     .sources(null)
                     .build();
+            cacheIfUsable(cacheKey, translatedResponse);
+            return translatedResponse;
+        });
+    }
+
+    //The sentences of the paragraphs to translate, with the translations the memory already has for the user.
+    private SentenceLookup lookUpSentences(String username, String targetLanguage, TranslationPlan plan) {
+        List<String> paragraphs = plan.paragraphs();
+        List<List<int[]>> spans = new ArrayList<>();
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < paragraphs.size(); i++) {
+            List<int[]> paragraphSpans = plan.inTarget()[i] ? null : ExtractiveSummarizer.sentenceSpans(paragraphs.get(i));
+            spans.add(paragraphSpans);
+            if (paragraphSpans != null) {
+                for (int[] span : paragraphSpans) {
+                    sentences.add(paragraphs.get(i).substring(span[0], span[1]));
+                }
+            }
+        }
+        String[] translations = new String[sentences.size()];
+        List<Integer> pending = new ArrayList<>();
+        long memoryChars = 0;
+        for (int i = 0; i < sentences.size(); i++) {
+            translations[i] = translationMemory.get(username, sentences.get(i), targetLanguage);
+            if (translations[i] == null) {
+                pending.add(i);
+            } else {
+                memoryChars += sentences.get(i).length();
+            }
         }
+        return new SentenceLookup(plan, spans, sentences, translations, pending, memoryChars);
+    }
 
-        String prompt = buildPrompt(request, webResults);
+    //Null when a reply is unusable, the caller then translates the note without the memory.
+    private CompletableFuture<String> translatePendingAsync(String targetLanguage, SentenceLookup lookup,
+                                                            String username, AIPriority priority) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<String> batchJson = new ArrayList<>();
+        int budget = chunkTokens > 0 ? chunkTokens : Integer.MAX_VALUE;
+        int used = 0;
+        for (int index : lookup.pending()) {
+            int tokens = TokenEstimator.estimate(lookup.sentences().get(index));
+            if (batches.isEmpty() || used + tokens > budget) {
+                batches.add(new ArrayList<>());
+                used = 0;
+            }
+            batches.get(batches.size() - 1).add(index);
+            used += tokens;
+        }
+        long pendingChars = 0;
+        try {
+            for (List<Integer> batch : batches) {
+                List<String> sentences = new ArrayList<>();
+                for (int index : batch) {
+                    sentences.add(lookup.sentences().get(index));
+                    pendingChars += lookup.sentences().get(index).length();
+                }
+                batchJson.add(objectMapper.writeValueAsString(sentences));
+            }
+        } catch (IOException e) {
+            throw new GeminiApiException("Error converting sentences to JSON for Gemini API", e);
+        }
+        long translatedChars = pendingChars;
+        return NoteChunker.mapInOrder(batchJson, chunkParallelism,
+                        json -> scheduledGeminiAsync(username, priority, "translate", sentencesPrompt(json, targetLanguage),
+                                        " (sentences)", true)
+                                .thenApply(this::parseStringArray))
+                .thenApply(replies -> {
+                    for (int b = 0; b < batches.size(); b++) {
+                        if (replies.get(b) == null || replies.get(b).size() != batches.get(b).size()) {
+                            System.err.println("Sentence translation reply doesn't match the sentences, translating the note as a whole");
+                            return null;
+                        }
+                    }
+                    for (int b = 0; b < batches.size(); b++) {
+                        for (int k = 0; k < batches.get(b).size(); k++) {
+                            int index = batches.get(b).get(k);
+                            String translated = replies.get(b).get(k);
+                            lookup.translations()[index] = translated;
+                            translationMemory.put(username, lookup.sentences().get(index), targetLanguage, translated);
+                        }
+                    }
+                    translationMemory.record(lookup.memoryChars(), translatedChars);
+                    return lookup.assemble();
+                });
+    }
 
-        Map<String, Object> requestBody = Map.of("contents", new Object[]{
-                Map.of("parts", new Object[]{
-                        Map.of("text", prompt)
-                })
+    private static String sentencesPrompt(String sentencesJson, String targetLanguage) {
+        return "Translate every string of the JSON array below to " + targetLanguage + ". " +
+               "The strings are consecutive sentences of one text, use them as context for each other. " +
+               "Reply with a JSON array of the translated strings only: the same number of strings, in the same order.\n\n" +
+               sentencesJson;
+    }
+
+    //Null unless the text is a JSON array of strings.
+    private List<String> parseStringArray(String text) {
+        try {
+            JsonNode root = objectMapper.readTree(stripCodeFence(text));
+            if (root == null || !root.isArray()) {
+                return null;
+            }
+            List<String> strings = new ArrayList<>();
+            for (JsonNode item : root) {
+                if (!item.isTextual()) {
+                    return null;
+                }
+                strings.add(item.asText());
+            }
+            return strings;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //Sentences of a note to translate, in note order, and their translations as far as they are known.
+    private record SentenceLookup(TranslationPlan plan, List<List<int[]>> spans, List<String> sentences,
+                                  String[] translations, List<Integer> pending, long memoryChars) {
+
+        //The note with every sentence replaced by its translation; paragraphs in the target language,
+        //and the line breaks and spaces between sentences, stay as they were.
+        String assemble() {
+            List<String> paragraphs = plan.paragraphs();
+            StringBuilder note = new StringBuilder();
+            int next = 0;
+            for (int i = 0; i < paragraphs.size(); i++) {
+                if (i > 0) {
+                    note.append("\n\n");
+                }
+                String paragraph = paragraphs.get(i);
+                if (spans.get(i) == null) {
+                    note.append(paragraph);
+                    continue;
+                }
+                int end = 0;
+                for (int[] span : spans.get(i)) {
+                    note.append(paragraph, end, span[0]).append(translations[next++]);
+                    end = span[1];
+                }
+                note.append(paragraph, end, paragraph.length());
+            }
+            return note.toString();
+        }
+    }
+
+    //Without the memory: a note too long for one prompt is translated in chunks, otherwise only the
+    //paragraphs not yet in the target language are sent.
+    private CompletableFuture<String> translateParagraphsAsync(AIRequest request, TranslationPlan plan,
+                                                               String username, AIPriority priority) {
+        if (needsChunking(request)) {
+            return processChunkedAsync(request, username, priority);
+        }
+        if (plan.anyInTarget()) {
+            return translateMixedAsync(request, plan, username, priority);
+        }
+        return scheduledGeminiAsync(username, priority, request.getOperation(),
+                buildPrompt(promptBudgeter.apply(request), null), "", false);
+    }
+
+    //Only the runs of paragraphs not yet in the target language are translated, in parallel; the note is
+    //put back together with the other paragraphs as they were.
+    private CompletableFuture<String> translateMixedAsync(AIRequest request, TranslationPlan plan,
+                                                          String username, AIPriority priority) {
+        List<String> paragraphs = plan.paragraphs();
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < paragraphs.size(); i++) {
+            if (!plan.inTarget()[i]) {
+                run.append(run.isEmpty() ? "" : "\n\n").append(paragraphs.get(i));
+            }
+            if ((plan.inTarget()[i] || i == paragraphs.size() - 1) && !run.isEmpty()) {
+                runs.add(run.toString());
+                run.setLength(0);
+            }
+        }
+        return NoteChunker.mapInOrder(runs, chunkParallelism, text -> {
+            AIRequest part = new AIRequest();
+            part.setOperation(request.getOperation());
+            part.setContent(text);
+            part.setTargetLanguage(request.getTargetLanguage());
+            return scheduledGeminiAsync(username, priority, request.getOperation(), buildPrompt(part, null), " (part)", false);
+        }).thenApply(translated -> {
+            List<String> stitched = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < paragraphs.size(); i++) {
+                if (plan.inTarget()[i]) {
+                    stitched.add(paragraphs.get(i));
+                } else if (i == 0 || plan.inTarget()[i - 1]) {
+                    stitched.add(translated.get(next++));
+                }
+            }
+            return String.join("\n\n", stitched);
+        });
+    }
+
+    private static AIResponse withSourceLanguage(AIResponse response, TranslationPlan translation) {
+        if (translation == null) {
+            return response;
+        }
+        AIResponse copy = copyOf(response);
+        copy.setSourceLanguage(translation.source());
+        return copy;
+    }
+
+    private boolean needsChunking(AIRequest request) {
+        String operation = request.getOperation();
+        return chunkTokens > 0 && request.getContent() != null
+               && TokenEstimator.estimate(request.getContent()) > chunkTokens
+               && (operation.equalsIgnoreCase("summarise") || operation.equalsIgnoreCase("translate"));
+    }
+
+    //Map-reduce for notes too long for one prompt: the chunks (cut between paragraphs) are summarised or
+    //translated in parallel, then the partial summaries are combined in one more call, or the translated
+    //chunks are put back together in order. Every call takes its own scheduler slot, so at most chunk-parallelism
+    //of them are in flight and fewer when the user's or the global limit says so.
+    //The note is only cleaned, not cut to the budget of its operation: every chunk has to be sent.
+    private CompletableFuture<String> processChunkedAsync(AIRequest request, String username, AIPriority priority) {
+        List<String> chunks = NoteChunker.split(promptBudgeter.clean(request.getContent()), chunkTokens * 4);
+        CompletableFuture<List<String>> mapped = NoteChunker.mapInOrder(chunks, chunkParallelism, chunk -> {
+            AIRequest part = new AIRequest();
+            part.setOperation(request.getOperation());
+            part.setContent(chunk);
+            part.setTargetLanguage(request.getTargetLanguage());
+            //Partial summaries keep the key points, the final length is applied when they are combined.
+            part.setSummaryLength("long");
+            return scheduledGeminiAsync(username, priority, request.getOperation(), buildPrompt(part, null), " (chunk)", false);
+        });
+        if (request.getOperation().equalsIgnoreCase("translate")) {
+            return mapped.thenApply(parts -> String.join("\n\n", parts));
+        }
+        return mapped.thenCompose(partials -> combineSummariesAsync(partials, request.getSummaryLength(), username, priority));
+    }
+
+    //Partial summaries that together are still too long are combined in groups first.
+    private CompletableFuture<String> combineSummariesAsync(List<String> partials, String summaryLength,
+                                                           String username, AIPriority priority) {
+        if (partials.size() == 1) {
+            return CompletableFuture.completedFuture(partials.get(0));
+        }
+        String joined = String.join("\n\n", partials);
+        if (joined.length() > chunkTokens * 4L) {
+            return NoteChunker.mapInOrder(NoteChunker.split(joined, chunkTokens * 4), chunkParallelism,
+                            group -> scheduledGeminiAsync(username, priority, "summarise", combinePrompt(group, "long"),
+                                    " (combine)", false))
+                    .thenCompose(combined -> combined.size() < partials.size()
+                            ? combineSummariesAsync(combined, summaryLength, username, priority)
+                            : CompletableFuture.completedFuture(String.join("\n\n", combined)));
+        }
+        return scheduledGeminiAsync(username, priority, "summarise", combinePrompt(joined, summaryLength), " (combine)", false);
+    }
+
+    private static String combinePrompt(String partialSummaries, String summaryLength) {
+        return "The following are summaries of consecutive parts of one document. " +
+               "Combine them into a single summary of the whole document in " + summaryLengthInstruction(summaryLength) + ":\n\n" +
+               partialSummaries;
+    }
+
+    private static String summaryLengthInstruction(String summaryLength) {
+        return "short".equalsIgnoreCase(summaryLength) ? "1-2 sentences" :
+                "long".equalsIgnoreCase(summaryLength) ? "1-2 paragraphs with details" :
+                        "3-5 sentences covering key points";
+    }
+
+    private static AIResponse copyOf(AIResponse response) {
+        return AIResponse.builder()
+                .answer(response.getAnswer())
+                .operation(response.getOperation())
+                .sources(response.getSources() != null ? new ArrayList<>(response.getSources()) : null)
+                .extractive(response.isExtractive())
+                .sourceLanguage(response.getSourceLanguage())
+                .build();
+    }
+
+    //Runs several operations (summarise, translate, read, answer) on the same content with one Gemini call:
+    //the content is sent once and the model replies with a JSON object holding one answer per operation.
+    //Operations that are cached, need a web search or a chunked note are done on their own instead, and so
+    //is any operation the JSON reply turns out to be missing. The map is keyed by operation, in request order.
+    public CompletableFuture<Map<String, AIResponse>> processCombinedAsync(AICombinedRequest combined, String username,
+                                                                           AIPriority priority) {
+        if (combined.getOperations() == null || combined.getOperations().isEmpty()) {
+            throw new IllegalArgumentException("At least one operation is required");
+        }
+        Map<String, AIRequest> requests = new LinkedHashMap<>();
+        for (String operation : combined.getOperations()) {
+            String normalized = operation == null ? "" : operation.toLowerCase();
+            if (!COMBINABLE_OPERATIONS.contains(normalized)) {
+                throw new InvalidOperationException("Operation " + operation + " can't be combined. Supported: " + COMBINABLE_OPERATIONS);
+            }
+            AIRequest request = new AIRequest();
+            request.setOperation(normalized);
+            request.setContent(combined.getContent());
+            //Only the fields of this operation, so it has the cache key of the same single request.
+            switch (normalized) {
+                case "summarise" -> request.setSummaryLength(combined.getSummaryLength());
+                case "translate" -> request.setTargetLanguage(combined.getTargetLanguage());
+                case "answer" -> request.setQuestion(combined.getQuestion());
+                default -> { }
+            }
+            buildPrompt(request, null); // Same validation as a single operation.
+            requests.put(normalized, request);
+        }
+
+        Map<String, CompletableFuture<AIResponse>> results = new LinkedHashMap<>();
+        Map<String, AIRequest> toCombine = new LinkedHashMap<>();
+        for (Map.Entry<String, AIRequest> entry : requests.entrySet()) {
+            AIRequest request = entry.getValue();
+            String cacheKey = responseCache.keyFor(request);
+            AIResponse cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+            if (cached != null) {
+                results.put(entry.getKey(), CompletableFuture.completedFuture(cached));
+            } else if (usesExtractiveSummary(request) || requiresWebSearch(request) || needsChunking(request)
+                       || translatesInParts(request)) {
+                results.put(entry.getKey(), processContentAsync(request, username, priority));
+            } else {
+                toCombine.put(entry.getKey(), request);
+            }
+        }
+
+        if (toCombine.size() == 1) {
+            Map.Entry<String, AIRequest> only = toCombine.entrySet().iterator().next();
+            results.put(only.getKey(), processContentAsync(only.getValue(), username, priority));
+        } else if (!toCombine.isEmpty()) {
+            CompletableFuture<Map<String, String>> answers = scheduler.submit(username, priority,
+                    schedulingCost(toCombine.values().iterator().next()),
+                    () -> sendGeminiAsync("combined", combinedPrompt(promptBudgeter.clean(combined.getContent()), toCombine),
+                                    " (combined)", true)
+                            .thenApply(text -> parseCombinedAnswers(text, toCombine.keySet())));
+            for (Map.Entry<String, AIRequest> entry : toCombine.entrySet()) {
+                AIRequest request = entry.getValue();
+                results.put(entry.getKey(), answers.thenCompose(parsed -> {
+                    String answer = parsed.get(entry.getKey());
+                    if (answer == null) {
+                        return processContentAsync(request, username, priority);
+                    }
+                    AIResponse response = AIResponse.builder()
+                            .answer(answer)
+                            .operation(request.getOperation())
+                            .sources(null)
+                            .build();
+                    //Cached under the key of the single operation, so a later single call is a hit.
+                    cacheIfUsable(responseCache.keyFor(request), response);
+                    return CompletableFuture.completedFuture(response);
+                }));
+            }
+        }
+
+        return CompletableFuture.allOf(results.values().toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            Map<String, AIResponse> responses = new LinkedHashMap<>();
+            for (String operation : requests.keySet()) {
+                responses.put(operation, copyOf(results.get(operation).join()));
+            }
+            return responses;
         });
+    }
+
+    //A translation that is done in parts: with the translation memory, or with paragraphs already in the
+    //target language.
+    private boolean translatesInParts(AIRequest request) {
+        TranslationPlan translation = planTranslation(request);
+        return translation != null && translatesInParts(translation);
+    }
+
+    private static String combinedPrompt(String content, Map<String, AIRequest> requests) {
+        StringBuilder prompt = new StringBuilder("Process the text below and reply with one JSON object that has exactly these string fields:\n");
+        for (Map.Entry<String, AIRequest> entry : requests.entrySet()) {
+            AIRequest request = entry.getValue();
+            prompt.append("- \"").append(entry.getKey()).append("\": ");
+            switch (entry.getKey()) {
+                case "summarise" -> prompt.append("a summary in ").append(summaryLengthInstruction(request.getSummaryLength()));
+                case "translate" -> prompt.append("the whole text translated to ").append(request.getTargetLanguage());
+                case "read" -> prompt.append("the text in a clean, natural form for text-to-speech: no formatting markup, ")
+                        .append("proper punctuation, same meaning, no added commentary");
+                case "answer" -> prompt.append("a direct, factual and concise answer to this question, correcting any false premise: ")
+                        .append(request.getQuestion());
+                default -> throw new InvalidOperationException("Invalid operation: " + entry.getKey());
+            }
+            prompt.append("\n");
+        }
+        return prompt.append("\nText:\n\n").append(content).toString();
+    }
 
-        String jsonRequestBody;
+    //Fields that are missing or not text are left out, those operations are then done on their own.
+    private Map<String, String> parseCombinedAnswers(String text, Set<String> operations) {
+        Map<String, String> answers = new LinkedHashMap<>();
         try {
-            jsonRequestBody = objectMapper.writeValueAsString(requestBody);
+            JsonNode root = objectMapper.readTree(stripCodeFence(text));
+            for (String operation : operations) {
+                JsonNode value = root.path(operation);
+                if (value.isTextual() && !value.asText().isBlank()) {
+                    answers.put(operation, value.asText());
+                }
+            }
         } catch (IOException e) {
-            throw new GeminiApiException("Error converting request body to JSON for Gemini API", e);
+            System.err.println("Combined Gemini reply is not valid JSON, running the operations one by one: " + e.getMessage());
+        }
+        return answers;
+    }
+
+    //Some JSON replies still come wrapped in a markdown code fence.
+    private static String stripCodeFence(String text) {
+        String json = text.strip();
+        if (json.startsWith("```")) {
+            json = json.substring(json.indexOf('\n') + 1);
+            int fence = json.lastIndexOf("```");
+            json = fence >= 0 ? json.substring(0, fence) : json;
+        }
+        return json;
+    }
+
+    //Streams the answer: onText gets every piece of text as Gemini produces it, the future completes
+    //with the whole answer. A cached answer is passed to onText in one piece.
+    public CompletableFuture<AIResponse> streamContentAsync(AIRequest request, String username, AIPriority priority,
+                                                          Consumer<String> onText) {
+        if (request.getOperation() == null || request.getOperation().isEmpty()) {
+            throw new IllegalArgumentException("Operation field is required");
+        }
+        if (request.getOperation().equalsIgnoreCase("similar")) {
+            throw new InvalidOperationException("Streaming is not supported for the similar operation");
+        }
+        if (usesExtractiveSummary(request)) {
+            AIResponse summary = extractiveSummary(request);
+            onText.accept(summary.getAnswer());
+            return CompletableFuture.completedFuture(summary);
+        }
+        boolean requiresWebSearch = requiresWebSearch(request);
+        String cacheKey = requiresWebSearch ? null : responseCache.keyFor(request);
+        if (cacheKey != null) {
+            AIResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                onText.accept(cached.getAnswer());
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        buildPrompt(request, null);
+
+        //A note that has to be processed in chunks, or partly translated, arrives in one piece once it's done.
+        if (needsChunking(request) || translatesInParts(request)) {
+            return processContentAsync(request, username, priority).thenApply(response -> {
+                onText.accept(response.getAnswer());
+                return response;
+            });
+        }
+
+        //The slot is held until the last chunk has arrived.
+        CompletableFuture<AIResponse> streamed = scheduler.submit(username, priority, schedulingCost(request), () -> webSearchIfNeeded(requiresWebSearch, request.getQuestion())
+                .thenCompose(webResults -> {
+                    StringBuilder answer = new StringBuilder();
+                    return streamGeminiAsync(request.getOperation(), buildPrompt(promptBudgeter.apply(request), webResults), text -> {
+                        answer.append(text);
+                        onText.accept(text);
+                    }).thenApply(ignored -> {
+                        AIResponse aiResponse = AIResponse.builder()
+                                .answer(answer.isEmpty() ? "No response found" : answer.toString())
+                                .operation(request.getOperation())
+                                .sources(webResults != null ? webResults.getSourceUrls() : null)
+                                .build();
+                        cacheIfUsable(cacheKey, aiResponse);
+                        return aiResponse;
+                    });
+                }));
+        if (!isSummary(request) || priority != AIPriority.INTERACTIVE) {
+            return streamed;
+        }
+        //Only an unavailable Gemini falls back here: it fails before any text was sent. A slow stream is
+        //left to finish, part of its answer may already be on the way to the client.
+        return streamed.exceptionallyCompose(error -> {
+            if (!isUnavailable(error)) {
+                return CompletableFuture.failedFuture(unwrap(error));
+            }
+            AIResponse summary = extractiveSummary(request);
+            onText.accept(summary.getAnswer());
+            return CompletableFuture.completedFuture(summary);
+        });
+    }
+
+    private CompletableFuture<AIWebSearch> webSearchIfNeeded(boolean requiresWebSearch, String question) {
+        return requiresWebSearch ? webSearchCache.get(question,
+                query -> performWebSearchAsync(query).thenCompose(webPageFetcher::enrich)) : CompletableFuture.completedFuture(null);
+    }
+
+    //Share of the fair queue a call takes: 1 for a short prompt, more for long notes.
+    private static double schedulingCost(AIRequest request) {
+        int tokens = TokenEstimator.estimate(request.getContent()) + TokenEstimator.estimate(request.getQuestion());
+        return 1 + tokens / 1000.0;
+    }
+
+    //Answers to questions about current events (see ai.web-search.triggers) get web search results.
+    private boolean requiresWebSearch(AIRequest request) {
+        return request.getOperation().equalsIgnoreCase("answer") && webSearchTriggers.matches(request.getQuestion());
+    }
+
+    //Fallback texts for an unusable Gemini reply are not cached, the next request tries again.
+    private void cacheIfUsable(String cacheKey, AIResponse response) {
+        String answer = response.getAnswer();
+        if (cacheKey == null || answer == null || answer.equals("No response found")
+            || answer.startsWith("Error processing response")
+            || answer.equals("Could not provide a detailed explanation for the topic.")) {
+            return;
         }
+        responseCache.put(cacheKey, response);
+    }
+
+    //One Gemini call of a job that makes several (chunks, sentence batches, runs of paragraphs), in a scheduler
+    //slot of its own, so the per-user and global limits count every call in flight and not just the job.
+    private CompletableFuture<String> scheduledGeminiAsync(String username, AIPriority priority, String operation,
+                                                           String prompt, String context, boolean jsonOutput) {
+        return scheduler.submit(username, priority, 1 + TokenEstimator.estimate(prompt) / 1000.0,
+                () -> sendGeminiAsync(operation, prompt, context, jsonOutput));
+    }
+
+    //Posts the prompt to Gemini and completes with the answer text (GeminiCodec.NO_RESPONSE when there is none).
+    private CompletableFuture<String> sendGeminiAsync(String operation, String prompt, String context) {
+        return sendGeminiAsync(operation, prompt, context, false);
+    }
 
+    //With jsonOutput Gemini is told to reply with a JSON document only.
+    private CompletableFuture<String> sendGeminiAsync(String operation, String prompt, String context, boolean jsonOutput) {
+        promptBudgeter.record(operation, prompt);
         HttpRequest httpRequest = HttpRequest.newBuilder()
                 .uri(URI.create(geminiApiUrl + geminiApiKey))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonRequestBody))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(GeminiCodec.request(prompt, jsonOutput)))
                 .build();
 
-        String responseBody;
-        try {
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new GeminiApiException("Gemini API returned non-200 status: " + response.statusCode());
-            }
-            responseBody = response.body();
-        } catch (IOException | InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new GeminiApiException("Gemini API call interrupted", e);
-        }
+        //Only a 200 body is read, for its answer text; the others are only the status.
+        return httpClient.sendAsync(GEMINI, httpRequest, responseInfo -> responseInfo.statusCode() == 200
+                        ? GeminiCodec.textSubscriber()
+                        : HttpResponse.BodySubscribers.replacing(null))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw upstreamError(error, context);
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new GeminiApiException("Gemini API returned non-200 status" + context + ": " + response.statusCode());
+                    }
+                    return response.body();
+                });
+    }
 
-        String extractedResult = extractTextFromResponse(responseBody);
+    private CompletableFuture<Void> streamGeminiAsync(String operation, String prompt, Consumer<String> onText) {
+        promptBudgeter.record(operation, prompt);
+        String streamUrl = geminiStreamUrl == null || geminiStreamUrl.isBlank()
+                ? geminiApiUrl.replace(":generateContent", ":streamGenerateContent")
+                : geminiStreamUrl;
 
-        return AIResponse.builder()
-                .answer(extractedResult)
-                .operation(request.getOperation())
-                .sources(webResults != null ? webResults.getSourceUrls() : null)
+        HttpRequest httpRequest = HttpRequest.newBuilder()
+                .uri(URI.create(streamUrl + geminiApiKey))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(GeminiCodec.request(prompt, false)))
                 .build();
+
+        GeminiStreamParser streamParser = new GeminiStreamParser(onText);
+        return httpClient.sendAsync(GEMINI, httpRequest, responseInfo -> responseInfo.statusCode() == 200
+                        ? HttpResponse.BodySubscribers.fromSubscriber(streamParser)
+                        : HttpResponse.BodySubscribers.discarding())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw upstreamError(error, "");
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new GeminiApiException("Gemini API returned non-200 status: " + response.statusCode());
+                    }
+                    return streamParser.done();
+                })
+                .thenCompose(parsed -> parsed);
     }
 
-    private AIWebSearch performWebSearch(String query) {
-        try {
-            String apiUrl = "https://www.googleapis.com/customsearch/v1" +
-                            "?key=" + googleSearchApiKey +
-                            "&cx=" + googleCseId +
-                            "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) +
-                            "&num=5";
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl))
-                    .GET()
-                    .build();
+    //Completes with null when the search fails, the answer is then made without web results.
+    private CompletableFuture<AIWebSearch> performWebSearchAsync(String query) {
+        String apiUrl = googleSearchUrl +
+                        "?key=" + googleSearchApiKey +
+                        "&cx=" + googleCseId +
+                        "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) +
+                        "&num=5";
 
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest httpRequest = HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .GET()
+                .build();
 
+        return httpClient.sendAsync(GOOGLE_SEARCH, httpRequest, HttpResponse.BodyHandlers.ofString())
+                .thenApply(this::parseWebSearch)
+                .exceptionally(e -> {
+                    System.err.println("Web search (Google) API network error: " + unwrap(e).getMessage());
+                    return null;
+                });
+    }
+
+    private AIWebSearch parseWebSearch(HttpResponse<String> response) {
+        try {
             if (response.statusCode() != 200) {
                 System.err.println("Google Search API returned non-200 status: " + response.statusCode());
                 return null;
@@ -141,17 +932,25 @@ public class AIService {
             JsonNode json = objectMapper.readTree(response.body());
             StringBuilder snippets = new StringBuilder();
             List<String> urls = new ArrayList<>();
+            int budget = promptBudgeter.webResultsBudget();
 
             if (json.has("items") && json.get("items").isArray()) {
                 for (JsonNode item : json.get("items")) {
                     String title = item.has("title") ? item.get("title").asText() : "N/A";
                     String link = item.has("link") ? item.get("link").asText() : "N/A";
-                    String snippet = item.has("snippet") ? item.get("snippet").asText() : "N/A";
+                    String snippet = item.has("snippet") ? promptBudgeter.snippet(item.get("snippet").asText()) : "N/A";
 
-                    snippets.append("Title: ").append(title).append("\n")
-                            .append("URL: ").append(link).append("\n")
-                            .append("Snippet: ").append(snippet).append("\n")
-                            .append("---\n");
+                    String result = "Title: " + title + "\n" +
+                                    "URL: " + link + "\n" +
+                                    "Snippet: " + snippet + "\n" +
+                                    "---\n";
+                    //Results come best first; the ones that don't fit in the budget any more are left out.
+                    int tokens = TokenEstimator.estimate(result);
+                    if (tokens > budget && !snippets.isEmpty()) {
+                        break;
+                    }
+                    budget -= tokens;
+                    snippets.append(result);
                     if (!"N/A".equals(link)) {
                         urls.add(link);
                     }
@@ -162,11 +961,6 @@ public class AIService {
                     .sourceUrls(urls)
                     .build();
 
-        } catch (IOException | InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.err.println("Web search (Google) API call interrupted or network error: " + e.getMessage());
-            e.printStackTrace();
-            return null;
         } catch (Exception e) {
             System.err.println("Web search (Google) API general exception: " + e.getMessage());
             e.printStackTrace();
@@ -174,74 +968,32 @@ public class AIService {
         }
     }
 
-    private String processSimilarResearch(AIRequest request) {
+    private CompletableFuture<String> processSimilarResearchAsync(AIRequest request) {
         String prompt = buildPrompt(request, null);
 
-        Map<String, Object> requestBody = Map.of("contents", new Object[]{
-                Map.of("parts", new Object[]{
-                        Map.of("text", prompt)
-                })
-        });
-
-        String jsonRequestBody;
-        try {
-            jsonRequestBody = objectMapper.writeValueAsString(requestBody);
-        } catch (IOException e) {
-            throw new GeminiApiException("Error converting request body to JSON for Gemini API", e);
-        }
-
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(geminiApiUrl + geminiApiKey))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonRequestBody))
-                .build();
-
-        String geminiResponse;
-        try {
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new GeminiApiException("Gemini API returned non-200 status for similar research (explanation): " + response.statusCode() + " Body: " + response.body());
+        return sendGeminiAsync(request.getOperation(), prompt, " for similar research (explanation)").thenApply(explanationResult -> {
+            if (explanationResult == null || explanationResult.trim().isEmpty() || explanationResult.equalsIgnoreCase("No response found") || explanationResult.contains("Error processing response")) {
+                return "Could not provide a detailed explanation for the topic.";
             }
-            geminiResponse = response.body();
-        } catch (IOException e) {
-            throw new GeminiApiException("Network error or issue connecting to Gemini API for similar research (explanation)", e);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new GeminiApiException("Gemini API call for similar research (explanation) interrupted", e);
-        }
-
-        String explanationResult = extractTextFromResponse(geminiResponse);
 
-        if (explanationResult == null || explanationResult.trim().isEmpty() || explanationResult.equalsIgnoreCase("No response found") || explanationResult.contains("Error processing response")) {
-            return "Could not provide a detailed explanation for the topic.";
-        }
+            return explanationResult;
+        });
+    }
 
-        return explanationResult;
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
-    private String extractTextFromResponse(String response) {
-        try {
-            JsonNode root = objectMapper.readTree(response);
-            JsonNode candidates = root.path("candidates");
-            if (candidates.isArray() && candidates.size() > 0) {
-                JsonNode firstCandidate = candidates.get(0);
-                JsonNode content = firstCandidate.path("content");
-                JsonNode parts = content.path("parts");
-                if (parts.isArray() && parts.size() > 0) {
-                    JsonNode firstPart = parts.get(0);
-                    if (firstPart.has("text")) {
-                        return firstPart.get("text").asText();
-                    }
-                }
-            }
-            return "No response found";
-        } catch (Exception e) {
-            System.err.println("Error processing Gemini response JSON: " + e.getMessage());
-            e.printStackTrace();
-            return "Error processing response: " + e.getMessage();
+    //An open breaker is passed on as is so the caller gets a 503 with Retry-After instead of a 500.
+    private static RuntimeException upstreamError(Throwable error, String context) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof UpstreamUnavailableException unavailable) {
+            return unavailable;
         }
+        return new GeminiApiException("Network error or issue connecting to Gemini API" + context, cause);
     }
 
+
     private String buildPrompt(AIRequest request, AIWebSearch webResults) {
         StringBuilder prompt = new StringBuilder();
         String operation = request.getOperation();
@@ -251,10 +1003,7 @@ public class AIService {
 
         switch (operation.toLowerCase()) {
             case "summarise":
-                String lengthInstruction = "short".equalsIgnoreCase(request.getSummaryLength()) ? "1-2 sentences" :
-                        "long".equalsIgnoreCase(request.getSummaryLength()) ? "1-2 paragraphs with details" :
-                                "3-5 sentences covering key points";
-                prompt.append("Summarize in ").append(lengthInstruction).append(":\n\n")
+                prompt.append("Summarize in ").append(summaryLengthInstruction(request.getSummaryLength())).append(":\n\n")
                         .append(request.getContent());
                 break;
 
@@ -283,6 +1032,11 @@ public class AIService {
                     prompt.append("Recent search results:\n")
                             .append(webResults.getCombinedSnippets())
                             .append("\n");
+                    if (webResults.getPageExcerpts() != null) {
+                        prompt.append("Excerpts from the result pages:\n")
+                                .append(webResults.getPageExcerpts())
+                                .append("\n");
+                    }
                 }
                 prompt.append("Answer directly and factually. Correct any false premises. Be concise.\n")
                         .append("Question: ").append(request.getQuestion());
@@ -291,6 +1045,17 @@ public class AIService {
                 }
                 break;
 
+            case "ask":
+                if (request.getQuestion() == null || request.getQuestion().isEmpty()) {
+                    throw new IllegalArgumentException("Question required for ask operation");
+                }
+                prompt.append("Answer the question using only the numbered passages from the user's notes below. ")
+                        .append("Cite the passages you used like [1]. ")
+                        .append("If the passages don't contain the answer, say that the notes don't cover it. Be concise.\n\n")
+                        .append(request.getContent())
+                        .append("\nQuestion: ").append(request.getQuestion());
+                break;
+
             case "similar":
                 if (request.getQuestion() == null || request.getQuestion().isEmpty()) {
                     throw new IllegalArgumentException("Question/Topic is required for 'similar' operation (explanation).");
@@ -304,7 +1069,7 @@ public class AIService {
 
             default:
                 throw new InvalidOperationException("Invalid operation: " + operation +
-                                                    ". Supported: summarise, read, answer, translate, similar");
+                                                    ". Supported: summarise, read, answer, ask, translate, similar");
         }
 
         return prompt.toString();
@@ -0,0 +1,9 @@
+package com.prog.secure_note.ai_service;
+
+//Turns a text into a vector for semantic search. Vectors are L2-normalized,
+//so the dot product of two of them is their cosine similarity.
+public interface EmbeddingProvider {
+    float[] embed(String text);
+
+    int dimensions();
+}
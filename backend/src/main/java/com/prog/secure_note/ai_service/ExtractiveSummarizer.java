@@ -0,0 +1,248 @@
+package com.prog.secure_note.ai_service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//In-process extractive summaries (TextRank): sentences are nodes, two sentences are linked by the number of
+//words they share, and the sentences with the highest PageRank in that graph are returned in note order.
+//Needs no remote call, so AIService uses it for short summaries and when Gemini is slow or unavailable.
+//Sentences are compared through an inverted index, so only pairs that share a word are ever looked at.
+public final class ExtractiveSummarizer {
+
+    private static final double DAMPING = 0.85;
+    private static final int MAX_ITERATIONS = 50;
+    private static final double CONVERGENCE = 1e-4;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "are", "but", "not", "you", "all", "any", "can", "had", "her", "was", "one", "our",
+            "out", "has", "have", "him", "his", "how", "its", "may", "new", "now", "see", "who", "did", "get", "let",
+            "she", "too", "use", "that", "with", "this", "from", "they", "will", "would", "there", "their", "what",
+            "about", "which", "when", "were", "been", "into", "than", "then", "them", "these", "some", "could",
+            "other", "also", "just", "only", "very", "more", "most", "such", "your", "does", "each", "over");
+
+    private ExtractiveSummarizer() {
+    }
+
+    //The maxSentences most central sentences of text, in their original order, joined by a space.
+    public static String summarize(String text, int maxSentences) {
+        if (text == null || text.isBlank()) {
+            return "";
+        }
+        List<int[]> spans = sentenceSpans(text);
+        int n = spans.size();
+        if (n <= maxSentences) {
+            return join(text, spans, null);
+        }
+
+        int[][] terms = sentenceTerms(text, spans);
+        double[] scores = rank(terms);
+
+        Integer[] byScore = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byScore[i] = i;
+        }
+        //Ties go to the earlier sentence.
+        Arrays.sort(byScore, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : Integer.compare(a, b));
+        boolean[] keep = new boolean[n];
+        for (int i = 0; i < maxSentences; i++) {
+            keep[byScore[i]] = true;
+        }
+        return join(text, spans, keep);
+    }
+
+    //[start, end) of every sentence: cut after '.', '!' or '?' followed by whitespace, and at line breaks
+    //(list items and headings in notes rarely end with a full stop). AIService cuts translations the same way.
+    static List<int[]> sentenceSpans(String text) {
+        List<int[]> spans = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean end = i == text.length() || text.charAt(i) == '\n'
+                          || (i > 0 && Character.isWhitespace(text.charAt(i)) && isSentenceEnd(text.charAt(i - 1)));
+            if (end) {
+                addSpan(text, start, i, spans);
+                start = i + 1;
+            }
+        }
+        return spans;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    private static void addSpan(String text, int start, int end, List<int[]> spans) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (end > start) {
+            spans.add(new int[]{start, end});
+        }
+    }
+
+    //Sorted, distinct ids of the words (three letters or more, no stop words) of every sentence.
+    private static int[][] sentenceTerms(String text, List<int[]> spans) {
+        Map<String, Integer> vocabulary = new HashMap<>();
+        int[][] terms = new int[spans.size()][];
+        int[] buffer = new int[64];
+        StringBuilder word = new StringBuilder();
+        for (int s = 0; s < spans.size(); s++) {
+            int[] span = spans.get(s);
+            int count = 0;
+            for (int i = span[0]; i <= span[1]; i++) {
+                char c = i < span[1] ? text.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(Character.toLowerCase(c));
+                    continue;
+                }
+                if (word.length() >= 3) {
+                    String w = word.toString();
+                    if (!STOP_WORDS.contains(w)) {
+                        if (count == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, count * 2);
+                        }
+                        buffer[count++] = vocabulary.computeIfAbsent(w, k -> vocabulary.size());
+                    }
+                }
+                word.setLength(0);
+            }
+            Arrays.sort(buffer, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (distinct == 0 || buffer[i] != buffer[distinct - 1]) {
+                    buffer[distinct++] = buffer[i];
+                }
+            }
+            terms[s] = Arrays.copyOf(buffer, distinct);
+        }
+        return terms;
+    }
+
+    //PageRank over the sentence graph, edge weight overlap / (log |Si| + log |Sj|) as in the TextRank paper.
+    private static double[] rank(int[][] terms) {
+        int n = terms.length;
+        int vocabularySize = 0;
+        for (int[] sentence : terms) {
+            for (int term : sentence) {
+                vocabularySize = Math.max(vocabularySize, term + 1);
+            }
+        }
+        //Inverted index: the sentences every word occurs in.
+        int[] frequency = new int[vocabularySize];
+        for (int[] sentence : terms) {
+            for (int term : sentence) {
+                frequency[term]++;
+            }
+        }
+        int[][] postings = new int[vocabularySize][];
+        for (int t = 0; t < vocabularySize; t++) {
+            postings[t] = new int[frequency[t]];
+        }
+        int[] filled = new int[vocabularySize];
+        for (int s = 0; s < n; s++) {
+            for (int term : terms[s]) {
+                postings[term][filled[term]++] = s;
+            }
+        }
+
+        //Edges of every sentence, both directions, as growable parallel arrays.
+        int[][] neighbours = new int[n][];
+        double[][] weights = new double[n][];
+        int[] degree = new int[n];
+        int[] overlap = new int[n];
+        int[] touched = new int[n];
+        double[] weightSum = new double[n];
+        for (int i = 0; i < n; i++) {
+            neighbours[i] = new int[4];
+            weights[i] = new double[4];
+        }
+        //Words in more than half of the sentences link everything to everything and tell nothing apart.
+        int maxFrequency = Math.max(2, n / 2);
+        for (int i = 0; i < n; i++) {
+            int touchedCount = 0;
+            for (int term : terms[i]) {
+                if (postings[term].length > maxFrequency) {
+                    continue;
+                }
+                for (int j : postings[term]) {
+                    if (j > i) {
+                        if (overlap[j]++ == 0) {
+                            touched[touchedCount++] = j;
+                        }
+                    }
+                }
+            }
+            for (int k = 0; k < touchedCount; k++) {
+                int j = touched[k];
+                double weight = overlap[j] / (Math.log(1 + terms[i].length) + Math.log(1 + terms[j].length));
+                overlap[j] = 0;
+                addEdge(neighbours, weights, degree, i, j, weight);
+                addEdge(neighbours, weights, degree, j, i, weight);
+                weightSum[i] += weight;
+                weightSum[j] += weight;
+            }
+        }
+
+        //Each edge as the share of its source's total weight, so an iteration is one multiply-add per edge.
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < degree[i]; k++) {
+                weights[i][k] /= weightSum[neighbours[i][k]];
+            }
+        }
+
+        double[] scores = new double[n];
+        double[] next = new double[n];
+        Arrays.fill(scores, 1.0);
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double change = 0;
+            for (int i = 0; i < n; i++) {
+                double sum = 0;
+                for (int k = 0; k < degree[i]; k++) {
+                    sum += weights[i][k] * scores[neighbours[i][k]];
+                }
+                next[i] = (1 - DAMPING) + DAMPING * sum;
+                change = Math.max(change, Math.abs(next[i] - scores[i]));
+            }
+            double[] swap = scores;
+            scores = next;
+            next = swap;
+            if (change < CONVERGENCE) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    private static void addEdge(int[][] neighbours, double[][] weights, int[] degree, int from, int to, double weight) {
+        if (degree[from] == neighbours[from].length) {
+            neighbours[from] = Arrays.copyOf(neighbours[from], degree[from] * 2);
+            weights[from] = Arrays.copyOf(weights[from], degree[from] * 2);
+        }
+        neighbours[from][degree[from]] = to;
+        weights[from][degree[from]] = weight;
+        degree[from]++;
+    }
+
+    private static String join(String text, List<int[]> spans, boolean[] keep) {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < spans.size(); i++) {
+            if (keep == null || keep[i]) {
+                if (!summary.isEmpty()) {
+                    summary.append(' ');
+                }
+                int[] span = spans.get(i);
+                summary.append(text, span[0], span[1]);
+                //A list item or heading joined into running text gets a full stop.
+                if (!isSentenceEnd(text.charAt(span[1] - 1))) {
+                    summary.append('.');
+                }
+            }
+        }
+        return summary.toString();
+    }
+}
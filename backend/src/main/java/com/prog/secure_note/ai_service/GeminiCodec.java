@@ -0,0 +1,173 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+//Request and response bodies of generateContent calls with Jackson's streaming API: the request is written
+//token by token, and the answer (candidates[0].content.parts[0].text) is read from the response bytes as they
+//arrive, by a non-blocking parser that skips everything else. Neither side builds a JSON tree, and the response
+//is never held as a whole, as bytes or as a String; only the answer text itself is.
+final class GeminiCodec {
+
+    //What AIService has always answered with when the response has no text, or can't be read.
+    static final String NO_RESPONSE = "No response found";
+    static final String UNREADABLE_PREFIX = "Error processing response: ";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private GeminiCodec() {
+    }
+
+    //{"contents":[{"parts":[{"text":prompt}]}]}, with jsonOutput plus a generationConfig asking for JSON only.
+    static byte[] request(String prompt, boolean jsonOutput) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(prompt.length() + 64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("contents");
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("parts");
+            generator.writeStartObject();
+            generator.writeStringField("text", prompt);
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            if (jsonOutput) {
+                generator.writeObjectFieldStart("generationConfig");
+                generator.writeStringField("responseMimeType", "application/json");
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            //Only the generator itself can fail here, the output is in memory.
+            throw new IllegalStateException(e);
+        }
+        return body.toByteArray();
+    }
+
+    //Completes with the answer text of a response body, NO_RESPONSE, or UNREADABLE_PREFIX and the reason.
+    static HttpResponse.BodySubscriber<String> textSubscriber() {
+        TextReader reader = new TextReader();
+        return HttpResponse.BodySubscribers.fromSubscriber(reader, TextReader::text);
+    }
+
+    //Reads the answer from chunks of a response body; also fed directly by tests and the benchmark.
+    static final class TextReader implements Flow.Subscriber<List<ByteBuffer>> {
+
+        private final JsonParser parser;
+        private final ByteBufferFeeder feeder;
+        private String text;
+        private String failure;
+
+        TextReader() {
+            try {
+                this.parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        }
+
+        //Once the text is found (or the body is found unreadable) the rest of the body is only drained.
+        void feed(ByteBuffer chunk) {
+            if (text != null || failure != null) {
+                return;
+            }
+            try {
+                feeder.feedInput(chunk);
+                drain();
+            } catch (IOException | RuntimeException e) {
+                failure = e.getMessage();
+            }
+        }
+
+        void end() {
+            if (text != null || failure != null) {
+                return;
+            }
+            try {
+                feeder.endOfInput();
+                drain();
+            } catch (IOException | RuntimeException e) {
+                failure = e.getMessage();
+            }
+        }
+
+        String text() {
+            if (failure != null) {
+                System.err.println("Error processing Gemini response JSON: " + failure);
+                return UNREADABLE_PREFIX + failure;
+            }
+            return text != null ? text : NO_RESPONSE;
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                if (token == JsonToken.VALUE_STRING && isAnswer(parser.getParsingContext())) {
+                    text = parser.getText();
+                    return;
+                }
+            }
+        }
+
+        //"text" of the first part of the first candidate: {"candidates":[{"content":{"parts":[{"text":...}]}}]}.
+        private static boolean isAnswer(JsonStreamContext context) {
+            if (!"text".equals(context.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext parts = context.getParent();
+            if (parts == null || !parts.inArray() || parts.getCurrentIndex() != 0) {
+                return false;
+            }
+            JsonStreamContext content = parts.getParent();
+            if (content == null || !"parts".equals(content.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext candidate = content.getParent();
+            if (candidate == null || !"content".equals(candidate.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext candidates = candidate.getParent();
+            if (candidates == null || !candidates.inArray() || candidates.getCurrentIndex() != 0) {
+                return false;
+            }
+            JsonStreamContext root = candidates.getParent();
+            return root != null && "candidates".equals(root.getCurrentName())
+                   && root.getParent() != null && root.getParent().inRoot();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                feed(buffer);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            //The HTTP client fails the response future itself.
+        }
+
+        @Override
+        public void onComplete() {
+            end();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prog.secure_note.exception.GeminiApiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+//Embeddings from the Gemini embedContent API, used in production (ai.embedding.provider=gemini).
+//Calls share the Gemini quota with AIService, so they go through the AIScheduler as background work: they never
+//take the slots interactive calls need.
+@Component
+@ConditionalOnProperty(name = "ai.embedding.provider", havingValue = "gemini")
+public class GeminiEmbeddingProvider implements EmbeddingProvider {
+
+    //The embedding model accepts about 2k tokens, the rest of a long note is left out.
+    private static final int MAX_INPUT_CHARS = 8000;
+
+    private final UpstreamHttpClient httpClient;
+    private final AIScheduler scheduler;
+    private final ObjectMapper objectMapper;
+    @Value("${gemini.embedding.url:https://generativelanguage.googleapis.com/v1beta/models/text-embedding-004:embedContent?key=}")
+    private String embeddingUrl;
+    @Value("${gemini.embedding.model:models/text-embedding-004}")
+    private String model;
+    @Value("${gemini.embedding.dimensions:768}")
+    private int dimensions;
+    @Value("${gemini.api.key}")
+    private String geminiApiKey;
+
+    public GeminiEmbeddingProvider(ObjectMapper objectMapper, UpstreamHttpClient httpClient, AIScheduler scheduler) {
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        String input = text.length() > MAX_INPUT_CHARS ? text.substring(0, MAX_INPUT_CHARS) : text;
+        Map<String, Object> requestBody = Map.of(
+                "model", model,
+                "content", Map.of("parts", new Object[]{Map.of("text", input)}));
+
+        try {
+            HttpRequest httpRequest = HttpRequest.newBuilder()
+                    .uri(URI.create(embeddingUrl + geminiApiKey))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(requestBody)))
+                    .build();
+            HttpResponse<String> response = scheduler.submit(AIService.SYSTEM_USER, AIPriority.BACKGROUND,
+                    1 + TokenEstimator.estimate(input) / 1000.0,
+                    () -> httpClient.sendAsync("gemini-embedding", httpRequest, HttpResponse.BodyHandlers.ofString())).get();
+            if (response.statusCode() != 200) {
+                throw new GeminiApiException("Gemini embedding API returned non-200 status: " + response.statusCode());
+            }
+            JsonNode values = objectMapper.readTree(response.body()).path("embedding").path("values");
+            float[] vector = new float[values.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) values.get(i).asDouble();
+            }
+            LocalEmbeddingProvider.normalize(vector);
+            return vector;
+        } catch (IOException e) {
+            throw new GeminiApiException("Network error calling the Gemini embedding API", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause; // An open circuit breaker or a full scheduler queue.
+            }
+            throw new GeminiApiException("Network error calling the Gemini embedding API", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeminiApiException("Gemini embedding API call interrupted", e);
+        }
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+}
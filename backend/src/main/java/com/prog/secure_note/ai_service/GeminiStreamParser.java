@@ -0,0 +1,108 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.prog.secure_note.exception.GeminiApiException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+//Reads the body of a streamGenerateContent call (a JSON array of partial responses) as it arrives.
+//Bytes go into a non-blocking Jackson parser chunk by chunk, and every candidates[].content.parts[].text
+//value is handed to the consumer as soon as it is complete, without waiting for the rest of the body.
+class GeminiStreamParser implements Flow.Subscriber<List<ByteBuffer>> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Consumer<String> onText;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private Flow.Subscription subscription;
+
+    GeminiStreamParser(Consumer<String> onText) {
+        this.onText = onText;
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    CompletableFuture<Void> done() {
+        return done;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        try {
+            for (ByteBuffer buffer : buffers) {
+                feeder.feedInput(buffer);
+                drain();
+            }
+            subscription.request(1);
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        fail(error);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            feeder.endOfInput();
+            drain();
+            done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    //Reads every token the input so far allows; NOT_AVAILABLE means the parser needs the next chunk.
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (token != JsonToken.VALUE_STRING) {
+                continue;
+            }
+            JsonStreamContext context = parser.getParsingContext();
+            String name = context.getCurrentName();
+            if ("text".equals(name) && isInsideParts(context)) {
+                onText.accept(parser.getText());
+            } else if ("message".equals(name) && context.getParent() != null
+                       && "error".equals(context.getParent().getCurrentName())) {
+                throw new GeminiApiException("Gemini API stream failed: " + parser.getText());
+            }
+        }
+    }
+
+    //The value is in an object of an array held by a "parts" field.
+    private static boolean isInsideParts(JsonStreamContext context) {
+        JsonStreamContext array = context.getParent();
+        return array != null && array.inArray() && array.getParent() != null
+               && "parts".equals(array.getParent().getCurrentName());
+    }
+
+    private void fail(Throwable error) {
+        done.completeExceptionally(error);
+    }
+}
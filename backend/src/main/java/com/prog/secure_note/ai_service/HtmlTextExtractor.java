@@ -0,0 +1,242 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.utils.NoteTextExtractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Set;
+
+//Main text of a web page, read as a stream: one pass over the characters, no DOM, and reading stops as soon as
+//the budget is filled, so a large page is mostly never downloaded. Text is cut into blocks at block tags; the
+//content of script, style, navigation and similar elements is skipped, and blocks that are short or mostly
+//link text (menus, footers, tag lists) are dropped.
+public final class HtmlTextExtractor {
+
+    //Pages longer than this are not read any further, whatever the budget.
+    private static final int MAX_CHARS = 2_000_000;
+    private static final int MIN_BLOCK_WORDS = 8;
+    private static final Set<String> SKIPPED = Set.of("script", "style", "noscript", "nav", "header", "footer",
+            "aside", "form", "svg", "template", "iframe", "button", "select", "head");
+    //Elements whose content is raw text, where a '<' doesn't start a tag.
+    private static final Set<String> RAW_TEXT = Set.of("script", "style");
+    private static final Set<String> BLOCKS = Set.of("p", "div", "br", "li", "ul", "ol", "h1", "h2", "h3", "h4",
+            "h5", "h6", "section", "article", "main", "blockquote", "pre", "table", "tr", "td", "th", "dd", "dt",
+            "figcaption", "hr");
+
+    private HtmlTextExtractor() {
+    }
+
+    //The kept blocks, one per line, at most maxTokens estimated tokens in all.
+    public static String extract(Reader html, int maxTokens) throws IOException {
+        Extraction extraction = new Extraction(maxTokens);
+        StringBuilder tag = new StringBuilder();
+        int read = 0;
+        int c;
+        while ((c = html.read()) >= 0 && read++ < MAX_CHARS && !extraction.full()) {
+            if (c != '<') {
+                extraction.text((char) c);
+                continue;
+            }
+            c = html.read();
+            if (c < 0) {
+                break;
+            }
+            //A '<' that doesn't start a tag is text ("a < b").
+            if (!Character.isLetter(c) && c != '/' && c != '!') {
+                extraction.text('<');
+                extraction.text((char) c);
+                continue;
+            }
+            tag.setLength(0);
+            tag.append((char) c);
+            c = readTag(html, tag);
+            if (c < 0) {
+                break;
+            }
+            String name = tagName(tag);
+            boolean closing = tag.length() > 0 && tag.charAt(0) == '/';
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!closing && RAW_TEXT.contains(name)) {
+                skipRawText(html, name);
+                continue;
+            }
+            if (SKIPPED.contains(name)) {
+                extraction.skip(closing ? -1 : tag.charAt(tag.length() - 1) == '/' ? 0 : 1);
+            } else if (BLOCKS.contains(name)) {
+                extraction.endBlock();
+            } else if (name.equals("a")) {
+                extraction.link(!closing);
+            }
+        }
+        extraction.endBlock();
+        return extraction.result();
+    }
+
+    //Reads the rest of a tag up to the closing '>' (quoted attribute values may contain one) into tag; comments
+    //are read whole and left empty. Returns -1 at the end of the input.
+    private static int readTag(Reader html, StringBuilder tag) throws IOException {
+        char quote = 0;
+        int c;
+        while ((c = html.read()) >= 0) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                return c;
+            } else {
+                tag.append((char) c);
+                if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                    tag.setLength(0);
+                    return skipComment(html);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int skipComment(Reader html) throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = html.read()) >= 0) {
+            if (c == '>' && dashes >= 2) {
+                return c;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+        return -1;
+    }
+
+    //Skips the content of a script or style element up to and including its end tag.
+    private static void skipRawText(Reader html, String name) throws IOException {
+        String end = "</" + name;
+        int matched = 0;
+        int c;
+        while ((c = html.read()) >= 0) {
+            if (matched == end.length()) {
+                if (c == '>') {
+                    return;
+                }
+                continue;
+            }
+            matched = Character.toLowerCase(c) == end.charAt(matched) ? matched + 1 : (c == '<' ? 1 : 0);
+        }
+    }
+
+    private static String tagName(StringBuilder tag) {
+        int start = tag.length() > 0 && tag.charAt(0) == '/' ? 1 : 0;
+        int end = start;
+        while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    //The blocks kept so far and the one being read.
+    private static final class Extraction {
+        private final int maxTokens;
+        private final StringBuilder kept = new StringBuilder();
+        private final StringBuilder block = new StringBuilder();
+        private final StringBuilder entity = new StringBuilder();
+        private int tokens;
+        private int skipDepth;
+        private boolean inLink;
+        private int linkChars;
+        private int words;
+        private boolean space;
+        private boolean inEntity;
+
+        Extraction(int maxTokens) {
+            this.maxTokens = maxTokens;
+        }
+
+        boolean full() {
+            return tokens >= maxTokens;
+        }
+
+        void skip(int depthChange) {
+            skipDepth = Math.max(0, skipDepth + depthChange);
+        }
+
+        void link(boolean open) {
+            inLink = open;
+        }
+
+        void text(char c) {
+            if (skipDepth > 0) {
+                return;
+            }
+            if (inEntity) {
+                if (c == ';') {
+                    inEntity = false;
+                    String decoded = NoteTextExtractor.decodeEntity(entity.toString());
+                    for (int i = 0; i < decoded.length(); i++) {
+                        append(decoded.charAt(i));
+                    }
+                    return;
+                }
+                if (entity.length() < 8 && Character.isLetterOrDigit(c) || (c == '#' && entity.isEmpty())) {
+                    entity.append(c);
+                    return;
+                }
+                //Not an entity after all.
+                inEntity = false;
+                append('&');
+                for (int i = 0; i < entity.length(); i++) {
+                    append(entity.charAt(i));
+                }
+            }
+            if (c == '&') {
+                inEntity = true;
+                entity.setLength(0);
+                return;
+            }
+            append(c);
+        }
+
+        private void append(char c) {
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                space = !block.isEmpty();
+                return;
+            }
+            if (space) {
+                block.append(' ');
+                space = false;
+                words++;
+            }
+            block.append(c);
+            if (inLink) {
+                linkChars++;
+            }
+        }
+
+        void endBlock() {
+            int budget = maxTokens - tokens;
+            if (budget > 0 && !block.isEmpty() && words + 1 >= MIN_BLOCK_WORDS && linkChars * 2 < block.length()) {
+                int blockTokens = TokenEstimator.estimate(block);
+                if (blockTokens > budget) {
+                    block.setLength(TokenEstimator.prefixLength(block.toString(), budget));
+                    blockTokens = budget;
+                }
+                if (!kept.isEmpty()) {
+                    kept.append('\n');
+                }
+                kept.append(block);
+                tokens += blockTokens;
+            }
+            block.setLength(0);
+            linkChars = 0;
+            words = 0;
+            space = false;
+        }
+
+        String result() {
+            return kept.toString();
+        }
+    }
+}
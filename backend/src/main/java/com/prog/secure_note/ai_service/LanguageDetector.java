@@ -0,0 +1,244 @@
+package com.prog.secure_note.ai_service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//Identifies the language of a text in-process, for AIService to skip translations that would change nothing.
+//The script decides for non-Latin text. Latin-script languages are told apart by character trigrams: every
+//language has a profile of log-probabilities per hashed trigram, built once from the samples in
+//resources/langid, and all profiles are interleaved in one float array so scoring a trigram is one hash
+//and a few adjacent reads. A kilobyte of text takes a few microseconds and allocates almost nothing.
+public final class LanguageDetector {
+
+    //Languages with a trigram profile, in profile order; each has a sample in resources/langid/<code>.txt.
+    public static final List<String> LATIN_LANGUAGES = List.of("en", "fr", "es", "de", "it", "pt", "nl");
+
+    private static final int BUCKET_BITS = 12;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    //Fewer letters than this are too little to tell languages apart.
+    private static final int MIN_LETTERS = 20;
+    //Average lead per trigram of the best language over the second, below it the text is called undecided.
+    private static final double MIN_MARGIN = 0.05;
+
+    private static final int LATIN = 0;
+    private static final int OTHER = 10;
+    private static final int KANA = 7;
+    private static final int HAN = 9;
+    //Language of each script, by the script index of script(char).
+    private static final String[] SCRIPT_LANGUAGES = {null, "el", "ru", "he", "ar", "hi", "th", "ja", "ko", "zh", null};
+
+    private static final Map<String, String> LANGUAGE_NAMES = languageNames();
+
+    private LanguageDetector() {
+    }
+
+    //ISO 639-1 code of the language of text, or null when there is too little text or it's undecided.
+    public static String detect(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        float[] profiles = Profiles.LOG_PROBABILITIES;
+        int languages = LATIN_LANGUAGES.size();
+        double[] scores = new double[languages];
+        int[] scripts = new int[SCRIPT_LANGUAGES.length];
+        int trigrams = 0;
+        char first = ' ';
+        char second = ' ';
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            char normalized = ' ';
+            if (c < 0x80) {
+                //ASCII fast path, most of any Latin-script text.
+                char lower = (char) (c | 0x20);
+                if (lower >= 'a' && lower <= 'z') {
+                    scripts[LATIN]++;
+                    normalized = lower;
+                }
+            } else if (Character.isLetter(c)) {
+                int script = script(c);
+                scripts[script]++;
+                if (script == LATIN) {
+                    normalized = Character.toLowerCase(c);
+                }
+            }
+            if (normalized == ' ' && second == ' ') {
+                continue;
+            }
+            if (first != ' ' || second != ' ') {
+                int base = bucket(first, second, normalized) * languages;
+                for (int l = 0; l < languages; l++) {
+                    scores[l] += profiles[base + l];
+                }
+                trigrams++;
+            }
+            first = second;
+            second = normalized;
+        }
+
+        int latinLetters = scripts[LATIN];
+        int otherLetters = 0;
+        int topScript = OTHER;
+        for (int s = 1; s < scripts.length; s++) {
+            otherLetters += scripts[s];
+            if (scripts[s] > scripts[topScript]) {
+                topScript = s;
+            }
+        }
+        if (otherLetters > latinLetters) {
+            //Japanese is written with kanji (Han) and kana; any kana at all means it's not Chinese.
+            return scripts[KANA] > 0 && topScript == HAN ? "ja" : SCRIPT_LANGUAGES[topScript];
+        }
+        if (latinLetters < MIN_LETTERS) {
+            return null;
+        }
+        int best = 0;
+        int runnerUp = -1;
+        for (int l = 1; l < languages; l++) {
+            if (scores[l] > scores[best]) {
+                runnerUp = best;
+                best = l;
+            } else if (runnerUp < 0 || scores[l] > scores[runnerUp]) {
+                runnerUp = l;
+            }
+        }
+        return (scores[best] - scores[runnerUp]) / trigrams < MIN_MARGIN ? null : LATIN_LANGUAGES.get(best);
+    }
+
+    //ISO 639-1 code of a language as users write it ("French", "fr", "fr-CA", "français"), or null if unknown.
+    public static String languageCode(String language) {
+        if (language == null) {
+            return null;
+        }
+        String name = language.strip().toLowerCase(Locale.ROOT);
+        String code = LANGUAGE_NAMES.get(name);
+        if (code == null && name.length() > 2 && (name.charAt(2) == '-' || name.charAt(2) == '_')) {
+            code = LANGUAGE_NAMES.get(name.substring(0, 2));
+        }
+        return code;
+    }
+
+    //Script index (see SCRIPT_LANGUAGES) of a letter.
+    private static int script(char c) {
+        if (c < 0x0250 || (c >= 0x1E00 && c <= 0x1EFF)) {
+            return LATIN;
+        }
+        if (c >= 0x0370 && c <= 0x03FF) {
+            return 1;
+        }
+        if (c >= 0x0400 && c <= 0x052F) {
+            return 2;
+        }
+        if (c >= 0x0590 && c <= 0x05FF) {
+            return 3;
+        }
+        if (c >= 0x0600 && c <= 0x06FF) {
+            return 4;
+        }
+        if (c >= 0x0900 && c <= 0x097F) {
+            return 5;
+        }
+        if (c >= 0x0E00 && c <= 0x0E7F) {
+            return 6;
+        }
+        if (c >= 0x3040 && c <= 0x30FF) {
+            return KANA;
+        }
+        if ((c >= 0xAC00 && c <= 0xD7AF) || (c >= 0x1100 && c <= 0x11FF)) {
+            return 8;
+        }
+        if (c >= 0x4E00 && c <= 0x9FFF) {
+            return HAN;
+        }
+        return OTHER;
+    }
+
+    private static int bucket(char a, char b, char c) {
+        int hash = a * 0x9E3779B1 ^ b * 0x85EBCA6B ^ c * 0xC2B2AE35;
+        hash ^= hash >>> 15;
+        hash *= 0x2C1B3C6D;
+        return hash >>> (32 - BUCKET_BITS);
+    }
+
+    //Built on first use, from the same normalization detect() applies.
+    private static final class Profiles {
+        private static final float[] LOG_PROBABILITIES = build();
+
+        private static float[] build() {
+            int languages = LATIN_LANGUAGES.size();
+            float[] profiles = new float[BUCKETS * languages];
+            for (int l = 0; l < languages; l++) {
+                int[] counts = new int[BUCKETS];
+                int total = 0;
+                char first = ' ';
+                char second = ' ';
+                String sample = sample(LATIN_LANGUAGES.get(l));
+                for (int i = 0; i <= sample.length(); i++) {
+                    char c = i < sample.length() ? sample.charAt(i) : ' ';
+                    char normalized = Character.isLetter(c) && script(c) == LATIN ? Character.toLowerCase(c) : ' ';
+                    if (normalized == ' ' && second == ' ') {
+                        continue;
+                    }
+                    if (first != ' ' || second != ' ') {
+                        counts[bucket(first, second, normalized)]++;
+                        total++;
+                    }
+                    first = second;
+                    second = normalized;
+                }
+                //Add-half smoothing, so a trigram a sample happens to lack costs something but isn't fatal.
+                double denominator = total + 0.5 * BUCKETS;
+                for (int b = 0; b < BUCKETS; b++) {
+                    profiles[b * languages + l] = (float) Math.log((counts[b] + 0.5) / denominator);
+                }
+            }
+            return profiles;
+        }
+
+        private static String sample(String language) {
+            try (InputStream in = LanguageDetector.class.getResourceAsStream("/langid/" + language + ".txt")) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing language sample langid/" + language + ".txt");
+                }
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static Map<String, String> languageNames() {
+        Map<String, String> names = new HashMap<>();
+        add(names, "en", "english", "anglais", "inglés", "ingles", "englisch", "inglese", "inglês", "engels");
+        add(names, "fr", "french", "français", "francais", "francés", "frances", "französisch", "francese", "francês", "frans");
+        add(names, "es", "spanish", "español", "espanol", "castellano", "espagnol", "spanisch", "spagnolo", "espanhol", "spaans");
+        add(names, "de", "german", "deutsch", "allemand", "alemán", "aleman", "tedesco", "alemão", "duits");
+        add(names, "it", "italian", "italiano", "italien", "italienisch", "italiaans");
+        add(names, "pt", "portuguese", "português", "portugues", "portugais", "portugiesisch", "portoghese", "portugees",
+                "brazilian portuguese");
+        add(names, "nl", "dutch", "nederlands", "flemish", "néerlandais", "niederländisch", "holandés");
+        add(names, "ru", "russian", "русский", "russe", "ruso", "russisch");
+        add(names, "el", "greek", "ελληνικά", "grec", "griego", "griechisch");
+        add(names, "he", "hebrew", "עברית", "hébreu", "hebreo", "hebräisch");
+        add(names, "ar", "arabic", "العربية", "arabe", "árabe", "arabisch");
+        add(names, "hi", "hindi", "हिन्दी", "हिंदी");
+        add(names, "th", "thai", "ไทย");
+        add(names, "ja", "japanese", "日本語", "japonais", "japonés", "japanisch");
+        add(names, "ko", "korean", "한국어", "coréen", "coreano", "koreanisch");
+        add(names, "zh", "chinese", "mandarin", "中文", "汉语", "simplified chinese", "traditional chinese", "chinois",
+                "chino", "chinesisch");
+        return Map.copyOf(names);
+    }
+
+    private static void add(Map<String, String> names, String code, String... aliases) {
+        names.put(code, code);
+        for (String alias : aliases) {
+            names.put(alias, code);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.search.Tokenizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+//Deterministic stand-in for a real embedding model, used in tests and when no Gemini key is set up.
+//Words and character trigrams are hashed into a fixed number of dimensions (the "hashing trick"),
+//so notes sharing vocabulary end up close to each other.
+@Component
+@ConditionalOnProperty(name = "ai.embedding.provider", havingValue = "local", matchIfMissing = true)
+public class LocalEmbeddingProvider implements EmbeddingProvider {
+
+    private final int dimensions;
+
+    public LocalEmbeddingProvider(@Value("${ai.embedding.dimensions:256}") int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        Tokenizer.tokenize(text, term -> {
+            add(vector, term.hashCode(), 1f);
+            // Trigrams make related word forms ("summary", "summaries") land near each other.
+            String padded = "#" + term + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, padded.substring(i, i + 3).hashCode() * 31 + 7, 0.5f);
+            }
+        });
+        normalize(vector);
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void add(float[] vector, int hash, float weight) {
+        int mixed = hash * 0x9E3779B9;
+        int index = Math.floorMod(mixed, dimensions);
+        // One bit of the hash picks the sign, so collisions cancel out instead of piling up.
+        vector[index] += (mixed & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.prog.secure_note.ai_service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+//Cuts a long note into chunks that each fit in one prompt, and runs one call per chunk with bounded
+//parallelism, for the map-reduce summarise and translate of AIService.
+public final class NoteChunker {
+
+    private NoteChunker() {
+    }
+
+    //Chunks of at most maxChars, cut between paragraphs (blank lines). A paragraph that is too long on its
+    //own is cut after a sentence, or at a space if it has no sentence end early enough.
+    //Paragraphs in a chunk are joined by one blank line, so joining the chunks the same way gives back the note.
+    public static List<String> split(String text, int maxChars) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return chunks;
+        }
+        StringBuilder current = new StringBuilder();
+        for (String paragraph : text.split("\\n[ \\t]*\\n")) {
+            String trimmed = paragraph.strip();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            for (String piece : trimmed.length() > maxChars ? splitParagraph(trimmed, maxChars) : List.of(trimmed)) {
+                if (!current.isEmpty() && current.length() + 2 + piece.length() > maxChars) {
+                    chunks.add(current.toString());
+                    current.setLength(0);
+                }
+                if (!current.isEmpty()) {
+                    current.append("\n\n");
+                }
+                current.append(piece);
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    private static List<String> splitParagraph(String paragraph, int maxChars) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (paragraph.length() - start > maxChars) {
+            int limit = start + maxChars;
+            int cut = lastSentenceEnd(paragraph, start, limit);
+            if (cut <= start) {
+                cut = paragraph.lastIndexOf(' ', limit);
+            }
+            if (cut <= start) {
+                cut = limit; // One very long word.
+            }
+            pieces.add(paragraph.substring(start, cut).strip());
+            start = cut;
+            while (start < paragraph.length() && Character.isWhitespace(paragraph.charAt(start))) {
+                start++;
+            }
+        }
+        if (start < paragraph.length()) {
+            pieces.add(paragraph.substring(start));
+        }
+        return pieces;
+    }
+
+    //Index just after the last '.', '!', '?' or line break followed by whitespace in [start, limit), or -1.
+    private static int lastSentenceEnd(String text, int start, int limit) {
+        for (int i = Math.min(limit, text.length() - 1) - 1; i > start; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || ((c == '.' || c == '!' || c == '?') && Character.isWhitespace(text.charAt(i + 1)))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    //Calls `call` for every chunk, at most maxParallel at a time, and completes with the results in chunk
+    //order. The first failure fails the whole result and no further chunks are started.
+    public static <T> CompletableFuture<List<T>> mapInOrder(List<String> chunks, int maxParallel,
+                                                            Function<String, CompletableFuture<T>> call) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        if (chunks.isEmpty()) {
+            result.complete(List.of());
+            return result;
+        }
+        MapJob<T> job = new MapJob<>(chunks, call, result);
+        for (int i = 0; i < Math.min(Math.max(1, maxParallel), chunks.size()); i++) {
+            job.startNext();
+        }
+        return result;
+    }
+
+    private static class MapJob<T> {
+        private final List<String> chunks;
+        private final Function<String, CompletableFuture<T>> call;
+        private final CompletableFuture<List<T>> result;
+        private final Object[] values;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+
+        MapJob(List<String> chunks, Function<String, CompletableFuture<T>> call, CompletableFuture<List<T>> result) {
+            this.chunks = chunks;
+            this.call = call;
+            this.result = result;
+            this.values = new Object[chunks.size()];
+            this.remaining = new AtomicInteger(chunks.size());
+        }
+
+        @SuppressWarnings("unchecked")
+        void startNext() {
+            int index = next.getAndIncrement();
+            if (index >= chunks.size() || result.isDone()) {
+                return;
+            }
+            CompletableFuture<T> future;
+            try {
+                future = call.apply(chunks.get(index));
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                values[index] = value;
+                if (remaining.decrementAndGet() == 0) {
+                    List<T> ordered = new ArrayList<>(values.length);
+                    for (Object v : values) {
+                        ordered.add((T) v);
+                    }
+                    result.complete(ordered);
+                } else {
+                    startNext();
+                }
+            });
+        }
+    }
+}
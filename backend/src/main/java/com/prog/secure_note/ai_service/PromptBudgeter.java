@@ -0,0 +1,203 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.utils.NoteTextExtractor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+//Shrinks what AIService puts in a prompt. Note content is turned into plain text (the editor stores HTML)
+//with whitespace runs collapsed; for summaries and answers repeated lines and separator lines are dropped
+//too, and content still over the token budget of the operation is cut down to the paragraphs that matter
+//most. Translations and read-aloud text must cover the whole note, so they are only cleaned (long notes
+//are chunked by AIService instead). Web search snippets are cut to a budget of their own.
+@Component
+public class PromptBudgeter {
+
+    private static final Pattern MARKUP = Pattern.compile("</?[a-zA-Z][^<>]*>");
+    private static final Pattern HORIZONTAL_SPACE = Pattern.compile("[ \\t\\u00A0]+");
+    private static final Pattern SEPARATOR_LINE = Pattern.compile("[-=_*~#.]{3,}");
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n\\n");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final MeterRegistry meterRegistry;
+    private final int summariseBudget;
+    private final int answerBudget;
+    private final int snippetBudget;
+    private final int webResultsBudget;
+
+    public PromptBudgeter(MeterRegistry meterRegistry,
+                          @Value("${ai.prompt.budget.summarise:8000}") int summariseBudget,
+                          @Value("${ai.prompt.budget.answer:3000}") int answerBudget,
+                          @Value("${ai.prompt.budget.web-snippet:120}") int snippetBudget,
+                          @Value("${ai.prompt.budget.web-results:600}") int webResultsBudget) {
+        this.meterRegistry = meterRegistry;
+        this.summariseBudget = summariseBudget;
+        this.answerBudget = answerBudget;
+        this.snippetBudget = snippetBudget;
+        this.webResultsBudget = webResultsBudget;
+    }
+
+    //The request with its content trimmed for its operation. The request itself is left as it is,
+    //it is still the cache and single-flight key.
+    public AIRequest apply(AIRequest request) {
+        String content = request.getContent();
+        if (content == null || content.isEmpty()) {
+            return request;
+        }
+        String trimmed = switch (request.getOperation().toLowerCase(Locale.ROOT)) {
+            case "summarise" -> fit(dropBoilerplate(clean(content)), summariseBudget, null);
+            case "answer" -> fit(dropBoilerplate(clean(content)), answerBudget, request.getQuestion());
+            case "translate", "read" -> clean(content);
+            //The passages of "ask" are already picked to fit a budget by NoteAskServiceImpl.
+            default -> content;
+        };
+        if (trimmed.equals(content)) {
+            return request;
+        }
+        AIRequest copy = new AIRequest();
+        copy.setOperation(request.getOperation());
+        copy.setContent(trimmed);
+        copy.setQuestion(request.getQuestion());
+        copy.setSummaryLength(request.getSummaryLength());
+        copy.setTargetLanguage(request.getTargetLanguage());
+        return copy;
+    }
+
+    //Plain text with one space between words and at most one blank line between paragraphs.
+    public String clean(String content) {
+        if (content == null || content.isEmpty()) {
+            return "";
+        }
+        String text = content;
+        String trimmed = content.strip();
+        if (trimmed.startsWith("{\"content\"") || MARKUP.matcher(content).find()) {
+            text = NoteTextExtractor.toPlainText(content);
+        }
+        StringBuilder cleaned = new StringBuilder(text.length());
+        boolean blankLine = false;
+        for (String line : text.split("\\r?\\n")) {
+            String normalized = HORIZONTAL_SPACE.matcher(line).replaceAll(" ").strip();
+            if (normalized.isEmpty()) {
+                blankLine = !cleaned.isEmpty();
+                continue;
+            }
+            if (!cleaned.isEmpty()) {
+                cleaned.append(blankLine ? "\n\n" : "\n");
+            }
+            cleaned.append(normalized);
+            blankLine = false;
+        }
+        return cleaned.toString();
+    }
+
+    //A search snippet cut to the per-snippet budget.
+    public String snippet(String snippet) {
+        return truncate(clean(snippet), snippetBudget);
+    }
+
+    //Tokens all snippets of one web search may take together.
+    public int webResultsBudget() {
+        return webResultsBudget;
+    }
+
+    //Records the estimated size of a prompt that is about to be sent.
+    public void record(String operation, String prompt) {
+        DistributionSummary.builder("ai.prompt.tokens.estimated")
+                .baseUnit("tokens")
+                .tag("operation", operation.toLowerCase(Locale.ROOT))
+                .register(meterRegistry)
+                .record(TokenEstimator.estimate(prompt));
+    }
+
+    //Separator lines, and lines seen before (signatures, repeated headers, pasted twice), add nothing to a
+    //summary or an answer.
+    private static String dropBoilerplate(String text) {
+        Set<String> seen = new HashSet<>();
+        StringBuilder kept = new StringBuilder(text.length());
+        for (String line : text.split("\n", -1)) {
+            if (!line.isEmpty() && (SEPARATOR_LINE.matcher(line).matches() || !seen.add(line.toLowerCase(Locale.ROOT)))) {
+                continue;
+            }
+            if (!kept.isEmpty()) {
+                kept.append('\n');
+            }
+            kept.append(line);
+        }
+        return kept.toString().replaceAll("\\n{3,}", "\n\n").strip();
+    }
+
+    //Keeps whole paragraphs within the budget: those that share the most words with the question, or
+    //the first ones when there is no question, in their original order.
+    private static String fit(String text, int budget, String question) {
+        if (budget <= 0 || TokenEstimator.estimate(text) <= budget) {
+            return text;
+        }
+        String[] paragraphs = PARAGRAPH_BREAK.split(text);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < paragraphs.length; i++) {
+            order.add(i);
+        }
+        if (question != null && !question.isBlank()) {
+            Set<String> terms = words(question);
+            int[] scores = new int[paragraphs.length];
+            for (int i = 0; i < paragraphs.length; i++) {
+                Set<String> paragraphWords = words(paragraphs[i]);
+                paragraphWords.retainAll(terms);
+                scores[i] = paragraphWords.size();
+            }
+            order.sort(Comparator.comparingInt((Integer i) -> -scores[i]).thenComparingInt(i -> i));
+        }
+
+        boolean[] keep = new boolean[paragraphs.length];
+        int remaining = budget;
+        for (int i : order) {
+            int tokens = TokenEstimator.estimate(paragraphs[i]);
+            //A paragraph that doesn't fit is skipped; a less relevant, shorter one may still fit.
+            if (tokens <= remaining) {
+                keep[i] = true;
+                remaining -= tokens;
+            }
+        }
+        StringBuilder kept = new StringBuilder();
+        for (int i = 0; i < paragraphs.length; i++) {
+            if (keep[i]) {
+                if (!kept.isEmpty()) {
+                    kept.append("\n\n");
+                }
+                kept.append(paragraphs[i]);
+            }
+        }
+        //Not even one paragraph fits: the most relevant one is cut instead.
+        return kept.isEmpty() ? truncate(paragraphs[order.get(0)], budget) : kept.toString();
+    }
+
+    private static String truncate(String text, int maxTokens) {
+        if (TokenEstimator.estimate(text) <= maxTokens) {
+            return text;
+        }
+        //One token is kept for the ellipsis.
+        return text.substring(0, TokenEstimator.prefixLength(text, maxTokens - 1)).strip() + "…";
+    }
+
+    //Lower-case words of three or more letters.
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (word.length() >= 3) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
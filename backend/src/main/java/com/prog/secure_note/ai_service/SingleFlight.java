@@ -0,0 +1,43 @@
+package com.prog.secure_note.ai_service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+//Coalesces identical calls that are in flight at the same time: the first caller for a key starts the call,
+//callers that arrive before it completes get the same result (or the same failure). Nothing is kept once
+//the call completes, so a failed call is simply tried again by the next caller.
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> shared = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            //A copy, so one caller cancelling or completing its future can't affect the others.
+            return existing.copy();
+        }
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        upstream.whenComplete((value, error) -> {
+            //Removed before completing, so a caller that sees the result can't join a finished call.
+            inFlight.remove(key, shared);
+            if (error != null) {
+                shared.completeExceptionally(error);
+            } else {
+                shared.complete(value);
+            }
+        });
+        return shared.copy();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,70 @@
+package com.prog.secure_note.ai_service;
+
+//Estimates the number of Gemini tokens of a text without calling the API: a word is a token per six letters
+//(most English words are one), every punctuation mark or symbol is one, and so is every CJK character. Close enough to
+//keep prompts under a budget, and unlike chars/4 it doesn't undercount code, tables or CJK text.
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_WORD_TOKEN = 6;
+    //From here on (CJK radicals and up) every letter is counted as a token of its own.
+    private static final char FIRST_CJK = '\u2E80';
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isWordChar(c)) {
+                wordLength++;
+                continue;
+            }
+            tokens += wordTokens(wordLength);
+            wordLength = 0;
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        return tokens + wordTokens(wordLength);
+    }
+
+    //Length of the longest prefix of text that takes at most maxTokens and ends before a whitespace,
+    //or text.length() when all of it fits.
+    public static int prefixLength(CharSequence text, int maxTokens) {
+        int tokens = 0;
+        int wordLength = 0;
+        int end = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isWordChar(c)) {
+                wordLength++;
+                continue;
+            }
+            tokens += wordTokens(wordLength);
+            wordLength = 0;
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+            if (tokens > maxTokens) {
+                return end;
+            }
+            if (Character.isWhitespace(c)) {
+                end = i;
+            }
+        }
+        return tokens + wordTokens(wordLength) > maxTokens ? end : text.length();
+    }
+
+    private static boolean isWordChar(char c) {
+        return c < FIRST_CJK && Character.isLetterOrDigit(c);
+    }
+
+    private static int wordTokens(int wordLength) {
+        return (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+    }
+}
@@ -0,0 +1,120 @@
+package com.prog.secure_note.ai_service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+//Sentence translations of earlier requests, so translating an edited note again only sends the sentences
+//that changed. Keyed by 128 bits of the SHA-256 of the user, the sentence (whitespace runs count as one space) and
+//the target language, so no note text is kept. Entries are per user: a translation is what Gemini answered to
+//that user's own prompt, which their note text can steer, so it is never served to anyone else. The values are
+//the UTF-8 bytes of the translations. LRU, bounded in bytes.
+@Component
+public class TranslationMemory {
+
+    //Rough heap cost of an entry besides its translation: map entry, key and array header.
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Map<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final Counter memoryChars;
+    private final Counter translatedChars;
+
+    public TranslationMemory(MeterRegistry meterRegistry,
+                             @Value("${ai.translation.memory.enabled:true}") boolean enabled,
+                             @Value("${ai.translation.memory.max-bytes:16777216}") long maxBytes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.memoryChars = Counter.builder("ai.translation.chars").tag("source", "memory").register(meterRegistry);
+        this.translatedChars = Counter.builder("ai.translation.chars").tag("source", "gemini").register(meterRegistry);
+        Gauge.builder("ai.translation.memory.share", this, TranslationMemory::memoryShare).register(meterRegistry);
+        Gauge.builder("ai.translation.memory.bytes", this, memory -> memory.bytes).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //Null when the sentence hasn't been translated to this language (or was evicted since).
+    public String get(String username, String sentence, String targetLanguage) {
+        byte[] translation;
+        synchronized (entries) {
+            translation = entries.get(key(username, sentence, targetLanguage));
+        }
+        return translation == null ? null : new String(translation, StandardCharsets.UTF_8);
+    }
+
+    public void put(String username, String sentence, String targetLanguage, String translation) {
+        byte[] value = translation.getBytes(StandardCharsets.UTF_8);
+        if (!enabled || value.length + ENTRY_OVERHEAD_BYTES > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key(username, sentence, targetLanguage), value);
+            bytes += value.length + (previous == null ? ENTRY_OVERHEAD_BYTES : -previous.length);
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().length + ENTRY_OVERHEAD_BYTES;
+                eldest.remove();
+            }
+        }
+    }
+
+    //Characters of one translation that came from the memory and that were sent to Gemini.
+    public void record(long fromMemory, long fromGemini) {
+        memoryChars.increment(fromMemory);
+        translatedChars.increment(fromGemini);
+    }
+
+    //Share of all translated characters that were served from the memory.
+    public double memoryShare() {
+        double total = memoryChars.count() + translatedChars.count();
+        return total == 0 ? 0 : memoryChars.count() / total;
+    }
+
+    //SHA-256 over the username, a 0 byte, the sentence with whitespace runs as one space, a 0 byte, then the
+    //target language.
+    private static Key key(String username, String sentence, String targetLanguage) {
+        StringBuilder normalized = new StringBuilder(username.length() + sentence.length() + 8);
+        normalized.append(username).append('\0');
+        boolean space = false;
+        for (int i = 0; i < sentence.length(); i++) {
+            char c = sentence.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                normalized.append(' ');
+                space = false;
+            }
+            normalized.append(c);
+        }
+        //"French" and "fr" are the same memory.
+        String code = LanguageDetector.languageCode(targetLanguage);
+        normalized.append('\0').append(code != null ? code : targetLanguage.strip().toLowerCase(Locale.ROOT));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalized.toString().getBytes(StandardCharsets.UTF_8));
+            ByteBuffer bits = ByteBuffer.wrap(hash);
+            return new Key(bits.getLong(), bits.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Key(long high, long low) {
+    }
+}
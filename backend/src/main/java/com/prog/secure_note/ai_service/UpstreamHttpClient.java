@@ -0,0 +1,226 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.exception.UpstreamUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//Shared HTTP client for the Gemini and Google Search APIs: one HTTP/2 connection pool with connect and
+//request timeouts, retries with jittered exponential backoff for overload answers (429, 502, 503, 504)
+//and connect failures, and a circuit breaker per upstream that fails fast while it keeps failing.
+@Component
+public class UpstreamHttpClient {
+
+    private final ExecutorService responseExecutor;
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+    private final Duration requestTimeout;
+    private final int maxAttempts;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final int failureThreshold;
+    private final long openMs;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public UpstreamHttpClient(MeterRegistry meterRegistry,
+                              @Value("${ai.http.connect-timeout:5s}") Duration connectTimeout,
+                              @Value("${ai.http.request-timeout:60s}") Duration requestTimeout,
+                              @Value("${ai.http.max-attempts:3}") int maxAttempts,
+                              @Value("${ai.http.retry-base-delay:200ms}") Duration retryBaseDelay,
+                              @Value("${ai.http.retry-max-delay:2s}") Duration retryMaxDelay,
+                              @Value("${ai.http.breaker.failure-threshold:5}") int failureThreshold,
+                              @Value("${ai.http.breaker.open-duration:30s}") Duration openDuration,
+                              @Value("${ai.http.executor-threads:0}") int executorThreads) {
+        this.meterRegistry = meterRegistry;
+        this.requestTimeout = requestTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseDelayMs = retryBaseDelay.toMillis();
+        this.retryMaxDelayMs = retryMaxDelay.toMillis();
+        this.failureThreshold = failureThreshold;
+        this.openMs = openDuration.toMillis();
+        //Async responses (and their body subscribers) are handled on virtual threads, or on a fixed pool of
+        //executor-threads platform threads when set, instead of the client's default unbounded cached pool.
+        this.responseExecutor = executorThreads > 0
+                ? Executors.newFixedThreadPool(executorThreads, r -> {
+                    Thread thread = new Thread(r, "ai-http");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ai-http-", 0).factory());
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .executor(responseExecutor)
+                .build();
+    }
+
+    //Sends the request to the named upstream. Fails with UpstreamUnavailableException while its breaker is open.
+    //Only use for requests that are safe to send twice.
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(String upstream, HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest timed = HttpRequest.newBuilder(request, (name, value) -> true).timeout(requestTimeout).build();
+        return attempt(breaker(upstream), timed, bodyHandler, 1);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> attempt(CircuitBreaker breaker, HttpRequest request,
+                                                         HttpResponse.BodyHandler<T> bodyHandler, int attempt) {
+        long retryAfterMs = breaker.tryAcquire();
+        if (retryAfterMs > 0) {
+            breaker.outcome("rejected", 0);
+            return CompletableFuture.failedFuture(new UpstreamUnavailableException(
+                    "The " + breaker.name + " API is unavailable, try again later", (retryAfterMs + 999) / 1000));
+        }
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, bodyHandler)
+                .handle((response, error) -> {
+                    long elapsed = System.nanoTime() - start;
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    boolean overloaded = response != null && isOverloaded(response.statusCode());
+                    if (cause != null || overloaded || (response != null && response.statusCode() >= 500)) {
+                        breaker.onFailure();
+                        breaker.outcome(cause != null ? "failure" : "http_error", elapsed);
+                    } else {
+                        //4xx other than 429 means the request was wrong, not that the upstream is unhealthy.
+                        breaker.onSuccess();
+                        breaker.outcome("success", elapsed);
+                    }
+
+                    boolean retryable = overloaded
+                            || cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException;
+                    if (retryable && attempt < maxAttempts) {
+                        breaker.retries.increment();
+                        Executor delayed = CompletableFuture.delayedExecutor(backoffMs(attempt, response), TimeUnit.MILLISECONDS);
+                        return CompletableFuture.supplyAsync(() -> null, delayed)
+                                .thenCompose(ignored -> attempt(breaker, request, bodyHandler, attempt + 1));
+                    }
+                    return cause != null
+                            ? CompletableFuture.<HttpResponse<T>>failedFuture(cause)
+                            : CompletableFuture.completedFuture(response);
+                })
+                .thenCompose(next -> next);
+    }
+
+    //Full jitter: a random delay up to base * 2^(attempt-1), capped. A Retry-After header wins if it is longer.
+    private long backoffMs(int attempt, HttpResponse<?> response) {
+        long ceiling = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (response != null) {
+            long retryAfter = retryAfterSeconds(response) * 1000;
+            delay = Math.max(delay, Math.min(retryAfter, retryMaxDelayMs));
+        }
+        return delay;
+    }
+
+    //Only the delta-seconds form; an HTTP date falls back to the computed backoff.
+    private static long retryAfterSeconds(HttpResponse<?> response) {
+        try {
+            return Math.max(0, response.headers().firstValueAsLong("Retry-After").orElse(0));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isOverloaded(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private CircuitBreaker breaker(String upstream) {
+        return breakers.computeIfAbsent(upstream, CircuitBreaker::new);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpClient.shutdownNow();
+        responseExecutor.shutdownNow();
+    }
+
+    //Closed: calls go through, consecutive failures are counted. Open: calls fail fast until openMs has passed.
+    //Half-open: one trial call is let through; its result closes or reopens the breaker.
+    private class CircuitBreaker {
+        private static final int CLOSED = 0;
+        private static final int HALF_OPEN = 1;
+        private static final int OPEN = 2;
+
+        private final String name;
+        private final Counter retries;
+        private int state = CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean trialInFlight;
+
+        CircuitBreaker(String name) {
+            this.name = name;
+            this.retries = Counter.builder("ai.upstream.retries").tag("upstream", name).register(meterRegistry);
+            Gauge.builder("ai.upstream.breaker.state", this, breaker -> breaker.state())
+                    .description("0 = closed, 1 = half-open, 2 = open")
+                    .tag("upstream", name)
+                    .register(meterRegistry);
+        }
+
+        //0 if the call may go out, otherwise how long until the breaker lets a trial call through.
+        synchronized long tryAcquire() {
+            if (state == OPEN) {
+                long remaining = openedAt + openMs - System.currentTimeMillis();
+                if (remaining > 0) {
+                    return remaining;
+                }
+                state = HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == HALF_OPEN) {
+                if (trialInFlight) {
+                    return Math.max(1, openMs / 10);
+                }
+                trialInFlight = true;
+            }
+            return 0;
+        }
+
+        synchronized void onSuccess() {
+            state = CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+        }
+
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            if (state == HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = OPEN;
+                openedAt = System.currentTimeMillis();
+                trialInFlight = false;
+            }
+        }
+
+        synchronized int state() {
+            return state;
+        }
+
+        void outcome(String outcome, long nanos) {
+            Timer.builder("ai.upstream.latency")
+                    .tag("upstream", name)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
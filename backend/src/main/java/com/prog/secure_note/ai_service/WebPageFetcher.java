@@ -0,0 +1,253 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIWebSearch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+//Optional enrichment of web search results for answers: the top result pages are fetched at the same time,
+//one virtual thread each, and their main text (HtmlTextExtractor) goes into the prompt next to the snippets.
+//Every page has its own timeout and the whole stage a deadline; a page that isn't done by then is cancelled
+//and left out, so the stage never adds more than the deadline to an answer and at worst it has snippets only.
+//The urls come from search results, so they are untrusted: a page (and every redirect, which is followed here
+//rather than by the client) is only fetched when its host resolves to public addresses, never to loopback,
+//private, link-local (cloud metadata at 169.254.169.254) or other reserved ones.
+@Component
+public class WebPageFetcher {
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private final boolean enabled;
+    private final int maxPages;
+    private final Duration pageTimeout;
+    private final long deadlineNanos;
+    private final int excerptTokens;
+    private final HttpClient httpClient;
+    private final ExecutorService fetchers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter fetched;
+    private final Counter timedOut;
+    private final Counter failed;
+    private final Counter blocked;
+    //Which resolved addresses may be fetched; tests widen it to reach their local stub.
+    Predicate<InetAddress> addressAllowed = WebPageFetcher::isPublic;
+
+    public WebPageFetcher(MeterRegistry meterRegistry,
+                          @Value("${ai.web-search.pages.enabled:false}") boolean enabled,
+                          @Value("${ai.web-search.pages.count:3}") int maxPages,
+                          @Value("${ai.web-search.pages.page-timeout:2s}") Duration pageTimeout,
+                          @Value("${ai.web-search.pages.deadline:3s}") Duration deadline,
+                          @Value("${ai.web-search.pages.excerpt-tokens:300}") int excerptTokens) {
+        this.enabled = enabled && maxPages > 0 && excerptTokens > 0;
+        this.maxPages = maxPages;
+        this.pageTimeout = pageTimeout;
+        this.deadlineNanos = deadline.toNanos();
+        this.excerptTokens = excerptTokens;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(pageTimeout.isZero() ? Duration.ofSeconds(1) : pageTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        this.fetched = Counter.builder("ai.web-search.pages").tag("result", "fetched").register(meterRegistry);
+        this.timedOut = Counter.builder("ai.web-search.pages").tag("result", "timeout").register(meterRegistry);
+        this.failed = Counter.builder("ai.web-search.pages").tag("result", "failed").register(meterRegistry);
+        this.blocked = Counter.builder("ai.web-search.pages").tag("result", "blocked").register(meterRegistry);
+    }
+
+    //The results with the excerpts of the pages that were fetched in time (none when disabled).
+    public CompletableFuture<AIWebSearch> enrich(AIWebSearch results) {
+        if (!enabled || results == null || results.getSourceUrls() == null || results.getSourceUrls().isEmpty()) {
+            return CompletableFuture.completedFuture(results);
+        }
+        return CompletableFuture.supplyAsync(() -> withExcerpts(results), fetchers);
+    }
+
+    private AIWebSearch withExcerpts(AIWebSearch results) {
+        long deadline = System.nanoTime() + deadlineNanos;
+        List<String> urls = new ArrayList<>();
+        for (String url : results.getSourceUrls()) {
+            if (urls.size() < maxPages && isWebPage(url)) {
+                urls.add(url);
+            }
+        }
+        List<Future<String>> pages = new ArrayList<>();
+        for (String url : urls) {
+            pages.add(fetchers.submit(() -> fetch(url)));
+        }
+        long pageDeadline = System.nanoTime() + Math.min(pageTimeout.toNanos(), deadlineNanos);
+        StringBuilder excerpts = new StringBuilder();
+        for (int i = 0; i < pages.size(); i++) {
+            String excerpt = null;
+            try {
+                excerpt = pages.get(i).get(Math.max(0, Math.min(pageDeadline, deadline) - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                timedOut.increment();
+            } catch (ExecutionException e) {
+                failed.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            //Interrupts the page's virtual thread, which closes its connection.
+            pages.get(i).cancel(true);
+            if (excerpt != null && !excerpt.isBlank()) {
+                fetched.increment();
+                excerpts.append("URL: ").append(urls.get(i)).append('\n').append(excerpt).append("\n---\n");
+            }
+        }
+        return AIWebSearch.builder()
+                .combinedSnippets(results.getCombinedSnippets())
+                .sourceUrls(results.getSourceUrls())
+                .pageExcerpts(excerpts.isEmpty() ? null : excerpts.toString())
+                .build();
+    }
+
+    private static boolean isWebPage(String url) {
+        try {
+            return isWebPage(URI.create(url));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isWebPage(URI uri) {
+        String scheme = uri.getScheme();
+        return ("https".equalsIgnoreCase(scheme) || "http".equalsIgnoreCase(scheme)) && uri.getHost() != null;
+    }
+
+    //Main text of an HTML page, null for anything else. Redirects are followed here, each one checked like
+    //the first url.
+    private String fetch(String url) throws Exception {
+        URI uri = URI.create(url);
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            if (!isWebPage(uri) || !resolvesToAllowed(uri.getHost())) {
+                blocked.increment();
+                return null;
+            }
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(uri)
+                    .timeout(pageTimeout)
+                    .header("Accept", "text/html")
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                Optional<String> location = response.headers().firstValue("Location");
+                if (isRedirect(response.statusCode()) && location.isPresent()) {
+                    uri = uri.resolve(location.get());
+                    continue;
+                }
+                String contentType = response.headers().firstValue("Content-Type").orElse("text/html").toLowerCase(Locale.ROOT);
+                if (response.statusCode() != 200 || !contentType.contains("html")) {
+                    return null;
+                }
+                Reader html = new BufferedReader(new InputStreamReader(body, charset(contentType)));
+                return HtmlTextExtractor.extract(html, excerptTokens);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    //Every address of the host must be allowed, the client may connect to any of them. The client resolves the
+    //name again when it connects, so a name that changes its answer in between isn't caught here; the egress
+    //rules of the deployment remain the outer boundary.
+    private boolean resolvesToAllowed(String host) throws Exception {
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            if (!addressAllowed.test(address)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Globally routable unicast addresses only.
+    static boolean isPublic(InetAddress address) {
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+            || address.isSiteLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] ip = address.getAddress();
+        if (address instanceof Inet4Address) {
+            int a = ip[0] & 0xff;
+            int b = ip[1] & 0xff;
+            return a != 0                                   // 0.0.0.0/8 "this network"
+                   && !(a == 100 && b >= 64 && b < 128)     // 100.64.0.0/10 carrier-grade NAT
+                   && !(a == 192 && b == 0 && ip[2] == 0)   // 192.0.0.0/24 protocol assignments
+                   && !(a == 198 && (b == 18 || b == 19))   // 198.18.0.0/15 benchmarking
+                   && a < 240;                              // 240.0.0.0/4 reserved and broadcast
+        }
+        if (address instanceof Inet6Address) {
+            //fc00::/7 unique local; IPv4-mapped addresses already arrive as Inet4Address.
+            if ((ip[0] & 0xfe) == 0xfc) {
+                return false;
+            }
+            //::/96 IPv4-compatible and 64:ff9b::/96 NAT64 carry an IPv4 address, which is checked instead.
+            boolean compatible = true;
+            for (int i = 0; i < 12; i++) {
+                compatible &= ip[i] == 0;
+            }
+            boolean nat64 = ip[0] == 0 && ip[1] == 0x64 && ip[2] == (byte) 0xff && ip[3] == (byte) 0x9b;
+            for (int i = 4; i < 12 && nat64; i++) {
+                nat64 = ip[i] == 0;
+            }
+            if (compatible || nat64) {
+                try {
+                    return isPublic(InetAddress.getByAddress(new byte[]{ip[12], ip[13], ip[14], ip[15]}));
+                } catch (UnknownHostException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Charset charset(String contentType) {
+        int at = contentType.indexOf("charset=");
+        if (at >= 0) {
+            String name = contentType.substring(at + 8).replace("\"", "").split(";")[0].strip();
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException ignored) {
+                //Unknown charset, read it as UTF-8.
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchers.shutdownNow();
+        httpClient.shutdownNow();
+    }
+}
@@ -0,0 +1,83 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIWebSearch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+//Web search results by normalized query (case, whitespace and trailing punctuation don't count), so a popular
+//question pays for one search per ttl. LRU with at most max-entries; identical searches in flight at the same
+//time are made once. A failed search (null) is not cached.
+@Component
+public class WebSearchCache {
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final SingleFlight<String, AIWebSearch> inFlight = new SingleFlight<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    public WebSearchCache(MeterRegistry meterRegistry,
+                          @Value("${ai.web-search.cache.ttl:PT15M}") Duration ttl,
+                          @Value("${ai.web-search.cache.max-entries:500}") int maxEntries) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > WebSearchCache.this.maxEntries;
+            }
+        };
+        this.hits = Counter.builder("ai.web-search.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("ai.web-search.requests").tag("result", "miss").register(meterRegistry);
+    }
+
+    //The cached results for the query, or those of search(query), shared with identical searches in flight.
+    public CompletableFuture<AIWebSearch> get(String query, Function<String, CompletableFuture<AIWebSearch>> search) {
+        if (ttlMillis <= 0 || maxEntries <= 0) {
+            return search.apply(query);
+        }
+        String key = normalize(query);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() > now) {
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.results());
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return inFlight.run(key, () -> search.apply(query).thenApply(results -> {
+            if (results != null) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(results, System.currentTimeMillis() + ttlMillis));
+                }
+            }
+            return results;
+        }));
+    }
+
+    static String normalize(String query) {
+        String normalized = query.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        int end = normalized.length();
+        while (end > 0 && !Character.isLetterOrDigit(normalized.charAt(end - 1))) {
+            end--;
+        }
+        return normalized.substring(0, end);
+    }
+
+    private record Entry(AIWebSearch results, long expiresAt) {
+    }
+}
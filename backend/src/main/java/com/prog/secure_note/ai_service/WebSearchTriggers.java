@@ -0,0 +1,178 @@
+package com.prog.secure_note.ai_service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+//Decides whether a question to answer needs a web search. A rule is one or more phrases joined by '+', and it
+//matches when the question contains all of them ("tom cruise+movies"); any matching rule triggers a search.
+//All phrases are compiled into one Aho-Corasick automaton with its failure links resolved into a full
+//transition table, so a question is scanned once, a table read per character, however many rules there are.
+@Component
+public class WebSearchTriggers {
+
+    public static final String DEFAULT_RULES = "upcoming,latest,current,news,release date,who is,when is,"
+                                               + "what is the current,recent,as of today,last part,newest,"
+                                               + "tom cruise+movies";
+
+    //Rules as phrase indexes.
+    private final int[][] rules;
+    //Phrases that are a rule on their own; finding one ends the scan at once.
+    private final boolean[] triggersAlone;
+    private final int phraseCount;
+
+    //Characters of the phrases get small class numbers, every other character is class 0.
+    private final int[] asciiClasses = new int[128];
+    private final Map<Character, Integer> otherClasses = new HashMap<>();
+    private final int classCount;
+    //transitions[state * classCount + class], the next state.
+    private final int[] transitions;
+    //Phrases that end in a state, including those ending there through failure links.
+    private final int[][] outputs;
+
+    public WebSearchTriggers(@Value("${ai.web-search.triggers:" + DEFAULT_RULES + "}") String[] ruleSpecs) {
+        Map<String, Integer> phraseIds = new HashMap<>();
+        List<String> phrases = new ArrayList<>();
+        List<int[]> compiled = new ArrayList<>();
+        for (String spec : ruleSpecs) {
+            int[] rule = Arrays.stream(spec.split("\\+"))
+                    .map(phrase -> phrase.strip().toLowerCase(Locale.ROOT))
+                    .filter(phrase -> !phrase.isEmpty())
+                    .mapToInt(phrase -> phraseIds.computeIfAbsent(phrase, p -> {
+                        phrases.add(p);
+                        return phrases.size() - 1;
+                    }))
+                    .distinct()
+                    .toArray();
+            if (rule.length > 0) {
+                compiled.add(rule);
+            }
+        }
+        this.rules = compiled.toArray(new int[0][]);
+        this.phraseCount = phrases.size();
+        this.triggersAlone = new boolean[phraseCount];
+        for (int[] rule : rules) {
+            if (rule.length == 1) {
+                triggersAlone[rule[0]] = true;
+            }
+        }
+
+        int classes = 1;
+        for (String phrase : phrases) {
+            for (char c : phrase.toCharArray()) {
+                if (charClass(c) == 0) {
+                    if (c < 128) {
+                        asciiClasses[c] = classes++;
+                    } else {
+                        otherClasses.put(c, classes++);
+                    }
+                }
+            }
+        }
+        this.classCount = classes;
+
+        //The trie, with -1 for a missing edge.
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(newState());
+        ends.add(new ArrayList<>());
+        for (int p = 0; p < phraseCount; p++) {
+            int state = 0;
+            for (char c : phrases.get(p).toCharArray()) {
+                int cls = charClass(c);
+                if (trie.get(state)[cls] < 0) {
+                    trie.get(state)[cls] = trie.size();
+                    trie.add(newState());
+                    ends.add(new ArrayList<>());
+                }
+                state = trie.get(state)[cls];
+            }
+            ends.get(state).add(p);
+        }
+
+        //Breadth first, so the failure state of a state is complete before the state itself.
+        int states = trie.size();
+        this.transitions = new int[states * classCount];
+        this.outputs = new int[states][];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        outputs[0] = new int[0];
+        for (int cls = 0; cls < classCount; cls++) {
+            int next = trie.get(0)[cls];
+            transitions[cls] = Math.max(next, 0);
+            if (next > 0) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> phrasesHere = new ArrayList<>(ends.get(state));
+            for (int p : outputs[failure[state]]) {
+                phrasesHere.add(p);
+            }
+            outputs[state] = phrasesHere.stream().mapToInt(Integer::intValue).toArray();
+            for (int cls = 0; cls < classCount; cls++) {
+                int next = trie.get(state)[cls];
+                int fallback = transitions[failure[state] * classCount + cls];
+                if (next < 0) {
+                    transitions[state * classCount + cls] = fallback;
+                } else {
+                    failure[next] = fallback;
+                    transitions[state * classCount + cls] = next;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    public boolean matches(String question) {
+        if (question == null || question.isEmpty() || rules.length == 0) {
+            return false;
+        }
+        boolean[] found = null;
+        int state = 0;
+        for (int i = 0; i < question.length(); i++) {
+            state = transitions[state * classCount + charClass(Character.toLowerCase(question.charAt(i)))];
+            for (int phrase : outputs[state]) {
+                if (triggersAlone[phrase]) {
+                    return true;
+                }
+                if (found == null) {
+                    found = new boolean[phraseCount];
+                }
+                found[phrase] = true;
+            }
+        }
+        if (found == null) {
+            return false;
+        }
+        for (int[] rule : rules) {
+            boolean all = true;
+            for (int phrase : rule) {
+                all &= found[phrase];
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int charClass(char c) {
+        return c < 128 ? asciiClasses[c] : otherClasses.getOrDefault(c, 0);
+    }
+
+    private int[] newState() {
+        int[] edges = new int[classCount];
+        Arrays.fill(edges, -1);
+        return edges;
+    }
+}
@@ -2,10 +2,14 @@ package com.prog.secure_note.controller;
 
 import com.prog.secure_note.model.AIRequest;
 import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.ai_service.AIPriority;
 import com.prog.secure_note.ai_service.AIService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping("/api/research") // Base path for research-related endpoints
 public class AIForCreateNoteController {
@@ -17,10 +21,12 @@ public class AIForCreateNoteController {
     }
 
     @PostMapping("/process")
-    public ResponseEntity<AIResponse> processResearch(@RequestBody AIRequest request) {
+    public CompletableFuture<ResponseEntity<AIResponse>> processResearch(@RequestBody AIRequest request, Principal principal) {
         // The ResearchService's processContent method handles different operations
         // based on the 'operation' field in the ResearchRequest.
-        AIResponse response = researchService.processContent(request);
-        return ResponseEntity.ok(response);
+        // Async, so the request thread is released while Gemini works on the answer.
+        // Queued behind the user's other AI calls once they reach their concurrency share.
+        return researchService.processContentAsync(request, principal.getName(), AIPriority.INTERACTIVE)
+                .thenApply(ResponseEntity::ok);
     }
 }
\ No newline at end of file
@@ -1,17 +1,34 @@
 package com.prog.secure_note.controller;
 
 import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.AICombinedRequest;
 import com.prog.secure_note.model.AIRequest;
 import com.prog.secure_note.model.AIResponse;
 import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSummaryService;
+import com.prog.secure_note.ai_service.AIPriority;
 import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.exception.AIQueueFullException;
+import com.prog.secure_note.exception.UpstreamUnavailableException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @RestController
 @RequestMapping("/api/notes/{noteId}/ai") // Specific AI operations for a note
@@ -19,15 +36,27 @@ public class AINoteSummaryController {
 
     private final AIService AIService;
     private final NoteService noteService; // Inject your existing NoteService
+    private final NoteSummaryService noteSummaryService;
 
-    public AINoteSummaryController(AIService AIService, NoteService noteService) {
+    @Value("${ai.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    @Value("${ai.stream.buffer-size:256}")
+    private int streamBufferSize;
+
+    //Deltas arrive on the few ai-http threads, so the sends to the client (which block on a slow one) are made
+    //by a virtual thread of each stream instead.
+    private final ExecutorService streamSenders = Executors.newVirtualThreadPerTaskExecutor();
+
+    public AINoteSummaryController(AIService AIService, NoteService noteService, NoteSummaryService noteSummaryService) {
         this.AIService = AIService;
         this.noteService = noteService;
+        this.noteSummaryService = noteSummaryService;
     }
 
     // Endpoint for Summarization
     @PostMapping("/summarize")
-    public ResponseEntity<AIResponse> summarizeNote(
+    public CompletableFuture<ResponseEntity<AIResponse>> summarizeNote(
             @PathVariable Long noteId,
             @RequestParam(name = "length", defaultValue = "medium") String length,
             Principal principal) {
@@ -36,32 +65,26 @@ public class AINoteSummaryController {
         // Use the new service method to fetch the note, which also handles ownership check
         Note note = noteService.getNoteByIdForUser(noteId, username);
 
-        // ... rest of the method logic
-        AIRequest request = new AIRequest();
-        request.setOperation("summarise");
-        request.setContent(note.getContent());
-        request.setSummaryLength(length);
-
-        AIResponse response = AIService.processContent(request);
-        return ResponseEntity.ok(response);
+        // Served from the stored summary when the note hasn't changed since it was made
+        return noteSummaryService.summarize(note, length).thenApply(ResponseEntity::ok);
     }
 
     // Endpoint for Answering Questions about a Note (RAG - Retrieval Augmented Generation)
     @PostMapping("/answer")
-    public ResponseEntity<AIResponse> answerQuestionAboutNote(
+    public CompletableFuture<ResponseEntity<AIResponse>> answerQuestionAboutNote(
             @PathVariable Long noteId,
             @RequestBody Map<String, String> payload, // Expecting {"question": "Your question here"}
             Principal principal) {
 
         String question = payload.get("question");
         if (question == null || question.isEmpty()) {
-            return ResponseEntity.badRequest().body(
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(
                     AIResponse.builder()
                             .answer("Question is required")
                             .operation("error")
                             .sources(Collections.emptyList())
                             .build()
-            );
+            ));
         }
 
         String username = principal.getName();
@@ -76,13 +99,13 @@ public class AINoteSummaryController {
         request.setQuestion(question);
         request.setContent(note.getContent()); // Provide note content as additional context
 
-        AIResponse response = AIService.processContent(request);
-        return ResponseEntity.ok(response);
+        // The Gemini call doesn't hold this request thread, the response is written when it completes
+        return AIService.processContentAsync(request, username, AIPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
     }
 
     // Endpoint for Text Reading (Text-to-Speech formatting)
     @PostMapping("/read")
-    public ResponseEntity<AIResponse> readNote(
+    public CompletableFuture<ResponseEntity<AIResponse>> readNote(
             @PathVariable Long noteId,
             Principal principal) {
 
@@ -97,25 +120,25 @@ public class AINoteSummaryController {
         request.setOperation("read");
         request.setContent(note.getContent());
 
-        AIResponse response = AIService.processContent(request);
-        return ResponseEntity.ok(response);
+        // The Gemini call doesn't hold this request thread, the response is written when it completes
+        return AIService.processContentAsync(request, username, AIPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
     }
 
     // Endpoint for Translation
     @PostMapping("/translate")
-    public ResponseEntity<AIResponse> translateNote(
+    public CompletableFuture<ResponseEntity<AIResponse>> translateNote(
             @PathVariable Long noteId,
             @RequestParam("targetLanguage") String targetLanguage,
             Principal principal) {
 
         if (targetLanguage == null || targetLanguage.isEmpty()) {
-            return ResponseEntity.badRequest().body(
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(
                     AIResponse.builder()
                             .answer("Target language is required")
                             .operation("error")
                             .sources(Collections.emptyList())   // or Collections.<String>emptyList()
                             .build()
-            );
+            ));
         }
 
         String username = principal.getName();
@@ -130,8 +153,176 @@ public class AINoteSummaryController {
         request.setContent(note.getContent());
         request.setTargetLanguage(targetLanguage);
 
-        AIResponse response = AIService.processContent(request);
-        return ResponseEntity.ok(response);
+        // The Gemini call doesn't hold this request thread, the response is written when it completes
+        return AIService.processContentAsync(request, username, AIPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
+    }
+
+    // Several operations in one Gemini call, e.g. {"operations": ["summarise", "translate", "read"], "targetLanguage": "French"}.
+    // The note is sent once; the response maps each operation to its AIResponse.
+    @PostMapping("/combined")
+    public CompletableFuture<ResponseEntity<Map<String, AIResponse>>> combinedOperations(
+            @PathVariable Long noteId,
+            @RequestBody AICombinedRequest request,
+            Principal principal) {
+
+        String username = principal.getName();
+        Note note = noteService.getNoteByIdForUser(noteId, username);
+        request.setContent(note.getContent());
+
+        return AIService.processCombinedAsync(request, username, AIPriority.INTERACTIVE).thenApply(ResponseEntity::ok);
+    }
+
+    // Streaming variants: the answer arrives as "delta" events ({"text": "..."}) while Gemini writes it,
+    // followed by one "done" event with the whole AIResponse, or an "error" event.
+    @PostMapping(path = "/summarize/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSummary(
+            @PathVariable Long noteId,
+            @RequestParam(name = "length", defaultValue = "medium") String length,
+            Principal principal) {
+
+        Note note = noteService.getNoteByIdForUser(noteId, principal.getName());
+
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent(note.getContent());
+        request.setSummaryLength(length);
+        return streamToClient(request, principal.getName());
+    }
+
+    @PostMapping(path = "/answer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAnswer(
+            @PathVariable Long noteId,
+            @RequestBody Map<String, String> payload, // Expecting {"question": "Your question here"}
+            Principal principal) {
+
+        String question = payload.get("question");
+        if (question == null || question.isEmpty()) {
+            throw new IllegalArgumentException("Question is required");
+        }
+        Note note = noteService.getNoteByIdForUser(noteId, principal.getName());
+
+        AIRequest request = new AIRequest();
+        request.setOperation("answer");
+        request.setQuestion(question);
+        request.setContent(note.getContent());
+        return streamToClient(request, principal.getName());
+    }
+
+    @PostMapping(path = "/translate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTranslation(
+            @PathVariable Long noteId,
+            @RequestParam("targetLanguage") String targetLanguage,
+            Principal principal) {
+
+        Note note = noteService.getNoteByIdForUser(noteId, principal.getName());
+
+        AIRequest request = new AIRequest();
+        request.setOperation("translate");
+        request.setContent(note.getContent());
+        request.setTargetLanguage(targetLanguage);
+        return streamToClient(request, principal.getName());
+    }
+
+    private SseEmitter streamToClient(AIRequest request, String username) {
+        SseEmitter emitter = createEmitter();
+        StreamRelay relay = new StreamRelay(emitter, Math.max(2, streamBufferSize));
+        AIService.streamContentAsync(request, username, AIPriority.INTERACTIVE,
+                text -> relay.offer(SseEmitter.event().name("delta").data(Map.of("text", text), MediaType.APPLICATION_JSON), false)
+        ).whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                relay.offer(SseEmitter.event().name("error").data(Map.of("message", String.valueOf(cause.getMessage())), MediaType.APPLICATION_JSON), true);
+            } else {
+                relay.offer(SseEmitter.event().name("done").data(response, MediaType.APPLICATION_JSON), true);
+            }
+        });
+        //Only started once the request is accepted; a rejected one is answered by the exception handlers below.
+        streamSenders.execute(relay::run);
+        return emitter;
+    }
+
+    SseEmitter createEmitter() {
+        return new SseEmitter(streamTimeoutMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamSenders.shutdownNow();
+    }
+
+    //The events of one stream on their way to the client. The AI threads only offer to the bounded buffer, the
+    //stream's virtual thread sends them in order. A client that falls a whole buffer behind, or goes away, is
+    //dropped; the answer still completes (and gets cached).
+    private static final class StreamRelay {
+        private static final Item STOP = new Item(null, true);
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<Item> buffer;
+        private volatile boolean closed;
+
+        private StreamRelay(SseEmitter emitter, int bufferSize) {
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            emitter.onCompletion(this::stop);
+            emitter.onTimeout(this::stop);
+            emitter.onError(error -> stop());
+        }
+
+        void offer(SseEmitter.SseEventBuilder event, boolean last) {
+            if (closed) {
+                return;
+            }
+            if (!buffer.offer(new Item(event, last))) {
+                //Buffer is full, the client is too slow. Drop it instead of blocking the AI threads.
+                stop();
+            }
+        }
+
+        void run() {
+            try {
+                while (true) {
+                    Item item = buffer.take();
+                    if (item == STOP) {
+                        complete();
+                        return;
+                    }
+                    emitter.send(item.event());
+                    if (item.last()) {
+                        complete();
+                        return;
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                closed = true;
+                buffer.clear();
+                try {
+                    emitter.completeWithError(e);
+                } catch (Exception ignored) {
+                    //Already completed by the container.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        //Wakes the sender up to end the stream; the buffer is emptied first, so STOP always fits.
+        private void stop() {
+            closed = true;
+            buffer.clear();
+            buffer.offer(STOP);
+        }
+
+        private void complete() {
+            closed = true;
+            try {
+                emitter.complete();
+            } catch (Exception ignored) {
+                //Already completed by the container.
+            }
+        }
+
+        private record Item(SseEmitter.SseEventBuilder event, boolean last) {
+        }
     }
 
     // Basic Exception Handling (You might have a @ControllerAdvice for global handling)
@@ -143,5 +334,20 @@ public class AINoteSummaryController {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
     }
 
+    //These two would otherwise be caught by the handler above as a 400.
+    @ExceptionHandler(AIQueueFullException.class)
+    public ResponseEntity<String> handleAIQueueFullException(AIQueueFullException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<String> handleUpstreamUnavailableException(UpstreamUnavailableException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
+
     // You'll likely need to add more specific exception handling for GeminiApiException etc.
 }
\ No newline at end of file
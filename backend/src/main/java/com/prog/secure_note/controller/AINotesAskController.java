@@ -0,0 +1,94 @@
+package com.prog.secure_note.controller;
+
+import com.prog.secure_note.model.AIBatchRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.service.NoteAskService;
+import com.prog.secure_note.service.NoteBatchService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RestController
+@RequestMapping("/api/notes/ai") // AI operations over all of the user's notes
+public class AINotesAskController {
+
+    private final NoteAskService noteAskService;
+    private final NoteBatchService noteBatchService;
+
+    @Value("${ai.batch.timeout-ms:600000}")
+    private long batchTimeoutMs;
+
+    public AINotesAskController(NoteAskService noteAskService, NoteBatchService noteBatchService) {
+        this.noteAskService = noteAskService;
+        this.noteBatchService = noteBatchService;
+    }
+
+    // Answers a question from the best matching passages of all the user's notes.
+    // The sources of the response are the ids of the notes the passages came from.
+    @PostMapping("/ask")
+    public CompletableFuture<ResponseEntity<AIResponse>> askNotes(
+            @RequestBody Map<String, String> payload, // Expecting {"question": "Your question here"}
+            Principal principal) {
+
+        String question = payload.get("question");
+        if (question == null || question.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(
+                    AIResponse.builder()
+                            .answer("Question is required")
+                            .operation("error")
+                            .sources(Collections.emptyList())
+                            .build()
+            ));
+        }
+
+        return noteAskService.ask(principal.getName(), question).thenApply(ResponseEntity::ok);
+    }
+
+    // Runs one operation (summarise, translate, read or answer) on many notes. Every note gets a "result"
+    // event ({"noteId", "response"}) or an "error" event ({"noteId", "message"}) as soon as it is done,
+    // in completion order, then one "done" event with the counts.
+    @PostMapping(path = "/batch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter batch(@RequestBody AIBatchRequest request, Principal principal) {
+        SseEmitter emitter = new SseEmitter(batchTimeoutMs);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        noteBatchService.process(principal.getName(), request,
+                (noteId, response) -> {
+                    succeeded.incrementAndGet();
+                    send(emitter, "result", Map.of("noteId", noteId, "response", response));
+                },
+                (noteId, message) -> {
+                    failed.incrementAndGet();
+                    send(emitter, "error", Map.of("noteId", noteId, "message", message));
+                }
+        ).whenComplete((ignored, error) -> {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("succeeded", succeeded.get());
+            summary.put("failed", failed.get());
+            send(emitter, "done", summary);
+            emitter.complete();
+        });
+        return emitter;
+    }
+
+    private static void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away, the remaining notes still complete
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.prog.secure_note.model.User;
 import com.prog.secure_note.model.UserDTO;
 import com.prog.secure_note.repositories.RoleRepository;
 import com.prog.secure_note.service.ContactMessageService;
+import com.prog.secure_note.service.NoteSearchService;
 import com.prog.secure_note.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -29,6 +30,9 @@ public class AdminController {
     @Autowired
     private ContactMessageService contactMessageService;
 
+    @Autowired
+    private NoteSearchService noteSearchService;
+
     //    @PreAuthorize("hasRole('ROLE_ADMIN')")
     @GetMapping("/getusers")
     public ResponseEntity<List<User>> getAllUsers() {
@@ -121,6 +125,11 @@ public class AdminController {
         return ResponseEntity.ok(updatedMessage);
     }
 
-
+    //Rebuilds the search index of every user from the database.
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @PostMapping("/search/rebuild")
+    public ResponseEntity<String> rebuildSearchIndex() {
+        noteSearchService.rebuildAll();
+        return ResponseEntity.ok("Search index rebuilt");
+    }
 }
-
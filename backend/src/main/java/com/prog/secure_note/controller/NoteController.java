@@ -1,12 +1,32 @@
 package com.prog.secure_note.controller;
 
 import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteContentRange;
+import com.prog.secure_note.model.NoteSearchHit;
+import com.prog.secure_note.model.NoteSuggestion;
+import com.prog.secure_note.model.NoteSyncResponse;
+import com.prog.secure_note.service.NoteEventService;
+import com.prog.secure_note.service.NoteSearchService;
 import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSimilarityService;
+import com.prog.secure_note.service.NoteSuggestService;
+import com.prog.secure_note.service.NoteSyncService;
 import org.springframework.beans.factory.annotation.Autowired;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @RestController
@@ -16,6 +36,21 @@ public class NoteController {
     @Autowired
     private NoteService noteService;
 
+    @Autowired
+    private NoteEventService noteEventService;
+
+    @Autowired
+    private NoteSyncService noteSyncService;
+
+    @Autowired
+    private NoteSearchService noteSearchService;
+
+    @Autowired
+    private NoteSuggestService noteSuggestService;
+
+    @Autowired
+    private NoteSimilarityService noteSimilarityService;
+
     @PostMapping
     public Note createNote(@RequestBody String content,
                            @AuthenticationPrincipal UserDetails userDetails) {
@@ -53,4 +88,108 @@ public class NoteController {
         String username = userDetails.getUsername();
         return noteService.getNoteByIdForUser(noteId, username);
     }
+
+    //Streams created/updated/deleted events of the user's notes, so other tabs don't have to poll.
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNoteEvents(@AuthenticationPrincipal UserDetails userDetails) {
+        return noteEventService.subscribe(userDetails.getUsername());
+    }
+
+    //Returns only the notes changed (and ids of notes deleted) after the given cursor.
+    @GetMapping("/sync")
+    public NoteSyncResponse syncNotes(@RequestParam(name = "since", defaultValue = "0") long since,
+                                      @RequestParam(name = "limit", defaultValue = "500") int limit,
+                                      @AuthenticationPrincipal UserDetails userDetails) {
+        return noteSyncService.getChangesSince(userDetails.getUsername(), since, limit);
+    }
+
+    //Full-text search over the user's notes, best matches first.
+    @GetMapping("/search")
+    public List<NoteSearchHit> searchNotes(@RequestParam("q") String query,
+                                           @RequestParam(name = "limit", defaultValue = "20") int limit,
+                                           @AuthenticationPrincipal UserDetails userDetails) {
+        return noteSearchService.search(userDetails.getUsername(), query, limit);
+    }
+
+    //Type-ahead: titles and words from the user's notes starting with the typed prefix.
+    @GetMapping("/suggest")
+    public List<NoteSuggestion> suggest(@RequestParam("prefix") String prefix,
+                                        @RequestParam(name = "limit", defaultValue = "8") int limit,
+                                        @AuthenticationPrincipal UserDetails userDetails) {
+        return noteSuggestService.suggest(userDetails.getUsername(), prefix, limit);
+    }
+
+    //Search by meaning instead of exact words, using note embeddings.
+    @GetMapping("/semantic-search")
+    public List<NoteSearchHit> semanticSearch(@RequestParam("q") String query,
+                                              @RequestParam(name = "limit", defaultValue = "10") int limit,
+                                              @AuthenticationPrincipal UserDetails userDetails) {
+        return noteSimilarityService.searchSemantic(userDetails.getUsername(), query, limit);
+    }
+
+    //Notes closest in meaning to the given one, most similar first.
+    @GetMapping("/{noteId}/related")
+    public List<NoteSearchHit> relatedNotes(@PathVariable Long noteId,
+                                            @RequestParam(name = "limit", defaultValue = "5") int limit,
+                                            @AuthenticationPrincipal UserDetails userDetails) {
+        return noteSimilarityService.findRelated(userDetails.getUsername(), noteId, limit);
+    }
+
+    //Streaming create for large notes: the raw request body is stored as the content, chunk by chunk.
+    @PostMapping("/content")
+    public Note createNoteFromStream(HttpServletRequest request,
+                                     @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        try (Reader content = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            return noteService.createNoteForUser(userDetails.getUsername(), content);
+        }
+    }
+
+    //Streaming update for large notes. The returned note has no content, only the new version.
+    @PutMapping("/{noteId}/content")
+    public Note updateNoteFromStream(@PathVariable Long noteId,
+                                     HttpServletRequest request,
+                                     @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        try (Reader content = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            return noteService.updateNoteForUser(noteId, content, userDetails.getUsername());
+        }
+    }
+
+    //Replaces the characters [start, end) of the note with the request body. Only the affected pages are rewritten.
+    @PatchMapping("/{noteId}/content")
+    public Note updateNoteContentRange(@PathVariable Long noteId,
+                                       @RequestParam long start,
+                                       @RequestParam long end,
+                                       HttpServletRequest request,
+                                       @AuthenticationPrincipal UserDetails userDetails) throws IOException {
+        try (Reader replacement = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            return noteService.updateNoteContentRange(noteId, start, end, replacement, userDetails.getUsername());
+        }
+    }
+
+    //Streams only the content of the note, without building it as one String.
+    //Supports a single "Range: bytes=..." or "Range: chars=..." and then only reads the pages it needs
+    //(or, for an older note that isn't paged yet, that part of its content column).
+    @GetMapping("/{noteId}/content")
+    public ResponseEntity<StreamingResponseBody> getNoteContent(@PathVariable Long noteId,
+                                                                @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+                                                                @AuthenticationPrincipal UserDetails userDetails) {
+        NoteContentRange range = NoteContentRange.parse(rangeHeader);
+        if (range == null) {
+            noteService.checkNoteAccess(noteId, userDetails.getUsername());
+        } else {
+            noteService.prepareContentRange(noteId, userDetails.getUsername(), range);
+        }
+        StreamingResponseBody body = outputStream -> noteService.streamNoteContent(noteId, range, outputStream);
+
+        ResponseEntity.BodyBuilder response = range == null
+                ? ResponseEntity.ok()
+                : ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).header(HttpHeaders.CONTENT_RANGE, range.toContentRangeHeader());
+        if (range != null && range.isBytes()) {
+            response.contentLength(range.getLength());
+        }
+        return response
+                .header(HttpHeaders.ACCEPT_RANGES, NoteContentRange.BYTES + ", " + NoteContentRange.CHARS)
+                .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                .body(body);
+    }
 }
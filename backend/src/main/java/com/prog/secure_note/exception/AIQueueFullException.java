@@ -0,0 +1,16 @@
+package com.prog.secure_note.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS) // 429 when the AI queue of the user (or of everyone) is full
+public class AIQueueFullException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public AIQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
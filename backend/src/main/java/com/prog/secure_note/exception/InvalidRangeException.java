@@ -0,0 +1,24 @@
+package com.prog.secure_note.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) // 416 when the range is outside the note
+public class InvalidRangeException extends RuntimeException {
+    private final String unit;
+    private final long total;
+
+    public InvalidRangeException(String unit, long total) {
+        super("Requested range is outside of the note (" + total + " " + unit + ")");
+        this.unit = unit;
+        this.total = total;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
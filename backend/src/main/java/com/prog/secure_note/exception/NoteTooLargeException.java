@@ -0,0 +1,11 @@
+package com.prog.secure_note.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE) // 413 when a note is bigger than notes.content.max-chars
+public class NoteTooLargeException extends RuntimeException {
+    public NoteTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package com.prog.secure_note.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+//One AI operation over several notes of the user (POST /api/notes/ai/batch).
+@Data
+public class AIBatchRequest {
+    private List<Long> noteIds;
+    private String operation;
+    private String question;
+    private String summaryLength;
+    private String targetLanguage;
+}
@@ -0,0 +1,15 @@
+package com.prog.secure_note.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+//Several AI operations on the same content, answered by one Gemini call.
+@Data
+public class AICombinedRequest {
+    private String content;
+    private List<String> operations;
+    private String question;
+    private String summaryLength;
+    private String targetLanguage;
+}
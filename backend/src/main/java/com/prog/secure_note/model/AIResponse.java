@@ -11,4 +11,8 @@ public class AIResponse {
     private String answer;
     private List<String> sources;
     private String operation;
+    //True for a summary made in-process by the extractive summarizer instead of by Gemini.
+    private boolean extractive;
+    //Detected language of the note, for translations (ISO 639-1 code, null if undecided).
+    private String sourceLanguage;
 }
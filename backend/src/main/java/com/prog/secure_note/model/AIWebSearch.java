@@ -9,4 +9,5 @@ import java.util.List;
 public class AIWebSearch {
     private String combinedSnippets;
     private List<String> sourceUrls;
+    private String pageExcerpts;
 }
@@ -3,8 +3,13 @@ package com.prog.secure_note.model;
 import jakarta.persistence.*;
 import lombok.Data;
 
+import java.time.Instant;
+
 @Entity
 @Data
+@Table(indexes = {
+        @Index(name = "idx_note_owner_change_seq", columnList = "owner_username, change_seq")
+})
 public class Note {
 
     @Id
@@ -20,4 +25,17 @@ public class Note {
     private String content;
 
     private String ownerUsername;
+
+    //Incremented on every write so the other sessions of the user can tell if their copy is stale.
+    private long version;
+
+    //Sequence of the last change (id of the NoteChange row), used by incremental sync.
+    @Column(name = "change_seq")
+    private Long changeSeq;
+
+    private Instant updatedAt;
+
+    //True when the content lives in NotePage rows (large notes written by streaming).
+    //Such notes are returned with their content assembled by NoteService, and with content null by sync.
+    private boolean paged;
 }
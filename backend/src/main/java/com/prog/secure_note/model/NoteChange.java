@@ -0,0 +1,43 @@
+package com.prog.secure_note.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+//Change log of the notes. The auto-increment id is the monotonic change sequence used by sync clients.
+//Only the latest change of every note is kept, so a DELETED row is the tombstone of that note.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "note_change", indexes = {
+        @Index(name = "idx_note_change_owner_type_seq", columnList = "owner_username, change_type, id"),
+        @Index(name = "idx_note_change_note", columnList = "note_id")
+})
+public class NoteChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "note_id", nullable = false)
+    private Long noteId;
+
+    @Column(name = "owner_username", nullable = false)
+    private String ownerUsername;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 16)
+    private NoteChangeType changeType;
+
+    @Column(nullable = false)
+    private Instant changedAt;
+
+    public NoteChange(Long noteId, String ownerUsername, NoteChangeType changeType) {
+        this.noteId = noteId;
+        this.ownerUsername = ownerUsername;
+        this.changeType = changeType;
+        this.changedAt = Instant.now();
+    }
+}
@@ -0,0 +1,22 @@
+package com.prog.secure_note.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+//Published by NoteServiceImpl after every write, so listeners (like the SSE feed) can react to it.
+@Data
+@AllArgsConstructor
+public class NoteChangeEvent {
+
+    //Only used for routing the event to the owner's sessions, never sent to the client.
+    @JsonIgnore
+    private String username;
+
+    private NoteChangeType type;
+    private Long noteId;
+    private long version;
+
+    //Same cursor as the sync endpoint, so a reconnecting client can resume from the last event.
+    private long changeSeq;
+}
@@ -0,0 +1,9 @@
+package com.prog.secure_note.model;
+
+public enum NoteChangeType {
+    CREATED,
+    UPDATED,
+    DELETED
+}
+
+//It is used to tell the other sessions of a user what happened to a note.
@@ -0,0 +1,69 @@
+package com.prog.secure_note.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+//A single range of a note's content, in "bytes" (UTF-8) or "chars" (code points).
+//start is inclusive and end is exclusive once the range is resolved against the note size.
+@Data
+@NoArgsConstructor
+public class NoteContentRange {
+    public static final String BYTES = "bytes";
+    public static final String CHARS = "chars";
+
+    private String unit;
+    private Long start;
+    private Long end;
+    //Set for "bytes=-500" style ranges, meaning the last 500 units.
+    private Long suffixLength;
+    private long total;
+
+    //Parses a Range header like "bytes=0-1023", "chars=100-" or "bytes=-500".
+    //Returns null for no header, other units and multiple ranges, which are answered with the full content.
+    public static NoteContentRange parse(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        int equals = header.indexOf('=');
+        if (equals < 0) {
+            return null;
+        }
+        String unit = header.substring(0, equals).trim().toLowerCase();
+        String spec = header.substring(equals + 1).trim();
+        if (!(BYTES.equals(unit) || CHARS.equals(unit)) || spec.contains(",")) {
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        NoteContentRange range = new NoteContentRange();
+        range.setUnit(unit);
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                range.setSuffixLength(Long.parseLong(to));
+            } else {
+                range.setStart(Long.parseLong(from));
+                // The header end is inclusive, ours is exclusive.
+                range.setEnd(to.isEmpty() ? null : Long.parseLong(to) + 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return range;
+    }
+
+    public boolean isBytes() {
+        return BYTES.equals(unit);
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    public String toContentRangeHeader() {
+        return unit + " " + start + "-" + (end - 1) + "/" + total;
+    }
+}
@@ -0,0 +1,23 @@
+package com.prog.secure_note.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+//Published by the search service once a user's index has caught up with a change,
+//so features built on top of the index (like suggestions) know they are out of date.
+//A change of one note names it, its title after the change (null once removed) and the terms whose document
+//frequency changed, with that frequency; an event without them means the whole index was rebuilt.
+@Data
+@AllArgsConstructor
+public class NoteIndexUpdatedEvent {
+    private String username;
+    private Long noteId;
+    private String title;
+    private Map<String, Integer> changedTerms;
+
+    public NoteIndexUpdatedEvent(String username) {
+        this(username, null, null, null);
+    }
+}
@@ -0,0 +1,36 @@
+package com.prog.secure_note.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+//A fixed-size piece of a large note. Notes written through the streaming endpoints keep their content here
+//instead of in Note.content, so a range read or an edit only touches the pages it needs.
+@Entity
+@Data
+@Table(name = "note_page", indexes = {
+        @Index(name = "idx_note_page_note_order", columnList = "note_id, page_order")
+})
+public class NotePage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "note_id", nullable = false)
+    private Long noteId;
+
+    //Sort key of the page inside the note. Pages are created with big gaps between keys,
+    //so pages added by an edit can be put in between without renumbering the rest.
+    @Column(name = "page_order", nullable = false)
+    private long pageOrder;
+
+    @Column(name = "char_length", nullable = false)
+    private int charLength;
+
+    //UTF-8 size of the page, used to answer byte ranges without reading the pages before it.
+    @Column(name = "byte_length", nullable = false)
+    private int byteLength;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String content;
+}
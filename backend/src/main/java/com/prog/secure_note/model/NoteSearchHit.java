@@ -0,0 +1,11 @@
+package com.prog.secure_note.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class NoteSearchHit {
+    private Long noteId;
+    private float score;
+}
@@ -0,0 +1,13 @@
+package com.prog.secure_note.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+//One type-ahead suggestion: a word from the user's notes, or the title of one of them.
+@Data
+@AllArgsConstructor
+public class NoteSuggestion {
+    private String text;
+    private String type;
+    private Long noteId;
+}
@@ -0,0 +1,37 @@
+package com.prog.secure_note.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+//AI summary of a note, tagged with the note version it was made from. It is only served while
+//the note is still at that version.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "note_summary", uniqueConstraints =
+        @UniqueConstraint(name = "uk_note_summary_note_length", columnNames = {"note_id", "summary_length"}))
+public class NoteSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "note_id", nullable = false)
+    private Long noteId;
+
+    @Column(name = "summary_length", nullable = false, length = 16)
+    private String summaryLength;
+
+    @Column(name = "note_version", nullable = false)
+    private long noteVersion;
+
+    @Lob
+    @Column(nullable = false)
+    private String summary;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
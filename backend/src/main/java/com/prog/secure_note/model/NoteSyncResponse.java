@@ -0,0 +1,17 @@
+package com.prog.secure_note.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+//Answer of the "changes since cursor" endpoint.
+//The client stores the cursor and sends it back on the next sync.
+@Data
+@Builder
+public class NoteSyncResponse {
+    private List<Note> upserts;
+    private List<Long> deletedNoteIds;
+    private long cursor;
+    private boolean hasMore;
+}
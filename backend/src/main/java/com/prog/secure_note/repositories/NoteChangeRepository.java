@@ -0,0 +1,37 @@
+package com.prog.secure_note.repositories;
+
+import com.prog.secure_note.model.NoteChange;
+import com.prog.secure_note.model.NoteChangeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface NoteChangeRepository extends JpaRepository<NoteChange, Long> {
+    List<NoteChange> findByOwnerUsernameAndChangeTypeAndIdGreaterThanOrderByIdAsc(String ownerUsername,
+                                                                                 NoteChangeType changeType,
+                                                                                 Long since,
+                                                                                 Pageable pageable);
+
+    //Locks the owner's user row until the transaction ends. Every note write takes it right before its change is
+    //numbered, so the sequence numbers of one user are handed out in the order their transactions commit and a
+    //sync cursor can never move past a change that is still to commit with a lower number. It is the last lock a
+    //write takes: the rows of its note are written (or locked) first, so a slow streamed body only holds up other
+    //writes of the same note, and nothing waits for a note row while holding this lock.
+    @Query(value = "select user_id from users where username = :owner for update", nativeQuery = true)
+    List<Long> lockChangeSequence(@Param("owner") String ownerUsername);
+
+    //Latest change of the user, also covers deletes since their tombstone stays in the log.
+    @Query("select coalesce(max(c.id), 0) from NoteChange c where c.ownerUsername = :owner")
+    long findMaxChangeSeq(@Param("owner") String ownerUsername);
+
+    //Older entries of the same note are superseded by the latest one.
+    @Modifying
+    @Query("delete from NoteChange c where c.noteId = :noteId and c.id < :changeSeq")
+    void deleteSupersededChanges(@Param("noteId") Long noteId, @Param("changeSeq") Long changeSeq);
+}
@@ -0,0 +1,446 @@
+package com.prog.secure_note.repositories;
+
+import com.prog.secure_note.exception.InvalidRangeException;
+import com.prog.secure_note.exception.NoteTooLargeException;
+import com.prog.secure_note.model.NoteContentRange;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+//Reads and writes the content of notes over plain JDBC, one page at a time.
+//Going through the entity would hold the whole note as one String (plus Hibernate's copy of it),
+//here only one page is in memory at a time, whatever the size of the note.
+//Large notes are stored as NotePage rows; older notes still have their content in the note.content column.
+//Characters are counted in code points everywhere (page lengths, offsets, limits), like CHAR_LENGTH and SUBSTRING
+//on the column, so a "chars" range means the same thing for a note whether it is paged or not.
+@Repository
+public class NoteContentRepository {
+
+    //Gap between the page_order of consecutive pages, leaves room for pages inserted by edits.
+    private static final long ORDER_GAP = 1L << 20;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public NoteContentRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PageInfo {
+        private final long id;
+        private final long pageOrder;
+        private final int charLength;
+        private final int byteLength;
+    }
+
+    public boolean isPaged(Long noteId) {
+        Boolean paged = jdbcTemplate.queryForObject("SELECT paged FROM note WHERE id = ?", Boolean.class, noteId);
+        return Boolean.TRUE.equals(paged);
+    }
+
+    //Only the metadata of the pages, the content is read page by page when needed.
+    public List<PageInfo> findPages(Long noteId) {
+        return jdbcTemplate.query(
+                "SELECT id, page_order, char_length, byte_length FROM note_page WHERE note_id = ? ORDER BY page_order",
+                (rs, rowNum) -> new PageInfo(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getInt(4)),
+                noteId);
+    }
+
+    public String readPage(long pageId) {
+        return jdbcTemplate.queryForObject("SELECT content FROM note_page WHERE id = ?", String.class, pageId);
+    }
+
+    //Assembles the whole content, only for the older endpoints that return the note as one String.
+    public String readAll(Long noteId) {
+        StringBuilder content = new StringBuilder();
+        for (PageInfo page : findPages(noteId)) {
+            content.append(readPage(page.getId()));
+        }
+        return content.toString();
+    }
+
+    //Replaces the content of the note with pages filled from the reader, failing as soon as maxChars is passed.
+    //Must run inside the caller's transaction, so a too large note is rolled back completely.
+    public long writePages(Long noteId, Reader reader, int pageChars, long maxChars) {
+        deletePages(noteId);
+        Reader content = new ConcatReader(reader);
+        char[] buffer = new char[pageChars];
+        long total = 0;
+        long order = 0;
+        int read;
+        while ((read = fill(content, buffer)) > 0) {
+            total += Character.codePointCount(buffer, 0, read);
+            if (total > maxChars) {
+                throw tooLarge(maxChars);
+            }
+            insertPage(noteId, order, new String(buffer, 0, read));
+            order += ORDER_GAP;
+        }
+        jdbcTemplate.update("UPDATE note SET content = NULL, paged = TRUE WHERE id = ?", noteId);
+        return total;
+    }
+
+    //Moves the content of an older note from the content column into pages, reading the column chunk by chunk.
+    public void convertToPages(Long noteId, int pageChars) {
+        if (isPaged(noteId)) {
+            return;
+        }
+        long order = 0;
+        long position = 1; // SUBSTRING is 1-based
+        while (true) {
+            String chunk = jdbcTemplate.queryForObject(
+                    "SELECT SUBSTRING(content, ?, ?) FROM note WHERE id = ?",
+                    String.class, position, pageChars, noteId);
+            if (chunk == null || chunk.isEmpty()) {
+                break;
+            }
+            insertPage(noteId, order, chunk);
+            order += ORDER_GAP;
+            // SUBSTRING counts code points, not Java chars.
+            position += chunk.codePointCount(0, chunk.length());
+        }
+        jdbcTemplate.update("UPDATE note SET content = NULL, paged = TRUE WHERE id = ?", noteId);
+    }
+
+    //Replaces the characters (code points) [start, end) with the replacement. Only the pages holding that region are
+    //rewritten (or added/removed when the size changes), the rest of the note is not touched.
+    public long replaceRange(Long noteId, long start, long end, Reader replacement, int pageChars, long maxChars) {
+        List<PageInfo> pages = findPages(noteId);
+        long total = pages.stream().mapToLong(PageInfo::getCharLength).sum();
+        if (start < 0 || end < start || end > total) {
+            throw new InvalidRangeException(NoteContentRange.CHARS, total);
+        }
+
+        // Find the first and last pages touched by the edit. An insert at the very end goes into the last page.
+        int first = -1;
+        int last = -1;
+        long firstStart = 0;
+        long lastStart = 0;
+        long offset = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            long pageEnd = offset + pages.get(i).getCharLength();
+            boolean isLastPage = i == pages.size() - 1;
+            if (first < 0 && (start < pageEnd || isLastPage)) {
+                first = i;
+                firstStart = offset;
+            }
+            if (first >= 0 && (end <= pageEnd || isLastPage)) {
+                last = i;
+                lastStart = offset;
+                break;
+            }
+            offset = pageEnd;
+        }
+
+        String prefix = "";
+        String suffix = "";
+        long untouched = total;
+        if (first >= 0) {
+            String firstPage = readPage(pages.get(first).getId());
+            String lastPage = first == last ? firstPage : readPage(pages.get(last).getId());
+            prefix = firstPage.substring(0, charIndex(firstPage, start - firstStart));
+            suffix = lastPage.substring(charIndex(lastPage, end - lastStart));
+            untouched = total - (lastStart + pages.get(last).getCharLength() - firstStart);
+        }
+
+        long previousOrder = first > 0 ? pages.get(first - 1).getPageOrder() : -ORDER_GAP;
+        long nextOrder = last >= 0 && last + 1 < pages.size() ? pages.get(last + 1).getPageOrder() : Long.MAX_VALUE;
+        int reusable = first >= 0 ? last - first + 1 : 0;
+
+        Reader content = new ConcatReader(new StringReader(prefix), replacement, new StringReader(suffix));
+        char[] buffer = new char[pageChars];
+        long newTotal = untouched;
+        int written = 0;
+        int read;
+        while ((read = fill(content, buffer)) > 0) {
+            newTotal += Character.codePointCount(buffer, 0, read);
+            if (newTotal > maxChars) {
+                throw tooLarge(maxChars);
+            }
+            String chunk = new String(buffer, 0, read);
+            if (written < reusable) {
+                PageInfo page = pages.get(first + written);
+                updatePage(page.getId(), chunk);
+                previousOrder = page.getPageOrder();
+            } else {
+                long order = nextOrder == Long.MAX_VALUE ? previousOrder + ORDER_GAP : previousOrder + 1;
+                if (order >= nextOrder) {
+                    // No room left before the next page: shift the following pages (metadata only).
+                    jdbcTemplate.update("UPDATE note_page SET page_order = page_order + ? WHERE note_id = ? AND page_order >= ?",
+                            ORDER_GAP, noteId, nextOrder);
+                    nextOrder += ORDER_GAP;
+                }
+                insertPage(noteId, order, chunk);
+                previousOrder = order;
+            }
+            written++;
+        }
+        for (int i = written; i < reusable; i++) {
+            jdbcTemplate.update("DELETE FROM note_page WHERE id = ?", pages.get(first + i).getId());
+        }
+        return newTotal;
+    }
+
+    //Sets start/end/total of the range against the pages of the note, or its content column when it isn't paged.
+    //Throws when it can't be satisfied.
+    public void resolveRange(Long noteId, NoteContentRange range) {
+        long total;
+        if (isPaged(noteId)) {
+            List<PageInfo> pages = findPages(noteId);
+            total = range.isBytes()
+                    ? pages.stream().mapToLong(PageInfo::getByteLength).sum()
+                    : pages.stream().mapToLong(PageInfo::getCharLength).sum();
+        } else {
+            //LENGTH is in bytes, CHAR_LENGTH in characters.
+            Long length = jdbcTemplate.queryForObject(range.isBytes()
+                    ? "SELECT COALESCE(LENGTH(content), 0) FROM note WHERE id = ?"
+                    : "SELECT COALESCE(CHAR_LENGTH(content), 0) FROM note WHERE id = ?", Long.class, noteId);
+            total = length == null ? 0 : length;
+        }
+        range.setTotal(total);
+        if (range.getSuffixLength() != null) {
+            range.setStart(Math.max(0, total - range.getSuffixLength()));
+            range.setEnd(total);
+        } else if (range.getEnd() == null || range.getEnd() > total) {
+            range.setEnd(total);
+        }
+        if (range.getStart() >= total || range.getStart() >= range.getEnd()) {
+            throw new InvalidRangeException(range.getUnit(), total);
+        }
+    }
+
+    //Total UTF-8 size of a paged note, used as Content-Length.
+    public long byteLength(Long noteId) {
+        Long length = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(byte_length), 0) FROM note_page WHERE note_id = ?", Long.class, noteId);
+        return length == null ? 0 : length;
+    }
+
+    //Writes the whole content (range == null) or only a resolved range, reading only the pages it covers.
+    public void streamContent(Long noteId, NoteContentRange range, OutputStream out, int chunkChars) throws IOException {
+        if (!isPaged(noteId)) {
+            if (range == null) {
+                streamColumn(noteId, out, chunkChars);
+            } else {
+                streamColumnRange(noteId, range, out, chunkChars);
+            }
+            return;
+        }
+        long offset = 0;
+        for (PageInfo page : findPages(noteId)) {
+            long size = range != null && range.isBytes() ? page.getByteLength() : page.getCharLength();
+            long pageStart = offset;
+            long pageEnd = offset + size;
+            offset = pageEnd;
+            if (range != null && pageEnd <= range.getStart()) {
+                continue;
+            }
+            if (range != null && pageStart >= range.getEnd()) {
+                break;
+            }
+            String content = readPage(page.getId());
+            if (range == null) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            int from = (int) (Math.max(range.getStart(), pageStart) - pageStart);
+            int to = (int) (Math.min(range.getEnd(), pageEnd) - pageStart);
+            if (range.isBytes()) {
+                out.write(content.getBytes(StandardCharsets.UTF_8), from, to - from);
+            } else {
+                out.write(content.substring(charIndex(content, from), charIndex(content, to)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        out.flush();
+    }
+
+    public void deletePages(Long noteId) {
+        jdbcTemplate.update("DELETE FROM note_page WHERE note_id = ?", noteId);
+    }
+
+    //The audit log keeps a copy of the content. It is built inside the database so it never goes through the heap.
+    public void copyContentToAuditLog(Long auditLogId, Long noteId) {
+        //GROUP_CONCAT is cut at 1024 characters by default. The limit is raised for this statement only (SET_VAR);
+        //a SET SESSION would stay on the pooled connection for whoever borrows it next.
+        jdbcTemplate.update("UPDATE /*+ SET_VAR(group_concat_max_len = 4294967295) */ audit_log SET note_content = " +
+                            "(SELECT GROUP_CONCAT(content ORDER BY page_order SEPARATOR '') FROM note_page WHERE note_id = ?) " +
+                            "WHERE id = ?",
+                noteId, auditLogId);
+    }
+
+    //Older notes that still keep their content in the note.content column.
+    private void streamColumn(Long noteId, OutputStream out, int chunkChars) throws IOException {
+        long position = 1; // SUBSTRING is 1-based
+        while (true) {
+            String chunk = jdbcTemplate.queryForObject(
+                    "SELECT SUBSTRING(content, ?, ?) FROM note WHERE id = ?",
+                    String.class, position, chunkChars, noteId);
+            if (chunk == null || chunk.isEmpty()) {
+                break;
+            }
+            out.write(chunk.getBytes(StandardCharsets.UTF_8));
+            int codePoints = chunk.codePointCount(0, chunk.length());
+            if (codePoints < chunkChars) {
+                break;
+            }
+            position += codePoints;
+        }
+        out.flush();
+    }
+
+    //A range of an older note, read from the content column chunk by chunk: SUBSTRING counts characters
+    //(code points), and bytes are cut from the column as binary.
+    private void streamColumnRange(Long noteId, NoteContentRange range, OutputStream out, int chunkChars) throws IOException {
+        long position = range.getStart() + 1; // SUBSTRING is 1-based
+        long remaining = range.getLength();
+        while (remaining > 0) {
+            int length = (int) Math.min(chunkChars, remaining);
+            int read;
+            if (range.isBytes()) {
+                byte[] chunk = jdbcTemplate.queryForObject(
+                        "SELECT SUBSTRING(CAST(content AS BINARY), ?, ?) FROM note WHERE id = ?",
+                        byte[].class, position, length, noteId);
+                if (chunk == null || chunk.length == 0) {
+                    break;
+                }
+                out.write(chunk);
+                read = chunk.length;
+            } else {
+                String chunk = jdbcTemplate.queryForObject(
+                        "SELECT SUBSTRING(content, ?, ?) FROM note WHERE id = ?",
+                        String.class, position, length, noteId);
+                if (chunk == null || chunk.isEmpty()) {
+                    break;
+                }
+                out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                read = chunk.codePointCount(0, chunk.length());
+            }
+            position += read;
+            remaining -= read;
+        }
+        out.flush();
+    }
+
+    private void insertPage(Long noteId, long order, String content) {
+        jdbcTemplate.update("INSERT INTO note_page (note_id, page_order, char_length, byte_length, content) VALUES (?, ?, ?, ?, ?)",
+                noteId, order, content.codePointCount(0, content.length()), utf8Length(content), content);
+    }
+
+    private void updatePage(long pageId, String content) {
+        jdbcTemplate.update("UPDATE note_page SET content = ?, char_length = ?, byte_length = ? WHERE id = ?",
+                content, content.codePointCount(0, content.length()), utf8Length(content), pageId);
+    }
+
+    //Pages written before lengths were counted in code points have one extra per surrogate pair.
+    //Only pages that aren't plain ASCII can be off, so the others are skipped without reading their content.
+    public int recountCharLengths() {
+        return jdbcTemplate.update("UPDATE note_page SET char_length = CHAR_LENGTH(content) " +
+                                   "WHERE byte_length <> char_length AND char_length <> CHAR_LENGTH(content)");
+    }
+
+    private NoteTooLargeException tooLarge(long maxChars) {
+        return new NoteTooLargeException("Note is larger than the allowed " + maxChars + " characters");
+    }
+
+    //Index in the page of the given code point. Pages never end inside a surrogate pair (see fill), so an offset
+    //counted in code points always lands between two characters.
+    private static int charIndex(String page, long codePoints) {
+        return page.offsetByCodePoints(0, (int) codePoints);
+    }
+
+    //Counts the UTF-8 bytes without encoding the page.
+    private static int utf8Length(String content) {
+        int bytes = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < content.length()
+                       && Character.isLowSurrogate(content.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    //Reads until the buffer is full or the stream ends, so every page except the last has the full size.
+    //A surrogate pair is never split between two pages, otherwise byte ranges would not line up.
+    private static int fill(Reader reader, char[] buffer) {
+        try {
+            int offset = 0;
+            while (offset < buffer.length) {
+                int read = reader.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset == buffer.length && Character.isHighSurrogate(buffer[offset - 1]) && reader instanceof ConcatReader concat) {
+                concat.pushBack(buffer[offset - 1]);
+                offset--;
+            }
+            return offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read note content from the request", e);
+        }
+    }
+
+    //Reads the readers one after the other, with room to push back one character.
+    private static class ConcatReader extends Reader {
+        private final Reader[] readers;
+        private int current;
+        private int pushedBack = -1;
+
+        ConcatReader(Reader... readers) {
+            this.readers = readers;
+        }
+
+        void pushBack(char c) {
+            pushedBack = c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (pushedBack >= 0) {
+                buffer[offset] = (char) pushedBack;
+                pushedBack = -1;
+                return 1;
+            }
+            while (current < readers.length) {
+                int read = readers[current].read(buffer, offset, length);
+                if (read > 0) {
+                    return read;
+                }
+                if (read < 0) {
+                    current++;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -1,12 +1,46 @@
 package com.prog.secure_note.repositories;
 
 import com.prog.secure_note.model.Note;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface NoteRepository extends JpaRepository<Note, Long> {
     List<Note> findByOwnerUsername(String username);
+
+    List<Note> findByIdInAndOwnerUsername(Collection<Long> ids, String ownerUsername);
+
+    List<Note> findByOwnerUsernameAndChangeSeqGreaterThanOrderByChangeSeqAsc(String username, Long since, Pageable pageable);
+
+    List<Note> findByChangeSeqIsNull(Pageable pageable);
+
+    @Query("select distinct n.ownerUsername from Note n")
+    List<String> findDistinctOwnerUsernames();
+
+    boolean existsByIdAndOwnerUsername(Long id, String ownerUsername);
+
+    //Bumps the version and change sequence without loading the (possibly huge) content.
+    @Modifying(flushAutomatically = true)
+    @Query("update Note n set n.version = n.version + 1, n.changeSeq = :changeSeq, n.updatedAt = :updatedAt " +
+           "where n.id = :noteId and n.ownerUsername = :username")
+    int markChanged(@Param("noteId") Long noteId,
+                    @Param("username") String username,
+                    @Param("changeSeq") Long changeSeq,
+                    @Param("updatedAt") Instant updatedAt);
+
+    //Locks the note row until the transaction ends and returns its owner (empty when there is no such note).
+    //Every write of a note takes it first, before the owner's change sequence lock.
+    @Query(value = "select owner_username from note where id = :noteId for update", nativeQuery = true)
+    List<String> lockNote(@Param("noteId") Long noteId);
+
+    @Query("select n.version from Note n where n.id = :noteId")
+    long findVersionById(@Param("noteId") Long noteId);
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.prog.secure_note.repositories;
+
+import com.prog.secure_note.model.NoteSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface NoteSummaryRepository extends JpaRepository<NoteSummary, Long> {
+    Optional<NoteSummary> findByNoteIdAndSummaryLength(Long noteId, String summaryLength);
+
+    //Called from an after-commit listener, where the note's transaction has already committed and joining it
+    //would run the delete without ever committing it.
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Modifying
+    @Query("delete from NoteSummary s where s.noteId = :noteId")
+    void deleteByNoteId(@Param("noteId") Long noteId);
+}
@@ -0,0 +1,498 @@
+package com.prog.secure_note.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//Approximate nearest neighbour index (HNSW graph) over the note embeddings of one user.
+//Vectors are L2-normalized and compared by dot product. All vectors live in one flat float array
+//and the graph links in int arrays, so a query allocates almost nothing and never boxes.
+//An updated note gets a new node; the old one stays in the graph for navigation but is never returned.
+public class HnswIndex {
+
+    private final int dimensions;
+    private final int maxLinks;
+    private final int maxLinksLevel0;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final SplittableRandom random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] vectors;
+    private long[] noteIds;
+    private long[] versions;
+    private boolean[] deleted;
+    //links[node][level] holds the neighbour count at index 0, followed by the neighbours.
+    private int[][][] links;
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int topLevel = -1;
+    private final Map<Long, Integer> nodeByNote = new HashMap<>();
+    //Note ids are never reused, so a removed note is refused if a late embedding of it still comes in.
+    private final Set<Long> removedNotes = new HashSet<>();
+
+    public HnswIndex(int dimensions) {
+        this(dimensions, 16, 100, 42);
+    }
+
+    public HnswIndex(int dimensions, int maxLinks, int efConstruction, long seed) {
+        this.dimensions = dimensions;
+        this.maxLinks = maxLinks;
+        this.maxLinksLevel0 = maxLinks * 2;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1 / Math.log(maxLinks);
+        this.random = new SplittableRandom(seed);
+        int capacity = 16;
+        this.vectors = new float[capacity * dimensions];
+        this.noteIds = new long[capacity];
+        this.versions = new long[capacity];
+        this.deleted = new boolean[capacity];
+        this.links = new int[capacity][][];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Share of the nodes that are replaced or deleted notes; the owner rebuilds the index once it gets high.
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? 0 : (double) deletedCount / size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Adds the vector of a note, replacing the one of an older version. Returns false for a stale version
+    //or a removed note.
+    public boolean addOrUpdate(long noteId, long version, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        lock.writeLock().lock();
+        try {
+            if (removedNotes.contains(noteId)) {
+                return false;
+            }
+            Integer existing = nodeByNote.get(noteId);
+            if (existing != null) {
+                if (versions[existing] > version) {
+                    return false;
+                }
+                markDeleted(existing);
+            }
+            int node = insert(vector);
+            noteIds[node] = noteId;
+            versions[node] = version;
+            nodeByNote.put(noteId, node);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long noteId) {
+        lock.writeLock().lock();
+        try {
+            removedNotes.add(noteId);
+            Integer node = nodeByNote.remove(noteId);
+            if (node != null) {
+                markDeleted(node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Copy of the stored vector of a note, or null if the note isn't indexed.
+    public float[] getVector(long noteId) {
+        lock.readLock().lock();
+        try {
+            Integer node = nodeByNote.get(noteId);
+            return node == null ? null : Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(long noteId) {
+        lock.readLock().lock();
+        try {
+            return nodeByNote.containsKey(noteId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Top k notes by similarity, best first. excludeNoteId (or -1) is left out of the results.
+    //ef is the size of the candidate list on the bottom layer: higher means better recall and slower queries.
+    public Result search(float[] query, int k, int ef, long excludeNoteId) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return new Result(new long[0], new float[0]);
+            }
+            int current = entryPoint;
+            float currentScore = dot(query, current);
+            for (int level = topLevel; level > 0; level--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    int[] neighbours = links[current][level];
+                    for (int i = 1; i <= neighbours[0]; i++) {
+                        float score = dot(query, neighbours[i]);
+                        if (score > currentScore) {
+                            currentScore = score;
+                            current = neighbours[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            // Deleted nodes take up room in the candidate list, widen it so k live ones still come back.
+            NodeHeap found = searchLayer(query, current, Math.max(ef, k) + Math.min(deletedCount, k), 0);
+
+            long[] ids = new long[k];
+            float[] scores = new float[k];
+            int count = 0;
+            int[] order = found.sortedDescending();
+            for (int i = 0; i < order.length && count < k; i++) {
+                int node = order[i];
+                if (deleted[node] || noteIds[node] == excludeNoteId) {
+                    continue;
+                }
+                ids[count] = noteIds[node];
+                scores[count] = found.scoreOf(i);
+                count++;
+            }
+            return new Result(Arrays.copyOf(ids, count), Arrays.copyOf(scores, count));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Exact top k by scanning every vector. Used to measure the recall of search().
+    public Result bruteForce(float[] query, int k, long excludeNoteId) {
+        lock.readLock().lock();
+        try {
+            NodeHeap best = new NodeHeap(k + 1, false);
+            for (int node = 0; node < size; node++) {
+                if (deleted[node] || noteIds[node] == excludeNoteId) {
+                    continue;
+                }
+                best.push(node, dot(query, node));
+                if (best.size > k) {
+                    best.pop();
+                }
+            }
+            int[] order = best.sortedDescending();
+            long[] ids = new long[order.length];
+            float[] scores = new float[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ids[i] = noteIds[order[i]];
+                scores[i] = best.scoreOf(i);
+            }
+            return new Result(ids, scores);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //New index with only the live notes.
+    public HnswIndex compacted() {
+        lock.readLock().lock();
+        try {
+            HnswIndex copy = new HnswIndex(dimensions, maxLinks, efConstruction, size);
+            copy.removedNotes.addAll(removedNotes);
+            float[] vector = new float[dimensions];
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node]) {
+                    System.arraycopy(vectors, node * dimensions, vector, 0, dimensions);
+                    copy.addOrUpdate(noteIds[node], versions[node], vector);
+                }
+            }
+            return copy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void markDeleted(int node) {
+        if (!deleted[node]) {
+            deleted[node] = true;
+            deletedCount++;
+        }
+    }
+
+    private int insert(float[] vector) {
+        ensureCapacity(size + 1);
+        int node = size++;
+        System.arraycopy(vector, 0, vectors, node * dimensions, dimensions);
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxLinksLevel0 : maxLinks) + 1];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            topLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        float currentScore = dot(node, current);
+        for (int l = topLevel; l > level; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] neighbours = links[current][l];
+                for (int i = 1; i <= neighbours[0]; i++) {
+                    float score = dot(node, neighbours[i]);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = neighbours[i];
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        float[] query = Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(query, current, efConstruction, l);
+            int[] order = candidates.sortedDescending();
+            current = order[0];
+            int limit = l == 0 ? maxLinksLevel0 : maxLinks;
+            int[] selected = selectNeighbours(order, candidates, maxLinks);
+            int[] own = links[node][l];
+            for (int neighbour : selected) {
+                own[++own[0]] = neighbour;
+                connect(neighbour, node, l, limit);
+            }
+        }
+        if (level > topLevel) {
+            topLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    //HNSW neighbour heuristic: a candidate is skipped when it is closer to an already picked
+    //neighbour than to the new node, which keeps links spread out in different directions.
+    private int[] selectNeighbours(int[] order, NodeHeap candidates, int max) {
+        int[] selected = new int[Math.min(max, order.length)];
+        int count = 0;
+        for (int i = 0; i < order.length && count < selected.length; i++) {
+            int candidate = order[i];
+            float score = candidates.scoreOf(i);
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (dot(candidate, selected[j]) > score) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level, int limit) {
+        int[] neighbours = links[from][level];
+        if (neighbours[0] < limit) {
+            neighbours[++neighbours[0]] = to;
+            return;
+        }
+        // Full: keep the closest ones, with the new node among the candidates.
+        NodeHeap candidates = new NodeHeap(limit + 1, false);
+        candidates.push(to, dot(from, to));
+        for (int i = 1; i <= neighbours[0]; i++) {
+            candidates.push(neighbours[i], dot(from, neighbours[i]));
+        }
+        int[] order = candidates.sortedDescending();
+        int[] selected = selectNeighbours(order, candidates, limit);
+        neighbours[0] = selected.length;
+        System.arraycopy(selected, 0, neighbours, 1, selected.length);
+    }
+
+    //Best-first search on one layer. Returns up to ef nodes closest to the query.
+    private NodeHeap searchLayer(float[] query, int start, int ef, int level) {
+        long[] visited = new long[(size + 63) >>> 6];
+        NodeHeap candidates = new NodeHeap(ef * 2, true);
+        NodeHeap results = new NodeHeap(ef + 1, false);
+        float startScore = dot(query, start);
+        candidates.push(start, startScore);
+        results.push(start, startScore);
+        visited[start >>> 6] |= 1L << start;
+
+        while (candidates.size > 0) {
+            float candidateScore = candidates.topScore();
+            if (results.size >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbours = links[candidate][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if ((visited[neighbour >>> 6] & (1L << neighbour)) != 0) {
+                    continue;
+                }
+                visited[neighbour >>> 6] |= 1L << neighbour;
+                float score = dot(query, neighbour);
+                if (results.size < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private float dot(float[] query, int node) {
+        int offset = node * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * vectors[offset + i];
+        }
+        return sum;
+    }
+
+    private float dot(int a, int b) {
+        int offsetA = a * dimensions;
+        int offsetB = b * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return sum;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= noteIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, noteIds.length * 2);
+        vectors = Arrays.copyOf(vectors, newCapacity * dimensions);
+        noteIds = Arrays.copyOf(noteIds, newCapacity);
+        versions = Arrays.copyOf(versions, newCapacity);
+        deleted = Arrays.copyOf(deleted, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+    }
+
+    public record Result(long[] noteIds, float[] scores) {
+    }
+
+    //Binary heap of (node, score) pairs on parallel primitive arrays. A max-heap keeps the best score on top,
+    //a min-heap the worst one.
+    private static final class NodeHeap {
+        private int[] nodes;
+        private float[] scores;
+        private final boolean max;
+        private int size;
+        private float[] sortedScores;
+
+        NodeHeap(int capacity, boolean max) {
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.scores = new float[nodes.length];
+            this.max = max;
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float score = scores[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                        child++;
+                    }
+                    if (!before(scores[child], score)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    scores[i] = scores[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                scores[i] = score;
+            }
+            return top;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        //Empties the heap and returns its nodes from best to worst; scoreOf(i) is the score of the i-th one.
+        int[] sortedDescending() {
+            int count = size;
+            int[] order = new int[count];
+            sortedScores = new float[count];
+            if (max) {
+                for (int i = 0; i < count; i++) {
+                    sortedScores[i] = scores[0];
+                    order[i] = pop();
+                }
+            } else {
+                for (int i = count - 1; i >= 0; i--) {
+                    sortedScores[i] = scores[0];
+                    order[i] = pop();
+                }
+            }
+            return order;
+        }
+
+        float scoreOf(int sortedIndex) {
+            return sortedScores[sortedIndex];
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
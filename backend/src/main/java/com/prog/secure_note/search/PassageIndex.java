@@ -0,0 +1,104 @@
+package com.prog.secure_note.search;
+
+import com.prog.secure_note.model.NoteSearchHit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//BM25 index over short passages of the notes of one user, for picking the context of a question.
+//Every note is cut into overlapping windows of words; each window is a doc of a UserIndex under its own key.
+public class PassageIndex {
+
+    private final int passageWords;
+    private final int overlapWords;
+    private final UserIndex index = new UserIndex();
+    private final Map<Long, Passage> passages = new ConcurrentHashMap<>();
+    private final Map<Long, long[]> keysByNote = new HashMap<>();
+    private long nextKey;
+
+    public PassageIndex(int passageWords, int overlapWords) {
+        if (overlapWords >= passageWords) {
+            throw new IllegalArgumentException("Passage overlap must be smaller than the passage");
+        }
+        this.passageWords = passageWords;
+        this.overlapWords = overlapWords;
+    }
+
+    public synchronized void addOrUpdate(long noteId, String text) {
+        remove(noteId);
+        List<String> chunks = split(text, passageWords, overlapWords);
+        long[] keys = new long[chunks.size()];
+        for (int i = 0; i < keys.length; i++) {
+            long key = nextKey++;
+            keys[i] = key;
+            passages.put(key, new Passage(noteId, chunks.get(i), 0));
+            index.addOrUpdate(key, chunks.get(i), 0);
+        }
+        keysByNote.put(noteId, keys);
+    }
+
+    public synchronized void remove(long noteId) {
+        long[] keys = keysByNote.remove(noteId);
+        if (keys == null) {
+            return;
+        }
+        for (long key : keys) {
+            index.remove(key, 0);
+            passages.remove(key);
+        }
+    }
+
+    //Best passages for the query, highest score first.
+    public List<Passage> search(String query, int limit) {
+        List<NoteSearchHit> hits = index.search(query, limit);
+        List<Passage> result = new ArrayList<>(hits.size());
+        for (NoteSearchHit hit : hits) {
+            Passage passage = passages.get(hit.getNoteId());
+            //Null if the note was re-indexed between the search and this lookup.
+            if (passage != null) {
+                result.add(new Passage(passage.noteId(), passage.text(), hit.getScore()));
+            }
+        }
+        return result;
+    }
+
+    public int getPassageCount() {
+        return passages.size();
+    }
+
+    //Windows of passageWords words, each starting passageWords - overlapWords after the previous one,
+    //so a sentence on a boundary is whole in at least one passage. The original spacing is kept.
+    static List<String> split(String text, int passageWords, int overlapWords) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null) {
+            return chunks;
+        }
+        List<int[]> words = new ArrayList<>();
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && !Character.isWhitespace(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(new int[]{start, i});
+                start = -1;
+            }
+        }
+        int step = passageWords - overlapWords;
+        for (int first = 0; first < words.size(); first += step) {
+            int last = Math.min(first + passageWords, words.size()) - 1;
+            chunks.add(text.substring(words.get(first)[0], words.get(last)[1]));
+            if (last == words.size() - 1) {
+                break;
+            }
+        }
+        return chunks;
+    }
+
+    public record Passage(long noteId, String text, float score) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.prog.secure_note.search;
+
+import java.util.Arrays;
+
+//Documents containing one term, stored as (doc delta, term frequency) pairs encoded as varints.
+//Doc ordinals only grow, so the deltas are small and most entries take two or three bytes.
+final class PostingList {
+
+    final String term;
+    byte[] data;
+    int size;
+    int lastDoc = -1;
+    int docFreq;
+
+    PostingList(String term) {
+        this.term = term;
+        this.data = new byte[8];
+    }
+
+    PostingList(String term, byte[] data, int lastDoc, int docFreq) {
+        this.term = term;
+        this.data = data;
+        this.size = data.length;
+        this.lastDoc = lastDoc;
+        this.docFreq = docFreq;
+    }
+
+    void add(int doc, int freq) {
+        ensureCapacity(10);
+        size = writeVarint(data, size, doc - lastDoc);
+        size = writeVarint(data, size, freq);
+        lastDoc = doc;
+        docFreq++;
+    }
+
+    byte[] trimmed() {
+        return size == data.length ? data : Arrays.copyOf(data, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+        }
+    }
+
+    static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    //Decodes the pairs in order. Kept as a tiny cursor so the scoring loop doesn't allocate.
+    static final class Cursor {
+        private final byte[] data;
+        private final int size;
+        private int offset;
+        int doc = -1;
+        int freq;
+
+        Cursor(PostingList list) {
+            this.data = list.data;
+            this.size = list.size;
+        }
+
+        boolean next() {
+            if (offset >= size) {
+                return false;
+            }
+            doc += readVarint();
+            freq = readVarint();
+            return true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.prog.secure_note.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Immutable prefix dictionary for type-ahead. Keys are sorted and front-coded in blocks of 16:
+//every key only stores the bytes that differ from the key before it, so a vocabulary takes a few bytes per word.
+//Each block remembers its highest weight, which lets a query skip whole blocks that can't make the top-k.
+public final class PrefixSuggester {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int[] blockMaxWeights;
+    private final int entryCount;
+
+    public static final class Entry {
+        private final byte[] key;
+        private final int weight;
+        private final long payload;
+
+        public Entry(String key, int weight, long payload) {
+            this.key = key.getBytes(StandardCharsets.UTF_8);
+            this.weight = weight;
+            this.payload = payload;
+        }
+    }
+
+    public static final class Match {
+        private final String key;
+        private final int weight;
+        private final long payload;
+
+        public Match(String key, int weight, long payload) {
+            this.key = key;
+            this.weight = weight;
+            this.payload = payload;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public long getPayload() {
+            return payload;
+        }
+    }
+
+    private PrefixSuggester(byte[] data, int[] blockOffsets, int[] blockMaxWeights, int entryCount) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.blockMaxWeights = blockMaxWeights;
+        this.entryCount = entryCount;
+    }
+
+    public static PrefixSuggester build(List<Entry> entries) {
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        int blocks = (sorted.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockOffsets = new int[blocks];
+        int[] blockMaxWeights = new int[blocks];
+        byte[] data = new byte[64];
+        int size = 0;
+        byte[] previous = null;
+        for (int i = 0; i < sorted.length; i++) {
+            Entry entry = sorted[i];
+            int block = i / BLOCK_SIZE;
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[block] = size;
+            } else {
+                int max = Math.min(previous.length, entry.key.length);
+                while (shared < max && previous[shared] == entry.key[shared]) {
+                    shared++;
+                }
+            }
+            blockMaxWeights[block] = Math.max(blockMaxWeights[block], entry.weight);
+            int suffix = entry.key.length - shared;
+            if (size + suffix + 30 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + suffix + 30));
+            }
+            size = writeVarint(data, size, shared);
+            size = writeVarint(data, size, suffix);
+            System.arraycopy(entry.key, shared, data, size, suffix);
+            size += suffix;
+            size = writeVarint(data, size, entry.weight);
+            size = writeVarint(data, size, entry.payload);
+            previous = entry.key;
+        }
+        return new PrefixSuggester(Arrays.copyOf(data, size), blockOffsets, blockMaxWeights, sorted.length);
+    }
+
+    //The k entries with the highest weight whose key starts with the prefix, best first.
+    public List<Match> suggest(String prefix, int k) {
+        byte[] wanted = prefix.getBytes(StandardCharsets.UTF_8);
+        int blocks = blockOffsets.length;
+        if (blocks == 0 || k <= 0) {
+            return List.of();
+        }
+
+        // Last block whose first key is below the prefix: matches can't start before it.
+        int low = 0;
+        int high = blocks - 1;
+        int startBlock = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareFirstKey(middle, wanted) < 0) {
+                startBlock = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        byte[][] topKeys = new byte[k][];
+        int[] topWeights = new int[k];
+        long[] topPayloads = new long[k];
+        int found = 0;
+        byte[] key = new byte[256];
+
+        for (int block = startBlock; block < blocks; block++) {
+            boolean nextBlockInRange = block + 1 < blocks && firstKeyStartsWith(block + 1, wanted);
+            // The whole block is inside the prefix range, but none of its entries can beat the current top-k.
+            if (found == k && nextBlockInRange && block > startBlock && blockMaxWeights[block] <= topWeights[k - 1]) {
+                continue;
+            }
+            Cursor cursor = new Cursor(blockOffsets[block]);
+            int end = block + 1 < blocks ? blockOffsets[block + 1] : data.length;
+            while (cursor.offset < end) {
+                int shared = (int) cursor.readVarint();
+                int suffix = (int) cursor.readVarint();
+                if (shared + suffix > key.length) {
+                    key = Arrays.copyOf(key, shared + suffix);
+                }
+                System.arraycopy(data, cursor.offset, key, shared, suffix);
+                cursor.offset += suffix;
+                int keyLength = shared + suffix;
+                int weight = (int) cursor.readVarint();
+                long payload = cursor.readVarint();
+
+                if (startsWith(key, keyLength, wanted)) {
+                    if (found < k || weight > topWeights[found - 1]) {
+                        int position = Math.min(found, k - 1);
+                        while (position > 0 && topWeights[position - 1] < weight) {
+                            topKeys[position] = topKeys[position - 1];
+                            topWeights[position] = topWeights[position - 1];
+                            topPayloads[position] = topPayloads[position - 1];
+                            position--;
+                        }
+                        topKeys[position] = Arrays.copyOf(key, keyLength);
+                        topWeights[position] = weight;
+                        topPayloads[position] = payload;
+                        found = Math.min(found + 1, k);
+                    }
+                } else if (Arrays.compareUnsigned(key, 0, keyLength, wanted, 0, wanted.length) > 0) {
+                    return toMatches(topKeys, topWeights, topPayloads, found);
+                }
+            }
+        }
+        return toMatches(topKeys, topWeights, topPayloads, found);
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    public long memoryBytes() {
+        return data.length + 8L * blockOffsets.length + 64;
+    }
+
+    private int compareFirstKey(int block, byte[] wanted) {
+        Cursor cursor = new Cursor(blockOffsets[block]);
+        cursor.readVarint(); // shared, always 0 for the first key of a block
+        int length = (int) cursor.readVarint();
+        int start = cursor.offset;
+        return Arrays.compareUnsigned(data, start, start + length, wanted, 0, wanted.length);
+    }
+
+    private boolean firstKeyStartsWith(int block, byte[] wanted) {
+        Cursor cursor = new Cursor(blockOffsets[block]);
+        cursor.readVarint();
+        int length = (int) cursor.readVarint();
+        int start = cursor.offset;
+        return length >= wanted.length && Arrays.equals(data, start, start + wanted.length, wanted, 0, wanted.length);
+    }
+
+    private static boolean startsWith(byte[] key, int keyLength, byte[] wanted) {
+        return keyLength >= wanted.length && Arrays.equals(key, 0, wanted.length, wanted, 0, wanted.length);
+    }
+
+    private static List<Match> toMatches(byte[][] keys, int[] weights, long[] payloads, int found) {
+        List<Match> matches = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            matches.add(new Match(new String(keys[i], StandardCharsets.UTF_8), weights[i], payloads[i]));
+        }
+        return matches;
+    }
+
+    private static int writeVarint(byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private final class Cursor {
+        private int offset;
+
+        private Cursor(int offset) {
+            this.offset = offset;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
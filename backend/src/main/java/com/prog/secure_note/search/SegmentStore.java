@@ -0,0 +1,62 @@
+package com.prog.secure_note.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+//One segment file per user in the index directory. Files are written to a temp file and moved in place,
+//and read back through a memory-mapped buffer so loading doesn't copy the file through the heap twice.
+public class SegmentStore {
+
+    private final Path directory;
+
+    public SegmentStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public UserIndex load(String username) throws IOException {
+        Path file = fileFor(username);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return UserIndex.readFrom(buffer);
+        }
+    }
+
+    public void save(String username, UserIndex index) throws IOException {
+        Path file = fileFor(username);
+        Path temp = Files.createTempFile(directory, "segment", ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            index.writeTo(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete(String username) throws IOException {
+        Files.deleteIfExists(fileFor(username));
+    }
+
+    //Usernames are hashed so any name maps to a safe file name.
+    private Path fileFor(String username) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(username.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash, 0, 16) + ".seg");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.prog.secure_note.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+//Splits text into lower-cased terms of letters and digits. Used for both indexing and queries.
+public final class Tokenizer {
+
+    private static final int MAX_TERM_LENGTH = 40;
+
+    private Tokenizer() {
+    }
+
+    public interface TermConsumer {
+        void accept(String term);
+    }
+
+    public static void tokenize(String text, TermConsumer consumer) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean termChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    consumer.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text, terms::add);
+        return terms;
+    }
+}
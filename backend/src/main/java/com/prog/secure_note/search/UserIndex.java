@@ -0,0 +1,506 @@
+package com.prog.secure_note.search;
+
+import com.prog.secure_note.model.NoteSearchHit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+
+//Inverted index over the notes of one user, scored with BM25.
+//Every indexed version of a note gets a new doc ordinal; the old one is only marked deleted
+//and dropped from the postings when enough of them pile up (see compact()). Document frequencies
+//only count live docs, so deleted versions don't skew the IDF or the vocabulary.
+//Changes of different notes may arrive out of order, so the change sequence applied is kept per note: a change
+//is stale when the note has seen a later one, or when the whole index was built after it.
+public class UserIndex {
+
+    private static final int MAGIC = 0x534E4958; // "SNIX"
+    private static final int FORMAT = 3;
+    private static final int MAX_TITLE_LENGTH = 60;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<String, PostingList> postings = new HashMap<>();
+    private long[] docNoteIds = new long[16];
+    private int[] docLengths = new int[16];
+    private boolean[] deleted = new boolean[16];
+    //Change sequence each doc was indexed at.
+    private long[] docChangeSeqs = new long[16];
+    //First line of every note, for title suggestions.
+    private String[] docTitles = new String[16];
+    //Posting lists of the distinct terms of every live doc, to keep docFreq live when the doc is deleted.
+    private PostingList[][] docLists = new PostingList[16][];
+    private int docCount;
+    private int deletedCount;
+    private long totalLength;
+    private final Map<Long, Integer> ordinalByNoteId = new HashMap<>();
+    //Change sequence of the removal of every note removed since the index was built.
+    private final Map<Long, Long> removedChangeSeqs = new HashMap<>();
+
+    //Highest change sequence applied to this index, used to detect a stale segment on load.
+    private volatile long appliedChangeSeq;
+    //Change sequence the index was built from the database at; every change up to it is included.
+    private long builtChangeSeq;
+    private volatile boolean dirty;
+
+    public UserIndex() {
+    }
+
+    //An index about to be filled with every note of the user as of builtChangeSeq.
+    public UserIndex(long builtChangeSeq) {
+        this.builtChangeSeq = builtChangeSeq;
+        this.appliedChangeSeq = builtChangeSeq;
+    }
+
+    //Indexes the note in place of its previous version. Returns the terms whose document frequency changed
+    //(in one version but not the other), for features kept incrementally on top of the vocabulary.
+    public Set<String> addOrUpdate(long noteId, String text, long changeSeq) {
+        Map<String, int[]> frequencies = new HashMap<>();
+        int[] length = new int[1];
+        Tokenizer.tokenize(text, term -> {
+            frequencies.computeIfAbsent(term, key -> new int[1])[0]++;
+            length[0]++;
+        });
+
+        lock.writeLock().lock();
+        try {
+            PostingList[] previous = removeLocked(noteId);
+            Set<String> changed = new HashSet<>(frequencies.keySet());
+            if (previous != null) {
+                for (PostingList list : previous) {
+                    if (!changed.remove(list.term)) {
+                        changed.add(list.term);
+                    }
+                }
+            }
+            int doc = docCount++;
+            ensureDocCapacity(docCount);
+            docNoteIds[doc] = noteId;
+            docLengths[doc] = length[0];
+            docChangeSeqs[doc] = changeSeq;
+            docTitles[doc] = titleOf(text);
+            totalLength += length[0];
+            ordinalByNoteId.put(noteId, doc);
+            removedChangeSeqs.remove(noteId);
+            PostingList[] lists = new PostingList[frequencies.size()];
+            int t = 0;
+            for (Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+                PostingList list = postings.computeIfAbsent(entry.getKey(), PostingList::new);
+                list.add(doc, entry.getValue()[0]);
+                lists[t++] = list;
+            }
+            docLists[doc] = lists;
+            markApplied(changeSeq);
+            compactIfNeeded();
+            return changed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Returns the terms whose document frequency changed, the terms of the removed note.
+    public Set<String> remove(long noteId, long changeSeq) {
+        lock.writeLock().lock();
+        try {
+            PostingList[] previous = removeLocked(noteId);
+            if (changeSeq > builtChangeSeq) {
+                removedChangeSeqs.merge(noteId, changeSeq, Math::max);
+            }
+            markApplied(changeSeq);
+            compactIfNeeded();
+            Set<String> changed = new HashSet<>();
+            if (previous != null) {
+                for (PostingList list : previous) {
+                    changed.add(list.term);
+                }
+            }
+            return changed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<NoteSearchHit> search(String query, int limit) {
+        List<String> terms = Tokenizer.tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            int liveDocs = docCount - deletedCount;
+            if (liveDocs == 0) {
+                return List.of();
+            }
+            float averageLength = Math.max(1f, (float) totalLength / liveDocs);
+            float[] scores = new float[docCount];
+            for (String term : terms.stream().distinct().toList()) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                int docFreq = list.docFreq;
+                if (docFreq == 0) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveDocs - docFreq + 0.5) / (docFreq + 0.5));
+                PostingList.Cursor cursor = new PostingList.Cursor(list);
+                while (cursor.next()) {
+                    int doc = cursor.doc;
+                    if (deleted[doc]) {
+                        continue;
+                    }
+                    float tf = cursor.freq;
+                    float norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                    scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+
+            PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1, (a, b) -> Float.compare(scores[a], scores[b]));
+            for (int doc = 0; doc < docCount; doc++) {
+                if (scores[doc] <= 0) {
+                    continue;
+                }
+                if (top.size() < limit) {
+                    top.add(doc);
+                } else if (scores[doc] > scores[top.peek()]) {
+                    top.poll();
+                    top.add(doc);
+                }
+            }
+            List<NoteSearchHit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                int doc = top.poll();
+                hits.add(new NoteSearchHit(docNoteIds[doc], scores[doc]));
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getAppliedChangeSeq() {
+        return appliedChangeSeq;
+    }
+
+    //Whether the change is already part of the index: the note has been indexed or removed at this change or a
+    //later one, or the index was built after it.
+    public boolean isApplied(long noteId, long changeSeq) {
+        lock.readLock().lock();
+        try {
+            if (changeSeq <= builtChangeSeq) {
+                return true;
+            }
+            Integer doc = ordinalByNoteId.get(noteId);
+            if (doc != null) {
+                return changeSeq <= docChangeSeqs[doc];
+            }
+            Long removed = removedChangeSeqs.get(noteId);
+            return removed != null && changeSeq <= removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public int getLiveDocCount() {
+        return docCount - deletedCount;
+    }
+
+    //Calls the consumer with every term of a live note and the number of live notes containing it,
+    //for vocabulary features.
+    public void forEachTerm(ObjIntConsumer<String> consumer) {
+        lock.readLock().lock();
+        try {
+            postings.forEach((term, list) -> {
+                if (list.docFreq > 0) {
+                    consumer.accept(term, list.docFreq);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Number of live notes containing the term.
+    public int getDocFreq(String term) {
+        lock.readLock().lock();
+        try {
+            PostingList list = postings.get(term);
+            return list == null ? 0 : list.docFreq;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Calls the consumer with the note id and title of every live note.
+    public void forEachTitle(ObjLongConsumer<String> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!deleted[doc] && !docTitles[doc].isEmpty()) {
+                    consumer.accept(docTitles[doc], docNoteIds[doc]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String getTitle(long noteId) {
+        lock.readLock().lock();
+        try {
+            Integer doc = ordinalByNoteId.get(noteId);
+            return doc == null ? null : docTitles[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(appliedChangeSeq);
+            out.writeLong(builtChangeSeq);
+            out.writeInt(docCount);
+            for (int doc = 0; doc < docCount; doc++) {
+                out.writeLong(docNoteIds[doc]);
+                out.writeLong(docChangeSeqs[doc]);
+                out.writeInt(docLengths[doc]);
+                out.writeBoolean(deleted[doc]);
+                byte[] title = docTitles[doc].getBytes(StandardCharsets.UTF_8);
+                out.writeShort(title.length);
+                out.write(title);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                PostingList list = entry.getValue();
+                out.writeShort(term.length);
+                out.write(term);
+                out.writeInt(list.lastDoc);
+                out.writeInt(list.docFreq);
+                out.writeInt(list.size);
+                out.write(list.data, 0, list.size);
+            }
+            out.writeInt(removedChangeSeqs.size());
+            for (Map.Entry<Long, Long> entry : removedChangeSeqs.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            dirty = false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Reads a segment written by writeTo, usually from a memory-mapped file.
+    public static UserIndex readFrom(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+            throw new IllegalStateException("Not a search index segment");
+        }
+        UserIndex index = new UserIndex();
+        index.appliedChangeSeq = buffer.getLong();
+        index.builtChangeSeq = buffer.getLong();
+        int docs = buffer.getInt();
+        index.ensureDocCapacity(docs);
+        index.docCount = docs;
+        for (int doc = 0; doc < docs; doc++) {
+            index.docNoteIds[doc] = buffer.getLong();
+            index.docChangeSeqs[doc] = buffer.getLong();
+            index.docLengths[doc] = buffer.getInt();
+            index.deleted[doc] = buffer.get() != 0;
+            index.docTitles[doc] = readTitle(buffer);
+            if (index.deleted[doc]) {
+                index.deletedCount++;
+            } else {
+                index.totalLength += index.docLengths[doc];
+                index.ordinalByNoteId.put(index.docNoteIds[doc], doc);
+            }
+        }
+        int terms = buffer.getInt();
+        index.postings = new HashMap<>(terms * 4 / 3 + 1);
+        for (int i = 0; i < terms; i++) {
+            byte[] term = new byte[buffer.getShort()];
+            buffer.get(term);
+            int lastDoc = buffer.getInt();
+            int docFreq = buffer.getInt();
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            String text = new String(term, StandardCharsets.UTF_8);
+            index.postings.put(text, new PostingList(text, data, lastDoc, docFreq));
+        }
+        int removed = buffer.getInt();
+        for (int i = 0; i < removed; i++) {
+            index.removedChangeSeqs.put(buffer.getLong(), buffer.getLong());
+        }
+        index.rebuildDocLists();
+        return index;
+    }
+
+    //Marks the live version of the note deleted and returns its posting lists, null when there is none.
+    private PostingList[] removeLocked(long noteId) {
+        Integer previous = ordinalByNoteId.remove(noteId);
+        if (previous == null || deleted[previous]) {
+            return null;
+        }
+        deleted[previous] = true;
+        deletedCount++;
+        totalLength -= docLengths[previous];
+        PostingList[] lists = docLists[previous];
+        for (PostingList list : lists) {
+            list.docFreq--;
+        }
+        docLists[previous] = null;
+        return lists;
+    }
+
+    //Keeps deleted versions (an update deletes one too) to at most a quarter of the docs.
+    private void compactIfNeeded() {
+        if (deletedCount > 64 && deletedCount * 4 > docCount) {
+            compact();
+        }
+    }
+
+    //Segments store the postings only: the lists of every doc and the live document frequencies
+    //are derived from them on load.
+    private void rebuildDocLists() {
+        int[] termCounts = new int[docCount];
+        for (PostingList list : postings.values()) {
+            list.docFreq = 0;
+            PostingList.Cursor cursor = new PostingList.Cursor(list);
+            while (cursor.next()) {
+                if (!deleted[cursor.doc]) {
+                    termCounts[cursor.doc]++;
+                    list.docFreq++;
+                }
+            }
+        }
+        for (int doc = 0; doc < docCount; doc++) {
+            docLists[doc] = deleted[doc] ? null : new PostingList[termCounts[doc]];
+            termCounts[doc] = 0;
+        }
+        for (PostingList list : postings.values()) {
+            PostingList.Cursor cursor = new PostingList.Cursor(list);
+            while (cursor.next()) {
+                if (!deleted[cursor.doc]) {
+                    docLists[cursor.doc][termCounts[cursor.doc]++] = list;
+                }
+            }
+        }
+    }
+
+    private void markApplied(long changeSeq) {
+        if (changeSeq > appliedChangeSeq) {
+            appliedChangeSeq = changeSeq;
+        }
+        dirty = true;
+    }
+
+    //Renumbers the live docs and rewrites the postings without the deleted ones.
+    private void compact() {
+        int[] remap = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            remap[doc] = deleted[doc] ? -1 : live++;
+        }
+        Map<String, PostingList> compacted = new HashMap<>(postings.size());
+        Map<PostingList, PostingList> rewrittenLists = new IdentityHashMap<>(postings.size());
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            PostingList rewritten = new PostingList(entry.getKey());
+            PostingList.Cursor cursor = new PostingList.Cursor(entry.getValue());
+            while (cursor.next()) {
+                if (remap[cursor.doc] >= 0) {
+                    rewritten.add(remap[cursor.doc], cursor.freq);
+                }
+            }
+            if (rewritten.docFreq > 0) {
+                rewritten.data = rewritten.trimmed();
+                compacted.put(entry.getKey(), rewritten);
+                rewrittenLists.put(entry.getValue(), rewritten);
+            }
+        }
+        long[] noteIds = new long[Math.max(16, live)];
+        int[] lengths = new int[Math.max(16, live)];
+        long[] changeSeqs = new long[Math.max(16, live)];
+        String[] titles = new String[Math.max(16, live)];
+        PostingList[][] lists = new PostingList[Math.max(16, live)][];
+        ordinalByNoteId.clear();
+        for (int doc = 0; doc < docCount; doc++) {
+            if (remap[doc] >= 0) {
+                noteIds[remap[doc]] = docNoteIds[doc];
+                lengths[remap[doc]] = docLengths[doc];
+                changeSeqs[remap[doc]] = docChangeSeqs[doc];
+                titles[remap[doc]] = docTitles[doc];
+                PostingList[] docList = docLists[doc];
+                for (int t = 0; t < docList.length; t++) {
+                    docList[t] = rewrittenLists.get(docList[t]);
+                }
+                lists[remap[doc]] = docList;
+                ordinalByNoteId.put(docNoteIds[doc], remap[doc]);
+            }
+        }
+        postings = compacted;
+        docNoteIds = noteIds;
+        docLengths = lengths;
+        docChangeSeqs = changeSeqs;
+        docTitles = titles;
+        docLists = lists;
+        deleted = new boolean[noteIds.length];
+        docCount = live;
+        deletedCount = 0;
+    }
+
+    private void ensureDocCapacity(int needed) {
+        if (needed > docNoteIds.length) {
+            int capacity = Math.max(needed, docNoteIds.length * 2);
+            docNoteIds = Arrays.copyOf(docNoteIds, capacity);
+            docLengths = Arrays.copyOf(docLengths, capacity);
+            docChangeSeqs = Arrays.copyOf(docChangeSeqs, capacity);
+            deleted = Arrays.copyOf(deleted, capacity);
+            docTitles = Arrays.copyOf(docTitles, capacity);
+            docLists = Arrays.copyOf(docLists, capacity);
+        }
+    }
+
+    //First non-blank line of the note, cut to a length that fits a suggestion list.
+    private static String titleOf(String text) {
+        if (text == null) {
+            return "";
+        }
+        for (String line : text.split("\n", 8)) {
+            String trimmed = line.strip();
+            if (!trimmed.isEmpty()) {
+                return trimmed.length() > MAX_TITLE_LENGTH ? trimmed.substring(0, MAX_TITLE_LENGTH) : trimmed;
+            }
+        }
+        return "";
+    }
+
+    private static String readTitle(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
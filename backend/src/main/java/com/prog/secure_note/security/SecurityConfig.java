@@ -51,6 +51,7 @@ public class SecurityConfig {
                         requests
                                 .requestMatchers("/api/csrf-token").permitAll()
                                 .requestMatchers("/api/admin/**").hasRole("ADMIN")
+                                .requestMatchers("/actuator/**").hasRole("ADMIN")
                                 .requestMatchers("/api/auth/public/**").permitAll()
                                 .requestMatchers("/oauth2/**").permitAll()
                                 .requestMatchers("/api/contact/**").permitAll()  //I permitted this endpoint so any user can send a message to the admin.
@@ -12,6 +12,8 @@ public interface AuditLogService {
 
     void logNoteDeletion(String username, Long noteId);
 
+    void logStreamedNoteWrite(String username, Long noteId, boolean created);
+
     List<AuditLog> getAllAuditLogs();
 
     List<AuditLog> getAuditLogForNoteid(Long id);
@@ -0,0 +1,9 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.AIResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface NoteAskService {
+    CompletableFuture<AIResponse> ask(String username, String question);
+}
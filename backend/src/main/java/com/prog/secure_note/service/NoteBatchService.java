@@ -0,0 +1,14 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.AIBatchRequest;
+import com.prog.secure_note.model.AIResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+public interface NoteBatchService {
+    //onResult and onError are called once per note id, in completion order; the future completes after the last one.
+    CompletableFuture<Void> process(String username, AIBatchRequest request,
+                                    BiConsumer<Long, AIResponse> onResult,
+                                    BiConsumer<Long, String> onError);
+}
@@ -0,0 +1,9 @@
+package com.prog.secure_note.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public interface NoteEventService {
+    SseEmitter subscribe(String username);
+
+    int getSubscriberCount();
+}
@@ -0,0 +1,14 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.NoteSearchHit;
+import com.prog.secure_note.search.UserIndex;
+
+import java.util.List;
+
+public interface NoteSearchService {
+    List<NoteSearchHit> search(String username, String query, int limit);
+
+    void rebuildAll();
+
+    UserIndex getIndex(String username);
+}
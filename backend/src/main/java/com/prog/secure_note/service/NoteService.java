@@ -1,7 +1,11 @@
 package com.prog.secure_note.service;
 
 import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteContentRange;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.List;
 
 public interface NoteService {
@@ -14,6 +18,22 @@ public interface NoteService {
     List<Note> getNotesForUser(String username);
 
     Note getNoteByIdForUser(Long noteId, String username);
+
+    //Only the notes the user owns; ids of other notes are left out of the result.
+    List<Note> getNotesByIdsForUser(List<Long> noteIds, String username);
+
+    //Streaming variants for large notes, the content is never held in memory as a whole.
+    Note createNoteForUser(String username, Reader content);
+
+    Note updateNoteForUser(Long noteId, Reader content, String username);
+
+    Note updateNoteContentRange(Long noteId, long start, long end, Reader replacement, String username);
+
+    void checkNoteAccess(Long noteId, String username);
+
+    void prepareContentRange(Long noteId, String username, NoteContentRange range);
+
+    void streamNoteContent(Long noteId, NoteContentRange range, OutputStream out) throws IOException;
 }
 
 //here i simply written a simple crud operation.
\ No newline at end of file
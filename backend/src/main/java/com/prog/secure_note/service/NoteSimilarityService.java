@@ -0,0 +1,11 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.NoteSearchHit;
+
+import java.util.List;
+
+public interface NoteSimilarityService {
+    List<NoteSearchHit> findRelated(String username, Long noteId, int limit);
+
+    List<NoteSearchHit> searchSemantic(String username, String query, int limit);
+}
@@ -0,0 +1,9 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.NoteSuggestion;
+
+import java.util.List;
+
+public interface NoteSuggestService {
+    List<NoteSuggestion> suggest(String username, String prefix, int limit);
+}
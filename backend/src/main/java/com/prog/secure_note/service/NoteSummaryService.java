@@ -0,0 +1,10 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface NoteSummaryService {
+    CompletableFuture<AIResponse> summarize(Note note, String length);
+}
@@ -0,0 +1,7 @@
+package com.prog.secure_note.service;
+
+import com.prog.secure_note.model.NoteSyncResponse;
+
+public interface NoteSyncService {
+    NoteSyncResponse getChangesSince(String username, long cursor, int limit);
+}
@@ -3,6 +3,7 @@ package com.prog.secure_note.service.serviceImpl;
 import com.prog.secure_note.model.AuditLog;
 import com.prog.secure_note.model.Note;
 import com.prog.secure_note.repositories.AuditLogRepository;
+import com.prog.secure_note.repositories.NoteContentRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -15,6 +16,9 @@ public class AuditLogService implements com.prog.secure_note.service.AuditLogSer
     @Autowired
     private AuditLogRepository auditLogRepository;
 
+    @Autowired
+    private NoteContentRepository noteContentRepository;
+
     @Override
     public void logNoteCreation(String username, Note note) {
         AuditLog log = new AuditLog();
@@ -50,6 +54,20 @@ public class AuditLogService implements com.prog.secure_note.service.AuditLogSer
         auditLogRepository.save(log);
     }
 
+    //Same as logNoteCreation/logNoteUpdate for notes written through the streaming endpoints.
+    //The content is copied by the database, because the streamed note is never held in memory.
+    @Override
+    public void logStreamedNoteWrite(String username, Long noteId, boolean created) {
+        AuditLog log = new AuditLog();
+        log.setAction(created ? "Note Created" : "Note Updated");
+        log.setUsername(username);
+        log.setNoteId(noteId);
+        log.setTimestamp(LocalDateTime.now());
+
+        auditLogRepository.saveAndFlush(log);
+        noteContentRepository.copyContentToAuditLog(log.getId(), noteId);
+    }
+
     //This method will return all the audit logs
     @Override
     public List<AuditLog> getAllAuditLogs() {
@@ -0,0 +1,241 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIPriority;
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.ai_service.TokenEstimator;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.search.PassageIndex;
+import com.prog.secure_note.service.NoteAskService;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.utils.NoteTextExtractor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//"Ask my notes": answers a question from the passages of the user's notes that match it best.
+//Only the top passages that fit in a fixed token budget are sent to Gemini, so the prompt size
+//(and the cost and latency of the call) stays the same however many notes the user has.
+@Service
+public class NoteAskServiceImpl implements NoteAskService {
+
+    //Rough size of the instructions and question around the passages, in tokens.
+    private static final int PROMPT_OVERHEAD_TOKENS = 80;
+
+    private final AIService aiService;
+    private final NoteService noteService;
+
+    //Builds and updates run on a small pool. The tasks of one user are chained, so the changes of a note are
+    //applied in the order they were made, and a large build only holds up its own user.
+    private ExecutorService indexers;
+
+    @Value("${ai.ask.indexer-threads:4}")
+    private int indexerThreads;
+
+    @Value("${ai.ask.context-token-budget:1500}")
+    private int contextTokenBudget;
+
+    @Value("${ai.ask.max-question-tokens:256}")
+    private int maxQuestionTokens;
+
+    @Value("${ai.ask.max-passages:8}")
+    private int maxPassages;
+
+    @Value("${ai.ask.passage-words:120}")
+    private int passageWords;
+
+    @Value("${ai.ask.passage-overlap-words:20}")
+    private int passageOverlapWords;
+
+    @Value("${ai.ask.max-loaded-users:1000}")
+    private int maxLoadedUsers;
+
+    private Map<String, UserPassages> loaded;
+
+    public NoteAskServiceImpl(AIService aiService, NoteService noteService) {
+        this.aiService = aiService;
+        this.noteService = noteService;
+    }
+
+    //The index of one user and the last task queued for it.
+    private final class UserPassages {
+        private final CompletableFuture<PassageIndex> index = new CompletableFuture<>();
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        //Runs the task after the ones queued before it, whether they failed or not.
+        private synchronized void enqueue(Runnable task) {
+            tail = tail.handleAsync((ignored, error) -> {
+                task.run();
+                return null;
+            }, indexers);
+        }
+    }
+
+    //The passages that made it into the prompt and the notes they came from, best match first.
+    record Context(String text, List<String> sources, int passages) {
+    }
+
+    @PostConstruct
+    public void init() {
+        loaded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserPassages> eldest) {
+                return size() > maxLoadedUsers;
+            }
+        };
+        AtomicInteger threads = new AtomicInteger();
+        indexers = Executors.newFixedThreadPool(Math.max(1, indexerThreads), r -> {
+            Thread thread = new Thread(r, "note-passage-indexer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexers.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> ask(String username, String question) {
+        if (question == null || question.isBlank()) {
+            throw new IllegalArgumentException("Question is required");
+        }
+        if (TokenEstimator.estimate(question) > maxQuestionTokens) {
+            throw new IllegalArgumentException("Question is too long, keep it under " + maxQuestionTokens
+                                               + " tokens (about one per word or punctuation mark)");
+        }
+
+        //A user whose index is still being built waits for it without holding the request thread.
+        return getOrBuild(username).thenCompose(index -> {
+            Context context = pack(index.search(question, maxPassages * 2), contextTokenBudget - PROMPT_OVERHEAD_TOKENS, maxPassages);
+            if (context.passages() == 0) {
+                return CompletableFuture.completedFuture(AIResponse.builder()
+                        .answer("None of your notes seem to cover this question.")
+                        .operation("ask")
+                        .sources(List.of())
+                        .build());
+            }
+
+            AIRequest request = new AIRequest();
+            request.setOperation("ask");
+            request.setQuestion(question);
+            request.setContent(context.text());
+            return aiService.processContentAsync(request, username, AIPriority.INTERACTIVE).thenApply(response -> {
+                //Ids of the notes the passages came from, best match first.
+                response.setSources(context.sources());
+                return response;
+            });
+        });
+    }
+
+    //The best passages that fit the token budget, at most maxPassages of them. A passage that doesn't fit is
+    //skipped; a lower ranked, shorter one may still fit.
+    static Context pack(List<PassageIndex.Passage> passages, int budget, int maxPassages) {
+        StringBuilder text = new StringBuilder();
+        Set<String> sources = new LinkedHashSet<>();
+        int used = 0;
+        for (PassageIndex.Passage passage : passages) {
+            if (used >= maxPassages) {
+                break;
+            }
+            String entry = "[" + (used + 1) + "] " + passage.text() + "\n\n";
+            int tokens = TokenEstimator.estimate(entry);
+            if (tokens > budget) {
+                continue;
+            }
+            text.append(entry);
+            budget -= tokens;
+            used++;
+            sources.add(String.valueOf(passage.noteId()));
+        }
+        return new Context(text.toString(), new ArrayList<>(sources), used);
+    }
+
+    //Only users with a loaded index are updated; the others are indexed from scratch on their next question.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNoteChange(NoteChangeEvent event) {
+        UserPassages user = cached(event.getUsername());
+        if (user != null) {
+            //The build of the index was queued before this task, so it is done by now.
+            user.enqueue(() -> {
+                if (!user.index.isCompletedExceptionally()) {
+                    apply(user.index.join(), event);
+                }
+            });
+        }
+    }
+
+    private void apply(PassageIndex index, NoteChangeEvent event) {
+        try {
+            if (event.getType() == NoteChangeType.DELETED) {
+                index.remove(event.getNoteId());
+            } else {
+                Note note = noteService.getNoteByIdForUser(event.getNoteId(), event.getUsername());
+                index.addOrUpdate(note.getId(), NoteTextExtractor.toPlainText(note.getContent()));
+            }
+        } catch (RuntimeException e) {
+            //The note may have been deleted in the meantime, its DELETED event follows.
+            System.err.println("Could not index passages of note " + event.getNoteId() + ": " + e.getMessage());
+        }
+    }
+
+    //The build is the first task of the user: change events that come in meanwhile queue up behind it
+    //and are applied to the finished index, in order.
+    private CompletableFuture<PassageIndex> getOrBuild(String username) {
+        UserPassages user;
+        boolean created = false;
+        synchronized (loaded) {
+            user = loaded.get(username);
+            if (user == null) {
+                user = new UserPassages();
+                loaded.put(username, user);
+                created = true;
+            }
+        }
+        if (created) {
+            UserPassages building = user;
+            building.enqueue(() -> {
+                try {
+                    building.index.complete(build(username));
+                } catch (RuntimeException e) {
+                    synchronized (loaded) {
+                        loaded.remove(username, building);
+                    }
+                    building.index.completeExceptionally(e);
+                }
+            });
+        }
+        return user.index;
+    }
+
+    private PassageIndex build(String username) {
+        PassageIndex index = new PassageIndex(passageWords, passageOverlapWords);
+        for (Note note : noteService.getNotesForUser(username)) {
+            index.addOrUpdate(note.getId(), NoteTextExtractor.toPlainText(note.getContent()));
+        }
+        return index;
+    }
+
+    private UserPassages cached(String username) {
+        synchronized (loaded) {
+            return loaded.get(username);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIPriority;
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIBatchRequest;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.service.NoteBatchService;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSummaryService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//Runs one AI operation over many notes of a user: the notes are loaded with one owner-scoped query, then
+//at most max-parallel of them are in AIService at a time and each result is passed on as soon as it is done,
+//so a batch takes about (notes / max-parallel) calls of time. Summaries reuse the stored ones.
+@Service
+public class NoteBatchServiceImpl implements NoteBatchService {
+
+    private static final Set<String> OPERATIONS = Set.of("summarise", "translate", "read", "answer");
+
+    private final AIService aiService;
+    private final NoteService noteService;
+    private final NoteSummaryService noteSummaryService;
+
+    //Stays below the per-user queue of the AIScheduler, so a batch doesn't get its own calls rejected.
+    @Value("${ai.batch.max-parallel:4}")
+    private int maxParallel;
+
+    @Value("${ai.batch.max-notes:500}")
+    private int maxNotes;
+
+    public NoteBatchServiceImpl(AIService aiService, NoteService noteService, NoteSummaryService noteSummaryService) {
+        this.aiService = aiService;
+        this.noteService = noteService;
+        this.noteSummaryService = noteSummaryService;
+    }
+
+    @Override
+    public CompletableFuture<Void> process(String username, AIBatchRequest request,
+                                           BiConsumer<Long, AIResponse> onResult,
+                                           BiConsumer<Long, String> onError) {
+        String operation = request.getOperation() == null ? "" : request.getOperation().toLowerCase();
+        if (!OPERATIONS.contains(operation)) {
+            throw new IllegalArgumentException("Operation must be one of " + OPERATIONS);
+        }
+        if (operation.equals("answer") && (request.getQuestion() == null || request.getQuestion().isEmpty())) {
+            throw new IllegalArgumentException("Question required for answer operation");
+        }
+        if (operation.equals("translate") && (request.getTargetLanguage() == null || request.getTargetLanguage().isEmpty())) {
+            throw new IllegalArgumentException("Target language required for translation");
+        }
+        if (request.getNoteIds() == null || request.getNoteIds().isEmpty()) {
+            throw new IllegalArgumentException("noteIds is required");
+        }
+        Set<Long> noteIds = new LinkedHashSet<>(request.getNoteIds());
+        if (noteIds.size() > maxNotes) {
+            throw new IllegalArgumentException("At most " + maxNotes + " notes per batch");
+        }
+
+        Map<Long, Note> notes = noteService.getNotesByIdsForUser(new ArrayList<>(noteIds), username).stream()
+                .collect(Collectors.toMap(Note::getId, Function.identity()));
+        List<Long> found = new ArrayList<>();
+        for (Long noteId : noteIds) {
+            if (notes.containsKey(noteId)) {
+                found.add(noteId);
+            } else {
+                onError.accept(noteId, "Note not found or access denied");
+            }
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (found.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        Batch batch = new Batch(found, id -> run(notes.get(id), username, request), onResult, onError, done);
+        for (int i = 0; i < Math.min(Math.max(1, maxParallel), found.size()); i++) {
+            batch.startNext();
+        }
+        return done;
+    }
+
+    private CompletableFuture<AIResponse> run(Note note, String username, AIBatchRequest batchRequest) {
+        if (batchRequest.getOperation().equalsIgnoreCase("summarise")) {
+            return noteSummaryService.summarize(note, batchRequest.getSummaryLength());
+        }
+        AIRequest request = new AIRequest();
+        request.setOperation(batchRequest.getOperation());
+        request.setContent(note.getContent());
+        request.setQuestion(batchRequest.getQuestion());
+        request.setTargetLanguage(batchRequest.getTargetLanguage());
+        return aiService.processContentAsync(request, username, AIPriority.INTERACTIVE);
+    }
+
+    //Starts the next note whenever one completes; an error of one note doesn't stop the others. Notes are
+    //started by one loop at a time: a start requested while a thread is in that loop (from a future that was
+    //already complete, or one completing on another thread) is counted and run by the same loop, so notes
+    //answered synchronously, like stored summaries, don't nest one call per note on the stack.
+    private static class Batch {
+        private final List<Long> noteIds;
+        private final Function<Long, CompletableFuture<AIResponse>> call;
+        private final BiConsumer<Long, AIResponse> onResult;
+        private final BiConsumer<Long, String> onError;
+        private final CompletableFuture<Void> done;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicInteger pendingStarts = new AtomicInteger();
+
+        Batch(List<Long> noteIds, Function<Long, CompletableFuture<AIResponse>> call,
+              BiConsumer<Long, AIResponse> onResult, BiConsumer<Long, String> onError, CompletableFuture<Void> done) {
+            this.noteIds = noteIds;
+            this.call = call;
+            this.onResult = onResult;
+            this.onError = onError;
+            this.done = done;
+            this.remaining = new AtomicInteger(noteIds.size());
+        }
+
+        void startNext() {
+            if (pendingStarts.getAndIncrement() > 0) {
+                return;
+            }
+            do {
+                startOne();
+            } while (pendingStarts.decrementAndGet() > 0);
+        }
+
+        private void startOne() {
+            int index = next.getAndIncrement();
+            if (index >= noteIds.size()) {
+                return;
+            }
+            Long noteId = noteIds.get(index);
+            CompletableFuture<AIResponse> future;
+            try {
+                future = call.apply(noteId);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((response, error) -> {
+                try {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        onError.accept(noteId, String.valueOf(cause.getMessage()));
+                    } else {
+                        onResult.accept(noteId, response);
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(null);
+                    } else {
+                        startNext();
+                    }
+                }
+            });
+        }
+    }
+}
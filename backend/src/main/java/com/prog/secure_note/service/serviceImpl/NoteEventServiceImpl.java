@@ -0,0 +1,179 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.service.NoteEventService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//Pushes note changes to every open session of the owner over Server-Sent Events.
+//SseEmitter runs on the async servlet support, so an idle connection does not hold any thread.
+//Every subscriber has a small bounded buffer; a client that can't keep up is dropped and reconnects.
+@Service
+public class NoteEventServiceImpl implements NoteEventService {
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    //Virtual threads are only used while a buffer is being flushed, not per connection.
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "note-events-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${notes.events.buffer-size:64}")
+    private int bufferSize;
+
+    @Value("${notes.events.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    @Value("${notes.events.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    @PostConstruct
+    public void startHeartbeat() {
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(Subscriber::close));
+        sender.shutdown();
+    }
+
+    @Override
+    public SseEmitter subscribe(String username) {
+        SseEmitter emitter = createEmitter();
+        Subscriber subscriber = new Subscriber(username, emitter, new ArrayBlockingQueue<>(bufferSize));
+
+        subscribers.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(ex -> remove(subscriber));
+
+        //First event tells the client the stream is open, so it can stop polling.
+        subscriber.offer(SseEmitter.event().name("connected").data("ok"));
+        return emitter;
+    }
+
+    SseEmitter createEmitter() {
+        return new SseEmitter(emitterTimeoutMs);
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    //Sent after commit, so a client that reacts by syncing already sees the change.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNoteChange(NoteChangeEvent event) {
+        Set<Subscriber> userSubscribers = subscribers.get(event.getUsername());
+        if (userSubscribers == null || userSubscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : userSubscribers) {
+            subscriber.offer(SseEmitter.event()
+                    .name("note-change")
+                    .id(String.valueOf(event.getChangeSeq()))
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Set<Subscriber> userSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                subscriber.offer(SseEmitter.event().comment("heartbeat"));
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.username, (key, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private final class Subscriber {
+        private final String username;
+        private final SseEmitter emitter;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscriber(String username, SseEmitter emitter, BlockingQueue<SseEmitter.SseEventBuilder> buffer) {
+            this.username = username;
+            this.emitter = emitter;
+            this.buffer = buffer;
+        }
+
+        void offer(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                //Buffer is full, the client is too slow. Drop it instead of blocking the writers.
+                close();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while (!closed && (event = buffer.poll()) != null) {
+                    emitter.send(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            } finally {
+                draining.set(false);
+            }
+            //An event may have been offered after the loop ended but before the flag was cleared.
+            if (!closed && !buffer.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.clear();
+            remove(this);
+            try {
+                emitter.complete();
+            } catch (Exception ignored) {
+                //Already completed by the container.
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteIndexUpdatedEvent;
+import com.prog.secure_note.model.NoteSearchHit;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteRepository;
+import com.prog.secure_note.search.SegmentStore;
+import com.prog.secure_note.search.UserIndex;
+import com.prog.secure_note.service.NoteSearchService;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.utils.NoteTextExtractor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//Full-text search over the notes of each user, with an in-process inverted index per user (see UserIndex).
+//Indexes are kept up to date from the NoteChangeEvents of NoteServiceImpl, written to segment files
+//in the background and loaded back on first use, so a restart doesn't need a full rebuild.
+@Service
+public class NoteSearchServiceImpl implements NoteSearchService {
+
+    private static final int MAX_LIMIT = 100;
+
+    private final NoteService noteService;
+    private final NoteRepository noteRepository;
+    private final NoteChangeRepository noteChangeRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    //Single thread, so the changes of a note are applied in the order they were made.
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> daemon(r, "note-search-indexer"));
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "note-search-flush"));
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    @Value("${notes.search.index-dir:data/search-index}")
+    private String indexDir;
+
+    @Value("${notes.search.max-loaded-users:1000}")
+    private int maxLoadedUsers;
+
+    @Value("${notes.search.flush-ms:30000}")
+    private long flushMs;
+
+    @Value("${notes.search.rebuild-parallelism:0}")
+    private int rebuildParallelism;
+
+    private SegmentStore segmentStore;
+    private Map<String, UserIndex> loaded;
+
+    public NoteSearchServiceImpl(NoteService noteService,
+                                 NoteRepository noteRepository,
+                                 NoteChangeRepository noteChangeRepository,
+                                 ApplicationEventPublisher eventPublisher) {
+        this.noteService = noteService;
+        this.noteRepository = noteRepository;
+        this.noteChangeRepository = noteChangeRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        segmentStore = new SegmentStore(Path.of(indexDir));
+        //Least recently used indexes are written out and dropped from memory once the limit is reached.
+        loaded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserIndex> eldest) {
+                if (size() <= maxLoadedUsers) {
+                    return false;
+                }
+                save(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+        flusher.scheduleWithFixedDelay(this::flushDirty, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        indexer.shutdown();
+        indexer.awaitTermination(10, TimeUnit.SECONDS);
+        flusher.shutdownNow();
+        flushDirty();
+    }
+
+    @Override
+    public List<NoteSearchHit> search(String username, String query, int limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query is required");
+        }
+        return getOrLoad(username).search(query, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    //Runs on the indexer thread, so no change event is applied to an index while it is being replaced.
+    @Override
+    public void rebuildAll() {
+        try {
+            indexer.submit(this::rebuildAllNow).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Search index rebuild interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Search index rebuild failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    //Rebuilds the index of every user in parallel, one fork-join task per slice of users.
+    private void rebuildAllNow() {
+        List<String> usernames = noteRepository.findDistinctOwnerUsernames();
+        int parallelism = rebuildParallelism > 0 ? rebuildParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RebuildTask(usernames, 0, usernames.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNoteChange(NoteChangeEvent event) {
+        indexer.execute(() -> apply(event));
+    }
+
+    //First start (no segments yet): build everything in the background instead of on the first searches.
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildMissingIndexes() throws IOException {
+        try (Stream<Path> segments = Files.list(Path.of(indexDir))) {
+            if (segments.findAny().isEmpty()) {
+                indexer.execute(this::rebuildAllNow);
+            }
+        }
+    }
+
+    @Override
+    public UserIndex getIndex(String username) {
+        return getOrLoad(username);
+    }
+
+    UserIndex getOrLoad(String username) {
+        UserIndex index = cached(username);
+        if (index != null) {
+            return index;
+        }
+        synchronized (loadLocks.computeIfAbsent(username, key -> new Object())) {
+            index = cached(username);
+            if (index == null) {
+                index = loadOrRebuild(username);
+                synchronized (loaded) {
+                    loaded.put(username, index);
+                }
+            }
+            return index;
+        }
+    }
+
+    private void apply(NoteChangeEvent event) {
+        try {
+            UserIndex index = getOrLoad(event.getUsername());
+            //Events of different notes may come in any order (each is sent after its own commit), so staleness
+            //is decided per note.
+            if (index.isApplied(event.getNoteId(), event.getChangeSeq())) {
+                return;
+            }
+            Set<String> changedTerms;
+            if (event.getType() == NoteChangeType.DELETED) {
+                changedTerms = index.remove(event.getNoteId(), event.getChangeSeq());
+            } else {
+                Note note = noteService.getNoteByIdForUser(event.getNoteId(), event.getUsername());
+                changedTerms = index.addOrUpdate(note.getId(), NoteTextExtractor.toPlainText(note.getContent()), event.getChangeSeq());
+            }
+            //Carries what the suggestions need to follow the change, so they never read the index on a keystroke.
+            Map<String, Integer> docFreqs = new HashMap<>();
+            for (String term : changedTerms) {
+                docFreqs.put(term, index.getDocFreq(term));
+            }
+            eventPublisher.publishEvent(new NoteIndexUpdatedEvent(event.getUsername(), event.getNoteId(),
+                    index.getTitle(event.getNoteId()), docFreqs));
+        } catch (RuntimeException e) {
+            //The note may have been deleted in the meantime, its DELETED event follows.
+            System.err.println("Could not index note " + event.getNoteId() + ": " + e.getMessage());
+        }
+    }
+
+    private UserIndex cached(String username) {
+        synchronized (loaded) {
+            return loaded.get(username);
+        }
+    }
+
+    //Uses the segment on disk if it has seen the latest change of the user, otherwise rebuilds from the database.
+    private UserIndex loadOrRebuild(String username) {
+        long latestChange = noteChangeRepository.findMaxChangeSeq(username);
+        try {
+            UserIndex segment = segmentStore.load(username);
+            if (segment != null && segment.getAppliedChangeSeq() >= latestChange) {
+                return segment;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Search segment of " + username + " is unreadable, rebuilding: " + e.getMessage());
+        }
+        return rebuild(username, latestChange);
+    }
+
+    private UserIndex rebuild(String username, long latestChange) {
+        UserIndex index = new UserIndex(latestChange);
+        for (Note note : noteService.getNotesForUser(username)) {
+            index.addOrUpdate(note.getId(), NoteTextExtractor.toPlainText(note.getContent()), latestChange);
+        }
+        return index;
+    }
+
+    private void flushDirty() {
+        List<Map.Entry<String, UserIndex>> dirty = new ArrayList<>();
+        synchronized (loaded) {
+            loaded.entrySet().stream().filter(entry -> entry.getValue().isDirty()).forEach(dirty::add);
+        }
+        dirty.forEach(entry -> save(entry.getKey(), entry.getValue()));
+    }
+
+    private void save(String username, UserIndex index) {
+        try {
+            segmentStore.save(username, index);
+        } catch (IOException e) {
+            System.err.println("Could not write search segment of " + username + ": " + e.getMessage());
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private class RebuildTask extends RecursiveAction {
+        private final List<String> usernames;
+        private final int from;
+        private final int to;
+
+        RebuildTask(List<String> usernames, int from, int to) {
+            this.usernames = usernames;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 4) {
+                for (int i = from; i < to; i++) {
+                    String username = usernames.get(i);
+                    UserIndex index = rebuild(username, noteChangeRepository.findMaxChangeSeq(username));
+                    save(username, index);
+                    synchronized (loaded) {
+                        if (loaded.containsKey(username)) {
+                            loaded.put(username, index);
+                        }
+                    }
+                    eventPublisher.publishEvent(new NoteIndexUpdatedEvent(username));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RebuildTask(usernames, from, middle), new RebuildTask(usernames, middle, to));
+        }
+    }
+}
@@ -1,11 +1,27 @@
 package com.prog.secure_note.service.serviceImpl;
 
 import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChange;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteContentRange;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteContentRepository;
 import com.prog.secure_note.repositories.NoteRepository;
 import com.prog.secure_note.service.NoteService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.List;
 
 @Service
@@ -14,50 +30,114 @@ public class NoteServiceImpl implements NoteService {
     @Autowired
     private NoteRepository noteRepository;
 
+    @Autowired
+    private NoteChangeRepository noteChangeRepository;
+
+    @Autowired
+    private NoteContentRepository noteContentRepository;
+
     @Autowired
     private AuditLogService auditLogService;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${notes.content.max-chars:25000000}")
+    private long maxContentChars;
+
+    @Value("${notes.content.chunk-chars:65536}")
+    private int contentChunkChars;
+
+    @Value("${notes.content.page-chars:8192}")
+    private int contentPageChars;
+
+    //Pages written before their length was counted in code points, so chars ranges line up with the column again.
+    @EventListener(ApplicationReadyEvent.class)
+    public void recountPageLengths() {
+        noteContentRepository.recountCharLengths();
+    }
+
     @Override
+    @Transactional
     public Note createNoteForUser(String username, String content) {
         Note note = new Note();
         note.setContent(content);
         note.setOwnerUsername(username);
+        note.setVersion(1);
         Note savedNote = noteRepository.save(note);
+        //The owner's lock comes last, after the note's own rows, like in every other write.
+        noteChangeRepository.lockChangeSequence(username);
+        recordChange(savedNote, NoteChangeType.CREATED);
         //After saving the note to Note database
         //We log the creation of the note in AuditLog database
         auditLogService.logNoteCreation(username, note);
+        eventPublisher.publishEvent(new NoteChangeEvent(savedNote.getOwnerUsername(), NoteChangeType.CREATED, savedNote.getId(),
+                savedNote.getVersion(), savedNote.getChangeSeq()));
         return savedNote;
     }
 
     @Override
+    @Transactional
     public Note updateNoteForUser(Long noteId, String content, String username) {
+        //The note row first, so the update flushed at commit never waits for it while the owner's lock is held.
+        noteRepository.lockNote(noteId);
         Note note = noteRepository.findById(noteId).orElseThrow(()
                 -> new RuntimeException("Note not found"));
+        if (note.isPaged()) {
+            //The String update replaces the pages with a plain content column again.
+            noteContentRepository.deletePages(noteId);
+            note.setPaged(false);
+        }
         note.setContent(content);
+        note.setVersion(note.getVersion() + 1);
+        noteChangeRepository.lockChangeSequence(note.getOwnerUsername());
+        recordChange(note, NoteChangeType.UPDATED);
         Note updatedNote = noteRepository.save(note);
         //After updating the note in Note database
         //We log the update of the note in AuditLog database
         auditLogService.logNoteUpdate(username, note);
+        //Routed to the owner, whoever made the change.
+        eventPublisher.publishEvent(new NoteChangeEvent(note.getOwnerUsername(), NoteChangeType.UPDATED, noteId,
+                updatedNote.getVersion(), updatedNote.getChangeSeq()));
         return updatedNote;
     }
 
     @Override
+    @Transactional
     public void deleteNoteForUser(Long noteId, String username) {
+        noteRepository.lockNote(noteId);
         Note note = noteRepository.findById(noteId).orElseThrow(()
                 -> new RuntimeException("Note not found"));
         //Before deleting the note from a Note database
         auditLogService.logNoteDeletion(username, noteId);
         //We log the deletion of the note in the AuditLog database
         noteRepository.delete(note);
+        noteContentRepository.deletePages(noteId);
+        noteChangeRepository.lockChangeSequence(note.getOwnerUsername());
+        //The DELETED change stays in the change log as the tombstone for sync clients.
+        long changeSeq = recordChange(note, NoteChangeType.DELETED);
+        eventPublisher.publishEvent(new NoteChangeEvent(note.getOwnerUsername(), NoteChangeType.DELETED, noteId,
+                note.getVersion() + 1, changeSeq));
     }
 
     @Override
     public List<Note> getNotesForUser(String username) {
         List<Note> personalNotes = noteRepository
                 .findByOwnerUsername(username);
+        personalNotes.forEach(this::loadPagedContent);
         return personalNotes;
     }
 
+    @Override
+    public List<Note> getNotesByIdsForUser(List<Long> noteIds, String username) {
+        List<Note> notes = noteRepository.findByIdInAndOwnerUsername(noteIds, username);
+        notes.forEach(this::loadPagedContent);
+        return notes;
+    }
+
     @Override
     public Note getNoteByIdForUser(Long noteId, String username) {
         Note note = noteRepository.findById(noteId).orElseThrow(()
@@ -66,8 +146,122 @@ public class NoteServiceImpl implements NoteService {
         if (!note.getOwnerUsername().equals(username)) {
             throw new RuntimeException("Access Denied: You do not have permission to view this note.");
         }
+        loadPagedContent(note);
         return note;
     }
-}
 
+    @Override
+    @Transactional
+    public Note createNoteForUser(String username, Reader content) {
+        Note note = new Note();
+        note.setOwnerUsername(username);
+        note.setVersion(1);
+        note.setPaged(true);
+        Note savedNote = noteRepository.save(note);
+        //Flush the row first, the pages reference it and are written with plain JDBC.
+        noteRepository.flush();
+        //The body is read while only the new note's rows are held; the owner's lock is taken for the numbering
+        //after it, so a slow upload doesn't hold up the user's other writes.
+        noteContentRepository.writePages(savedNote.getId(), content, contentPageChars, maxContentChars);
+        noteChangeRepository.lockChangeSequence(username);
+        recordChange(savedNote, NoteChangeType.CREATED);
+        auditLogService.logStreamedNoteWrite(username, savedNote.getId(), true);
+        eventPublisher.publishEvent(new NoteChangeEvent(username, NoteChangeType.CREATED, savedNote.getId(),
+                savedNote.getVersion(), savedNote.getChangeSeq()));
+        return savedNote;
+    }
+
+    @Override
+    @Transactional
+    public Note updateNoteForUser(Long noteId, Reader content, String username) {
+        //The note entity is not loaded here, that would pull the whole old content into memory.
+        lockOwnNote(noteId, username);
+        noteContentRepository.writePages(noteId, content, contentPageChars, maxContentChars);
+        NoteChange change = markStreamedChange(noteId, username);
+        return finishStreamedUpdate(noteId, username, change);
+    }
+
+    @Override
+    @Transactional
+    public Note updateNoteContentRange(Long noteId, long start, long end, Reader replacement, String username) {
+        lockOwnNote(noteId, username);
+        noteContentRepository.convertToPages(noteId, contentPageChars);
+        noteContentRepository.replaceRange(noteId, start, end, replacement, contentPageChars, maxContentChars);
+        NoteChange change = markStreamedChange(noteId, username);
+        return finishStreamedUpdate(noteId, username, change);
+    }
+
+    @Override
+    public void checkNoteAccess(Long noteId, String username) {
+        if (!noteRepository.existsByIdAndOwnerUsername(noteId, username)) {
+            throw new RuntimeException("Note not found or access denied");
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void prepareContentRange(Long noteId, String username, NoteContentRange range) {
+        checkNoteAccess(noteId, username);
+        //A read never writes: older notes are answered from their content column, and only moved into pages
+        //by their next streamed write or region edit.
+        noteContentRepository.resolveRange(noteId, range);
+    }
 
+    @Override
+    public void streamNoteContent(Long noteId, NoteContentRange range, OutputStream out) throws IOException {
+        noteContentRepository.streamContent(noteId, range, out, contentChunkChars);
+    }
+
+    //Paged notes have no content column, the older endpoints still expect it so it is assembled here.
+    //The note is detached first so the assembled content is never written back by Hibernate.
+    private void loadPagedContent(Note note) {
+        if (note.isPaged()) {
+            entityManager.detach(note);
+            note.setContent(noteContentRepository.readAll(note.getId()));
+        }
+    }
+
+    //Streamed writes lock the note before reading the body: concurrent writes of the same note wait for each
+    //other, those of the user's other notes don't.
+    private void lockOwnNote(Long noteId, String username) {
+        if (!noteRepository.lockNote(noteId).equals(List.of(username))) {
+            throw new RuntimeException("Note not found");
+        }
+    }
+
+    //Version and change sequence of a streamed write, done with an update query so the old content is not loaded.
+    //Runs after the content is written, so the owner's lock is only held for the numbering and the commit.
+    private NoteChange markStreamedChange(Long noteId, String username) {
+        noteChangeRepository.lockChangeSequence(username);
+        NoteChange change = noteChangeRepository.save(new NoteChange(noteId, username, NoteChangeType.UPDATED));
+        if (noteRepository.markChanged(noteId, username, change.getId(), change.getChangedAt()) == 0) {
+            throw new RuntimeException("Note not found");
+        }
+        noteChangeRepository.deleteSupersededChanges(noteId, change.getId());
+        return change;
+    }
+
+    private Note finishStreamedUpdate(Long noteId, String username, NoteChange change) {
+        auditLogService.logStreamedNoteWrite(username, noteId, false);
+
+        Note updatedNote = new Note();
+        updatedNote.setId(noteId);
+        updatedNote.setOwnerUsername(username);
+        updatedNote.setVersion(noteRepository.findVersionById(noteId));
+        updatedNote.setChangeSeq(change.getId());
+        updatedNote.setUpdatedAt(change.getChangedAt());
+        updatedNote.setPaged(true);
+        eventPublisher.publishEvent(new NoteChangeEvent(username, NoteChangeType.UPDATED, noteId,
+                updatedNote.getVersion(), updatedNote.getChangeSeq()));
+        return updatedNote;
+    }
+
+    //Takes the next change sequence for the note and drops its older change log entries.
+    private long recordChange(Note note, NoteChangeType type) {
+        NoteChange change = noteChangeRepository.save(new NoteChange(note.getId(), note.getOwnerUsername(), type));
+        noteChangeRepository.deleteSupersededChanges(note.getId(), change.getId());
+        note.setChangeSeq(change.getId());
+        note.setUpdatedAt(change.getChangedAt());
+        return change.getId();
+    }
+}
@@ -0,0 +1,231 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.EmbeddingProvider;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSearchHit;
+import com.prog.secure_note.search.HnswIndex;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSimilarityService;
+import com.prog.secure_note.utils.NoteTextExtractor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//"Related notes" and meaning-based search, on note embeddings kept in an HNSW index per user.
+//Notes are embedded in the background after every write (see onNoteChange), so saving a note never
+//waits for the embedding provider. A user's index is built on first use and kept in an LRU cache.
+@Service
+public class NoteSimilarityServiceImpl implements NoteSimilarityService {
+
+    private static final int MAX_LIMIT = 50;
+    private static final int MIN_NODES_FOR_COMPACTION = 64;
+
+    private final EmbeddingProvider embeddingProvider;
+    private final NoteService noteService;
+
+    @Value("${notes.semantic.embed-threads:2}")
+    private int embedThreads;
+
+    @Value("${notes.semantic.queue-size:10000}")
+    private int queueSize;
+
+    @Value("${notes.semantic.max-loaded-users:1000}")
+    private int maxLoadedUsers;
+
+    @Value("${notes.semantic.ef-search:64}")
+    private int efSearch;
+
+    //How long a first query waits for the user's index to be built before answering with what is there.
+    @Value("${notes.semantic.build-wait-ms:2000}")
+    private long buildWaitMs;
+
+    private ThreadPoolExecutor embedder;
+    private Map<String, UserVectors> loaded;
+
+    public NoteSimilarityServiceImpl(EmbeddingProvider embeddingProvider, NoteService noteService) {
+        this.embeddingProvider = embeddingProvider;
+        this.noteService = noteService;
+    }
+
+    @PostConstruct
+    public void init() {
+        embedder = new ThreadPoolExecutor(embedThreads, embedThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "note-embedder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserVectors> eldest) {
+                return size() > maxLoadedUsers;
+            }
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        embedder.shutdownNow();
+    }
+
+    @Override
+    public List<NoteSearchHit> findRelated(String username, Long noteId, int limit) {
+        //Also checks that the note belongs to the user.
+        Note note = noteService.getNoteByIdForUser(noteId, username);
+        HnswIndex index = getOrBuild(username);
+        float[] vector = index.getVector(noteId);
+        if (vector == null) {
+            vector = embeddingProvider.embed(NoteTextExtractor.toPlainText(note.getContent()));
+        }
+        return toHits(index.search(vector, clamp(limit), efSearch, noteId));
+    }
+
+    @Override
+    public List<NoteSearchHit> searchSemantic(String username, String query, int limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query is required");
+        }
+        float[] vector = embeddingProvider.embed(query);
+        return toHits(getOrBuild(username).search(vector, clamp(limit), efSearch, -1));
+    }
+
+    //Only users with a loaded index are updated; the others get everything when their index is built.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNoteChange(NoteChangeEvent event) {
+        UserVectors vectors = cached(event.getUsername());
+        if (vectors == null) {
+            return;
+        }
+        try {
+            embedder.execute(() -> apply(vectors, event));
+        } catch (RejectedExecutionException e) {
+            //Too far behind to catch up change by change: drop the index, the next query rebuilds it.
+            System.err.println("Embedding queue full, dropping the vector index of " + event.getUsername());
+            synchronized (loaded) {
+                loaded.remove(event.getUsername(), vectors);
+            }
+        }
+    }
+
+    private void apply(UserVectors vectors, NoteChangeEvent event) {
+        try {
+            if (event.getType() == NoteChangeType.DELETED) {
+                synchronized (vectors) {
+                    vectors.index.remove(event.getNoteId());
+                }
+            } else {
+                Note note = noteService.getNoteByIdForUser(event.getNoteId(), event.getUsername());
+                add(vectors, note);
+            }
+            compactIfNeeded(vectors);
+        } catch (RuntimeException e) {
+            //The note may have been deleted in the meantime, its DELETED event follows.
+            System.err.println("Could not embed note " + event.getNoteId() + ": " + e.getMessage());
+        }
+    }
+
+    //Replaced and deleted notes stay in the graph as dead nodes; once there are many, the index is rebuilt
+    //from the live vectors (no new embedding calls needed).
+    private void compactIfNeeded(UserVectors vectors) {
+        synchronized (vectors) {
+            HnswIndex index = vectors.index;
+            if (index.size() >= MIN_NODES_FOR_COMPACTION && index.deletedRatio() > 0.3) {
+                vectors.index = index.compacted();
+            }
+        }
+    }
+
+    private HnswIndex getOrBuild(String username) {
+        UserVectors vectors;
+        boolean created = false;
+        synchronized (loaded) {
+            vectors = loaded.get(username);
+            if (vectors == null) {
+                vectors = new UserVectors(new HnswIndex(embeddingProvider.dimensions()));
+                loaded.put(username, vectors);
+                created = true;
+            }
+        }
+        if (created) {
+            UserVectors building = vectors;
+            try {
+                CompletableFuture.runAsync(() -> build(username, building), embedder)
+                        .whenComplete((ignored, error) -> building.ready.complete(null));
+            } catch (RejectedExecutionException e) {
+                synchronized (loaded) {
+                    loaded.remove(username, vectors);
+                }
+                throw new RuntimeException("Semantic search is busy, try again later");
+            }
+        }
+        try {
+            vectors.ready.get(buildWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            //Still embedding: answer from the notes embedded so far.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return vectors.index;
+    }
+
+    private void build(String username, UserVectors vectors) {
+        for (Note note : noteService.getNotesForUser(username)) {
+            try {
+                add(vectors, note);
+            } catch (RuntimeException e) {
+                System.err.println("Could not embed note " + note.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    //Embeds outside the lock (the slow part); the lock only keeps the add away from a compaction swap.
+    private void add(UserVectors vectors, Note note) {
+        float[] vector = embeddingProvider.embed(NoteTextExtractor.toPlainText(note.getContent()));
+        synchronized (vectors) {
+            vectors.index.addOrUpdate(note.getId(), note.getVersion(), vector);
+        }
+    }
+
+    private UserVectors cached(String username) {
+        synchronized (loaded) {
+            return loaded.get(username);
+        }
+    }
+
+    private static int clamp(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    private static List<NoteSearchHit> toHits(HnswIndex.Result result) {
+        List<NoteSearchHit> hits = new ArrayList<>(result.noteIds().length);
+        for (int i = 0; i < result.noteIds().length; i++) {
+            hits.add(new NoteSearchHit(result.noteIds()[i], result.scores()[i]));
+        }
+        return hits;
+    }
+
+    private static class UserVectors {
+        private volatile HnswIndex index;
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        UserVectors(HnswIndex index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.NoteIndexUpdatedEvent;
+import com.prog.secure_note.model.NoteSuggestion;
+import com.prog.secure_note.search.PrefixSuggester;
+import com.prog.secure_note.search.UserIndex;
+import com.prog.secure_note.service.NoteSearchService;
+import com.prog.secure_note.service.NoteSuggestService;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Type-ahead over the words and titles of a user's notes.
+//The vocabulary comes from the user's search index; from it a compact PrefixSuggester is built and kept in an
+//LRU cache bounded by memory. Suggesters are only built in the background: a user without one gets no
+//suggestions for the few moments it takes.
+//Changes are applied incrementally. The words and notes a change touched come with its event (word frequencies,
+//note title) and are kept next to the immutable suggesters; only once there are enough of them is the user rebuilt.
+//A keystroke only reads what is cached here, never the search index, which may have to be loaded or rebuilt.
+@Service
+public class NoteSuggestServiceImpl implements NoteSuggestService {
+
+    private static final int MAX_LIMIT = 20;
+    //Changed words and notes kept on top of the suggesters before they are rebuilt: at least this many,
+    //or an eighth of their size.
+    private static final int MIN_CHANGES_BEFORE_REBUILD = 256;
+
+    private final NoteSearchService noteSearchService;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-suggest-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    private final LinkedHashMap<String, UserSuggesters> cache = new LinkedHashMap<>(16, 0.75f, true);
+    //Orders the changes, so a rebuild knows which ones it may have missed.
+    private final AtomicLong changes = new AtomicLong();
+    private long cachedBytes;
+
+    @Value("${notes.suggest.max-cache-bytes:67108864}")
+    private long maxCacheBytes;
+
+    public NoteSuggestServiceImpl(NoteSearchService noteSearchService) {
+        this.noteSearchService = noteSearchService;
+    }
+
+    private static final class UserSuggesters {
+        private static final PrefixSuggester NONE = PrefixSuggester.build(List.of());
+
+        private final PrefixSuggester words;
+        private final PrefixSuggester titles;
+        //The titles suggester only keeps them lower-cased, this has their original casing by note id.
+        private final Map<Long, String> titleTexts;
+        private final long titleTextBytes;
+        //False for the empty stand-in of a user whose suggesters are still being built.
+        private final boolean built;
+        //Words and notes changed since the suggesters were built, as of their latest change.
+        private final ConcurrentSkipListMap<String, ChangedWord> changedWords = new ConcurrentSkipListMap<>();
+        private final Map<Long, ChangedNote> changedNotes = new ConcurrentHashMap<>();
+
+        private UserSuggesters(PrefixSuggester words, PrefixSuggester titles, Map<Long, String> titleTexts, boolean built) {
+            this.words = words;
+            this.titles = titles;
+            this.titleTexts = titleTexts;
+            this.built = built;
+            //Roughly the map entry and the String of each title.
+            this.titleTextBytes = titleTexts.values().stream().mapToLong(title -> 96 + 2L * title.length()).sum();
+        }
+
+        private boolean worthRebuilding() {
+            int changed = changedWords.size() + changedNotes.size();
+            return changed > Math.max(MIN_CHANGES_BEFORE_REBUILD, (words.size() + titles.size()) / 8);
+        }
+
+        private long memoryBytes() {
+            return words.memoryBytes() + titles.memoryBytes() + titleTextBytes;
+        }
+    }
+
+    //Number of the change, and the number of notes containing the word after it.
+    private record ChangedWord(long change, int docFreq) {
+    }
+
+    //Number of the change, and the title of the note after it (null once it was removed).
+    private record ChangedNote(long change, String title) {
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    @Override
+    public List<NoteSuggestion> suggest(String username, String prefix, int limit) {
+        String normalized = prefix == null ? "" : prefix.strip().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            return List.of();
+        }
+        int k = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        UserSuggesters suggesters;
+        synchronized (cache) {
+            suggesters = cache.get(username);
+            if (suggesters == null) {
+                //Collects the changes made while the suggesters are built.
+                suggesters = new UserSuggesters(UserSuggesters.NONE, UserSuggesters.NONE, Map.of(), false);
+                cache.put(username, suggesters);
+                cachedBytes += suggesters.memoryBytes();
+            }
+        }
+        if (!suggesters.built) {
+            scheduleRebuild(username);
+        }
+
+        List<NoteSuggestion> suggestions = new ArrayList<>();
+        Map<Long, ChangedNote> changedNotes = suggesters.changedNotes;
+        NavigableMap<String, ChangedWord> changedWords = suggesters.changedWords
+                .subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+        //A changed entry may have pushed others out of the top k of the suggesters, so they are asked for more.
+        List<PrefixSuggester.Match> titleMatches = suggesters.titles.suggest(normalized, k + changedNotes.size());
+        List<PrefixSuggester.Match> wordMatches = suggesters.words.suggest(normalized, k + changedWords.size());
+        if (titleMatches.isEmpty() && wordMatches.isEmpty() && changedNotes.isEmpty() && changedWords.isEmpty()) {
+            return suggestions;
+        }
+        for (PrefixSuggester.Match match : titleMatches) {
+            if (suggestions.size() < k && !changedNotes.containsKey(match.getPayload())) {
+                String title = suggesters.titleTexts.getOrDefault(match.getPayload(), match.getKey());
+                suggestions.add(new NoteSuggestion(title, "title", match.getPayload()));
+            }
+        }
+        for (Map.Entry<Long, ChangedNote> entry : changedNotes.entrySet()) {
+            String title = entry.getValue().title();
+            if (suggestions.size() < k && title != null && title.toLowerCase(Locale.ROOT).startsWith(normalized)) {
+                suggestions.add(new NoteSuggestion(title, "title", entry.getKey()));
+            }
+        }
+
+        List<PrefixSuggester.Match> words = new ArrayList<>();
+        for (PrefixSuggester.Match match : wordMatches) {
+            if (!changedWords.containsKey(match.getKey())) {
+                words.add(match);
+            }
+        }
+        for (Map.Entry<String, ChangedWord> entry : changedWords.entrySet()) {
+            int docFreq = entry.getValue().docFreq();
+            if (docFreq > 0 && entry.getKey().length() > 1) {
+                words.add(new PrefixSuggester.Match(entry.getKey(), docFreq, 0));
+            }
+        }
+        words.sort(Comparator.comparingInt(PrefixSuggester.Match::getWeight).reversed());
+        for (PrefixSuggester.Match match : words.subList(0, Math.min(k, words.size()))) {
+            suggestions.add(new NoteSuggestion(match.getKey(), "word", null));
+        }
+        return suggestions;
+    }
+
+    @EventListener
+    public void onIndexUpdated(NoteIndexUpdatedEvent event) {
+        String username = event.getUsername();
+        boolean rebuild;
+        synchronized (cache) {
+            UserSuggesters suggesters = cache.get(username);
+            if (suggesters == null) {
+                return;
+            }
+            if (event.getChangedTerms() == null) {
+                //The whole index was rebuilt.
+                rebuild = true;
+            } else {
+                long change = changes.incrementAndGet();
+                event.getChangedTerms().forEach((term, docFreq) ->
+                        suggesters.changedWords.put(term, new ChangedWord(change, docFreq)));
+                if (event.getNoteId() != null) {
+                    suggesters.changedNotes.put(event.getNoteId(), new ChangedNote(change, event.getTitle()));
+                }
+                rebuild = suggesters.worthRebuilding();
+            }
+        }
+        if (rebuild) {
+            scheduleRebuild(username);
+        }
+    }
+
+    private void scheduleRebuild(String username) {
+        if (rebuilding.add(username)) {
+            builder.execute(() -> {
+                try {
+                    build(username);
+                } finally {
+                    rebuilding.remove(username);
+                }
+            });
+        }
+    }
+
+    private void build(String username) {
+        long since = changes.get();
+        UserIndex index = noteSearchService.getIndex(username);
+        List<PrefixSuggester.Entry> words = new ArrayList<>();
+        // Words are ranked by how many notes contain them; single letters aren't worth suggesting.
+        index.forEachTerm((term, docFreq) -> {
+            if (term.length() > 1) {
+                words.add(new PrefixSuggester.Entry(term, docFreq, 0));
+            }
+        });
+        List<PrefixSuggester.Entry> titles = new ArrayList<>();
+        Map<Long, String> titleTexts = new HashMap<>();
+        index.forEachTitle((title, noteId) -> {
+            titles.add(new PrefixSuggester.Entry(title.toLowerCase(Locale.ROOT), 1, noteId));
+            titleTexts.put(noteId, title);
+        });
+
+        UserSuggesters suggesters = new UserSuggesters(PrefixSuggester.build(words), PrefixSuggester.build(titles),
+                titleTexts, true);
+        synchronized (cache) {
+            UserSuggesters previous = cache.get(username);
+            if (previous == null) {
+                //Evicted in the meantime, with the changes made since; the next request starts over.
+                return;
+            }
+            //Changes made while this was built may be missing from it, they stay on top.
+            previous.changedWords.forEach((term, changed) -> {
+                if (changed.change() > since) {
+                    suggesters.changedWords.put(term, changed);
+                }
+            });
+            previous.changedNotes.forEach((noteId, changed) -> {
+                if (changed.change() > since) {
+                    suggesters.changedNotes.put(noteId, changed);
+                }
+            });
+            cache.put(username, suggesters);
+            cachedBytes += suggesters.memoryBytes() - previous.memoryBytes();
+            evictOverBudget(username);
+        }
+    }
+
+    //Drops the least recently used users until the cache fits its memory budget again.
+    private void evictOverBudget(String keep) {
+        Iterator<Map.Entry<String, UserSuggesters>> iterator = cache.entrySet().iterator();
+        while (cachedBytes > maxCacheBytes && iterator.hasNext()) {
+            Map.Entry<String, UserSuggesters> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            cachedBytes -= eldest.getValue().memoryBytes();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIPriority;
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSummary;
+import com.prog.secure_note.repositories.NoteSummaryRepository;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSummaryService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//AI summaries of notes, stored with the note version they were made from so an unchanged note
+//is summarized only once. With ai.summary.precompute.enabled the summary is also made in the
+//background after a note is saved: a burst of autosaves only schedules one summary, once the note
+//has been quiet for debounce-ms, and at most `concurrency` Gemini calls run at a time.
+@Service
+public class NoteSummaryServiceImpl implements NoteSummaryService {
+
+    private final AIService aiService;
+    private final NoteService noteService;
+    private final NoteSummaryRepository noteSummaryRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.summary.precompute.enabled:false}")
+    private boolean precomputeEnabled;
+
+    //Length made in the background; other lengths are made (and stored) on request.
+    @Value("${ai.summary.precompute.length:medium}")
+    private String precomputeLength;
+
+    @Value("${ai.summary.precompute.debounce-ms:15000}")
+    private long debounceMs;
+
+    @Value("${ai.summary.precompute.concurrency:2}")
+    private int concurrency;
+
+    @Value("${ai.summary.precompute.queue-size:100}")
+    private int queueSize;
+
+    //Upper bound for notes waiting out their debounce delay.
+    @Value("${ai.summary.precompute.max-pending:1000}")
+    private int maxPending;
+
+    private final Map<Long, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService debouncer;
+    private ThreadPoolExecutor workers;
+
+    private Counter dropped;
+    private Counter completed;
+    private Counter failed;
+    private Counter servedStored;
+    private Counter servedGenerated;
+    private Timer duration;
+
+    public NoteSummaryServiceImpl(AIService aiService,
+                                  NoteService noteService,
+                                  NoteSummaryRepository noteSummaryRepository,
+                                  MeterRegistry meterRegistry) {
+        this.aiService = aiService;
+        this.noteService = noteService;
+        this.noteSummaryRepository = noteSummaryRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        servedStored = Counter.builder("ai.summary.served").tag("source", "stored").register(meterRegistry);
+        servedGenerated = Counter.builder("ai.summary.served").tag("source", "generated").register(meterRegistry);
+        if (!precomputeEnabled) {
+            return;
+        }
+        precomputeLength = normalizeLength(precomputeLength);
+        debouncer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "summary-debounce"));
+        workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> daemon(r, "summary-worker"));
+
+        Gauge.builder("ai.summary.precompute.pending", pending, Map::size).register(meterRegistry);
+        Gauge.builder("ai.summary.precompute.queued", workers, executor -> executor.getQueue().size()).register(meterRegistry);
+        Gauge.builder("ai.summary.precompute.active", workers, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        dropped = Counter.builder("ai.summary.precompute.dropped").register(meterRegistry);
+        completed = Counter.builder("ai.summary.precompute.completed").register(meterRegistry);
+        failed = Counter.builder("ai.summary.precompute.failed").register(meterRegistry);
+        duration = Timer.builder("ai.summary.precompute.duration").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (precomputeEnabled) {
+            debouncer.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    @Override
+    public CompletableFuture<AIResponse> summarize(Note note, String length) {
+        String summaryLength = normalizeLength(length);
+        Optional<NoteSummary> stored = findCurrent(note, summaryLength);
+        if (stored.isPresent()) {
+            servedStored.increment();
+            return CompletableFuture.completedFuture(AIResponse.builder()
+                    .answer(stored.get().getSummary())
+                    .operation("summarise")
+                    .build());
+        }
+        servedGenerated.increment();
+        return generate(note, summaryLength, AIPriority.INTERACTIVE);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNoteChange(NoteChangeEvent event) {
+        Long noteId = event.getNoteId();
+        if (event.getType() == NoteChangeType.DELETED) {
+            ScheduledFuture<?> previous = pending.remove(noteId);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            noteSummaryRepository.deleteByNoteId(noteId);
+            return;
+        }
+        if (!precomputeEnabled) {
+            return;
+        }
+        //Every save restarts the delay of the note, so only the last save of a burst is summarized.
+        pending.compute(noteId, (id, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            } else if (pending.size() >= maxPending) {
+                dropped.increment();
+                return null;
+            }
+            return debouncer.schedule(() -> enqueue(event.getUsername(), id), debounceMs, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void enqueue(String username, Long noteId) {
+        pending.remove(noteId);
+        try {
+            workers.execute(() -> precompute(username, noteId));
+        } catch (RejectedExecutionException e) {
+            //Backlog full: the summary is made on the next save or on request instead.
+            dropped.increment();
+        }
+    }
+
+    private void precompute(String username, Long noteId) {
+        try {
+            Note note = noteService.getNoteByIdForUser(noteId, username);
+            if (findCurrent(note, precomputeLength).isPresent()) {
+                return;
+            }
+            //Waits for the call, so no more than `concurrency` of them are in flight.
+            duration.record(() -> generate(note, precomputeLength, AIPriority.BACKGROUND).join());
+            completed.increment();
+        } catch (RuntimeException e) {
+            failed.increment();
+            //The note may have been deleted in the meantime.
+            System.err.println("Could not precompute the summary of note " + noteId + ": " + e.getMessage());
+        }
+    }
+
+    private Optional<NoteSummary> findCurrent(Note note, String summaryLength) {
+        return noteSummaryRepository.findByNoteIdAndSummaryLength(note.getId(), summaryLength)
+                .filter(summary -> summary.getNoteVersion() == note.getVersion());
+    }
+
+    //Calls Gemini and stores the result under the version of the note it was given.
+    private CompletableFuture<AIResponse> generate(Note note, String summaryLength, AIPriority priority) {
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent(note.getContent());
+        request.setSummaryLength(summaryLength);
+        return aiService.processContentAsync(request, note.getOwnerUsername(), priority).thenApply(response -> store(note, summaryLength, response));
+    }
+
+    private AIResponse store(Note note, String summaryLength, AIResponse response) {
+        //AIService reports an unusable Gemini reply as the answer text, that's not worth keeping. Extractive
+        //summaries are cheap to make again, and one made as a fallback shouldn't stand in for Gemini's.
+        String answer = response.getAnswer();
+        if (answer == null || response.isExtractive() || answer.equals("No response found")
+            || answer.startsWith("Error processing response")) {
+            return response;
+        }
+
+        NoteSummary summary = noteSummaryRepository.findByNoteIdAndSummaryLength(note.getId(), summaryLength)
+                .orElseGet(NoteSummary::new);
+        if (summary.getId() != null && summary.getNoteVersion() > note.getVersion()) {
+            return response; // A newer version was summarized meanwhile.
+        }
+        summary.setNoteId(note.getId());
+        summary.setSummaryLength(summaryLength);
+        summary.setNoteVersion(note.getVersion());
+        summary.setSummary(answer);
+        summary.setCreatedAt(Instant.now());
+        try {
+            noteSummaryRepository.save(summary);
+        } catch (DataIntegrityViolationException e) {
+            //Another request stored the same summary first.
+        }
+        return response;
+    }
+
+    private static String normalizeLength(String length) {
+        if ("short".equalsIgnoreCase(length)) {
+            return "short";
+        }
+        if ("extractive".equalsIgnoreCase(length)) {
+            return "extractive";
+        }
+        return "long".equalsIgnoreCase(length) ? "long" : "medium";
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,106 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChange;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSyncResponse;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteRepository;
+import com.prog.secure_note.service.NoteSyncService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Incremental sync: returns only what changed after the client's cursor, plus tombstones for deleted notes.
+//Both queries walk an (owner, sequence) index, so the cost follows the number of changes, not the library size.
+//Writes of one user take a lock right before their change is numbered (NoteChangeRepository.lockChangeSequence),
+//so the sequence follows commit order and a change can't commit behind a cursor already handed out.
+@Service
+public class NoteSyncServiceImpl implements NoteSyncService {
+
+    private static final int MAX_LIMIT = 1000;
+    private static final int BACKFILL_BATCH = 500;
+
+    private final NoteRepository noteRepository;
+    private final NoteChangeRepository noteChangeRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public NoteSyncServiceImpl(NoteRepository noteRepository,
+                               NoteChangeRepository noteChangeRepository,
+                               TransactionTemplate transactionTemplate) {
+        this.noteRepository = noteRepository;
+        this.noteChangeRepository = noteChangeRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    public NoteSyncResponse getChangesSince(String username, long cursor, int limit) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Cursor must not be negative");
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_LIMIT));
+        // Ask for one extra row on both sides to know if there is more after this page.
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+
+        List<Note> notes = noteRepository
+                .findByOwnerUsernameAndChangeSeqGreaterThanOrderByChangeSeqAsc(username, cursor, page);
+        List<NoteChange> tombstones = noteChangeRepository
+                .findByOwnerUsernameAndChangeTypeAndIdGreaterThanOrderByIdAsc(username, NoteChangeType.DELETED, cursor, page);
+
+        // Merge both sorted lists by sequence and stop at the page size, so the new cursor never skips a change.
+        List<Note> upserts = new ArrayList<>();
+        List<Long> deletedNoteIds = new ArrayList<>();
+        long newCursor = cursor;
+        int i = 0;
+        int j = 0;
+        while (upserts.size() + deletedNoteIds.size() < pageSize && (i < notes.size() || j < tombstones.size())) {
+            boolean takeNote = j >= tombstones.size()
+                    || (i < notes.size() && notes.get(i).getChangeSeq() < tombstones.get(j).getId());
+            if (takeNote) {
+                Note note = notes.get(i++);
+                upserts.add(note);
+                newCursor = note.getChangeSeq();
+            } else {
+                NoteChange tombstone = tombstones.get(j++);
+                deletedNoteIds.add(tombstone.getNoteId());
+                newCursor = tombstone.getId();
+            }
+        }
+        boolean hasMore = i < notes.size() || j < tombstones.size();
+
+        return NoteSyncResponse.builder()
+                .upserts(upserts)
+                .deletedNoteIds(deletedNoteIds)
+                .cursor(newCursor)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    //Notes created before the change sequence existed get one here, otherwise sync would never return them.
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillChangeSequence() {
+        List<Note> batch;
+        do {
+            batch = transactionTemplate.execute(status -> {
+                List<Note> notes = noteRepository.findByChangeSeqIsNull(PageRequest.of(0, BACKFILL_BATCH));
+                //All note rows of the batch before any owner's lock, the same order as the writes.
+                for (Note note : notes) {
+                    noteRepository.lockNote(note.getId());
+                }
+                for (Note note : notes) {
+                    noteChangeRepository.lockChangeSequence(note.getOwnerUsername());
+                    NoteChange change = noteChangeRepository.save(
+                            new NoteChange(note.getId(), note.getOwnerUsername(), NoteChangeType.CREATED));
+                    note.setChangeSeq(change.getId());
+                    note.setUpdatedAt(change.getChangedAt());
+                }
+                return notes;
+            });
+        } while (batch != null && batch.size() == BACKFILL_BATCH);
+    }
+}
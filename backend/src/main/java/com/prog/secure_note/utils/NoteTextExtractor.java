@@ -0,0 +1,98 @@
+package com.prog.secure_note.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+//The frontend stores a note as the JSON {"content": "<p>html from the editor</p>"}.
+//This turns that into plain text for the search index and the other in-process text features.
+public final class NoteTextExtractor {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private NoteTextExtractor() {
+    }
+
+    public static String toPlainText(String storedContent) {
+        if (storedContent == null || storedContent.isEmpty()) {
+            return "";
+        }
+        String html = storedContent;
+        String trimmed = storedContent.trim();
+        if (trimmed.startsWith("{")) {
+            try {
+                JsonNode content = OBJECT_MAPPER.readTree(trimmed).get("content");
+                if (content != null && content.isTextual()) {
+                    html = content.asText();
+                }
+            } catch (Exception ignored) {
+                //Not the editor JSON, index it as it is.
+            }
+        }
+        return stripHtml(html);
+    }
+
+    //Drops tags (block tags become line breaks) and decodes the few entities the editor produces.
+    public static String stripHtml(String html) {
+        StringBuilder text = new StringBuilder(html.length());
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int close = html.indexOf('>', i);
+                if (close < 0) {
+                    break;
+                }
+                String tag = html.substring(i + 1, Math.min(close, i + 4)).toLowerCase();
+                boolean block = tag.startsWith("p") || tag.startsWith("/p") || tag.startsWith("br")
+                                || tag.startsWith("li") || tag.startsWith("div") || tag.startsWith("/di")
+                                || tag.startsWith("h") || tag.startsWith("/h");
+                text.append(block ? '\n' : ' ');
+                i = close + 1;
+            } else if (c == '&') {
+                int semicolon = html.indexOf(';', i);
+                if (semicolon > i && semicolon - i <= 8) {
+                    text.append(decodeEntity(html.substring(i + 1, semicolon)));
+                    i = semicolon + 1;
+                } else {
+                    text.append(c);
+                    i++;
+                }
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        return text.toString();
+    }
+
+    //The character(s) of an entity without its & and ;, or the entity as it was when it is unknown.
+    public static String decodeEntity(String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "#39":
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+            default:
+                if (entity.startsWith("#")) {
+                    try {
+                        int codePoint = entity.startsWith("#x")
+                                ? Integer.parseInt(entity.substring(2), 16)
+                                : Integer.parseInt(entity.substring(1));
+                        return new String(Character.toChars(codePoint));
+                    } catch (IllegalArgumentException ignored) {
+                        //Fall through and keep the entity as it was.
+                    }
+                }
+                return "&" + entity + ";";
+        }
+    }
+}
@@ -3,7 +3,8 @@ package com.prog.secure_note;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+//Tests use the local embeddings, they never call Gemini.
+@SpringBootTest(properties = "ai.embedding.provider=local")
 class SecureNoteApplicationTests {
 
     @Test
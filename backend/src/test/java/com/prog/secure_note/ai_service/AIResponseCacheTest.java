@@ -0,0 +1,210 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Both tiers of the answer cache, and which answers AIService puts in it.
+class AIResponseCacheTest {
+
+    private static final int SLOTS = 16;
+    private static final int SLOT_BYTES = 512;
+
+    private final List<AIResponseCache> caches = new ArrayList<>();
+    private HttpServer stub;
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void close() throws Exception {
+        for (AIResponseCache cache : caches) {
+            cache.close();
+        }
+        if (stub != null) {
+            stub.stop(0);
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedAnswersLeaveTheMemoryTier() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AIResponseCache cache = cache(registry, 2, 0);
+        String one = key("one");
+        String two = key("two");
+        String three = key("three");
+        cache.put(one, answer("1"));
+        cache.put(two, answer("2"));
+        cache.get(one);
+        cache.put(three, answer("3"));
+
+        assertEquals("1", cache.get(one).getAnswer());
+        assertNull(cache.get(two));
+        assertEquals("3", cache.get(three).getAnswer());
+        assertEquals(3, registry.counter("ai.cache.requests", "result", "memory_hit").count());
+        assertEquals(1, registry.counter("ai.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    void expiredAnswersAreMisses() throws Exception {
+        AIResponseCache cache = cache(new SimpleMeterRegistry(), 10, SLOTS);
+        ReflectionTestUtils.setField(cache, "summariseTtl", Duration.ofMillis(50));
+        String key = key("note");
+        cache.put(key, answer("summary"));
+        assertNotNull(cache.get(key));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get(key));
+        //Nor from the disk tier of another instance.
+        assertNull(cache(new SimpleMeterRegistry(), 10, SLOTS).get(key));
+    }
+
+    @Test
+    void answersSurviveInTheSharedFile() {
+        AIResponseCache writer = cache(new SimpleMeterRegistry(), 10, SLOTS);
+        String key = key("note");
+        AIResponse response = answer("summary");
+        response.setSources(List.of("https://example.com"));
+        writer.put(key, response);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AIResponse read = cache(registry, 10, SLOTS).get(key);
+
+        assertEquals("summary", read.getAnswer());
+        assertEquals(List.of("https://example.com"), read.getSources());
+        assertEquals(1, registry.counter("ai.cache.requests", "result", "disk_hit").count());
+        assertTrue(Files.exists(directory.resolve("ai-cache-" + SLOTS + "x" + SLOT_BYTES + ".bin")));
+    }
+
+    @Test
+    void slotBeingWrittenIsAMiss() throws Exception {
+        cache(new SimpleMeterRegistry(), 10, SLOTS).put(key("note"), answer("summary"));
+        //Another process halfway through a write: odd sequence in every slot.
+        Path file = directory.resolve("ai-cache-" + SLOTS + "x" + SLOT_BYTES + ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            for (int slot = 0; slot < SLOTS; slot++) {
+                int offset = 64 + slot * SLOT_BYTES;
+                mapped.putInt(offset, mapped.getInt(offset) | 1);
+            }
+            mapped.force();
+        }
+
+        assertNull(cache(new SimpleMeterRegistry(), 10, SLOTS).get(key("note")));
+    }
+
+    @Test
+    void otherLayoutGetsItsOwnFileAndAForeignFileIsLeftAlone() throws Exception {
+        cache(new SimpleMeterRegistry(), 10, SLOTS).put(key("note"), answer("summary"));
+        Path file = directory.resolve("ai-cache-" + SLOTS + "x" + SLOT_BYTES + ".bin");
+
+        assertNull(cache(new SimpleMeterRegistry(), 10, SLOTS * 2).get(key("note")));
+        assertTrue(Files.exists(directory.resolve("ai-cache-" + SLOTS * 2 + "x" + SLOT_BYTES + ".bin")));
+
+        //A file of the right name that isn't a cache of this layout may be mapped elsewhere: never rewritten.
+        Path foreign = directory.resolve("foreign-" + SLOTS + "x" + SLOT_BYTES + ".bin");
+        Files.write(foreign, ByteBuffer.allocate(64).putInt(0x12345678).array());
+        AIResponseCache memoryOnly = cache(new SimpleMeterRegistry(), 10, SLOTS, "foreign.bin");
+        memoryOnly.put(key("other"), answer("still cached"));
+
+        assertEquals("still cached", memoryOnly.get(key("other")).getAnswer());
+        assertEquals(64, Files.size(foreign));
+        assertEquals(SLOTS * SLOT_BYTES + 64, Files.size(file));
+    }
+
+    @Test
+    void answersWithWebResultsAreNeverCached() throws Exception {
+        AtomicInteger geminiCalls = new AtomicInteger();
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/gemini", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"answer " + geminiCalls.incrementAndGet() + "\"}]}}]}");
+        });
+        stub.createContext("/search", exchange -> respond(exchange,
+                "{\"items\":[{\"title\":\"News\",\"link\":\"https://example.com/news\",\"snippet\":\"Today\"}]}"));
+        stub.start();
+        AIService aiService = AIServiceTestBuilder.against(stub)
+                .cache(cache(new SimpleMeterRegistry(), 10, 0))
+                .webSearchTriggers("latest")
+                .build();
+
+        assertEquals("answer 1", ask(aiService, "What is the latest release?").getAnswer());
+        assertEquals("answer 2", ask(aiService, "What is the latest release?").getAnswer());
+        assertEquals("answer 3", ask(aiService, "Who wrote this note?").getAnswer());
+        assertEquals("answer 3", ask(aiService, "Who wrote this note?").getAnswer());
+        assertEquals(3, geminiCalls.get());
+    }
+
+    private AIResponseCache cache(SimpleMeterRegistry registry, int memoryEntries, int diskSlots) {
+        return cache(registry, memoryEntries, diskSlots, "ai-cache.bin");
+    }
+
+    private AIResponseCache cache(SimpleMeterRegistry registry, int memoryEntries, int diskSlots, String fileName) {
+        AIResponseCache cache = new AIResponseCache(registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "memoryEntries", memoryEntries);
+        ReflectionTestUtils.setField(cache, "diskPath", directory.resolve(fileName).toString());
+        ReflectionTestUtils.setField(cache, "diskSlots", diskSlots);
+        ReflectionTestUtils.setField(cache, "slotBytes", SLOT_BYTES);
+        for (String operation : new String[]{"summarise", "translate", "read", "similar", "answer", "ask"}) {
+            ReflectionTestUtils.setField(cache, operation + "Ttl", Duration.ofHours(1));
+        }
+        cache.init();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static String key(String content) {
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent(content);
+        return AIResponseCache.requestKey(request);
+    }
+
+    private static AIResponse answer(String text) {
+        return AIResponse.builder().answer(text).operation("summarise").build();
+    }
+
+    private static AIResponse ask(AIService aiService, String question) {
+        AIRequest request = new AIRequest();
+        request.setOperation("answer");
+        request.setContent("A note.");
+        request.setQuestion(question);
+        return aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE).join();
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.exception.AIQueueFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Admission order of AIScheduler. Calls are futures completed by the test, so slots free up exactly when it says.
+class AISchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> started = new ArrayList<>();
+    private final List<Call> inFlight = new ArrayList<>();
+
+    @Test
+    void userWithOneCallIsNotStuckBehindAnotherUsersBacklog() {
+        AIScheduler scheduler = scheduler(1, 1, 1, 10, 100);
+        for (int i = 0; i < 5; i++) {
+            submit(scheduler, "heavy", AIPriority.INTERACTIVE);
+        }
+        submit(scheduler, "light", AIPriority.INTERACTIVE);
+
+        finishNext();
+        finishNext();
+
+        assertEquals(List.of("heavy", "light", "heavy"), started);
+    }
+
+    @Test
+    void perUserCapLeavesRoomForOthers() {
+        AIScheduler scheduler = scheduler(4, 2, 4, 10, 100);
+        for (int i = 0; i < 4; i++) {
+            submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        }
+        submit(scheduler, "bob", AIPriority.INTERACTIVE);
+
+        assertEquals(List.of("alice", "alice", "bob"), started);
+        assertEquals(2.0, meterRegistry.get("ai.scheduler.queued").tag("priority", "interactive").gauge().value());
+    }
+
+    @Test
+    void interactiveGoesBeforeQueuedBackgroundWork() {
+        AIScheduler scheduler = scheduler(1, 10, 1, 10, 100);
+        submit(scheduler, "worker", AIPriority.BACKGROUND);
+        submit(scheduler, "worker", AIPriority.BACKGROUND);
+        submit(scheduler, "alice", AIPriority.INTERACTIVE);
+
+        finishNext();
+
+        assertEquals(List.of("worker", "alice"), started);
+    }
+
+    @Test
+    void backgroundWorkKeepsSlotsFreeForInteractive() {
+        AIScheduler scheduler = scheduler(3, 10, 1, 10, 100);
+        submit(scheduler, "worker", AIPriority.BACKGROUND);
+        submit(scheduler, "worker", AIPriority.BACKGROUND);
+        submit(scheduler, "alice", AIPriority.INTERACTIVE);
+
+        assertEquals(List.of("worker", "alice"), started);
+    }
+
+    @Test
+    void fullQueuesRejectWithQueueFull() {
+        AIScheduler scheduler = scheduler(1, 1, 1, 2, 3);
+        submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        CompletableFuture<String> overUserLimit = submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        submit(scheduler, "bob", AIPriority.INTERACTIVE);
+        CompletableFuture<String> overGlobalLimit = submit(scheduler, "carol", AIPriority.INTERACTIVE);
+
+        CompletionException user = assertThrows(CompletionException.class, overUserLimit::join);
+        assertInstanceOf(AIQueueFullException.class, user.getCause());
+        CompletionException global = assertThrows(CompletionException.class, overGlobalLimit::join);
+        assertInstanceOf(AIQueueFullException.class, global.getCause());
+        assertEquals(2.0, meterRegistry.find("ai.scheduler.rejected").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum());
+    }
+
+    @Test
+    void resultAndQueueWaitArePassedOn() {
+        AIScheduler scheduler = scheduler(1, 1, 1, 10, 100);
+        CompletableFuture<String> first = submit(scheduler, "alice", AIPriority.INTERACTIVE);
+        CompletableFuture<String> second = submit(scheduler, "alice", AIPriority.INTERACTIVE);
+
+        finishNext();
+        finishNext();
+
+        assertEquals("alice", first.join());
+        assertEquals("alice", second.join());
+        assertEquals(2, meterRegistry.get("ai.scheduler.queue.wait").tag("priority", "interactive").timer().count());
+        assertTrue(scheduler.submit("bob", AIPriority.INTERACTIVE, 1, () -> {
+            throw new IllegalStateException("boom");
+        }).isCompletedExceptionally());
+        assertEquals(0.0, meterRegistry.get("ai.scheduler.running").gauge().value());
+    }
+
+    private AIScheduler scheduler(int maxConcurrent, int perUser, int background, int perUserQueue, int maxQueued) {
+        return new AIScheduler(meterRegistry, maxConcurrent, perUser, background, perUserQueue, maxQueued, Duration.ofSeconds(5));
+    }
+
+    private CompletableFuture<String> submit(AIScheduler scheduler, String username, AIPriority priority) {
+        return scheduler.submit(username, priority, 1, () -> {
+            started.add(username);
+            CompletableFuture<String> call = new CompletableFuture<>();
+            inFlight.add(new Call(username, call));
+            return call;
+        });
+    }
+
+    //Completes the oldest running call, which lets the scheduler start the next queued one.
+    private void finishNext() {
+        Call call = inFlight.removeFirst();
+        call.future().complete(call.username());
+    }
+
+    private record Call(String username, CompletableFuture<String> future) {
+    }
+}
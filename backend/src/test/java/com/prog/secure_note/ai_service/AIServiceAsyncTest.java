@@ -0,0 +1,145 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Many slow Gemini calls in flight at once must not need a thread each.
+class AIServiceAsyncTest {
+
+    private static final int CALLS = 200;
+    private static final long UPSTREAM_DELAY_MS = 1000;
+
+    private HttpServer stub;
+    private ExecutorService stubThreads;
+    private AIService aiService;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), CALLS);
+        //The stub itself blocks a thread per request, these are left out of the count below.
+        stubThreads = Executors.newFixedThreadPool(CALLS, r -> new Thread(r, "stub-gemini"));
+        stub.setExecutor(stubThreads);
+        stub.createContext("/gemini", exchange -> {
+            upstreamCalls.incrementAndGet();
+            String prompt = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String marker = prompt.substring(prompt.indexOf("note-"), prompt.indexOf("note-") + 9);
+            try {
+                Thread.sleep(UPSTREAM_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"summary of " + marker + "\"}]}}]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+
+        //Caps high enough for every call to be in flight at once, this test is about threads, not admission.
+        aiService = AIServiceTestBuilder.against(stub)
+                .scheduler(new AIScheduler(new SimpleMeterRegistry(), CALLS, CALLS, CALLS, CALLS, CALLS, Duration.ofSeconds(5)))
+                .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+        stubThreads.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsDoNotHoldAThreadEach() throws Exception {
+        //Warm-up: class loading and the client's own threads shouldn't count as per-call cost.
+        AIRequest warmUp = new AIRequest();
+        warmUp.setOperation("summarise");
+        warmUp.setContent("note-warm");
+        aiService.processContentAsync(warmUp, "user", AIPriority.INTERACTIVE).join();
+
+        int threadsBefore = countClientThreads();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                peak.accumulateAndGet(countClientThreads(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "thread-sampler");
+        sampler.start();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<AIResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            AIRequest request = new AIRequest();
+            request.setOperation("summarise");
+            request.setContent(String.format("note-%04d", i));
+            calls.add(aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE));
+        }
+        //Every call was started without waiting for any of them.
+        long submitMillis = (System.nanoTime() - start) / 1_000_000;
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+        sampling.set(false);
+        sampler.join();
+
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals(String.format("summary of note-%04d", i), calls.get(i).join().getAnswer());
+        }
+        int extraThreads = peak.get() - threadsBefore;
+
+        assertTrue(submitMillis < UPSTREAM_DELAY_MS, "processContentAsync must not wait for the upstream");
+        assertTrue(totalMillis < UPSTREAM_DELAY_MS * 5, "calls should overlap, took " + totalMillis + " ms");
+        assertTrue(extraThreads < CALLS / 4, "used " + extraThreads + " threads for " + CALLS + " calls");
+    }
+
+    @Test
+    void identicalConcurrentRequestsShareOneUpstreamCall() {
+        List<CompletableFuture<AIResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            AIRequest request = new AIRequest();
+            request.setOperation("summarise");
+            request.setContent("note-same");
+            calls.add(aiService.processContentAsync(request, "user-" + i, AIPriority.INTERACTIVE));
+        }
+        for (CompletableFuture<AIResponse> call : calls) {
+            assertEquals("summary of note-same", call.join().getAnswer());
+        }
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    private static int countClientThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith("stub-gemini") && !thread.getName().equals("thread-sampler")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,154 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Map-reduce of long notes against a stub Gemini that answers with the part markers it was sent.
+class AIServiceChunkingTest {
+
+    private static final int PARTS = 8;
+    private static final long UPSTREAM_DELAY_MS = 300;
+    private static final Pattern MARKER = Pattern.compile("part-\\d+");
+
+    private HttpServer stub;
+    private ExecutorService stubThreads;
+    private AIService aiService;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final AtomicInteger upstreamRunning = new AtomicInteger();
+    private final AtomicInteger maxUpstreamRunning = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubThreads = Executors.newFixedThreadPool(PARTS * 2);
+        stub.setExecutor(stubThreads);
+        stub.createContext("/gemini", exchange -> {
+            upstreamCalls.incrementAndGet();
+            maxUpstreamRunning.accumulateAndGet(upstreamRunning.incrementAndGet(), Math::max);
+            String prompt = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            List<String> markers = new ArrayList<>();
+            Matcher matcher = MARKER.matcher(prompt);
+            while (matcher.find()) {
+                markers.add(matcher.group());
+            }
+            String kind = prompt.contains("summaries of consecutive parts") ? "combined"
+                    : prompt.contains("Translate to") ? "tr" : "sum";
+            try {
+                Thread.sleep(UPSTREAM_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            upstreamRunning.decrementAndGet();
+            byte[] body = ("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + kind + "(" + String.join(",", markers) + ")\"}]}}]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+        //Room for every chunk at once; see chunkCallsStayWithinTheUsersLimit for the default limits.
+        aiService = newService(new AIScheduler(new SimpleMeterRegistry(), PARTS, PARTS, 2, 10, 200, Duration.ofSeconds(5)));
+    }
+
+    private AIService newService(AIScheduler scheduler) {
+        return AIServiceTestBuilder.against(stub)
+                .scheduler(scheduler)
+                .field("chunkTokens", 250) // 1000 chars
+                .field("chunkParallelism", 8)
+                .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+        stubThreads.shutdownNow();
+    }
+
+    @Test
+    void longNoteIsSummarisedInParallelChunksThenCombined() {
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent(longNote());
+
+        long start = System.nanoTime();
+        String answer = aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE).join().getAnswer();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        //The combine call saw every partial summary, in order.
+        assertEquals("combined(part-0,part-1,part-2,part-3,part-4,part-5,part-6,part-7)", answer);
+        assertEquals(PARTS + 1, upstreamCalls.get());
+        //One round of chunks plus the combine call, not PARTS calls one after another.
+        assertTrue(elapsedMs < UPSTREAM_DELAY_MS * 4, "took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void longNoteIsTranslatedInChunksAndStitchedInOrder() {
+        AIRequest request = new AIRequest();
+        request.setOperation("translate");
+        request.setTargetLanguage("French");
+        request.setContent(longNote());
+
+        String answer = aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE).join().getAnswer();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < PARTS; i++) {
+            expected.add("tr(part-" + i + ")");
+        }
+        assertEquals(String.join("\n\n", expected), answer);
+        assertEquals(PARTS, upstreamCalls.get());
+    }
+
+    @Test
+    void chunkCallsStayWithinTheUsersLimit() {
+        AIService limited = newService(new AIScheduler(new SimpleMeterRegistry(), 8, 2, 2, 10, 200, Duration.ofSeconds(5)));
+        AIRequest request = new AIRequest();
+        request.setOperation("translate");
+        request.setTargetLanguage("French");
+        request.setContent(longNote());
+
+        limited.processContentAsync(request, "user", AIPriority.INTERACTIVE).join();
+
+        //Every chunk is a call of its own in the scheduler, not the whole job one slot.
+        assertEquals(PARTS, upstreamCalls.get());
+        assertEquals(2, maxUpstreamRunning.get());
+    }
+
+    @Test
+    void shortNoteIsOneCall() {
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent("A short note about part-0.");
+
+        assertEquals("sum(part-0)", aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE).join().getAnswer());
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    //PARTS paragraphs of about 900 chars, so each one is a chunk of its own.
+    private static String longNote() {
+        List<String> paragraphs = new ArrayList<>();
+        for (int i = 0; i < PARTS; i++) {
+            paragraphs.add("This is part-" + i + ". " + "Some sentence with words in it. ".repeat(27).strip());
+        }
+        return String.join("\n\n", paragraphs);
+    }
+}
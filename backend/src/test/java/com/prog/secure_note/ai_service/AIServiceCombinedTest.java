@@ -0,0 +1,117 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prog.secure_note.model.AICombinedRequest;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Combined operations against a stub Gemini; the stub's reply to the combined prompt is set per test.
+class AIServiceCombinedTest {
+
+    private HttpServer stub;
+    private AIService aiService;
+    private final List<String> prompts = new ArrayList<>();
+    private volatile String combinedReply;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/gemini", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String prompt = objectMapper.readTree(body).path("contents").get(0).path("parts").get(0).path("text").asText();
+            synchronized (prompts) {
+                prompts.add(prompt);
+            }
+            String text = prompt.startsWith("Process the text below") ? combinedReply : "single:" + prompt.substring(0, 9);
+            byte[] reply = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(
+                    Map.of("content", Map.of("parts", List.of(Map.of("text", text)))))));
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        stub.start();
+
+        AIResponseCache cache = new AIResponseCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "memoryEntries", 100);
+        ReflectionTestUtils.setField(cache, "summariseTtl", Duration.ofDays(1));
+        ReflectionTestUtils.setField(cache, "translateTtl", Duration.ofDays(1));
+        ReflectionTestUtils.setField(cache, "readTtl", Duration.ofDays(1));
+        ReflectionTestUtils.setField(cache, "answerTtl", Duration.ofDays(1));
+        cache.init();
+        aiService = AIServiceTestBuilder.against(stub).objectMapper(objectMapper).cache(cache).build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void threeOperationsAreOneCallWithTheContentSentOnce() {
+        combinedReply = "{\"summarise\": \"short summary\", \"translate\": \"texte traduit\", \"read\": \"clean text\"}";
+
+        Map<String, AIResponse> responses = aiService.processCombinedAsync(
+                combined("The note content.", "summarise", "translate", "read"), "user", AIPriority.INTERACTIVE).join();
+
+        assertEquals(List.of("summarise", "translate", "read"), new ArrayList<>(responses.keySet()));
+        assertEquals("short summary", responses.get("summarise").getAnswer());
+        assertEquals("texte traduit", responses.get("translate").getAnswer());
+        assertEquals("translate", responses.get("translate").getOperation());
+        assertEquals("clean text", responses.get("read").getAnswer());
+        assertEquals(1, prompts.size());
+        String prompt = prompts.get(0);
+        assertEquals(prompt.indexOf("The note content."), prompt.lastIndexOf("The note content."));
+    }
+
+    @Test
+    void answersAreCachedPerOperation() {
+        combinedReply = "{\"summarise\": \"short summary\", \"read\": \"clean text\"}";
+        aiService.processCombinedAsync(combined("Cached note.", "summarise", "read"), "user", AIPriority.INTERACTIVE).join();
+
+        AIRequest single = new AIRequest();
+        single.setOperation("summarise");
+        single.setContent("Cached note.");
+        assertEquals("short summary", aiService.processContentAsync(single, "user", AIPriority.INTERACTIVE).join().getAnswer());
+        assertEquals(1, prompts.size());
+    }
+
+    @Test
+    void missingFieldsFallBackToSingleCalls() {
+        combinedReply = "```json\n{\"summarise\": \"short summary\"}\n```";
+
+        Map<String, AIResponse> responses = aiService.processCombinedAsync(
+                combined("Fallback note.", "summarise", "read"), "user", AIPriority.INTERACTIVE).join();
+
+        assertEquals("short summary", responses.get("summarise").getAnswer());
+        assertTrue(responses.get("read").getAnswer().startsWith("single:"));
+        assertEquals(2, prompts.size());
+    }
+
+    private static AICombinedRequest combined(String content, String... operations) {
+        AICombinedRequest request = new AICombinedRequest();
+        request.setContent(content);
+        request.setOperations(List.of(operations));
+        request.setTargetLanguage("French");
+        return request;
+    }
+}
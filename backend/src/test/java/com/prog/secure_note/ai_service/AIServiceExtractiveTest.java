@@ -0,0 +1,134 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Extractive summaries instead of Gemini: on request, for short summaries, and when Gemini is slow or down.
+class AIServiceExtractiveTest {
+
+    private static final String NOTE = "The release of version two is planned for March. Lunch was pizza today. "
+                                       + "The release needs the database migration to be finished first. "
+                                       + "It rained all afternoon. "
+                                       + "The database migration for the release is tested on staging this week. "
+                                       + "My cat slept on the keyboard.";
+
+    private HttpServer stub;
+    private AIService aiService;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile long delayMs;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newFixedThreadPool(4));
+        stub.createContext("/gemini", exchange -> {
+            upstreamCalls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"gemini summary\"}]}}]}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+
+        AIResponseCache cache = new AIResponseCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "memoryEntries", 100);
+        ReflectionTestUtils.setField(cache, "summariseTtl", Duration.ofDays(1));
+        cache.init();
+        aiService = AIServiceTestBuilder.against(stub)
+                //One attempt, and the breaker opens after the first failure.
+                .httpClient(new UpstreamHttpClient(new SimpleMeterRegistry(), Duration.ofSeconds(5),
+                        Duration.ofSeconds(60), 1, Duration.ofMillis(10), Duration.ofMillis(10), 1, Duration.ofSeconds(30), 0))
+                .cache(cache)
+                .field("extractiveShortSummaries", true)
+                .field("summaryFallbackAfterMs", 300L)
+                .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void shortAndExtractiveSummariesAreMadeWithoutGemini() {
+        AIResponse shortSummary = summarise("short", AIPriority.INTERACTIVE).join();
+        AIResponse extractive = summarise("extractive", AIPriority.INTERACTIVE).join();
+
+        assertTrue(shortSummary.isExtractive());
+        assertEquals("The release needs the database migration to be finished first. "
+                     + "The database migration for the release is tested on staging this week.", shortSummary.getAnswer());
+        assertTrue(extractive.isExtractive());
+        assertEquals(0, upstreamCalls.get());
+    }
+
+    @Test
+    void slowGeminiIsReplacedAndItsLateAnswerCached() throws Exception {
+        delayMs = 1500;
+
+        long start = System.nanoTime();
+        AIResponse first = summarise("medium", AIPriority.INTERACTIVE).join();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(first.isExtractive());
+        assertTrue(elapsedMs < 1000, "took " + elapsedMs + " ms");
+
+        Thread.sleep(1500);
+        AIResponse second = summarise("medium", AIPriority.INTERACTIVE).join();
+        assertFalse(second.isExtractive());
+        assertEquals("gemini summary", second.getAnswer());
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    @Test
+    void openBreakerFallsBackForUsersButNotForBackgroundWork() {
+        status = 503;
+
+        //A plain error from Gemini is still an error...
+        assertThrows(CompletionException.class, () -> summarise("medium", AIPriority.INTERACTIVE).join());
+
+        //...but it opened the breaker: no call goes out now, and the user still gets a summary.
+        AIResponse whileOpen = summarise("long", AIPriority.INTERACTIVE).join();
+        assertTrue(whileOpen.isExtractive());
+        assertEquals(1, upstreamCalls.get());
+
+        assertThrows(CompletionException.class, () -> summarise("long", AIPriority.BACKGROUND).join());
+    }
+
+    private CompletableFuture<AIResponse> summarise(String length, AIPriority priority) {
+        AIRequest request = new AIRequest();
+        request.setOperation("summarise");
+        request.setContent(NOTE);
+        request.setSummaryLength(length);
+        return aiService.processContentAsync(request, "user", priority);
+    }
+}
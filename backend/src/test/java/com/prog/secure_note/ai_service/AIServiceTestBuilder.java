@@ -0,0 +1,83 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//An AIService for the tests, talking to a local stub Gemini (stub base url + "/gemini"). Every dependency has a
+//default (no cache, no translation memory, no web search, generous scheduler caps), so a test only sets what it
+//is about, and a new constructor dependency only needs a default here.
+final class AIServiceTestBuilder {
+
+    private final String baseUrl;
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private AIResponseCache cache = new AIResponseCache(new SimpleMeterRegistry());
+    private UpstreamHttpClient httpClient = new UpstreamHttpClient(new SimpleMeterRegistry(), Duration.ofSeconds(5),
+            Duration.ofSeconds(60), 3, Duration.ofMillis(200), Duration.ofSeconds(2), 5, Duration.ofSeconds(30), 0);
+    private AIScheduler scheduler = new AIScheduler(new SimpleMeterRegistry(), 8, 2, 2, 10, 200, Duration.ofSeconds(5));
+    private TranslationMemory translationMemory = new TranslationMemory(new SimpleMeterRegistry(), false, 0);
+    private WebSearchTriggers webSearchTriggers = new WebSearchTriggers(new String[0]);
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    private AIServiceTestBuilder(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    static AIServiceTestBuilder against(HttpServer stub) {
+        return new AIServiceTestBuilder("http://127.0.0.1:" + stub.getAddress().getPort());
+    }
+
+    AIServiceTestBuilder objectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        return this;
+    }
+
+    AIServiceTestBuilder cache(AIResponseCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    AIServiceTestBuilder httpClient(UpstreamHttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    AIServiceTestBuilder scheduler(AIScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    AIServiceTestBuilder translationMemory(TranslationMemory translationMemory) {
+        this.translationMemory = translationMemory;
+        return this;
+    }
+
+    //Questions with one of these words are answered with a web search at the stub's "/search".
+    AIServiceTestBuilder webSearchTriggers(String... triggers) {
+        this.webSearchTriggers = new WebSearchTriggers(triggers);
+        return this;
+    }
+
+    //An @Value field of AIService, such as chunkTokens.
+    AIServiceTestBuilder field(String name, Object value) {
+        fields.put(name, value);
+        return this;
+    }
+
+    AIService build() {
+        AIService aiService = new AIService(objectMapper, cache, httpClient, scheduler,
+                new PromptBudgeter(new SimpleMeterRegistry(), 8000, 3000, 120, 600), translationMemory,
+                webSearchTriggers, new WebSearchCache(new SimpleMeterRegistry(), Duration.ZERO, 0),
+                new WebPageFetcher(new SimpleMeterRegistry(), false, 0, Duration.ZERO, Duration.ZERO, 0));
+        ReflectionTestUtils.setField(aiService, "geminiApiUrl", baseUrl + "/gemini?key=");
+        ReflectionTestUtils.setField(aiService, "geminiApiKey", "test");
+        ReflectionTestUtils.setField(aiService, "googleSearchUrl", baseUrl + "/search");
+        fields.forEach((name, value) -> ReflectionTestUtils.setField(aiService, name, value));
+        return aiService;
+    }
+}
@@ -0,0 +1,145 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Translations with the translation memory, against a stub Gemini that upper-cases every sentence it gets.
+class AIServiceTranslationMemoryTest {
+
+    private static final String NOTE = "Remember to send the quarterly report to the whole team before Friday. "
+                                       + "The numbers for March are still missing.\n"
+                                       + "Ask finance for them.\n\n"
+                                       + "The offsite is planned for the second week of June.";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<List<String>> batches = new ArrayList<>();
+    private HttpServer stub;
+    private AIService aiService;
+    private TranslationMemory translationMemory;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/gemini", exchange -> {
+            String prompt = objectMapper.readTree(exchange.getRequestBody())
+                    .path("contents").path(0).path("parts").path(0).path("text").asText();
+            JsonNode sentences = objectMapper.readTree(prompt.substring(prompt.indexOf("\n\n") + 2));
+            List<String> batch = new ArrayList<>();
+            List<String> upperCased = new ArrayList<>();
+            for (JsonNode sentence : sentences) {
+                batch.add(sentence.asText());
+                upperCased.add(sentence.asText().toUpperCase());
+            }
+            synchronized (batches) {
+                batches.add(batch);
+            }
+            String text = "```json\n" + objectMapper.writeValueAsString(upperCased) + "\n```";
+            byte[] reply = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(
+                    Map.of("content", Map.of("parts", List.of(Map.of("text", text)))))));
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        stub.start();
+
+        translationMemory = new TranslationMemory(new SimpleMeterRegistry(), true, 1 << 20);
+        aiService = AIServiceTestBuilder.against(stub)
+                .objectMapper(objectMapper)
+                .translationMemory(translationMemory)
+                .field("chunkParallelism", 4)
+                .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void editedNoteOnlySendsTheChangedSentence() {
+        AIResponse first = translate(NOTE);
+
+        assertEquals(NOTE.toUpperCase(), first.getAnswer());
+        assertEquals(1, batches.size(), "all sentences go in one prompt");
+        assertEquals(4, batches.get(0).size());
+
+        String edited = NOTE.replace("March", "April");
+        AIResponse second = translate(edited);
+
+        assertEquals(edited.toUpperCase(), second.getAnswer());
+        assertEquals(List.of("The numbers for April are still missing."), batches.get(1));
+        assertTrue(translationMemory.memoryShare() > 0.3, "share " + translationMemory.memoryShare());
+    }
+
+    @Test
+    void noteTheMemoryHasCompletelyNeedsNoCall() {
+        translate(NOTE);
+        //Whitespace and the way the language is written don't matter.
+        AIResponse again = translate(NOTE.replace(". ", ".  "), "fr");
+
+        assertEquals(NOTE.toUpperCase(), again.getAnswer().replace(".  ", ". "));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    void translationsAreNeverSharedBetweenUsers() {
+        translate(NOTE, "French", "alice");
+        assertEquals("ASK FINANCE FOR THEM.", translationMemory.get("alice", "Ask finance for them.", "French"));
+        assertNull(translationMemory.get("bob", "Ask finance for them.", "French"));
+        AIResponse other = translate(NOTE, "French", "bob");
+
+        //Gemini's reply to alice's prompt isn't served to bob, his sentences go to Gemini themselves.
+        assertEquals(NOTE.toUpperCase(), other.getAnswer());
+        assertEquals(2, batches.size());
+        assertEquals(batches.get(0), batches.get(1));
+    }
+
+    @Test
+    void leastRecentlyUsedTranslationsAreEvicted() {
+        TranslationMemory memory = new TranslationMemory(new SimpleMeterRegistry(), true, 2 * (64 + 10));
+        memory.put("alice", "one", "French", "0123456789");
+        memory.put("alice", "two", "French", "0123456789");
+        memory.get("alice", "one", "French");
+        memory.put("alice", "three", "French", "0123456789");
+
+        assertNotNull(memory.get("alice", "one", "French"));
+        assertNull(memory.get("alice", "two", "French"));
+        assertNotNull(memory.get("alice", "three", "French"));
+        assertNull(memory.get("alice", "one", "German"));
+    }
+
+    private AIResponse translate(String content) {
+        return translate(content, "French");
+    }
+
+    private AIResponse translate(String content, String targetLanguage) {
+        return translate(content, targetLanguage, "user");
+    }
+
+    private AIResponse translate(String content, String targetLanguage, String username) {
+        AIRequest request = new AIRequest();
+        request.setOperation("translate");
+        request.setContent(content);
+        request.setTargetLanguage(targetLanguage);
+        return aiService.processContentAsync(request, username, AIPriority.INTERACTIVE).join();
+    }
+}
@@ -0,0 +1,95 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Translations against a stub Gemini that answers with the text it was asked to translate, upper-cased.
+class AIServiceTranslationTest {
+
+    private static final String ENGLISH = "Remember to send the quarterly report to the whole team before Friday.";
+    private static final String FRENCH = "N'oublie pas d'envoyer le rapport trimestriel à toute l'équipe avant vendredi.";
+    private static final String GERMAN = "Vergiss nicht, den Quartalsbericht vor Freitag an das ganze Team zu schicken.";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> translated = new ArrayList<>();
+    private HttpServer stub;
+    private AIService aiService;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/gemini", exchange -> {
+            String prompt = objectMapper.readTree(exchange.getRequestBody())
+                    .path("contents").path(0).path("parts").path(0).path("text").asText();
+            String text = prompt.substring(prompt.indexOf(":\n\n") + 3);
+            synchronized (translated) {
+                translated.add(text);
+            }
+            byte[] reply = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(
+                    Map.of("content", Map.of("parts", List.of(Map.of("text", text.toUpperCase())))))));
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        stub.start();
+
+        aiService = AIServiceTestBuilder.against(stub).objectMapper(objectMapper).field("chunkParallelism", 4).build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void noteAlreadyInTheTargetLanguageIsNotSent() {
+        AIResponse response = translate(FRENCH + "\n\n" + FRENCH, "French");
+
+        assertEquals(FRENCH + "\n\n" + FRENCH, response.getAnswer());
+        assertEquals("fr", response.getSourceLanguage());
+        assertTrue(translated.isEmpty());
+    }
+
+    @Test
+    void onlyParagraphsInOtherLanguagesAreTranslated() {
+        String note = FRENCH + "\n\n" + ENGLISH + "\n\nShopping list\n\n" + FRENCH + "\n\n" + GERMAN;
+
+        AIResponse response = translate(note, "fr");
+
+        assertEquals(FRENCH + "\n\n" + (ENGLISH + "\n\nShopping list").toUpperCase() + "\n\n" + FRENCH + "\n\n"
+                     + GERMAN.toUpperCase(), response.getAnswer());
+        assertEquals(2, translated.size());
+        assertEquals("fr", response.getSourceLanguage());
+    }
+
+    @Test
+    void noteInAnotherLanguageIsTranslatedWhole() {
+        AIResponse response = translate(ENGLISH, "German");
+
+        assertEquals(ENGLISH.toUpperCase(), response.getAnswer());
+        assertEquals("en", response.getSourceLanguage());
+    }
+
+    private AIResponse translate(String content, String targetLanguage) {
+        AIRequest request = new AIRequest();
+        request.setOperation("translate");
+        request.setContent(content);
+        request.setTargetLanguage(targetLanguage);
+        return aiService.processContentAsync(request, "user", AIPriority.INTERACTIVE).join();
+    }
+}
@@ -0,0 +1,63 @@
+package com.prog.secure_note.ai_service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractiveSummarizerTest {
+
+    @Test
+    void picksTheSentencesTheNoteIsAboutInNoteOrder() {
+        String note = "The release of version two is planned for March. "
+                      + "Lunch was pizza today. "
+                      + "The release needs the database migration to be finished first. "
+                      + "It rained all afternoon. "
+                      + "The database migration for the release is tested on staging this week. "
+                      + "My cat slept on the keyboard.";
+
+        String summary = ExtractiveSummarizer.summarize(note, 2);
+
+        assertEquals("The release needs the database migration to be finished first. "
+                     + "The database migration for the release is tested on staging this week.", summary);
+    }
+
+    @Test
+    void shortNoteIsReturnedWholeAndListItemsBecomeSentences() {
+        assertEquals("Buy milk. Call the bank.", ExtractiveSummarizer.summarize("Buy milk\n\n  Call the bank.\n", 4));
+        assertEquals("", ExtractiveSummarizer.summarize("  ", 4));
+    }
+
+    @Test
+    void fiftyKilobyteNoteTakesMilliseconds() {
+        //A vocabulary of a few thousand words, like real notes have.
+        String[] words = new String[3000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Integer.toString(i * 7919 + 1000, 36);
+        }
+        Random random = new Random(42);
+        StringBuilder note = new StringBuilder();
+        while (note.length() < 50_000) {
+            int length = 8 + random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                note.append(i == 0 ? "The" : words[random.nextInt(words.length)]).append(i == length - 1 ? ". " : " ");
+            }
+        }
+        String text = note.toString();
+        for (int i = 0; i < 20; i++) {
+            ExtractiveSummarizer.summarize(text, 4); // Warm-up for the JIT.
+        }
+
+        long start = System.nanoTime();
+        String summary = ExtractiveSummarizer.summarize(text, 4);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertFalse(summary.isEmpty());
+        assertTrue(summary.length() < 1000, "summary of " + summary.length() + " chars");
+        //A few milliseconds on a laptop; the bound leaves room for a busy build machine.
+        assertTrue(elapsedMs < 100, "took " + elapsedMs + " ms");
+    }
+}
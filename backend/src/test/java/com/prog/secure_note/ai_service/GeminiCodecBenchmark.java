@@ -0,0 +1,96 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//GeminiCodec against what AIService did before: Map.of request bodies through ObjectMapper, and the response
+//decoded to a String and read with readTree. The response arrives in 16 KB chunks, as from the HTTP client.
+//Run with: mvn test-compile, then
+//java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+//     com.prog.secure_note.ai_service.GeminiCodecBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeminiCodecBenchmark {
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    //Characters of answer text in the response.
+    @Param({"2000", "200000"})
+    public int answerChars;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String prompt;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < answerChars) {
+            text.append("The quarterly report is due on Friday, \"before noon\".\n");
+        }
+        prompt = "Summarize in about 150 words:\n\n" + text;
+        response = objectMapper.writeValueAsBytes(Map.of(
+                "candidates", List.of(Map.of(
+                        "content", Map.of("role", "model", "parts", List.of(Map.of("text", text.toString()))),
+                        "finishReason", "STOP")),
+                "usageMetadata", Map.of("promptTokenCount", 1200, "candidatesTokenCount", answerChars / 4)));
+    }
+
+    @Benchmark
+    public byte[] requestWithMaps() throws Exception {
+        return objectMapper.writeValueAsString(Map.of("contents", new Object[]{
+                Map.of("parts", new Object[]{Map.of("text", prompt)})
+        })).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] requestWithCodec() {
+        return GeminiCodec.request(prompt, false);
+    }
+
+    @Benchmark
+    public String responseWithTree() throws Exception {
+        //The body as BodyHandlers.ofString() hands it over, then the tree.
+        String body = new String(response, StandardCharsets.UTF_8);
+        JsonNode root = objectMapper.readTree(body);
+        return root.path("candidates").get(0).path("content").path("parts").get(0).get("text").asText();
+    }
+
+    @Benchmark
+    public String responseWithCodec() {
+        GeminiCodec.TextReader reader = new GeminiCodec.TextReader();
+        for (int offset = 0; offset < response.length; offset += CHUNK_BYTES) {
+            reader.feed(ByteBuffer.wrap(response, offset, Math.min(CHUNK_BYTES, response.length - offset)));
+        }
+        reader.end();
+        return reader.text();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeminiCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,62 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeminiCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void requestIsTheDocumentTheMapsUsedToMake() throws Exception {
+        String prompt = "Translate \"this\" to French:\n\n€ and \\ and \u0001";
+
+        JsonNode plain = objectMapper.readTree(GeminiCodec.request(prompt, false));
+        JsonNode json = objectMapper.readTree(GeminiCodec.request(prompt, true));
+
+        assertEquals(prompt, plain.path("contents").path(0).path("parts").path(0).path("text").asText());
+        assertFalse(plain.has("generationConfig"));
+        assertEquals("application/json", json.path("generationConfig").path("responseMimeType").asText());
+    }
+
+    @Test
+    void answerIsFoundWhereverTheResponseIsCut() {
+        String response = "{\"usageMetadata\":{\"text\":\"not this\"},\"candidates\":[{\"finishReason\":\"STOP\","
+                          + "\"safetyRatings\":[{\"text\":\"nor this\"}],\"content\":{\"role\":\"model\",\"parts\":"
+                          + "[{\"text\":\"Caf\\u00e9 \\\"ok\\\" – fine\"},{\"text\":\"second part\"}]}},"
+                          + "{\"content\":{\"parts\":[{\"text\":\"second candidate\"}]}}]}";
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+
+        //Every split point, including inside the multi-byte dash.
+        for (int cut = 0; cut <= bytes.length; cut++) {
+            GeminiCodec.TextReader reader = new GeminiCodec.TextReader();
+            reader.feed(ByteBuffer.wrap(bytes, 0, cut));
+            reader.feed(ByteBuffer.wrap(bytes, cut, bytes.length - cut));
+            reader.end();
+            assertEquals("Café \"ok\" – fine", reader.text(), "cut at " + cut);
+        }
+    }
+
+    @Test
+    void missingAnswerAndBrokenJsonKeepTheirOldReplies() {
+        assertEquals(GeminiCodec.NO_RESPONSE, read("{\"candidates\":[]}"));
+        assertEquals(GeminiCodec.NO_RESPONSE, read("{\"candidates\":[{\"content\":{\"parts\":[{\"inlineData\":{}}]}}]}"));
+        assertTrue(read("{\"candidates\":[{\"content\":").startsWith(GeminiCodec.UNREADABLE_PREFIX));
+        assertTrue(read("<html>Bad gateway</html>").startsWith(GeminiCodec.UNREADABLE_PREFIX));
+    }
+
+    private static String read(String body) {
+        GeminiCodec.TextReader reader = new GeminiCodec.TextReader();
+        reader.feed(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+        reader.end();
+        return reader.text();
+    }
+}
@@ -0,0 +1,48 @@
+package com.prog.secure_note.ai_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+//Embedding calls share the Gemini quota, so they queue in the AIScheduler behind interactive work.
+class GeminiEmbeddingProviderTest {
+
+    private final UpstreamHttpClient httpClient = mock(UpstreamHttpClient.class);
+    private final AIScheduler scheduler = mock(AIScheduler.class);
+    private final GeminiEmbeddingProvider provider = new GeminiEmbeddingProvider(new ObjectMapper(), httpClient, scheduler);
+
+    GeminiEmbeddingProviderTest() {
+        ReflectionTestUtils.setField(provider, "embeddingUrl", "https://gemini.test/embed?key=");
+        ReflectionTestUtils.setField(provider, "model", "models/text-embedding-004");
+        ReflectionTestUtils.setField(provider, "geminiApiKey", "key");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void embeddingIsBackgroundWorkOfTheScheduler() {
+        HttpResponse<Object> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn("{\"embedding\":{\"values\":[3.0,4.0]}}");
+        when(httpClient.sendAsync(eq("gemini-embedding"), any(), any())).thenReturn(CompletableFuture.completedFuture(response));
+        when(scheduler.submit(eq(AIService.SYSTEM_USER), eq(AIPriority.BACKGROUND), anyDouble(), any()))
+                .thenAnswer(invocation -> ((Supplier<CompletableFuture<?>>) invocation.getArgument(3)).get());
+
+        float[] vector = provider.embed("quarterly budget review");
+
+        assertEquals(0.6f, vector[0], 1e-6);
+        assertEquals(0.8f, vector[1], 1e-6);
+        verify(scheduler).submit(eq(AIService.SYSTEM_USER), eq(AIPriority.BACKGROUND), anyDouble(), any());
+    }
+}
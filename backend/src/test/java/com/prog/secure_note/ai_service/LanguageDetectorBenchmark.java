@@ -0,0 +1,58 @@
+package com.prog.secure_note.ai_service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+//LanguageDetector on a French note of the given size, the cost it adds in front of every translation. The
+//budget is a few tens of microseconds per kilobyte.
+//Run with: mvn test-compile, then
+//java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+//     com.prog.secure_note.ai_service.LanguageDetectorBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LanguageDetectorBenchmark {
+
+    private static final String SENTENCE =
+            "Le rapport trimestriel montre une croissance du chiffre d'affaires dans toutes les régions. ";
+
+    @Param({"1024", "65536"})
+    public int chars;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder(chars + SENTENCE.length());
+        while (builder.length() < chars) {
+            builder.append(SENTENCE);
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public String detect() {
+        return LanguageDetector.detect(text);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LanguageDetectorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,50 @@
+package com.prog.secure_note.ai_service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LanguageDetectorTest {
+
+    //Sentences that are not in the samples the profiles are built from.
+    private static final Map<String, String> SENTENCES = Map.of(
+            "en", "The quarterly report shows revenue growth in all regions except the north.",
+            "fr", "Le rapport trimestriel montre une croissance du chiffre d'affaires dans toutes les régions.",
+            "es", "El informe trimestral muestra un crecimiento de los ingresos en todas las regiones.",
+            "de", "Der Quartalsbericht zeigt ein Umsatzwachstum in allen Regionen außer dem Norden.",
+            "it", "Il rapporto trimestrale mostra una crescita dei ricavi in tutte le regioni.",
+            "pt", "O relatório trimestral mostra crescimento da receita em todas as regiões.",
+            "nl", "Het kwartaalrapport laat omzetgroei zien in alle regio's behalve het noorden.");
+
+    @Test
+    void tellsLatinScriptLanguagesApart() {
+        SENTENCES.forEach((language, sentence) -> assertEquals(language, LanguageDetector.detect(sentence), sentence));
+    }
+
+    @Test
+    void otherScriptsAreDecidedByScript() {
+        assertEquals("ru", LanguageDetector.detect("Привет, как дела? Сегодня хорошая погода."));
+        assertEquals("ja", LanguageDetector.detect("今日はいい天気ですね。"));
+        assertEquals("zh", LanguageDetector.detect("今天天气很好。"));
+        assertEquals("ko", LanguageDetector.detect("오늘 날씨가 좋네요."));
+    }
+
+    @Test
+    void tooLittleTextIsUndecided() {
+        assertNull(LanguageDetector.detect("ok"));
+        assertNull(LanguageDetector.detect("meeting 10:00 room 4b"));
+        assertNull(LanguageDetector.detect(null));
+    }
+
+    @Test
+    void targetLanguagesAsUsersWriteThem() {
+        assertEquals("fr", LanguageDetector.languageCode("French"));
+        assertEquals("fr", LanguageDetector.languageCode(" français "));
+        assertEquals("pt", LanguageDetector.languageCode("pt-BR"));
+        assertEquals("zh", LanguageDetector.languageCode("中文"));
+        assertNull(LanguageDetector.languageCode("Klingon"));
+    }
+}
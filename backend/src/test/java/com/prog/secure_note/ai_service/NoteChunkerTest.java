@@ -0,0 +1,84 @@
+package com.prog.secure_note.ai_service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteChunkerTest {
+
+    @Test
+    void cutsBetweenParagraphsUnderTheLimit() {
+        List<String> paragraphs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            paragraphs.add("Paragraph " + i + " " + "word ".repeat(20 + i % 7).strip() + ".");
+        }
+        String note = String.join("\n\n", paragraphs);
+
+        List<String> chunks = NoteChunker.split(note, 500);
+
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 500, "chunk of " + chunk.length());
+        }
+        assertEquals(note, String.join("\n\n", chunks));
+    }
+
+    @Test
+    void longParagraphIsCutAfterASentence() {
+        String sentence = "This sentence is part of one very long paragraph. ";
+        String paragraph = sentence.repeat(40).strip();
+
+        List<String> chunks = NoteChunker.split(paragraph, 300);
+
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 300);
+            assertTrue(chunk.endsWith("."), chunk);
+        }
+        assertEquals(paragraph.replace(" ", ""), String.join("", chunks).replace(" ", ""));
+    }
+
+    @Test
+    void wordLongerThanTheLimitIsCutHard() {
+        List<String> chunks = NoteChunker.split("x".repeat(250), 100);
+        assertEquals(List.of("x".repeat(100), "x".repeat(100), "x".repeat(50)), chunks);
+    }
+
+    @Test
+    void mapKeepsChunkOrderAndBoundsParallelism() {
+        List<String> chunks = List.of("a", "b", "c", "d", "e", "f", "g");
+        List<Map.Entry<String, CompletableFuture<String>>> pending = new ArrayList<>();
+        AtomicInteger peak = new AtomicInteger();
+
+        CompletableFuture<List<String>> result = NoteChunker.mapInOrder(chunks, 3, chunk -> {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            pending.add(Map.entry(chunk, call));
+            peak.accumulateAndGet(pending.size(), Math::max);
+            return call;
+        });
+        //Complete them newest first, the result must still be in chunk order.
+        while (!result.isDone()) {
+            Map.Entry<String, CompletableFuture<String>> last = pending.remove(pending.size() - 1);
+            last.getValue().complete(last.getKey().toUpperCase());
+        }
+
+        assertEquals(3, peak.get());
+        assertEquals(List.of("A", "B", "C", "D", "E", "F", "G"), result.join());
+    }
+
+    @Test
+    void firstFailureFailsTheMap() {
+        CompletableFuture<List<String>> result = NoteChunker.mapInOrder(List.of("a", "b"), 2, chunk ->
+                chunk.equals("b") ? CompletableFuture.failedFuture(new IllegalStateException("down"))
+                        : CompletableFuture.completedFuture(chunk));
+        assertThrows(CompletionException.class, result::join);
+    }
+}
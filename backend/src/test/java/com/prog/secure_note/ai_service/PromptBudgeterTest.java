@@ -0,0 +1,96 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptBudgeterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PromptBudgeter budgeter = new PromptBudgeter(meterRegistry, 200, 60, 10, 40);
+
+    @Test
+    void estimatesWordsPunctuationAndCjk() {
+        assertEquals(0, TokenEstimator.estimate(null));
+        assertEquals(2, TokenEstimator.estimate("hello world"));
+        assertEquals(4, TokenEstimator.estimate("internationalization"));
+        assertEquals(7, TokenEstimator.estimate("f(x) = y;"));
+        assertEquals(4, TokenEstimator.estimate("你好世界"));
+    }
+
+    @Test
+    void prefixEndsAtAWordWithinTheBudget() {
+        String text = "one two three four five";
+        assertEquals(text.length(), TokenEstimator.prefixLength(text, 5));
+        assertEquals("one two three".length(), TokenEstimator.prefixLength(text, 3));
+    }
+
+    @Test
+    void editorHtmlBecomesPlainTextWithCollapsedWhitespace() {
+        String stored = "{\"content\":\"<p>First   line</p><p>Second\\tline &amp; more</p>\"}";
+
+        assertEquals("First line\n\nSecond line & more", budgeter.clean(stored));
+        assertEquals("a < b\n\nc", budgeter.clean("  a < b  \n\n\n\n c "));
+    }
+
+    @Test
+    void summaryDropsRepeatedAndSeparatorLines() {
+        AIRequest request = request("summarise", "Meeting notes\n-----\nWe agreed on the plan.\nSent from my phone\n\n"
+                                                 + "Follow up next week.\nSent from my phone", null);
+
+        AIRequest budgeted = budgeter.apply(request);
+
+        assertEquals("Meeting notes\nWe agreed on the plan.\nSent from my phone\n\nFollow up next week.", budgeted.getContent());
+        assertTrue(request.getContent().contains("-----"), "the request itself is not changed");
+    }
+
+    @Test
+    void answerKeepsTheParagraphsAboutTheQuestion() {
+        StringBuilder note = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            note.append("Paragraph ").append(i).append(" is about gardening and the weather in spring.\n\n");
+        }
+        note.append("The database migration runs every night at two.\n\n");
+        note.append("Paragraph last is about cooking pasta with fresh tomatoes.");
+
+        AIRequest budgeted = budgeter.apply(request("answer", note.toString(), "When does the database migration run?"));
+
+        assertTrue(TokenEstimator.estimate(budgeted.getContent()) <= 60);
+        assertTrue(budgeted.getContent().startsWith("Paragraph 0"), "original order is kept");
+        assertTrue(budgeted.getContent().contains("The database migration runs every night at two."));
+        assertFalse(budgeted.getContent().contains("cooking"));
+    }
+
+    @Test
+    void translationIsCleanedButNeverCut() {
+        String note = "word ".repeat(1000);
+        AIRequest budgeted = budgeter.apply(request("translate", note, null));
+        assertEquals(note.strip(), budgeted.getContent());
+
+        AIRequest untouched = request("translate", "Already clean.", null);
+        assertSame(untouched, budgeter.apply(untouched));
+    }
+
+    @Test
+    void snippetsAreCutAndPromptSizesRecorded() {
+        String snippet = budgeter.snippet("A long search result snippet that goes on and on about many things.");
+        assertTrue(TokenEstimator.estimate(snippet) <= 10, snippet);
+        assertTrue(snippet.endsWith("…"));
+
+        budgeter.record("Summarise", "hello world");
+        assertEquals(2.0, meterRegistry.get("ai.prompt.tokens.estimated").tag("operation", "summarise").summary().totalAmount());
+    }
+
+    private static AIRequest request(String operation, String content, String question) {
+        AIRequest request = new AIRequest();
+        request.setOperation(operation);
+        request.setContent(content);
+        request.setQuestion(question);
+        return request;
+    }
+}
@@ -0,0 +1,92 @@
+package com.prog.secure_note.ai_service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void concurrentCallersShareOneCall() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        CountDownLatch go = new CountDownLatch(1);
+        List<CompletableFuture<CompletableFuture<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return singleFlight.run("key", () -> {
+                    calls.incrementAndGet();
+                    return upstream;
+                });
+            }, callers));
+        }
+        go.countDown();
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        upstream.complete("answer");
+
+        for (CompletableFuture<CompletableFuture<String>> result : results) {
+            assertEquals("answer", result.join().join());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlightCount());
+        callers.shutdownNow();
+    }
+
+    @Test
+    void failureReachesEveryWaiterAndIsNotKept() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.run("key", () -> upstream);
+        CompletableFuture<String> second = singleFlight.run("key", () -> CompletableFuture.completedFuture("unused"));
+        IllegalStateException failure = new IllegalStateException("upstream down");
+        upstream.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(CompletionException.class, first::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, second::join).getCause());
+        assertEquals("retried", singleFlight.run("key", () -> CompletableFuture.completedFuture("retried")).join());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthers() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.run("key", () -> upstream);
+        CompletableFuture<String> second = singleFlight.run("key", () -> upstream);
+        first.cancel(true);
+        upstream.complete("answer");
+
+        assertFalse(upstream.isCancelled());
+        assertEquals("answer", second.join());
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        singleFlight.run("a", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        singleFlight.run("b", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,183 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.exception.UpstreamUnavailableException;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Retries, circuit breaker and timeouts of UpstreamHttpClient against a local stub server.
+class UpstreamHttpClientTest {
+
+    private HttpServer stub;
+    private SimpleMeterRegistry meterRegistry;
+    private final AtomicInteger calls = new AtomicInteger();
+    //Status the stub answers with for the first `failuresLeft` calls, 200 afterwards.
+    private volatile int failureStatus;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/api", exchange -> {
+            calls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            int status = failuresLeft.getAndDecrement() > 0 ? failureStatus : 200;
+            if (status == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+            }
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        stub.start();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void retriesOverloadAnswersUntilTheUpstreamRecovers() throws Exception {
+        UpstreamHttpClient client = client(3, 5, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        failureStatus = 503;
+        failuresLeft.set(2);
+
+        HttpResponse<String> response = send(client, "/api");
+
+        assertEquals(200, response.statusCode());
+        assertEquals(3, calls.get());
+        assertEquals(2.0, meterRegistry.get("ai.upstream.retries").counter().count());
+    }
+
+    @Test
+    void retriesTooManyRequests() throws Exception {
+        UpstreamHttpClient client = client(3, 5, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        failureStatus = 429;
+        failuresLeft.set(1);
+
+        assertEquals(200, send(client, "/api").statusCode());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() throws Exception {
+        UpstreamHttpClient client = client(3, 5, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        failureStatus = 400;
+        failuresLeft.set(1);
+
+        assertEquals(400, send(client, "/api").statusCode());
+        assertEquals(1, calls.get());
+        assertEquals(0.0, meterRegistry.get("ai.upstream.breaker.state").gauge().value());
+    }
+
+    @Test
+    void openBreakerFailsFastAndHalfOpenTrialClosesIt() throws Exception {
+        UpstreamHttpClient client = client(1, 3, Duration.ofMillis(300), Duration.ofSeconds(5));
+        failureStatus = 503;
+        failuresLeft.set(3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(503, send(client, "/api").statusCode());
+        }
+        assertEquals(2.0, meterRegistry.get("ai.upstream.breaker.state").gauge().value());
+
+        //Open: the stub is not called at all.
+        long start = System.nanoTime();
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> send(client, "/api"));
+        assertInstanceOf(UpstreamUnavailableException.class, rejected.getCause());
+        assertTrue(((UpstreamUnavailableException) rejected.getCause()).getRetryAfterSeconds() >= 1);
+        assertTrue(System.nanoTime() - start < 50_000_000L, "an open breaker must not wait on the upstream");
+        assertEquals(3, calls.get());
+
+        Thread.sleep(400);
+        assertEquals(200, send(client, "/api").statusCode());
+        assertEquals(0.0, meterRegistry.get("ai.upstream.breaker.state").gauge().value());
+    }
+
+    @Test
+    void requestTimeoutCutsOffASlowUpstream() {
+        UpstreamHttpClient client = client(3, 5, Duration.ofSeconds(30), Duration.ofMillis(300));
+
+        long start = System.nanoTime();
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> send(client, "/slow"));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertInstanceOf(HttpTimeoutException.class, failure.getCause());
+        assertTrue(elapsedMs < 1500, "took " + elapsedMs + " ms");
+        assertEquals(1L, meterRegistry.get("ai.upstream.latency").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void responsesAreHandledOnVirtualThreadsUnlessAPoolIsConfigured() throws Exception {
+        UpstreamHttpClient virtual = client(1, 5, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        UpstreamHttpClient pooled = new UpstreamHttpClient(meterRegistry, Duration.ofSeconds(2), Duration.ofSeconds(5), 1,
+                Duration.ofMillis(10), Duration.ofMillis(50), 5, Duration.ofSeconds(30), 2);
+        try {
+            assertTrue(handlingThread(virtual).isVirtual());
+            Thread thread = handlingThread(pooled);
+            assertFalse(thread.isVirtual());
+            assertEquals("ai-http", thread.getName());
+        } finally {
+            virtual.shutdown();
+            pooled.shutdown();
+        }
+    }
+
+    private Thread handlingThread(UpstreamHttpClient client) throws Exception {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + stub.getAddress().getPort() + "/api"))
+                .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                .build();
+        client.sendAsync("stub", request, info -> {
+            thread.set(Thread.currentThread());
+            return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }).get();
+        return thread.get();
+    }
+
+    private UpstreamHttpClient client(int maxAttempts, int failureThreshold, Duration openDuration, Duration requestTimeout) {
+        return new UpstreamHttpClient(meterRegistry, Duration.ofSeconds(2), requestTimeout, maxAttempts,
+                Duration.ofMillis(10), Duration.ofMillis(50), failureThreshold, openDuration, 0);
+    }
+
+    private HttpResponse<String> send(UpstreamHttpClient client, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + stub.getAddress().getPort() + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                .build();
+        return client.sendAsync("stub", request, HttpResponse.BodyHandlers.ofString()).get();
+    }
+}
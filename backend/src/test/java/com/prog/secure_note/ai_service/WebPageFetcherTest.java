@@ -0,0 +1,173 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIWebSearch;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Result pages from a local stub: one quick article, one that never finishes in time, one that isn't HTML, and
+//redirects. The stub is on loopback, so the fetchers of these tests are allowed to reach it.
+class WebPageFetcherTest {
+
+    private static final String ARTICLE = "<!DOCTYPE html><html><head><title>Release</title>"
+                                          + "<style>p { color: red; }</style></head><body>"
+                                          + "<nav><a href=\"/\">Home</a> <a href=\"/news\">News</a></nav>"
+                                          + "<script>if (a < b) { document.write('<p>injected text here</p>'); }</script>"
+                                          + "<article><h1>Version 2</h1>"
+                                          + "<p>Version two of the app was released on the third of March with offline sync.</p>"
+                                          + "<!-- an ad slot <p>hidden</p> -->"
+                                          + "<p>It also adds shared notebooks &amp; a faster search for large accounts.</p>"
+                                          + "<p><a href=\"/a\">Tags</a> <a href=\"/b\">Archive</a> <a href=\"/c\">More from the same author here</a></p>"
+                                          + "</article><footer>Copyright and many words about cookies and privacy policies</footer>"
+                                          + "</body></html>";
+
+    private HttpServer stub;
+    private String base;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newFixedThreadPool(4));
+        stub.createContext("/article", exchange -> respond(exchange, "text/html; charset=utf-8", ARTICLE));
+        stub.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, "text/html", "<p>This page took far too long to arrive for the answer to wait.</p>");
+        });
+        stub.createContext("/file.pdf", exchange -> respond(exchange, "application/pdf", "%PDF-1.4 some words of a pdf file"));
+        stub.createContext("/moved", exchange -> redirect(exchange, "/article"));
+        stub.createContext("/metadata", exchange -> redirect(exchange, "http://169.254.169.254/latest/meta-data/"));
+        stub.createContext("/loop", exchange -> redirect(exchange, "/loop"));
+        stub.start();
+        base = "http://127.0.0.1:" + stub.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void pagesInTimeAreAddedAndTheRestIsLeftOut() {
+        WebPageFetcher fetcher = new WebPageFetcher(new SimpleMeterRegistry(), true, 3,
+                Duration.ofSeconds(3), Duration.ofMillis(1500), 300);
+        allowStub(fetcher);
+        AIWebSearch results = search(base + "/slow", base + "/article", base + "/file.pdf", base + "/article?fourth");
+
+        long start = System.nanoTime();
+        AIWebSearch enriched = fetcher.enrich(results).join();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMs < 3000, "took " + elapsedMs + " ms");
+        assertEquals("URL: " + base + "/article\n"
+                     + "Version two of the app was released on the third of March with offline sync.\n"
+                     + "It also adds shared notebooks & a faster search for large accounts.\n---\n", enriched.getPageExcerpts());
+        assertEquals(results.getCombinedSnippets(), enriched.getCombinedSnippets());
+        fetcher.shutdown();
+    }
+
+    @Test
+    void disabledOrWithoutPagesTheResultsStayAsTheyAre() {
+        WebPageFetcher disabled = new WebPageFetcher(new SimpleMeterRegistry(), false, 3,
+                Duration.ofSeconds(2), Duration.ofSeconds(3), 300);
+        AIWebSearch results = search(base + "/article");
+        assertSame(results, disabled.enrich(results).join());
+
+        WebPageFetcher enabled = new WebPageFetcher(new SimpleMeterRegistry(), true, 3,
+                Duration.ofSeconds(2), Duration.ofMillis(300), 300);
+        allowStub(enabled);
+        assertNull(enabled.enrich(search(base + "/slow")).join().getPageExcerpts());
+        enabled.shutdown();
+    }
+
+    @Test
+    void redirectsAreFollowedAndCheckedLikeTheFirstUrl() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        WebPageFetcher fetcher = new WebPageFetcher(registry, true, 3, Duration.ofSeconds(2), Duration.ofSeconds(2), 300);
+        allowStub(fetcher);
+
+        assertTrue(fetcher.enrich(search(base + "/moved")).join().getPageExcerpts().startsWith("URL: " + base + "/moved\nVersion two"));
+        assertNull(fetcher.enrich(search(base + "/metadata")).join().getPageExcerpts());
+        assertNull(fetcher.enrich(search(base + "/loop")).join().getPageExcerpts());
+        assertEquals(1, registry.get("ai.web-search.pages").tag("result", "blocked").counter().count());
+        fetcher.shutdown();
+    }
+
+    @Test
+    void privateAddressesAreNeverFetched() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        WebPageFetcher fetcher = new WebPageFetcher(registry, true, 3, Duration.ofSeconds(2), Duration.ofSeconds(2), 300);
+
+        assertNull(fetcher.enrich(search(base + "/article", "http://localhost:" + stub.getAddress().getPort() + "/article"))
+                .join().getPageExcerpts());
+        assertEquals(2, registry.get("ai.web-search.pages").tag("result", "blocked").counter().count());
+        fetcher.shutdown();
+    }
+
+    @Test
+    void onlyPublicAddressesAreAllowed() throws Exception {
+        for (String address : List.of("127.0.0.1", "10.1.2.3", "172.16.0.1", "192.168.1.1", "169.254.169.254",
+                "0.0.0.0", "100.64.0.1", "198.18.0.1", "255.255.255.255", "224.0.0.1",
+                "::1", "::", "fe80::1", "fd00::1", "::ffff:127.0.0.1", "::127.0.0.1", "64:ff9b::a9fe:a9fe")) {
+            assertFalse(WebPageFetcher.isPublic(InetAddress.getByName(address)), address);
+        }
+        for (String address : List.of("93.184.216.34", "8.8.8.8", "2606:2800:220:1:248:1893:25c8:1946", "64:ff9b::808:808")) {
+            assertTrue(WebPageFetcher.isPublic(InetAddress.getByName(address)), address);
+        }
+    }
+
+    @Test
+    void extractionStopsAtTheBudget() throws Exception {
+        String page = "<p>" + "Many words in one long paragraph of a page. ".repeat(500) + "</p><p>Never read.</p>";
+
+        String excerpt = HtmlTextExtractor.extract(new StringReader(page), 20);
+
+        assertTrue(TokenEstimator.estimate(excerpt) <= 20, excerpt);
+        assertFalse(excerpt.contains("Never"));
+    }
+
+    private static AIWebSearch search(String... urls) {
+        return AIWebSearch.builder().combinedSnippets("Title: Release\n").sourceUrls(List.of(urls)).build();
+    }
+
+    private static void allowStub(WebPageFetcher fetcher) {
+        fetcher.addressAllowed = address -> address.isLoopbackAddress() || WebPageFetcher.isPublic(address);
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.prog.secure_note.ai_service;
+
+import com.prog.secure_note.model.AIWebSearch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//When answers search the web, and how often they really do.
+class WebSearchTriggersTest {
+
+    private final WebSearchTriggers defaults = new WebSearchTriggers(WebSearchTriggers.DEFAULT_RULES.split(","));
+    private final AtomicInteger searches = new AtomicInteger();
+
+    @Test
+    void defaultRulesMatchLikeTheKeywordList() {
+        assertTrue(defaults.matches("What is the LATEST version of Java?"));
+        assertTrue(defaults.matches("who is the CEO of this company"));
+        assertTrue(defaults.matches("Any news on the merger?"));
+        //Phrases are found inside words too, as with String.contains.
+        assertTrue(defaults.matches("Is the data up to date with recently added notes?"));
+        assertFalse(defaults.matches("Summarise the points of my note"));
+        assertFalse(defaults.matches(null));
+    }
+
+    @Test
+    void plusRulesNeedAllTheirPhrases() {
+        assertTrue(defaults.matches("Which Tom Cruise movies did I list?"));
+        assertFalse(defaults.matches("Did I mention Tom Cruise?"));
+        assertFalse(defaults.matches("Which movies did I list?"));
+    }
+
+    @Test
+    void overlappingPhrasesAreAllFound() {
+        WebSearchTriggers triggers = new WebSearchTriggers(new String[]{"he+she+hers", "ushers+réunion", "  "});
+
+        assertTrue(triggers.matches("ushers"));
+        assertFalse(triggers.matches("she"));
+        assertTrue(triggers.matches("USHERS at the Réunion"));
+        assertFalse(new WebSearchTriggers(new String[0]).matches("latest news"));
+    }
+
+    @Test
+    void cachedResultsAreSharedAcrossSpellingsOfAQuery() {
+        WebSearchCache cache = new WebSearchCache(new SimpleMeterRegistry(), Duration.ofMinutes(5), 10);
+        CompletableFuture<AIWebSearch> pending = new CompletableFuture<>();
+
+        CompletableFuture<AIWebSearch> first = cache.get("Latest Java release?", query -> search(pending));
+        CompletableFuture<AIWebSearch> concurrent = cache.get("latest  java release", query -> search(pending));
+        AIWebSearch results = AIWebSearch.builder().combinedSnippets("Java 25").sourceUrls(List.of()).build();
+        pending.complete(results);
+
+        assertSame(results, first.join());
+        assertSame(results, concurrent.join());
+        assertSame(results, cache.get("LATEST JAVA RELEASE", query -> search(pending)).join());
+        assertEquals(1, searches.get());
+    }
+
+    @Test
+    void failedSearchesAndExpiredResultsAreSearchedAgain() throws Exception {
+        WebSearchCache cache = new WebSearchCache(new SimpleMeterRegistry(), Duration.ofMillis(50), 10);
+        AIWebSearch results = AIWebSearch.builder().combinedSnippets("snippet").sourceUrls(List.of()).build();
+
+        cache.get("news", query -> search(CompletableFuture.completedFuture(null))).join();
+        cache.get("news", query -> search(CompletableFuture.completedFuture(results))).join();
+        Thread.sleep(100);
+        cache.get("news", query -> search(CompletableFuture.completedFuture(results))).join();
+
+        assertEquals(3, searches.get());
+    }
+
+    private CompletableFuture<AIWebSearch> search(CompletableFuture<AIWebSearch> results) {
+        searches.incrementAndGet();
+        return results;
+    }
+}
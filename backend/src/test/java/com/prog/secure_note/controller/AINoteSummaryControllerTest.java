@@ -0,0 +1,166 @@
+package com.prog.secure_note.controller;
+
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSummaryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//Streamed answers as SSE events, with an AI service whose deltas and result the test hands out itself.
+class AINoteSummaryControllerTest {
+
+    private final AIService aiService = mock(AIService.class);
+    private final NoteService noteService = mock(NoteService.class);
+    private final CompletableFuture<AIResponse> result = new CompletableFuture<>();
+    private final AtomicReference<Consumer<String>> onText = new AtomicReference<>();
+    private final RecordingEmitter emitter = new RecordingEmitter();
+    private final Principal alice = () -> "alice";
+    private final AINoteSummaryController controller = new AINoteSummaryController(aiService, noteService, mock(NoteSummaryService.class)) {
+        @Override
+        SseEmitter createEmitter() {
+            return emitter;
+        }
+    };
+
+    @BeforeEach
+    void stubServices() {
+        Note note = new Note();
+        note.setId(7L);
+        note.setContent("content");
+        when(noteService.getNoteByIdForUser(7L, "alice")).thenReturn(note);
+        when(aiService.streamContentAsync(any(), eq("alice"), any(), any())).thenAnswer(invocation -> {
+            onText.set(invocation.getArgument(3));
+            return result;
+        });
+        ReflectionTestUtils.setField(controller, "streamBufferSize", 4);
+    }
+
+    @AfterEach
+    void shutdown() {
+        emitter.unblock();
+        controller.shutdown();
+    }
+
+    @Test
+    void deltasThenDone() {
+        controller.streamSummary(7L, "short", alice);
+
+        onText.get().accept("Hello");
+        onText.get().accept(" world");
+        result.complete(AIResponse.builder().answer("Hello world").operation("summarise").build());
+
+        waitFor(() -> emitter.completed);
+        assertEquals(3, emitter.sent.size());
+        assertEquals("event:delta\ndata:{\"text\":\"Hello\"}\n\n", emitter.sent.get(0));
+        assertEquals("event:delta\ndata:{\"text\":\" world\"}\n\n", emitter.sent.get(1));
+        assertTrue(emitter.sent.get(2).startsWith("event:done\n"), emitter.sent.get(2));
+        assertTrue(emitter.sent.get(2).contains("\"answer\":\"Hello world\""));
+    }
+
+    @Test
+    void deltasThenError() {
+        controller.streamSummary(7L, "short", alice);
+
+        onText.get().accept("Hel");
+        result.completeExceptionally(new IllegalStateException("upstream failed"));
+
+        waitFor(() -> emitter.completed);
+        assertEquals(List.of("event:delta\ndata:{\"text\":\"Hel\"}\n\n",
+                "event:error\ndata:{\"message\":\"upstream failed\"}\n\n"), emitter.sent);
+    }
+
+    @Test
+    void slowClientNeverHoldsTheAiThread() {
+        emitter.block();
+        controller.streamSummary(7L, "short", alice);
+
+        //Would take 50 * 10 s if the deltas were sent on this thread.
+        long started = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            onText.get().accept("delta " + i);
+        }
+        result.complete(AIResponse.builder().answer("done").build());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+
+        //The fifth delta didn't fit the buffer: the client is dropped and gets no more than it was behind.
+        emitter.unblock();
+        waitFor(() -> emitter.completed);
+        assertTrue(emitter.sent.size() <= 5, "sent " + emitter.sent.size());
+        assertFalse(emitter.sent.stream().anyMatch(event -> event.startsWith("event:done")));
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+
+    //Keeps every event as its wire text; block() makes it a client that stops reading.
+    private static final class RecordingEmitter extends SseEmitter {
+        private static final MappingJackson2HttpMessageConverter JSON = new MappingJackson2HttpMessageConverter();
+
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(builder.build().stream().map(part -> part.getData() instanceof String text ? text : json(part.getData()))
+                    .collect(Collectors.joining()));
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void unblock() {
+            blocked.countDown();
+        }
+
+        private static String json(Object value) {
+            try {
+                return JSON.getObjectMapper().writeValueAsString(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
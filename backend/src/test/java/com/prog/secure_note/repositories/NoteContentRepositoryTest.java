@@ -0,0 +1,319 @@
+package com.prog.secure_note.repositories;
+
+import com.prog.secure_note.exception.InvalidRangeException;
+import com.prog.secure_note.exception.NoteTooLargeException;
+import com.prog.secure_note.model.NoteContentRange;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//Against a JdbcTemplate that answers the statements for an older note from one content column, the way MySQL does:
+//SUBSTRING and CHAR_LENGTH count code points, LENGTH and a binary SUBSTRING count bytes. Writes are recorded.
+//Paged notes run against an in-memory note_page table instead.
+class NoteContentRepositoryTest {
+
+    //Two-byte, three-byte and four-byte (surrogate pair) characters, so chars, code points and bytes all differ.
+    private static final String CONTENT = "Grüße aus 東京 😀 und noch etwas Text dahinter.";
+
+    @Test
+    void charRangeOfAnOlderNoteIsReadFromTheColumn() throws Exception {
+        ColumnJdbc jdbc = new ColumnJdbc(CONTENT);
+        NoteContentRepository repository = new NoteContentRepository(jdbc);
+        NoteContentRange range = NoteContentRange.parse("chars=6-17");
+
+        repository.resolveRange(1L, range);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.streamContent(1L, range, out, 4);
+
+        int[] codePoints = CONTENT.codePoints().toArray();
+        assertEquals(codePoints.length, range.getTotal());
+        assertEquals(new String(codePoints, 6, 12), out.toString(StandardCharsets.UTF_8));
+        assertNothingWritten(jdbc);
+    }
+
+    @Test
+    void byteRangeOfAnOlderNoteIsReadFromTheColumn() throws Exception {
+        ColumnJdbc jdbc = new ColumnJdbc(CONTENT);
+        NoteContentRepository repository = new NoteContentRepository(jdbc);
+        NoteContentRange range = NoteContentRange.parse("bytes=-20");
+
+        repository.resolveRange(1L, range);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.streamContent(1L, range, out, 7);
+
+        byte[] bytes = CONTENT.getBytes(StandardCharsets.UTF_8);
+        assertEquals(bytes.length, range.getTotal());
+        assertArrayEquals(Arrays.copyOfRange(bytes, bytes.length - 20, bytes.length), out.toByteArray());
+        assertNothingWritten(jdbc);
+    }
+
+    @Test
+    void wholeOlderNoteIsStreamedFromTheColumnInChunks() throws Exception {
+        ColumnJdbc jdbc = new ColumnJdbc(CONTENT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new NoteContentRepository(jdbc).streamContent(1L, null, out, 8);
+
+        int codePoints = CONTENT.codePointCount(0, CONTENT.length());
+        assertEquals(CONTENT, out.toString(StandardCharsets.UTF_8));
+        //One SUBSTRING per chunk of 8 code points; the short last chunk ends the read.
+        assertEquals((codePoints + 8) / 8, jdbc.substrings);
+        assertNothingWritten(jdbc);
+    }
+
+    @Test
+    void olderNoteIsConvertedToPagesChunkByChunk() {
+        ColumnJdbc jdbc = new ColumnJdbc(CONTENT);
+
+        new NoteContentRepository(jdbc).convertToPages(1L, 5);
+
+        StringBuilder pages = new StringBuilder();
+        for (int i = 0; i < jdbc.statements.size() - 1; i++) {
+            assertTrue(jdbc.statements.get(i).startsWith("INSERT INTO note_page"), jdbc.statements.get(i));
+            String page = (String) jdbc.arguments.get(i)[4];
+            assertTrue(page.codePointCount(0, page.length()) <= 5, page);
+            pages.append(page);
+        }
+        assertEquals(CONTENT, pages.toString());
+        assertEquals("UPDATE note SET content = NULL, paged = TRUE WHERE id = ?", jdbc.statements.get(jdbc.statements.size() - 1));
+    }
+
+    @Test
+    void tooLargeStreamedNoteFailsBeforeTheNoteIsMarkedPaged() {
+        ColumnJdbc jdbc = new ColumnJdbc("");
+        EndlessReader body = new EndlessReader();
+
+        assertThrows(NoteTooLargeException.class, () -> new NoteContentRepository(jdbc).writePages(1L, body, 100, 250));
+
+        //The body is not read much past the limit, and the note is left for the caller's rollback: its old pages
+        //deleted and the first ones written in the same transaction, but never switched to the new content.
+        assertTrue(body.read <= 300, body.read + " chars read");
+        assertEquals("DELETE FROM note_page WHERE note_id = ?", jdbc.statements.get(0));
+        assertEquals(3, jdbc.statements.size(), jdbc.statements.toString());
+        assertFalse(jdbc.statements.stream().anyMatch(sql -> sql.startsWith("UPDATE note ")));
+    }
+
+    @Test
+    void noteOfExactlyMaxCharsIsWritten() {
+        ColumnJdbc jdbc = new ColumnJdbc("");
+
+        long written = new NoteContentRepository(jdbc).writePages(1L, new StringReader("a".repeat(250)), 100, 250);
+
+        assertEquals(250, written);
+        assertEquals(5, jdbc.statements.size(), jdbc.statements.toString());
+        assertEquals("UPDATE note SET content = NULL, paged = TRUE WHERE id = ?", jdbc.statements.get(4));
+    }
+
+    @Test
+    void auditCopyRaisesTheGroupConcatLimitForItsStatementOnly() {
+        ColumnJdbc jdbc = new ColumnJdbc(CONTENT);
+        new NoteContentRepository(jdbc).copyContentToAuditLog(7L, 1L);
+
+        assertEquals(1, jdbc.statements.size());
+        String statement = jdbc.statements.get(0);
+        assertTrue(statement.startsWith("UPDATE /*+ SET_VAR(group_concat_max_len"), statement);
+        assertFalse(jdbc.statements.stream().anyMatch(sql -> sql.contains("SET SESSION")));
+    }
+
+    @Test
+    void charRangeIsTheSameCodePointsPagedOrNot() throws Exception {
+        NoteContentRange columnRange = NoteContentRange.parse("chars=12-20");
+        NoteContentRepository column = new NoteContentRepository(new ColumnJdbc(CONTENT));
+        column.resolveRange(1L, columnRange);
+        ByteArrayOutputStream fromColumn = new ByteArrayOutputStream();
+        column.streamContent(1L, columnRange, fromColumn, 4);
+
+        PageJdbc jdbc = new PageJdbc();
+        NoteContentRepository paged = new NoteContentRepository(jdbc);
+        //Pages of 5 chars, so the emoji ends one page and the pages after it are shifted by one char.
+        long written = paged.writePages(1L, new StringReader(CONTENT), 5, 1000);
+        NoteContentRange pagedRange = NoteContentRange.parse("chars=12-20");
+        paged.resolveRange(1L, pagedRange);
+        ByteArrayOutputStream fromPages = new ByteArrayOutputStream();
+        paged.streamContent(1L, pagedRange, fromPages, 4);
+
+        int[] codePoints = CONTENT.codePoints().toArray();
+        assertEquals(codePoints.length, written);
+        assertEquals(codePoints.length, columnRange.getTotal());
+        assertEquals(codePoints.length, pagedRange.getTotal());
+        assertEquals(new String(codePoints, 12, 9), fromColumn.toString(StandardCharsets.UTF_8));
+        assertEquals(new String(codePoints, 12, 9), fromPages.toString(StandardCharsets.UTF_8));
+        for (Object[] page : jdbc.pages) {
+            String content = (String) page[4];
+            assertEquals(content.codePointCount(0, content.length()), page[2], content);
+        }
+    }
+
+    @Test
+    void regionEditAfterAnEmojiCountsCodePoints() {
+        PageJdbc jdbc = new PageJdbc();
+        NoteContentRepository repository = new NoteContentRepository(jdbc);
+        repository.writePages(1L, new StringReader(CONTENT), 5, 1000);
+        int[] codePoints = CONTENT.codePoints().toArray();
+        //"und" right after "😀 ", in code points.
+        int start = CONTENT.codePointCount(0, CONTENT.indexOf("und"));
+
+        long total = repository.replaceRange(1L, start, start + 3, new StringReader("🎉 plus"), 5, 1000);
+
+        String expected = new String(codePoints, 0, start) + "🎉 plus" + new String(codePoints, start + 3, codePoints.length - start - 3);
+        assertEquals(expected, repository.readAll(1L));
+        assertEquals(expected.codePointCount(0, expected.length()), total);
+        //The emoji is one character: the end of the note is still a valid range end, one past is not.
+        assertThrows(InvalidRangeException.class, () -> repository.replaceRange(1L, total, total + 1, new StringReader(""), 5, 1000));
+    }
+
+    private static void assertNothingWritten(ColumnJdbc jdbc) {
+        assertTrue(jdbc.statements.isEmpty(), "a read wrote " + jdbc.statements);
+    }
+
+    //A request body that never ends.
+    static class EndlessReader extends Reader {
+        long read;
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            Arrays.fill(buffer, offset, offset + length, 'a');
+            read += length;
+            return length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    //The note_page rows of one paged note, each kept as {id, page_order, char_length, byte_length, content}.
+    static class PageJdbc extends JdbcTemplate {
+        final List<Object[]> pages = new ArrayList<>();
+        long nextId = 1;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            if (sql.startsWith("SELECT paged ")) {
+                return (T) Boolean.TRUE;
+            }
+            if (sql.startsWith("SELECT content FROM note_page")) {
+                return (T) page((Long) args[0])[4];
+            }
+            throw new AssertionError("unexpected query " + sql);
+        }
+
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            List<T> rows = new ArrayList<>();
+            List<Object[]> sorted = pages.stream().sorted(Comparator.comparingLong(page -> (Long) page[1])).toList();
+            try {
+                for (Object[] page : sorted) {
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getLong(1)).thenReturn((Long) page[0]);
+                    when(rs.getLong(2)).thenReturn((Long) page[1]);
+                    when(rs.getInt(3)).thenReturn((Integer) page[2]);
+                    when(rs.getInt(4)).thenReturn((Integer) page[3]);
+                    rows.add(rowMapper.mapRow(rs, rows.size()));
+                }
+            } catch (SQLException e) {
+                throw new AssertionError(e);
+            }
+            return rows;
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            if (sql.startsWith("INSERT INTO note_page")) {
+                pages.add(new Object[]{nextId++, args[1], args[2], args[3], args[4]});
+            } else if (sql.startsWith("UPDATE note_page SET content")) {
+                Object[] page = page((Long) args[3]);
+                page[4] = args[0];
+                page[2] = args[1];
+                page[3] = args[2];
+            } else if (sql.startsWith("UPDATE note_page SET page_order")) {
+                for (Object[] page : pages) {
+                    if ((Long) page[1] >= (Long) args[2]) {
+                        page[1] = (Long) page[1] + (Long) args[0];
+                    }
+                }
+            } else if (sql.equals("DELETE FROM note_page WHERE id = ?")) {
+                pages.remove(page((Long) args[0]));
+            } else if (sql.equals("DELETE FROM note_page WHERE note_id = ?")) {
+                pages.clear();
+            }
+            return 1;
+        }
+
+        private Object[] page(long id) {
+            return pages.stream().filter(page -> (Long) page[0] == id).findFirst().orElseThrow();
+        }
+    }
+
+    //The note row of an older note; every update is recorded instead of run.
+    static class ColumnJdbc extends JdbcTemplate {
+        final String content;
+        final List<String> statements = new ArrayList<>();
+        final List<Object[]> arguments = new ArrayList<>();
+        int substrings;
+
+        ColumnJdbc(String content) {
+            this.content = content;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            if (sql.startsWith("SELECT paged ")) {
+                return (T) Boolean.FALSE;
+            }
+            if (sql.contains("CHAR_LENGTH(content)")) {
+                return (T) Long.valueOf(content.codePointCount(0, content.length()));
+            }
+            if (sql.contains("LENGTH(content)")) {
+                return (T) Long.valueOf(content.getBytes(StandardCharsets.UTF_8).length);
+            }
+            substrings++;
+            int from = ((Number) args[0]).intValue() - 1;
+            int length = ((Number) args[1]).intValue();
+            if (sql.contains("CAST(content AS BINARY)")) {
+                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                return (T) Arrays.copyOfRange(bytes, Math.min(from, bytes.length), Math.min(from + length, bytes.length));
+            }
+            if (sql.contains("SUBSTRING(content")) {
+                int[] codePoints = content.codePoints().toArray();
+                int start = Math.min(from, codePoints.length);
+                return (T) new String(codePoints, start, Math.min(length, codePoints.length - start));
+            }
+            throw new AssertionError("unexpected query " + sql);
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            statements.add(sql);
+            arguments.add(args);
+            return 1;
+        }
+
+        @Override
+        public void execute(String sql) {
+            statements.add(sql);
+            arguments.add(new Object[0]);
+        }
+    }
+}
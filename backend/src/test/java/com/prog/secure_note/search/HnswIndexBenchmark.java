@@ -0,0 +1,91 @@
+package com.prog.secure_note.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Top-10 query latency of the HNSW index next to the exact scan it replaces: 128-dimension unit vectors
+//clustered around 200 centers, like embeddings of notes on a limited set of topics. Sampled, so the report has
+//the p99 next to the mean; the budget is p99 in the low milliseconds at 20k notes, well under the full scan.
+//Run with: mvn test-compile, then
+//java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+//     com.prog.secure_note.search.HnswIndexBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 128;
+    private static final int CENTERS = 200;
+    private static final int QUERIES = 256;
+    private static final int K = 10;
+
+    @Param({"20000"})
+    public int notes;
+
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        float[][] centers = new float[CENTERS][];
+        for (int i = 0; i < CENTERS; i++) {
+            centers[i] = randomUnitVector(random, null, 0);
+        }
+        index = new HnswIndex(DIMENSIONS);
+        for (int i = 0; i < notes; i++) {
+            index.addOrUpdate(i, 0, randomUnitVector(random, centers[random.nextInt(CENTERS)], 1.2f));
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = randomUnitVector(random, centers[random.nextInt(CENTERS)], 1.2f);
+        }
+    }
+
+    @Benchmark
+    public HnswIndex.Result hnsw() {
+        return index.search(queries[next++ & (QUERIES - 1)], K, 64, -1);
+    }
+
+    @Benchmark
+    public HnswIndex.Result bruteForce() {
+        return index.bruteForce(queries[next++ & (QUERIES - 1)], K, -1);
+    }
+
+    private static float[] randomUnitVector(Random random, float[] center, float spread) {
+        float[] vector = new float[DIMENSIONS];
+        double norm = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian() * (center == null ? 1 : spread / (float) Math.sqrt(DIMENSIONS))
+                    + (center == null ? 0 : center[i]);
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HnswIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package com.prog.secure_note.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Recall of the HNSW index compared with an exact brute-force scan; the latency is in HnswIndexBenchmark.
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 128;
+    private static final int NOTES = 20_000;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Test
+    void recallAgainstBruteForce() {
+        Random random = new Random(7);
+        float[][] centers = new float[200][];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = randomUnitVector(random, null, 0);
+        }
+        HnswIndex index = new HnswIndex(DIMENSIONS);
+        for (int i = 0; i < NOTES; i++) {
+            index.addOrUpdate(i, 0, randomUnitVector(random, centers[random.nextInt(centers.length)], 1.2f));
+        }
+
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            float[] query = randomUnitVector(random, centers[random.nextInt(centers.length)], 1.2f);
+            HnswIndex.Result approximate = index.search(query, K, 64, -1);
+            HnswIndex.Result exact = index.bruteForce(query, K, -1);
+            for (long id : approximate.noteIds()) {
+                for (long expected : exact.noteIds()) {
+                    if (id == expected) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+        }
+        double recall = (double) found / (QUERIES * K);
+
+        assertTrue(recall >= 0.9, "recall@" + K + " was " + recall);
+    }
+
+    @Test
+    void updatedAndRemovedNotesAreNotReturned() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSIONS);
+        float[] target = randomUnitVector(random, null, 0);
+        for (int i = 0; i < 500; i++) {
+            index.addOrUpdate(i, 0, randomUnitVector(random, null, 0));
+        }
+        index.addOrUpdate(1000, 0, target);
+        index.addOrUpdate(1001, 0, target);
+
+        index.addOrUpdate(1000, 1, randomUnitVector(random, null, 0));
+        index.remove(1001);
+        //A late embedding of an older version or of a removed note is ignored.
+        assertFalse(index.addOrUpdate(1000, 0, target));
+        assertFalse(index.addOrUpdate(1001, 2, target));
+
+        long[] ids = index.search(target, 5, 64, -1).noteIds();
+        assertFalse(Arrays.stream(ids).anyMatch(id -> id == 1000 || id == 1001));
+        assertArrayEquals(index.bruteForce(target, 5, -1).noteIds(), index.compacted().search(target, 5, 64, -1).noteIds());
+    }
+
+    private static float[] randomUnitVector(Random random, float[] center, float spread) {
+        float[] vector = new float[DIMENSIONS];
+        double norm = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian() * (center == null ? 1 : spread / (float) Math.sqrt(DIMENSIONS))
+                    + (center == null ? 0 : center[i]);
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
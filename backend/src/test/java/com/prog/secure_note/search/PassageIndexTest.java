@@ -0,0 +1,46 @@
+package com.prog.secure_note.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//Overlapping passage windows and search over them.
+class PassageIndexTest {
+
+    @Test
+    void windowsOverlapAndKeepTheOriginalSpacing() {
+        String text = "one two  three\nfour five six seven";
+
+        assertEquals(List.of("one two  three\nfour", "three\nfour five six", "five six seven"),
+                PassageIndex.split(text, 4, 2));
+        //The last window ends at the last word, and isn't followed by one that only repeats its overlap.
+        assertEquals(List.of("one two  three", "three\nfour five", "five six seven"), PassageIndex.split(text, 3, 1));
+    }
+
+    @Test
+    void shortAndEmptyTextsMakeAtMostOnePassage() {
+        assertEquals(List.of("just a few words"), PassageIndex.split("  just a few words \n", 120, 20));
+        assertEquals(List.of(), PassageIndex.split("   \n ", 120, 20));
+        assertEquals(List.of(), PassageIndex.split(null, 120, 20));
+        assertThrows(IllegalArgumentException.class, () -> new PassageIndex(20, 20));
+    }
+
+    @Test
+    void searchFindsThePassageAndUpdatesReplaceIt() {
+        PassageIndex index = new PassageIndex(4, 1);
+        index.addOrUpdate(1, "the boiler needs a yearly check before winter starts here");
+        index.addOrUpdate(2, "groceries milk bread eggs");
+
+        assertEquals(1, index.search("boiler", 5).get(0).noteId());
+        assertEquals("the boiler needs a", index.search("boiler", 5).get(0).text());
+
+        index.addOrUpdate(1, "nothing about heating any more");
+        assertEquals(List.of(), index.search("boiler", 5));
+        index.remove(2);
+        assertEquals(List.of(), index.search("milk", 5));
+        assertEquals(2, index.getPassageCount());
+    }
+}
@@ -0,0 +1,110 @@
+package com.prog.secure_note.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Front-coded blocks, skipping of blocks that can't make the top-k, and the order of the results.
+class PrefixSuggesterTest {
+
+    @Test
+    void frontCodingKeepsEveryKeyAndSharesPrefixes() {
+        List<PrefixSuggester.Entry> entries = new ArrayList<>();
+        TreeMap<String, Integer> expected = new TreeMap<>();
+        long rawBytes = 0;
+        //Long shared prefixes, keys that are prefixes of others, and multi-byte characters.
+        for (int i = 0; i < 1000; i++) {
+            String key = "international" + (i % 3 == 0 ? "ität" : "") + "-" + i;
+            entries.add(new PrefixSuggester.Entry(key, i, i));
+            expected.put(key, i);
+            rawBytes += key.getBytes(StandardCharsets.UTF_8).length;
+        }
+        entries.add(new PrefixSuggester.Entry("inter", 5, 1001));
+        expected.put("inter", 5);
+
+        PrefixSuggester suggester = PrefixSuggester.build(entries);
+
+        assertEquals(1001, suggester.size());
+        assertTrue(suggester.memoryBytes() < rawBytes / 2, suggester.memoryBytes() + " bytes for " + rawBytes);
+        //Every key comes back intact with its weight and payload.
+        for (String prefix : List.of("inter", "internationalität-3", "international-10", "international-999")) {
+            for (PrefixSuggester.Match match : suggester.suggest(prefix, 2000)) {
+                assertEquals(expected.get(match.getKey()), match.getWeight(), match.getKey());
+                assertEquals(match.getKey().equals("inter") ? 1001 : match.getWeight(), match.getPayload());
+            }
+        }
+        assertEquals(1001, suggester.suggest("inter", 2000).size());
+        for (String prefix : List.of("international-1", "internationalität-", "internationalität-99")) {
+            List<String> found = suggester.suggest(prefix, 2000).stream().map(PrefixSuggester.Match::getKey).sorted().toList();
+            assertEquals(expected.keySet().stream().filter(key -> key.startsWith(prefix)).toList(), found, prefix);
+        }
+    }
+
+    @Test
+    void topKMatchesABruteForceScanAcrossManyBlocks() {
+        Random random = new Random(7);
+        List<PrefixSuggester.Entry> entries = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String key = randomWord(random);
+            //A few heavy words scattered among many light ones, so most blocks can be skipped.
+            int weight = random.nextInt(50) == 0 ? 1000 + random.nextInt(1000) : random.nextInt(10);
+            entries.add(new PrefixSuggester.Entry(key, weight, i));
+            keys.add(key);
+            weights.add(weight);
+        }
+        PrefixSuggester suggester = PrefixSuggester.build(entries);
+
+        for (String prefix : List.of("a", "b", "ca", "de", "e", "zz", "abc")) {
+            for (int k : new int[]{1, 5, 20}) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < keys.size(); i++) {
+                    if (keys.get(i).startsWith(prefix)) {
+                        expected.add(weights.get(i));
+                    }
+                }
+                expected.sort(Comparator.reverseOrder());
+                List<Integer> actual = suggester.suggest(prefix, k).stream().map(PrefixSuggester.Match::getWeight).toList();
+                assertEquals(expected.subList(0, Math.min(k, expected.size())), actual, prefix + " top " + k);
+            }
+        }
+    }
+
+    @Test
+    void resultsAreBestFirstAndOnlyMatchThePrefix() {
+        PrefixSuggester suggester = PrefixSuggester.build(List.of(
+                new PrefixSuggester.Entry("meeting", 3, 0),
+                new PrefixSuggester.Entry("meet", 9, 0),
+                new PrefixSuggester.Entry("memo", 5, 0),
+                new PrefixSuggester.Entry("melon", 1, 0),
+                new PrefixSuggester.Entry("mad", 20, 0),
+                new PrefixSuggester.Entry("mf", 20, 0)));
+
+        assertEquals(List.of("meet", "memo", "meeting"), keys(suggester.suggest("me", 3)));
+        assertEquals(List.of("meet", "meeting"), keys(suggester.suggest("mee", 10)));
+        assertEquals(List.of(), keys(suggester.suggest("mex", 10)));
+        assertEquals(List.of(), keys(PrefixSuggester.build(List.of()).suggest("me", 10)));
+    }
+
+    private static List<String> keys(List<PrefixSuggester.Match> matches) {
+        return matches.stream().map(PrefixSuggester.Match::getKey).toList();
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 2 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(6)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.prog.secure_note.search;
+
+import com.prog.secure_note.model.NoteSearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Query latency of one user's index: synthetic notes of 200 terms drawn from a Zipf-like vocabulary of 50k words,
+//queried with three terms. Sampled, so the report has the p99 next to the mean; the budget is p99 < 20 ms at 50k notes.
+//Run with: mvn test-compile, then
+//java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)"
+//     com.prog.secure_note.search.UserIndexBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserIndexBenchmark {
+
+    private static final int VOCABULARY = 50_000;
+    private static final int TERMS_PER_NOTE = 200;
+    private static final int QUERIES = 1_024;
+
+    @Param({"50000"})
+    public int notes;
+
+    private UserIndex index;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new UserIndex();
+        StringBuilder text = new StringBuilder();
+        for (int note = 0; note < notes; note++) {
+            text.setLength(0);
+            for (int i = 0; i < TERMS_PER_NOTE; i++) {
+                text.append(word(random)).append(' ');
+            }
+            index.addOrUpdate(note, text.toString(), note);
+        }
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = word(random) + " " + word(random) + " " + word(random);
+        }
+    }
+
+    @Benchmark
+    public List<NoteSearchHit> search() {
+        String query = queries[next++ & (QUERIES - 1)];
+        return index.search(query, 20);
+    }
+
+    //Rank r is drawn with probability ~ 1/r, like words in natural text.
+    private static String word(Random random) {
+        int rank = (int) Math.pow(VOCABULARY, random.nextDouble());
+        return "w" + Integer.toString(rank, 36);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(UserIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,139 @@
+package com.prog.secure_note.search;
+
+import com.prog.secure_note.model.NoteSearchHit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Postings, BM25 ranking, updates and removals, and segment files of the per-user index.
+class UserIndexTest {
+
+    @Test
+    void postingsRoundTripThroughTheVarintCodec() {
+        PostingList list = new PostingList("term");
+        int[] docs = {0, 1, 127, 128, 16_511, 2_000_000};
+        int[] freqs = {1, 300, 2, 127, 128, 1};
+        for (int i = 0; i < docs.length; i++) {
+            list.add(docs[i], freqs[i]);
+        }
+        assertEquals(docs.length, list.docFreq);
+
+        PostingList.Cursor cursor = new PostingList.Cursor(new PostingList(list.term, list.trimmed(), list.lastDoc, list.docFreq));
+        for (int i = 0; i < docs.length; i++) {
+            assertTrue(cursor.next());
+            assertEquals(docs[i], cursor.doc);
+            assertEquals(freqs[i], cursor.freq);
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void rareTermsAndDenserMatchesRankFirst() {
+        UserIndex index = new UserIndex();
+        index.addOrUpdate(1, "budget meeting notes for the quarterly budget", 1);
+        index.addOrUpdate(2, "meeting notes", 2);
+        index.addOrUpdate(3, "a long note about many things, with one meeting mentioned once among the rest", 3);
+        index.addOrUpdate(4, "budget", 4);
+
+        assertEquals(List.of(4L, 1L), noteIds(index.search("budget", 10)));
+        //"budget" is rarer than "meeting", so note 1 wins on the pair; note 3 only matches the common term.
+        List<Long> both = noteIds(index.search("budget meeting", 10));
+        assertEquals(1L, both.get(0));
+        assertEquals(3L, both.get(both.size() - 1));
+        assertEquals(2, index.search("budget meeting", 2).size());
+    }
+
+    @Test
+    void updatedAndRemovedNotesLeaveNoTrace() {
+        UserIndex index = new UserIndex();
+        index.addOrUpdate(1, "alpha beta", 1);
+        index.addOrUpdate(2, "beta gamma", 2);
+        index.addOrUpdate(1, "delta", 3);
+        index.remove(2, 4);
+
+        assertTrue(index.search("alpha", 10).isEmpty());
+        assertTrue(index.search("beta", 10).isEmpty());
+        assertEquals(List.of(1L), noteIds(index.search("delta", 10)));
+        assertEquals(Map.of("delta", 1), vocabulary(index));
+        assertEquals(1, index.getLiveDocCount());
+        assertEquals(4, index.getAppliedChangeSeq());
+        assertNull(index.getTitle(2));
+    }
+
+    @Test
+    void repeatedUpdatesAreCompactedAway() {
+        UserIndex index = new UserIndex();
+        for (int version = 0; version < 1_000; version++) {
+            index.addOrUpdate(version % 10, "note " + (version % 10) + " version" + version, version);
+        }
+        //Only updates, no removals: without compaction on update every old version would stay in the postings.
+        Map<String, Integer> vocabulary = vocabulary(index);
+        assertEquals(10, vocabulary.get("note"));
+        assertEquals(10, vocabulary.keySet().stream().filter(term -> term.startsWith("version")).count());
+        assertEquals(List.of(7L), noteIds(index.search("version997", 10)));
+        assertTrue(index.search("version5", 10).isEmpty());
+    }
+
+    @Test
+    void changesAreStaleByTheNotesOwnSequence() {
+        UserIndex index = new UserIndex(5);
+        index.addOrUpdate(2, "passport renewal", 11);
+
+        //Note 1's change was made before note 2's but arrives after it.
+        assertFalse(index.isApplied(1, 10));
+        index.addOrUpdate(1, "boiler service", 10);
+        assertEquals(List.of(1L), noteIds(index.search("boiler", 10)));
+
+        assertTrue(index.isApplied(2, 11));
+        assertTrue(index.isApplied(3, 5), "the index was built after it");
+        index.remove(2, 12);
+        assertTrue(index.isApplied(2, 11), "the note was removed after it");
+        assertEquals(12, index.getAppliedChangeSeq());
+    }
+
+    @Test
+    void segmentsRoundTripThroughTheStore(@TempDir Path directory) throws Exception {
+        UserIndex index = new UserIndex();
+        index.addOrUpdate(1, "Groceries\nmilk eggs bread", 1);
+        index.addOrUpdate(2, "Trip\npack the passport and the tickets", 2);
+        index.addOrUpdate(3, "Old\nmilk for the trip", 3);
+        index.remove(3, 4);
+
+        SegmentStore store = new SegmentStore(directory);
+        store.save("alice", index);
+        assertFalse(index.isDirty());
+        UserIndex loaded = store.load("alice");
+
+        assertEquals(4, loaded.getAppliedChangeSeq());
+        assertEquals(2, loaded.getLiveDocCount());
+        assertEquals(vocabulary(index), vocabulary(loaded));
+        assertEquals(index.search("milk trip", 10), loaded.search("milk trip", 10));
+        assertEquals("Trip", loaded.getTitle(2));
+        assertTrue(loaded.isApplied(3, 4));
+        assertFalse(loaded.isApplied(1, 2));
+        assertNull(store.load("bob"));
+
+        //A loaded index keeps its live frequencies when a note goes away.
+        loaded.remove(1, 5);
+        assertNull(vocabulary(loaded).get("milk"));
+    }
+
+    private static List<Long> noteIds(List<NoteSearchHit> hits) {
+        return hits.stream().map(NoteSearchHit::getNoteId).toList();
+    }
+
+    private static Map<String, Integer> vocabulary(UserIndex index) {
+        Map<String, Integer> terms = new HashMap<>();
+        index.forEachTerm(terms::put);
+        return terms;
+    }
+}
@@ -0,0 +1,115 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.search.PassageIndex;
+import com.prog.secure_note.service.NoteService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//Packing passages into the token budget, and indexes built per user without blocking anyone.
+class NoteAskServiceImplTest {
+
+    private final AIService aiService = mock(AIService.class);
+    private final NoteService noteService = mock(NoteService.class);
+    private final NoteAskServiceImpl askService = new NoteAskServiceImpl(aiService, noteService);
+
+    @BeforeEach
+    void start() {
+        ReflectionTestUtils.setField(askService, "contextTokenBudget", 1500);
+        ReflectionTestUtils.setField(askService, "maxQuestionTokens", 256);
+        ReflectionTestUtils.setField(askService, "maxPassages", 8);
+        ReflectionTestUtils.setField(askService, "passageWords", 120);
+        ReflectionTestUtils.setField(askService, "passageOverlapWords", 20);
+        ReflectionTestUtils.setField(askService, "maxLoadedUsers", 10);
+        ReflectionTestUtils.setField(askService, "indexerThreads", 2);
+        askService.init();
+    }
+
+    @AfterEach
+    void shutdown() {
+        askService.shutdown();
+    }
+
+    @Test
+    void packingStopsAtMaxPassagesEvenFromOneNote() {
+        List<PassageIndex.Passage> passages = List.of(passage(1, "first"), passage(1, "second"), passage(1, "third"),
+                passage(2, "fourth"));
+
+        NoteAskServiceImpl.Context context = NoteAskServiceImpl.pack(passages, 1000, 2);
+
+        assertEquals(2, context.passages());
+        assertEquals("[1] first\n\n[2] second\n\n", context.text());
+        assertEquals(List.of("1"), context.sources());
+    }
+
+    @Test
+    void passageOverTheBudgetIsSkippedForAShorterOne() {
+        List<PassageIndex.Passage> passages = List.of(passage(1, "short one"), passage(2, "word ".repeat(200)),
+                passage(3, "another short one"));
+
+        NoteAskServiceImpl.Context context = NoteAskServiceImpl.pack(passages, 20, 8);
+
+        assertEquals(2, context.passages());
+        assertEquals("[1] short one\n\n[2] another short one\n\n", context.text());
+        assertEquals(List.of("1", "3"), context.sources());
+    }
+
+    @Test
+    void tooLongQuestionIsRejectedWithTheLimitInTokens() {
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> askService.ask("alice", "why ".repeat(300)));
+
+        assertEquals("Question is too long, keep it under 256 tokens (about one per word or punctuation mark)",
+                error.getMessage());
+    }
+
+    @Test
+    void slowBuildOfOneUserHoldsNoOneElse() throws Exception {
+        CountDownLatch aliceLoading = new CountDownLatch(1);
+        when(noteService.getNotesForUser("alice")).thenAnswer(invocation -> {
+            aliceLoading.await(10, TimeUnit.SECONDS);
+            return List.of(note(1, "the boiler needs a yearly check"));
+        });
+        when(noteService.getNotesForUser("bob")).thenReturn(List.of(note(2, "the boiler is in the basement")));
+        when(aiService.processContentAsync(any(), eq("alice"), any()))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("alice").build()));
+        when(aiService.processContentAsync(any(), eq("bob"), any()))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("bob").build()));
+
+        CompletableFuture<AIResponse> alice = askService.ask("alice", "Where is the boiler?");
+        AIResponse bob = askService.ask("bob", "Where is the boiler?").get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("2"), bob.getSources());
+        assertFalse(alice.isDone());
+        aliceLoading.countDown();
+        assertEquals(List.of("1"), alice.get(5, TimeUnit.SECONDS).getSources());
+    }
+
+    private static PassageIndex.Passage passage(long noteId, String text) {
+        return new PassageIndex.Passage(noteId, text, 1);
+    }
+
+    private static Note note(long id, String content) {
+        Note note = new Note();
+        note.setId(id);
+        note.setContent(content);
+        return note;
+    }
+}
@@ -0,0 +1,139 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIPriority;
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIBatchRequest;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.service.NoteService;
+import com.prog.secure_note.service.NoteSummaryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NoteBatchServiceImplTest {
+
+    private final AIService aiService = mock(AIService.class);
+    private final NoteService noteService = mock(NoteService.class);
+    private final NoteSummaryService noteSummaryService = mock(NoteSummaryService.class);
+    private final NoteBatchServiceImpl batchService = new NoteBatchServiceImpl(aiService, noteService, noteSummaryService);
+
+    private final List<CompletableFuture<AIResponse>> inFlight = new ArrayList<>();
+    private final Map<Long, AIResponse> results = new ConcurrentHashMap<>();
+    private final Map<Long, String> errors = new ConcurrentHashMap<>();
+
+    @Test
+    void fansOutWithBoundedParallelismAndReportsEveryNote() {
+        ReflectionTestUtils.setField(batchService, "maxParallel", 2);
+        ReflectionTestUtils.setField(batchService, "maxNotes", 500);
+        when(noteService.getNotesByIdsForUser(anyList(), eq("alice"))).thenReturn(List.of(note(1), note(2), note(3), note(4)));
+        when(aiService.processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.INTERACTIVE))).thenAnswer(invocation -> {
+            CompletableFuture<AIResponse> call = new CompletableFuture<>();
+            inFlight.add(call);
+            return call;
+        });
+
+        AIBatchRequest request = new AIBatchRequest();
+        request.setOperation("read");
+        request.setNoteIds(List.of(1L, 2L, 99L, 3L, 4L));
+        CompletableFuture<Void> done = batchService.process("alice", request, results::put, errors::put);
+
+        //Note 99 isn't the user's; of the others only two are in flight at once.
+        assertEquals(Map.of(99L, "Note not found or access denied"), errors);
+        assertEquals(2, inFlight.size());
+        inFlight.get(0).complete(AIResponse.builder().answer("one").build());
+        assertEquals(3, inFlight.size());
+        inFlight.get(1).completeExceptionally(new IllegalStateException("upstream down"));
+        inFlight.get(2).complete(AIResponse.builder().answer("three").build());
+        assertFalse(done.isDone());
+        inFlight.get(3).complete(AIResponse.builder().answer("four").build());
+
+        assertTrue(done.isDone());
+        assertEquals("one", results.get(1L).getAnswer());
+        assertEquals("upstream down", errors.get(2L));
+        assertEquals(3, results.size());
+        verify(noteService).getNotesByIdsForUser(List.of(1L, 2L, 99L, 3L, 4L), "alice");
+    }
+
+    @Test
+    void summariesGoThroughTheStoredSummaries() {
+        ReflectionTestUtils.setField(batchService, "maxParallel", 4);
+        ReflectionTestUtils.setField(batchService, "maxNotes", 500);
+        Note note = note(7);
+        when(noteService.getNotesByIdsForUser(anyList(), eq("alice"))).thenReturn(List.of(note));
+        when(noteSummaryService.summarize(note, "short"))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("stored").build()));
+
+        AIBatchRequest request = new AIBatchRequest();
+        request.setOperation("summarise");
+        request.setSummaryLength("short");
+        request.setNoteIds(List.of(7L));
+        batchService.process("alice", request, results::put, errors::put).join();
+
+        assertEquals("stored", results.get(7L).getAnswer());
+    }
+
+    @Test
+    void notesAnsweredSynchronouslyDontDeepenTheStack() {
+        ReflectionTestUtils.setField(batchService, "maxParallel", 1);
+        ReflectionTestUtils.setField(batchService, "maxNotes", 500);
+        List<Note> notes = new ArrayList<>();
+        List<Long> noteIds = new ArrayList<>();
+        for (long id = 1; id <= 500; id++) {
+            notes.add(note(id));
+            noteIds.add(id);
+        }
+        when(noteService.getNotesByIdsForUser(anyList(), eq("alice"))).thenReturn(notes);
+        when(noteSummaryService.summarize(any(Note.class), eq("short")))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("stored").build()));
+        List<Integer> depths = new ArrayList<>();
+
+        AIBatchRequest request = new AIBatchRequest();
+        request.setOperation("summarise");
+        request.setSummaryLength("short");
+        request.setNoteIds(noteIds);
+        batchService.process("alice", request, (noteId, response) -> {
+            results.put(noteId, response);
+            depths.add(Thread.currentThread().getStackTrace().length);
+        }, errors::put).join();
+
+        assertEquals(500, results.size());
+        //All notes are started by the one loop, not each from the completion of the one before.
+        IntSummaryStatistics depth = depths.stream().mapToInt(Integer::intValue).summaryStatistics();
+        assertTrue(depth.getMax() - depth.getMin() < 20, depth.toString());
+    }
+
+    @Test
+    void rejectsOperationsThatAreNotPerNote() {
+        AIBatchRequest request = new AIBatchRequest();
+        request.setOperation("similar");
+        request.setNoteIds(List.of(1L));
+        assertThrows(IllegalArgumentException.class, () -> batchService.process("alice", request, results::put, errors::put));
+    }
+
+    private static Note note(long id) {
+        Note note = new Note();
+        note.setId(id);
+        note.setOwnerUsername("alice");
+        note.setContent("content " + id);
+        return note;
+    }
+}
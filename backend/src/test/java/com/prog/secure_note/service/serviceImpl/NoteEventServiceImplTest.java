@@ -0,0 +1,145 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Fan-out of note changes to the SSE sessions of their owner, with emitters that record what they are sent.
+class NoteEventServiceImplTest {
+
+    private final List<RecordingEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final NoteEventServiceImpl eventService = new NoteEventServiceImpl() {
+        @Override
+        SseEmitter createEmitter() {
+            RecordingEmitter emitter = new RecordingEmitter();
+            emitters.add(emitter);
+            return emitter;
+        }
+    };
+
+    @AfterEach
+    void shutdown() {
+        eventService.shutdown();
+    }
+
+    @Test
+    void changesReachEverySessionOfTheOwnerOnly() {
+        start(4, 60_000);
+        eventService.subscribe("alice");
+        eventService.subscribe("alice");
+        eventService.subscribe("bob");
+
+        eventService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 7L, 3, 42));
+
+        waitFor(() -> emitters.get(0).sent.size() == 2 && emitters.get(1).sent.size() == 2);
+        for (RecordingEmitter alice : emitters.subList(0, 2)) {
+            assertTrue(alice.sent.get(0).contains("event:connected"));
+            assertTrue(alice.sent.get(1).contains("event:note-change"), alice.sent.get(1));
+            assertTrue(alice.sent.get(1).contains("id:42"));
+            assertTrue(alice.sent.get(1).contains("\"noteId\":7"));
+        }
+        assertEquals(List.of("event:connected\ndata:ok\n\n"), emitters.get(2).sent);
+        assertEquals(3, eventService.getSubscriberCount());
+    }
+
+    @Test
+    void idleSessionsGetHeartbeats() {
+        start(4, 50);
+        eventService.subscribe("alice");
+
+        waitFor(() -> emitters.get(0).sent.stream().filter(event -> event.contains(":heartbeat")).count() >= 2);
+    }
+
+    @Test
+    void slowSessionIsDroppedWithoutHoldingUpTheOthers() throws Exception {
+        start(2, 60_000);
+        eventService.subscribe("alice");
+        eventService.subscribe("alice");
+        RecordingEmitter slow = emitters.get(0);
+        RecordingEmitter fast = emitters.get(1);
+        waitFor(() -> slow.sent.size() == 1 && fast.sent.size() == 1);
+        slow.block();
+
+        //One event in flight to the stuck client and two in its buffer, the fourth doesn't fit.
+        for (int i = 0; i < 10; i++) {
+            eventService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 7L, i, i));
+            int received = i + 2;
+            waitFor(() -> fast.sent.size() == received);
+        }
+
+        assertTrue(slow.completed);
+        assertEquals(1, eventService.getSubscriberCount());
+        slow.unblock();
+    }
+
+    private void start(int bufferSize, long heartbeatMs) {
+        ReflectionTestUtils.setField(eventService, "bufferSize", bufferSize);
+        ReflectionTestUtils.setField(eventService, "heartbeatMs", heartbeatMs);
+        ReflectionTestUtils.setField(eventService, "emitterTimeoutMs", 60_000L);
+        eventService.startHeartbeat();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+
+    //Keeps every event as its wire text; block() makes it a client that stops reading.
+    private static final class RecordingEmitter extends SseEmitter {
+        private static final MappingJackson2HttpMessageConverter JSON = new MappingJackson2HttpMessageConverter();
+
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(builder.build().stream().map(part -> part.getData() instanceof String text ? text : json(part.getData()))
+                    .collect(Collectors.joining()));
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void unblock() {
+            blocked.countDown();
+        }
+
+        private static String json(Object value) {
+            try {
+                return JSON.getObjectMapper().writeValueAsString(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSearchHit;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteRepository;
+import com.prog.secure_note.service.NoteService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+//Change events applied to the index of a user, in whatever order their commits sent them.
+class NoteSearchServiceImplTest {
+
+    private final NoteService noteService = mock(NoteService.class);
+    private final NoteChangeRepository noteChangeRepository = mock(NoteChangeRepository.class);
+    private final NoteSearchServiceImpl searchService = new NoteSearchServiceImpl(noteService, mock(NoteRepository.class),
+            noteChangeRepository, mock(ApplicationEventPublisher.class));
+
+    @BeforeEach
+    void start(@TempDir Path indexDir) throws Exception {
+        ReflectionTestUtils.setField(searchService, "indexDir", indexDir.toString());
+        ReflectionTestUtils.setField(searchService, "maxLoadedUsers", 10);
+        ReflectionTestUtils.setField(searchService, "flushMs", 60_000L);
+        searchService.init();
+    }
+
+    @AfterEach
+    void shutdown() throws Exception {
+        searchService.shutdown();
+    }
+
+    @Test
+    void changeOfOneNoteArrivingAfterALaterChangeOfAnotherIsStillApplied() {
+        when(noteChangeRepository.findMaxChangeSeq("alice")).thenReturn(9L);
+        when(noteService.getNotesForUser("alice")).thenReturn(List.of());
+        when(noteService.getNoteByIdForUser(1L, "alice")).thenReturn(note(1, "boiler service booked"));
+        when(noteService.getNoteByIdForUser(2L, "alice")).thenReturn(note(2, "passport renewal"));
+
+        //Note 2 was written after note 1, but its commit listener ran first.
+        searchService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.CREATED, 2L, 1, 11));
+        searchService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.CREATED, 1L, 1, 10));
+
+        waitFor(() -> !searchService.search("alice", "boiler", 10).isEmpty());
+        assertEquals(List.of(1L), noteIds(searchService.search("alice", "boiler", 10)));
+        assertEquals(List.of(2L), noteIds(searchService.search("alice", "passport", 10)));
+    }
+
+    @Test
+    void changeOlderThanTheNotesLatestIsSkipped() throws Exception {
+        when(noteChangeRepository.findMaxChangeSeq("alice")).thenReturn(9L);
+        when(noteService.getNotesForUser("alice")).thenReturn(List.of(note(1, "boiler service booked")));
+        when(noteService.getNoteByIdForUser(1L, "alice")).thenReturn(note(1, "boiler service booked"));
+        assertEquals(1, searchService.search("alice", "boiler", 10).size());
+
+        //The removal was at 12, a late update of 8 must not bring the note back.
+        searchService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.DELETED, 1L, 2, 12));
+        searchService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 1, 8));
+        searchService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 1, 11));
+
+        //Waits for the indexer to apply or skip all three.
+        searchService.shutdown();
+        assertTrue(searchService.getIndex("alice").isApplied(1L, 11));
+        assertTrue(searchService.search("alice", "boiler", 10).isEmpty());
+    }
+
+    private static Note note(long id, String content) {
+        Note note = new Note();
+        note.setId(id);
+        note.setOwnerUsername("alice");
+        note.setContent(content);
+        return note;
+    }
+
+    private static List<Long> noteIds(List<NoteSearchHit> hits) {
+        return hits.stream().map(NoteSearchHit::getNoteId).toList();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.exception.NoteTooLargeException;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChange;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteContentRange;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteContentRepository;
+import com.prog.secure_note.repositories.NoteRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+//Change events and change numbering of note writes, also by someone other than the owner, such as an admin,
+//ranged reads that stay reads, streamed notes over the size limit, and slow uploads next to other writes.
+@ExtendWith(MockitoExtension.class)
+class NoteServiceImplTest {
+
+    @Mock
+    private NoteRepository noteRepository;
+    @Mock
+    private NoteChangeRepository noteChangeRepository;
+    @Mock
+    private NoteContentRepository noteContentRepository;
+    @Mock
+    private AuditLogService auditLogService;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @InjectMocks
+    private NoteServiceImpl noteService;
+
+    @Test
+    void updateByAnotherUserIsRoutedToTheOwner() {
+        Note note = note();
+        when(noteRepository.findById(7L)).thenReturn(Optional.of(note));
+        when(noteRepository.save(note)).thenReturn(note);
+        when(noteChangeRepository.save(any(NoteChange.class))).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        noteService.updateNoteForUser(7L, "edited", "admin");
+
+        NoteChangeEvent event = publishedEvent();
+        assertEquals("alice", event.getUsername());
+        assertEquals(NoteChangeType.UPDATED, event.getType());
+    }
+
+    @Test
+    void deleteByAnotherUserIsRoutedToTheOwner() {
+        when(noteRepository.findById(7L)).thenReturn(Optional.of(note()));
+        when(noteChangeRepository.save(any(NoteChange.class))).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        noteService.deleteNoteForUser(7L, "admin");
+
+        NoteChangeEvent event = publishedEvent();
+        assertEquals("alice", event.getUsername());
+        assertEquals(NoteChangeType.DELETED, event.getType());
+    }
+
+    @Test
+    void rangedReadNeverConvertsTheNote() {
+        when(noteRepository.existsByIdAndOwnerUsername(7L, "alice")).thenReturn(true);
+        NoteContentRange range = NoteContentRange.parse("chars=0-99");
+
+        noteService.prepareContentRange(7L, "alice", range);
+
+        verify(noteContentRepository).resolveRange(7L, range);
+        verify(noteContentRepository, never()).convertToPages(anyLong(), anyInt());
+    }
+
+    @Test
+    void changeIsNumberedOnlyAfterTheOwnersLockIsHeld() {
+        Note note = note();
+        when(noteRepository.findById(7L)).thenReturn(Optional.of(note));
+        when(noteRepository.save(note)).thenReturn(note);
+        when(noteChangeRepository.save(any(NoteChange.class))).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        noteService.updateNoteForUser(7L, "edited", "admin");
+
+        InOrder order = inOrder(noteChangeRepository, noteRepository);
+        order.verify(noteRepository).lockNote(7L);
+        order.verify(noteChangeRepository).lockChangeSequence("alice");
+        order.verify(noteChangeRepository).save(any(NoteChange.class));
+        order.verify(noteRepository).save(note);
+    }
+
+    @Test
+    void tooLargeStreamedNoteFailsBeforeItIsAuditedOrAnnounced() {
+        when(noteRepository.save(any(Note.class))).thenAnswer(invocation -> {
+            Note saved = invocation.getArgument(0);
+            saved.setId(7L);
+            return saved;
+        });
+        Reader body = new StringReader("too long");
+        when(noteContentRepository.writePages(eq(7L), eq(body), anyInt(), anyLong()))
+                .thenThrow(new NoteTooLargeException("Note is larger than the allowed 4 characters"));
+
+        //The exception rolls the transaction back, the note row and change included, and answers 413.
+        assertThrows(NoteTooLargeException.class, () -> noteService.createNoteForUser("alice", body));
+        verifyNoInteractions(noteChangeRepository, auditLogService, eventPublisher);
+    }
+
+    @Test
+    void slowUploadDoesNotHoldUpTheUsersOtherWrites() throws Exception {
+        //The owner's row lock, held by a write until it "commits" (returns), with a lock wait timeout.
+        ReentrantLock ownerLock = new ReentrantLock();
+        when(noteChangeRepository.lockChangeSequence("alice")).thenAnswer(invocation -> {
+            if (!ownerLock.tryLock(1, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Lock wait timeout exceeded");
+            }
+            return List.of(1L);
+        });
+        when(noteChangeRepository.save(any(NoteChange.class))).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+        Note other = note();
+        when(noteRepository.findById(7L)).thenReturn(Optional.of(other));
+        when(noteRepository.save(any(Note.class))).thenAnswer(invocation -> {
+            Note saved = invocation.getArgument(0);
+            if (saved.getId() == null) {
+                saved.setId(8L);
+            }
+            return saved;
+        });
+        CountDownLatch uploading = new CountDownLatch(1);
+        CountDownLatch bodyArrives = new CountDownLatch(1);
+        Reader slowBody = new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                uploading.countDown();
+                try {
+                    bodyArrives.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        when(noteContentRepository.writePages(eq(8L), eq(slowBody), anyInt(), anyLong())).thenAnswer(invocation -> {
+            slowBody.read(new char[1], 0, 1);
+            return 0L;
+        });
+
+        CompletableFuture<Note> upload = CompletableFuture.supplyAsync(() -> committed(ownerLock,
+                () -> noteService.createNoteForUser("alice", slowBody)));
+        assertTrue(uploading.await(5, TimeUnit.SECONDS));
+        //An autosave of another note while the upload is still being read.
+        committed(ownerLock, () -> noteService.updateNoteForUser(7L, "edited", "alice"));
+        bodyArrives.countDown();
+
+        assertEquals(8L, upload.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    private NoteChangeEvent publishedEvent() {
+        ArgumentCaptor<NoteChangeEvent> event = ArgumentCaptor.forClass(NoteChangeEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        return event.getValue();
+    }
+
+    //Runs a write and releases the owner's lock afterwards, like its commit would.
+    private static <T> T committed(ReentrantLock ownerLock, Supplier<T> write) {
+        try {
+            return write.get();
+        } finally {
+            while (ownerLock.isHeldByCurrentThread()) {
+                ownerLock.unlock();
+            }
+        }
+    }
+
+    private static Note note() {
+        Note note = new Note();
+        note.setId(7L);
+        note.setOwnerUsername("alice");
+        note.setContent("content");
+        note.setVersion(1);
+        return note;
+    }
+
+    private static NoteChange withId(NoteChange change) {
+        change.setId(100L);
+        return change;
+    }
+}
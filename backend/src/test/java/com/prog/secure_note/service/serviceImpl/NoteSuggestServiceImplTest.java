@@ -0,0 +1,133 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.NoteIndexUpdatedEvent;
+import com.prog.secure_note.model.NoteSuggestion;
+import com.prog.secure_note.search.UserIndex;
+import com.prog.secure_note.service.NoteSearchService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+//Suggestions built in the background and kept up to date change by change, over a real index.
+class NoteSuggestServiceImplTest {
+
+    private final UserIndex index = spy(new UserIndex());
+    private final NoteSearchService noteSearchService = mock(NoteSearchService.class);
+    private final NoteSuggestServiceImpl suggestService = new NoteSuggestServiceImpl(noteSearchService);
+
+    NoteSuggestServiceImplTest() {
+        when(noteSearchService.getIndex("alice")).thenReturn(index);
+        ReflectionTestUtils.setField(suggestService, "maxCacheBytes", 1L << 20);
+        index.addOrUpdate(1, "Budget planning\nbudget for the offsite", 1);
+        index.addOrUpdate(2, "Meeting notes\nthe budget was approved", 2);
+    }
+
+    @AfterEach
+    void shutdown() {
+        suggestService.shutdown();
+    }
+
+    @Test
+    void firstRequestDoesNotWaitForTheBuild() throws Exception {
+        //The index takes as long to load as the test wants.
+        CountDownLatch loaded = new CountDownLatch(1);
+        when(noteSearchService.getIndex("alice")).thenAnswer(invocation -> {
+            loaded.await(5, TimeUnit.SECONDS);
+            return index;
+        });
+
+        assertEquals(List.of(), suggestService.suggest("alice", "bud", 5));
+        verify(index, times(0)).forEachTerm(any());
+        loaded.countDown();
+
+        waitFor(() -> !suggestService.suggest("alice", "bud", 5).isEmpty());
+        List<NoteSuggestion> suggestions = suggestService.suggest("alice", "bud", 5);
+        assertEquals("Budget planning", suggestions.get(0).getText());
+        assertEquals("budget", suggestions.get(1).getText());
+    }
+
+    @Test
+    void changesAreAppliedWithoutARebuild() {
+        built();
+        clearInvocations(noteSearchService);
+
+        change(3, index.addOrUpdate(3, "Offsite agenda\nbudgeting and bus tickets", 3));
+        change(2, index.remove(2, 4));
+        change(1, index.addOrUpdate(1, "Travel plans\ntrains to the offsite", 5));
+
+        //"budget" was in notes 1 and 2 only, "meeting" in note 2: both are gone.
+        assertEquals(List.of("Offsite agenda", "offsite"), texts(suggestService.suggest("alice", "off", 5)));
+        assertEquals(List.of("budgeting"), texts(suggestService.suggest("alice", "budget", 5)));
+        assertEquals(List.of(), texts(suggestService.suggest("alice", "meet", 5)));
+        assertEquals(Set.of("Travel plans", "travel", "trains"), Set.copyOf(texts(suggestService.suggest("alice", "tra", 5))));
+        verify(index, times(1)).forEachTerm(any());
+        //Everything came from the events, the index was never asked on a keystroke.
+        verifyNoInteractions(noteSearchService);
+    }
+
+    @Test
+    void manyChangesRebuildInTheBackground() {
+        built();
+
+        for (int i = 0; i < 300; i++) {
+            change(100 + i, index.addOrUpdate(100 + i, "Note " + i + "\nword" + i, 10 + i));
+        }
+
+        //Rebuilt once enough changes piled up, not once per change.
+        waitFor(() -> builds() >= 2);
+        assertTrue(builds() <= 5, builds() + " builds");
+        assertEquals(List.of("word299"), texts(suggestService.suggest("alice", "word299", 5)));
+        assertEquals(List.of("Note 250"), texts(suggestService.suggest("alice", "note 250", 5)));
+    }
+
+    private void built() {
+        suggestService.suggest("alice", "bud", 5);
+        waitFor(() -> !suggestService.suggest("alice", "bud", 5).isEmpty());
+    }
+
+    //The event the search service publishes after the change.
+    private void change(long noteId, Set<String> changedTerms) {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (String term : changedTerms) {
+            docFreqs.put(term, index.getDocFreq(term));
+        }
+        suggestService.onIndexUpdated(new NoteIndexUpdatedEvent("alice", noteId, index.getTitle(noteId), docFreqs));
+    }
+
+    private long builds() {
+        return mockingDetails(index).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("forEachTerm")).count();
+    }
+
+    private static List<String> texts(List<NoteSuggestion> suggestions) {
+        return suggestions.stream().map(NoteSuggestion::getText).toList();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.ai_service.AIPriority;
+import com.prog.secure_note.ai_service.AIService;
+import com.prog.secure_note.model.AIRequest;
+import com.prog.secure_note.model.AIResponse;
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChangeEvent;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSummary;
+import com.prog.secure_note.repositories.NoteSummaryRepository;
+import com.prog.secure_note.service.NoteService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NoteSummaryServiceImplTest {
+
+    private final AIService aiService = mock(AIService.class);
+    private final NoteService noteService = mock(NoteService.class);
+    private final NoteSummaryRepository repository = mock(NoteSummaryRepository.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final NoteSummaryServiceImpl summaryService = new NoteSummaryServiceImpl(aiService, noteService, repository, registry);
+
+    @AfterEach
+    void shutdown() {
+        summaryService.shutdown();
+    }
+
+    @Test
+    void storedSummaryIsOnlyServedForTheVersionItWasMadeFrom() {
+        start(false, 0, 1, 1, 10);
+        when(repository.findByNoteIdAndSummaryLength(1L, "medium")).thenReturn(Optional.of(summary(1L, 3, "stored")));
+        when(aiService.processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.INTERACTIVE)))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("fresh").build()));
+
+        assertEquals("stored", summaryService.summarize(note(1, 3), "medium").join().getAnswer());
+        assertEquals("fresh", summaryService.summarize(note(1, 4), "medium").join().getAnswer());
+
+        assertEquals(1, registry.counter("ai.summary.served", "source", "stored").count());
+        assertEquals(1, registry.counter("ai.summary.served", "source", "generated").count());
+        verify(repository).save(any(NoteSummary.class));
+    }
+
+    @Test
+    void burstOfSavesIsSummarizedOnce() {
+        start(true, 100, 1, 1, 10);
+        when(noteService.getNoteByIdForUser(1L, "alice")).thenReturn(note(1, 5));
+        when(aiService.processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.BACKGROUND)))
+                .thenReturn(CompletableFuture.completedFuture(AIResponse.builder().answer("summary").build()));
+
+        for (int version = 1; version <= 5; version++) {
+            summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, version, version));
+        }
+
+        verify(aiService, timeout(2000)).processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.BACKGROUND));
+        waitFor(() -> registry.counter("ai.summary.precompute.completed").count() == 1);
+        verify(aiService).processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.BACKGROUND));
+    }
+
+    @Test
+    void notesBeyondThePendingLimitOrTheQueueAreDropped() throws Exception {
+        start(true, 0, 1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<AIResponse> blocked = new CompletableFuture<>();
+        when(noteService.getNoteByIdForUser(anyLong(), eq("alice"))).thenAnswer(invocation -> note(invocation.getArgument(0), 1));
+        when(aiService.processContentAsync(any(AIRequest.class), eq("alice"), eq(AIPriority.BACKGROUND))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return blocked;
+        });
+
+        //Note 1 occupies the only worker, note 2 the only queue slot, note 3 has nowhere to go.
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 1, 1));
+        waitFor(() -> registry.get("ai.summary.precompute.active").gauge().value() == 1);
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 2L, 1, 2));
+        waitFor(() -> registry.get("ai.summary.precompute.queued").gauge().value() == 1);
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 3L, 1, 3));
+        waitFor(() -> registry.counter("ai.summary.precompute.dropped").count() == 1);
+
+        assertEquals(1, registry.counter("ai.summary.precompute.dropped").count());
+        release.countDown();
+        blocked.complete(AIResponse.builder().answer("summary").build());
+        waitFor(() -> registry.counter("ai.summary.precompute.completed").count() == 2);
+    }
+
+    @Test
+    void pendingLimitDropsNewNotesButNotRepeatedSaves() {
+        start(true, 60_000, 1, 1, 10);
+        ReflectionTestUtils.setField(summaryService, "maxPending", 1);
+
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 1, 1));
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 2, 2));
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 2L, 1, 3));
+
+        assertEquals(1, registry.get("ai.summary.precompute.pending").gauge().value());
+        assertEquals(1, registry.counter("ai.summary.precompute.dropped").count());
+    }
+
+    @Test
+    void deletedNoteCancelsItsSummaryAndDropsTheStoredOnes() throws Exception {
+        start(true, 100, 1, 1, 10);
+
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.UPDATED, 1L, 1, 1));
+        summaryService.onNoteChange(new NoteChangeEvent("alice", NoteChangeType.DELETED, 1L, 1, 2));
+        Thread.sleep(300);
+
+        verify(repository).deleteByNoteId(1L);
+        verify(noteService, never()).getNoteByIdForUser(anyLong(), any());
+        assertEquals(0, registry.get("ai.summary.precompute.pending").gauge().value());
+    }
+
+    private void start(boolean precompute, long debounceMs, int concurrency, int queueSize, int maxPending) {
+        ReflectionTestUtils.setField(summaryService, "precomputeEnabled", precompute);
+        ReflectionTestUtils.setField(summaryService, "precomputeLength", "medium");
+        ReflectionTestUtils.setField(summaryService, "debounceMs", debounceMs);
+        ReflectionTestUtils.setField(summaryService, "concurrency", concurrency);
+        ReflectionTestUtils.setField(summaryService, "queueSize", queueSize);
+        ReflectionTestUtils.setField(summaryService, "maxPending", maxPending);
+        summaryService.init();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
+    }
+
+    private static Note note(long id, long version) {
+        Note note = new Note();
+        note.setId(id);
+        note.setVersion(version);
+        note.setOwnerUsername("alice");
+        note.setContent("content of note " + id);
+        return note;
+    }
+
+    private static NoteSummary summary(Long noteId, long version, String text) {
+        NoteSummary summary = new NoteSummary();
+        summary.setId(10L);
+        summary.setNoteId(noteId);
+        summary.setSummaryLength("medium");
+        summary.setNoteVersion(version);
+        summary.setSummary(text);
+        return summary;
+    }
+}
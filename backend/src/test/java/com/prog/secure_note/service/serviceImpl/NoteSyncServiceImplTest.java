@@ -0,0 +1,92 @@
+package com.prog.secure_note.service.serviceImpl;
+
+import com.prog.secure_note.model.Note;
+import com.prog.secure_note.model.NoteChange;
+import com.prog.secure_note.model.NoteChangeType;
+import com.prog.secure_note.model.NoteSyncResponse;
+import com.prog.secure_note.repositories.NoteChangeRepository;
+import com.prog.secure_note.repositories.NoteRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NoteSyncServiceImplTest {
+
+    private final NoteRepository noteRepository = mock(NoteRepository.class);
+    private final NoteChangeRepository noteChangeRepository = mock(NoteChangeRepository.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final NoteSyncServiceImpl syncService = new NoteSyncServiceImpl(noteRepository, noteChangeRepository, transactionTemplate);
+
+    @Test
+    void upsertsAndTombstonesAreMergedInSequenceOrder() {
+        when(noteRepository.findByOwnerUsernameAndChangeSeqGreaterThanOrderByChangeSeqAsc("alice", 10L, PageRequest.of(0, 3)))
+                .thenReturn(List.of(note(1, 11), note(2, 14)));
+        when(noteChangeRepository.findByOwnerUsernameAndChangeTypeAndIdGreaterThanOrderByIdAsc("alice", NoteChangeType.DELETED, 10L, PageRequest.of(0, 3)))
+                .thenReturn(List.of(tombstone(3, 12), tombstone(4, 13)));
+
+        NoteSyncResponse response = syncService.getChangesSince("alice", 10, 2);
+
+        //The page stops at 12, the note changed at 14 and the tombstone at 13 come with the next one.
+        assertEquals(List.of(1L), response.getUpserts().stream().map(Note::getId).toList());
+        assertEquals(List.of(3L), response.getDeletedNoteIds());
+        assertEquals(12, response.getCursor());
+        assertTrue(response.isHasMore());
+    }
+
+    @Test
+    void emptyPageKeepsTheCursor() {
+        NoteSyncResponse response = syncService.getChangesSince("alice", 42, 100);
+
+        assertTrue(response.getUpserts().isEmpty());
+        assertTrue(response.getDeletedNoteIds().isEmpty());
+        assertEquals(42, response.getCursor());
+        assertFalse(response.isHasMore());
+        assertThrows(IllegalArgumentException.class, () -> syncService.getChangesSince("alice", -1, 100));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backfillNumbersNotesUnderTheOwnersLock() {
+        Note old = note(5, 0);
+        old.setChangeSeq(null);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                ((TransactionCallback<List<Note>>) invocation.getArgument(0)).doInTransaction(null));
+        when(noteRepository.findByChangeSeqIsNull(any())).thenReturn(List.of(old));
+        when(noteChangeRepository.save(any(NoteChange.class))).thenReturn(tombstone(5, 77));
+
+        syncService.backfillChangeSequence();
+
+        assertEquals(77L, old.getChangeSeq());
+        InOrder order = inOrder(noteRepository, noteChangeRepository);
+        order.verify(noteRepository).lockNote(5L);
+        order.verify(noteChangeRepository).lockChangeSequence("alice");
+        order.verify(noteChangeRepository).save(any(NoteChange.class));
+    }
+
+    private static Note note(long id, long changeSeq) {
+        Note note = new Note();
+        note.setId(id);
+        note.setOwnerUsername("alice");
+        note.setChangeSeq(changeSeq);
+        return note;
+    }
+
+    private static NoteChange tombstone(long noteId, long seq) {
+        NoteChange change = new NoteChange(noteId, "alice", NoteChangeType.DELETED);
+        change.setId(seq);
+        return change;
+    }
+}